@@ -34,6 +34,9 @@ import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -84,11 +87,22 @@ abstract class MultipleGradientPaintContext implements PaintContext {
          32, 0xff0000, 0xFF00, 0xFF, 0xFF000000,
          false, DataBuffer.TYPE_INT);
 
-     /** The cached colorModel */
-    protected static ColorModel cachedModel;
+    /**
+     * The raster each thread keeps for reuse among instances, held
+     * as a <code>CachedRaster</code>.
+     */
+    private static final ThreadLocal cachedRaster = new ThreadLocal();
 
-    /** The cached raster, which is reusable among instances */
-    protected static WeakReference cached;
+    /** Most recently used gradient tables, keyed by <code>LutKey</code>. */
+    private static final LinkedHashMap lutCache =
+        new LinkedHashMap(16, .75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > LUT_CACHE_SIZE;
+            }
+        };
+
+    /** Number of gradient tables kept in <code>lutCache</code>. */
+    private static final int LUT_CACHE_SIZE = 64;
 
     /** Raster is reused whenever possible */
     protected WritableRaster saved;
@@ -294,7 +308,21 @@ abstract class MultipleGradientPaintContext implements PaintContext {
             throw new IllegalArgumentException
                 ("Unsupported ColorSpace for interpolation");
 
-        calculateGradientFractions(loColors, hiColors);
+        LutKey key = new LutKey(fractions, colors, cycleMethod, colorSpace,
+                                dataModel);
+        Lut lut;
+        synchronized (lutCache) {
+            lut = (Lut)lutCache.get(key);
+        }
+        if (lut == null) {
+            calculateGradientFractions(loColors, hiColors);
+            lut = new Lut(this);
+            synchronized (lutCache) {
+                lutCache.put(key, lut);
+            }
+        } else {
+            lut.apply(this);
+        }
 
         model = GraphicsUtil.coerceColorModel(dataModel,
                                               cm.isAlphaPremultiplied());
@@ -1404,24 +1432,23 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                                        int x, int y, int w, int h);
 
 
-    /** Took this cacheRaster code from GradientPaint. It appears to recycle
-     * rasters for use by any other instance, as long as they are sufficiently
-     * large.
+    /**
+     * Returns a raster for <code>cm</code> at least <code>w</code> by
+     * <code>h</code> pixels, reusing the one released last by this
+     * thread when it is large enough.
      */
-    protected static final
-    synchronized WritableRaster getCachedRaster
+    protected static final WritableRaster getCachedRaster
         (ColorModel cm, int w, int h) {
-        if (cm == cachedModel) {
-            if (cached != null) {
-                WritableRaster ras = (WritableRaster) cached.get();
-                if (ras != null &&
-                    ras.getWidth() >= w &&
-                    ras.getHeight() >= h)
-                    {
-                        cached = null;
-                        return ras;
-                    }
-            }
+        CachedRaster c = (CachedRaster)cachedRaster.get();
+        if ((c != null) && (c.cm == cm)) {
+            WritableRaster ras = (WritableRaster)c.ras.get();
+            if (ras != null &&
+                ras.getWidth() >= w &&
+                ras.getHeight() >= h)
+                {
+                    cachedRaster.set(null);
+                    return ras;
+                }
         }
         // Don't create rediculously small rasters...
         if (w<32) w=32;
@@ -1429,15 +1456,15 @@ abstract class MultipleGradientPaintContext implements PaintContext {
         return cm.createCompatibleWritableRaster(w, h);
     }
 
-    /** Took this cacheRaster code from GradientPaint. It appears to recycle
-     * rasters for use by any other instance, as long as they are sufficiently
-     * large.
+    /**
+     * Offers <code>ras</code> for reuse by this thread, it is kept
+     * unless the thread already holds a larger raster.
      */
-    protected static final
-    synchronized void putCachedRaster(ColorModel cm,
-                                             WritableRaster ras) {
-        if (cached != null) {
-            WritableRaster cras = (WritableRaster) cached.get();
+    protected static final void putCachedRaster(ColorModel cm,
+                                                WritableRaster ras) {
+        CachedRaster c = (CachedRaster)cachedRaster.get();
+        if (c != null) {
+            WritableRaster cras = (WritableRaster) c.ras.get();
             if (cras != null) {
                 int cw = cras.getWidth();
                 int ch = cras.getHeight();
@@ -1451,8 +1478,100 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                 }
             }
         }
-        cachedModel = cm;
-        cached = new WeakReference(ras);
+        cachedRaster.set(new CachedRaster(cm, ras));
+    }
+
+    /**
+     * A raster released for reuse, along with its color model.
+     */
+    private static final class CachedRaster {
+        final ColorModel cm;
+        final WeakReference ras;
+        CachedRaster(ColorModel cm, WritableRaster ras) {
+            this.cm  = cm;
+            this.ras = new WeakReference(ras);
+        }
+    }
+
+    /**
+     * The output of <code>calculateGradientFractions</code>, shared
+     * by all the contexts painting the same gradient.  The arrays are
+     * never modified once built.
+     */
+    private static final class Lut {
+        final ColorModel dataModel;
+        final boolean isSimpleLookup, hasDiscontinuity;
+        final int fastGradientArraySize, gradientAverage, gradientsLength;
+        final int[] gradient;
+        final int[][] gradients;
+
+        Lut(MultipleGradientPaintContext ctx) {
+            dataModel             = ctx.dataModel;
+            isSimpleLookup        = ctx.isSimpleLookup;
+            hasDiscontinuity      = ctx.hasDiscontinuity;
+            fastGradientArraySize = ctx.fastGradientArraySize;
+            gradientAverage       = ctx.gradientAverage;
+            gradientsLength       = ctx.gradientsLength;
+            gradient              = ctx.gradient;
+            gradients             = ctx.gradients;
+        }
+
+        void apply(MultipleGradientPaintContext ctx) {
+            ctx.dataModel             = dataModel;
+            ctx.isSimpleLookup        = isSimpleLookup;
+            ctx.hasDiscontinuity      = hasDiscontinuity;
+            ctx.fastGradientArraySize = fastGradientArraySize;
+            ctx.gradientAverage       = gradientAverage;
+            ctx.gradientsLength       = gradientsLength;
+            ctx.gradient              = gradient;
+            ctx.gradients             = gradients;
+        }
+    }
+
+    /**
+     * Everything the gradient tables depend on: the stops, the cycle
+     * method, the interpolation color space and the color space the
+     * data is generated in.
+     */
+    private static final class LutKey {
+        final float[] fractions;
+        final int[] colors;
+        final Object cycleMethod, colorSpace, dataSpace;
+        final int hash;
+
+        LutKey(float[] fractions, Color[] colors,
+               Object cycleMethod, Object colorSpace,
+               ColorModel dataModel) {
+            this.fractions   = (float[])fractions.clone();
+            this.colors      = new int[colors.length];
+            for (int i = 0; i < colors.length; i++)
+                this.colors[i] = colors[i].getRGB();
+            this.cycleMethod = cycleMethod;
+            this.colorSpace  = colorSpace;
+            this.dataSpace   = dataModel.getColorSpace();
+
+            int h = Arrays.hashCode(this.fractions);
+            h = h*31 + Arrays.hashCode(this.colors);
+            h = h*31 + cycleMethod.hashCode();
+            h = h*31 + colorSpace.hashCode();
+            this.hash = h*31 + dataSpace.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof LutKey))
+                return false;
+            LutKey k = (LutKey)o;
+            return (hash == k.hash) &&
+                (cycleMethod == k.cycleMethod) &&
+                (colorSpace  == k.colorSpace)  &&
+                (dataSpace   == k.dataSpace)   &&
+                Arrays.equals(fractions, k.fractions) &&
+                Arrays.equals(colors,    k.colors);
+        }
     }
 
     /**
@@ -1460,7 +1579,7 @@ abstract class MultipleGradientPaintContext implements PaintContext {
      */
     public final void dispose() {
         if (saved != null) {
-            putCachedRaster(model, saved);
+            putCachedRaster(dataModel, saved);
             saved = null;
         }
     }
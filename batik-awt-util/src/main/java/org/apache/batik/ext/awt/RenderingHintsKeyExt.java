@@ -77,9 +77,21 @@ public final class RenderingHintsKeyExt {
     public static final Object VALUE_AVOID_TILE_PAINTING_OFF = new Object();
     public static final Object VALUE_AVOID_TILE_PAINTING_DEFAULT = new Object();
 
+    /**
+     * Hint that shapes may be painted with a simplified outline when
+     * their vertices are closer to each other than a fraction of a
+     * device pixel.  Speeds up the rendering of detailed shapes at
+     * small scales, such as map overviews and thumbnails.
+     */
+    public static final RenderingHints.Key KEY_SHAPE_SIMPLIFICATION;
+
+    public static final Object VALUE_SHAPE_SIMPLIFICATION_ON = new Object();
+    public static final Object VALUE_SHAPE_SIMPLIFICATION_OFF = new Object();
+
     static {
         int base = 10100;
         RenderingHints.Key trans=null, aoi=null, bi=null, cs=null, atp=null;
+        RenderingHints.Key ss=null;
         while (true) {
             int val = base;
 
@@ -89,6 +101,7 @@ public final class RenderingHintsKeyExt {
                 bi    = new BufferedImageHintKey (val++);
                 cs    = new ColorSpaceHintKey    (val++);
                 atp   = new AvoidTilingHintKey   (val++);
+                ss    = new ShapeSimplificationHintKey(val++);
             } catch (Exception e) {
                 System.err.println
                     ("You have loaded the Batik jar files more than once\n" +
@@ -106,6 +119,7 @@ public final class RenderingHintsKeyExt {
         KEY_BUFFERED_IMAGE      = bi;
         KEY_COLORSPACE          = cs;
         KEY_AVOID_TILE_PAINTING = atp;
+        KEY_SHAPE_SIMPLIFICATION = ss;
     }
 
     /**
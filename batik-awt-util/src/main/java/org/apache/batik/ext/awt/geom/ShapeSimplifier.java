@@ -0,0 +1,263 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.geom;
+
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+
+/**
+ * Simplifies the outline of a shape to a given tolerance, using the
+ * Douglas-Peucker algorithm on the flattened outline.  Used to render
+ * shapes whose vertices are much closer to each other than a device
+ * pixel.
+ *
+ * @version $Id$
+ */
+public final class ShapeSimplifier {
+
+    /**
+     * The number of segments under which shapes are not simplified.
+     */
+    public static final int MIN_POINTS = 32;
+
+    private ShapeSimplifier() { }
+
+    /**
+     * Returns an outline that does not deviate from the given shape by
+     * more than <code>tolerance</code>, or the shape itself if
+     * simplifying it does not remove enough segments to be worth it.
+     * Closed subpaths that would collapse to fewer than three points
+     * are kept as they are, so that small parts of the shape still
+     * cover their pixels.
+     */
+    public static Shape simplify(Shape s, double tolerance) {
+        int segments = 0;
+        PathIterator pi = s.getPathIterator(null);
+        while (!pi.isDone()) {
+            segments++;
+            pi.next();
+        }
+        if (segments < MIN_POINTS) {
+            return s;
+        }
+
+        pi = s.getPathIterator(null, tolerance);
+        GeneralPath gp = new GeneralPath(pi.getWindingRule());
+        Simplifier simplifier = new Simplifier(gp, tolerance);
+        double[] coords = new double[6];
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(coords)) {
+            case PathIterator.SEG_MOVETO:
+                simplifier.moveTo(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_LINETO:
+                simplifier.addPoint(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_CLOSE:
+                simplifier.endSubpath(true);
+                break;
+            }
+            pi.next();
+        }
+        simplifier.endSubpath(false);
+
+        if (simplifier.pointsOut * 4 > segments * 3) {
+            return s;
+        }
+        return gp;
+    }
+
+    /**
+     * Accumulates the points of a subpath and appends the simplified
+     * subpath to a GeneralPath.
+     */
+    private static class Simplifier {
+        final GeneralPath path;
+        final double tolerance2;
+        double[] pts = new double[64];
+        boolean[] keep = new boolean[32];
+        int[] stack = new int[32];
+        int count;
+        double startX, startY;
+        boolean afterClose;
+        int pointsOut;
+
+        Simplifier(GeneralPath path, double tolerance) {
+            this.path = path;
+            this.tolerance2 = tolerance * tolerance;
+        }
+
+        void moveTo(double x, double y) {
+            endSubpath(false);
+            afterClose = false;
+            addPoint(x, y);
+        }
+
+        void addPoint(double x, double y) {
+            if (afterClose) {
+                // A segment that follows a close starts at the
+                // beginning of the closed subpath.
+                afterClose = false;
+                addPoint(startX, startY);
+            }
+            if (count == 0) {
+                startX = x;
+                startY = y;
+            }
+            int i = count * 2;
+            if (i == pts.length) {
+                double[] t = new double[i * 2];
+                System.arraycopy(pts, 0, t, 0, i);
+                pts = t;
+            }
+            pts[i] = x;
+            pts[i + 1] = y;
+            count++;
+        }
+
+        void endSubpath(boolean close) {
+            if (count == 0) {
+                return;
+            }
+            if (keep.length < count + 1) {
+                keep = new boolean[count + 1];
+            }
+            int n = count;
+            if (close) {
+                // Append the start point so the closing segment is
+                // simplified too.
+                if (pts[n * 2 - 2] != startX || pts[n * 2 - 1] != startY) {
+                    addPoint(startX, startY);
+                    n = count;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                keep[i] = false;
+            }
+            keep[0] = true;
+            keep[n - 1] = true;
+
+            if (close && n > 2) {
+                // The ends coincide, so split the ring at the point
+                // farthest from its start.
+                int far = 0;
+                double max = -1;
+                for (int i = 1; i < n - 1; i++) {
+                    double dx = pts[i * 2] - startX;
+                    double dy = pts[i * 2 + 1] - startY;
+                    double d = dx * dx + dy * dy;
+                    if (d > max) {
+                        max = d;
+                        far = i;
+                    }
+                }
+                keep[far] = true;
+                simplify(0, far);
+                simplify(far, n - 1);
+            } else {
+                simplify(0, n - 1);
+            }
+
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (keep[i]) kept++;
+            }
+            if (close && kept < 4) {
+                // Would collapse, keep the original ring.
+                for (int i = 0; i < n; i++) {
+                    keep[i] = true;
+                }
+            }
+
+            int last = close ? n - 1 : n;
+            for (int i = 0; i < last; i++) {
+                if (!keep[i]) continue;
+                float x = (float) pts[i * 2];
+                float y = (float) pts[i * 2 + 1];
+                if (i == 0) {
+                    path.moveTo(x, y);
+                } else {
+                    path.lineTo(x, y);
+                }
+                pointsOut++;
+            }
+            if (close) {
+                path.closePath();
+            }
+            count = 0;
+            afterClose = close;
+        }
+
+        /**
+         * Marks the points to keep between first and last, which are
+         * kept.
+         */
+        void simplify(int first, int last) {
+            int sp = 0;
+            push(sp++, first, last);
+            while (sp > 0) {
+                sp--;
+                int a = stack[sp * 2];
+                int b = stack[sp * 2 + 1];
+                if (b - a < 2) continue;
+                double ax = pts[a * 2], ay = pts[a * 2 + 1];
+                double bx = pts[b * 2], by = pts[b * 2 + 1];
+                double dx = bx - ax, dy = by - ay;
+                double len2 = dx * dx + dy * dy;
+                int far = -1;
+                double max = tolerance2;
+                for (int i = a + 1; i < b; i++) {
+                    double px = pts[i * 2] - ax;
+                    double py = pts[i * 2 + 1] - ay;
+                    double d;
+                    double t = len2 == 0 ? 0 : (px * dx + py * dy) / len2;
+                    if (t <= 0) {
+                        d = px * px + py * py;
+                    } else if (t >= 1) {
+                        double qx = px - dx, qy = py - dy;
+                        d = qx * qx + qy * qy;
+                    } else {
+                        double qx = px - t * dx, qy = py - t * dy;
+                        d = qx * qx + qy * qy;
+                    }
+                    if (d > max) {
+                        max = d;
+                        far = i;
+                    }
+                }
+                if (far != -1) {
+                    keep[far] = true;
+                    push(sp++, a, far);
+                    push(sp++, far, b);
+                }
+            }
+        }
+
+        void push(int sp, int a, int b) {
+            if (stack.length < sp * 2 + 2) {
+                int[] t = new int[stack.length * 2];
+                System.arraycopy(stack, 0, t, 0, stack.length);
+                stack = t;
+            }
+            stack[sp * 2] = a;
+            stack[sp * 2 + 1] = b;
+        }
+    }
+}
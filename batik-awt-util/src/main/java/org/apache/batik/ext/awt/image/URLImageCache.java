@@ -19,6 +19,14 @@
 
 package org.apache.batik.ext.awt.image;
 
+import java.awt.Dimension;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.util.ParsedURL;
 import org.apache.batik.util.SoftReferenceCache;
@@ -36,6 +44,11 @@ import org.apache.batik.util.SoftReferenceCache;
  *   If someone requests a ParsedURL after it has been added but before it has
  *   been put they will be blocked until the put.
  * </p>
+ * <p>
+ *   Images decoded at a reduced resolution are cached separately from
+ *   the full resolution image, keyed by the size they were decoded
+ *   for.
+ * </p>
  *
  * @author <a href="mailto:thomas.deweese@kodak.com">Thomas DeWeese</a>
  * @version $Id$
@@ -46,6 +59,11 @@ public class URLImageCache extends SoftReferenceCache {
 
     public static URLImageCache getDefaultCache() { return theCache; }
 
+    /**
+     * The images whose decode was cancelled, never kept in the cache.
+     */
+    private final Map cancelled = new WeakHashMap();
+
     /**
      * Let people create there own caches.
      */
@@ -87,7 +105,39 @@ public class URLImageCache extends SoftReferenceCache {
      * if you didn't indend to get on it.
      */
     public synchronized void clear(ParsedURL purl) {
-        super.clearImpl(purl);
+        // Drop the reduced resolution variants too, along with the
+        // content entries that hold the same images.
+        List keys = new ArrayList();
+        List images = new ArrayList();
+        Iterator i = map.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            Object k = e.getKey();
+            Object base = (k instanceof SizedKey) ? ((SizedKey)k).base : k;
+            if (base.equals(purl)) {
+                keys.add(k);
+                Object img = get((Reference)e.getValue());
+                if (img != null) images.add(img);
+            }
+        }
+        if (!images.isEmpty()) {
+            i = map.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry e = (Map.Entry)i.next();
+                Object k = e.getKey();
+                Object base = (k instanceof SizedKey) ? ((SizedKey)k).base : k;
+                if ((base instanceof ContentKey) &&
+                    images.contains(get((Reference)e.getValue())))
+                    keys.add(k);
+            }
+        }
+        i = keys.iterator();
+        while (i.hasNext())
+            super.clearImpl(i.next());
+    }
+
+    private static Object get(Reference ref) {
+        return (ref == null) ? null : ref.get();
     }
 
     /**
@@ -98,6 +148,136 @@ public class URLImageCache extends SoftReferenceCache {
      * for it, so in that case we will do nothing.
      */
     public synchronized void put(ParsedURL purl, Filter filt) {
-        super.putImpl(purl, filt);
+        putFilter(purl, filt);
+    }
+
+    /**
+     * Check if <code>request(url, size)</code> will return immediately
+     * with the Filter.
+     */
+    public synchronized boolean isDone(ParsedURL purl, Dimension size) {
+        return super.isDoneImpl(getKey(purl, size));
+    }
+
+    /**
+     * Like <code>request(url)</code> but for the variant of the image
+     * decoded for <code>size</code>.  A null size designates the
+     * full resolution image.
+     */
+    public synchronized Filter request(ParsedURL purl, Dimension size) {
+        return (Filter)super.requestImpl(getKey(purl, size));
+    }
+
+    /**
+     * Associate filt with the variant of purl decoded for
+     * <code>size</code>.
+     */
+    public synchronized void put(ParsedURL purl, Dimension size,
+                                 Filter filt) {
+        putFilter(getKey(purl, size), filt);
+    }
+
+    /**
+     * Like <code>request(url, size)</code> but for an image known by
+     * a digest of its encoded data, so identical images referenced
+     * through different URLs are only decoded once.
+     */
+    public synchronized Filter requestContent(String digest,
+                                              Dimension size) {
+        return (Filter)super.requestImpl(getKey(new ContentKey(digest),
+                                                size));
+    }
+
+    /**
+     * Clear the entry for the image with the given digest.
+     */
+    public synchronized void clearContent(String digest, Dimension size) {
+        super.clearImpl(getKey(new ContentKey(digest), size));
+    }
+
+    /**
+     * Associate filt with the image with the given digest.
+     */
+    public synchronized void putContent(String digest, Dimension size,
+                                        Filter filt) {
+        putFilter(getKey(new ContentKey(digest), size), filt);
+    }
+
+    /**
+     * Removes the given image from the cache, and keeps it from being
+     * put in it later, because its decode was cancelled.  The image
+     * may be put by the thread that requested it before or after the
+     * decode is cancelled.
+     */
+    public synchronized void cancel(Filter filt) {
+        cancelled.put(filt, Boolean.TRUE);
+        List keys = new ArrayList();
+        Iterator i = map.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            if (get((Reference)e.getValue()) == filt)
+                keys.add(e.getKey());
+        }
+        i = keys.iterator();
+        while (i.hasNext())
+            super.clearImpl(i.next());
+    }
+
+    private void putFilter(Object key, Filter filt) {
+        if (cancelled.containsKey(filt))
+            // Get off the hook, the image is no good.
+            super.clearImpl(key);
+        else
+            super.putImpl(key, filt);
+    }
+
+    private static Object getKey(Object base, Dimension size) {
+        if (size == null) return base;
+        return new SizedKey(base, size.width, size.height);
+    }
+
+    /**
+     * The key of a reduced resolution image.
+     */
+    private static class SizedKey {
+        final Object base;
+        final int width, height;
+
+        SizedKey(Object base, int width, int height) {
+            this.base   = base;
+            this.width  = width;
+            this.height = height;
+        }
+
+        public int hashCode() {
+            return base.hashCode() ^ (width*31 + height);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof SizedKey)) return false;
+            SizedKey k = (SizedKey)o;
+            return (width == k.width) && (height == k.height) &&
+                base.equals(k.base);
+        }
+    }
+
+    /**
+     * The key of an image known by its content.
+     */
+    private static class ContentKey {
+        final String digest;
+
+        ContentKey(String digest) {
+            this.digest = digest;
+        }
+
+        public int hashCode() {
+            return digest.hashCode();
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof ContentKey) &&
+                digest.equals(((ContentKey)o).digest);
+        }
     }
 }
@@ -23,6 +23,7 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
 
 /**
  * Default BumpMap implementation.
@@ -70,6 +71,36 @@ public final class BumpMap {
         return surfaceScale;
     }
 
+    /**
+     * Returns the bounds of the texture data needed to compute the
+     * normals of the given region, or null if the region does not
+     * touch the texture.
+     */
+    public Rectangle getSupportBounds(int x, int y, int w, int h) {
+        Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
+        Rectangle srcBound = new Rectangle
+            (texture.getMinX(), texture.getMinY(),
+             texture.getWidth(), texture.getHeight());
+        if ( ! srcRect.intersects(srcBound) )
+            return null;
+        return srcRect.intersection(srcBound);
+    }
+
+    /**
+     * Fetches the texture data needed to compute the normals of the
+     * given region.  The result can be shared by several threads
+     * calling {@link #getNormals} on sub regions of this region.
+     *
+     * @return the texture data, or null if the region does not touch
+     *         the texture.
+     */
+    public Raster getSupportData(int x, int y, int w, int h) {
+        Rectangle srcRect = getSupportBounds(x, y, w, h);
+        if (srcRect == null)
+            return null;
+        return texture.getData(srcRect);
+    }
+
     /**
      * @param x x-axis coordinate for which the normal is computed
      * @param y y-axis coordinate for which the normal is computed
@@ -79,415 +110,202 @@ public final class BumpMap {
          final int w, final int h)
     {
         final double[][][] N = new double[h][w][4];
-
-        Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
-        Rectangle srcBound = new Rectangle
-            (texture.getMinX(), texture.getMinY(),
-             texture.getWidth(), texture.getHeight());
-
-        if ( ! srcRect.intersects(srcBound) )
+        final int sz = w*h;
+        if (sz <= 0)
             return N;
 
-        srcRect = srcRect.intersection(srcBound);
-        final Raster r = texture.getData(srcRect);
-
-        srcRect = r.getBounds();
-
-        // System.out.println("SrcRect: " + srcRect);
-        // System.out.println("rect: [" +
-        //                    x + ", " + y + ", " +
-        //                    w + ", " + h + "]");
-
-        final DataBufferInt db = (DataBufferInt)r.getDataBuffer();
+        final float[] buf =
+            getNormals(getSupportData(x, y, w, h), x, y, w, h, null);
+        int k = 0;
+        for (int i=0; i<h; i++) {
+            final double [][] NRow = N[i];
+            for (int j=0; j<w; j++, k++) {
+                final double [] n = NRow[j];
+                n[0] = buf[k];
+                n[1] = buf[k+sz];
+                n[2] = buf[k+2*sz];
+                n[3] = buf[k+3*sz];
+            }
+        }
+        return N;
+    }
 
+    /**
+     * Computes the normals of a region into a planar buffer.  For
+     * <code>n = w*h</code> the buffer holds the x components of the
+     * normals in <code>[0, n)</code>, the y components in
+     * <code>[n, 2n)</code>, the z components in <code>[2n, 3n)</code>
+     * and the surface elevations in <code>[3n, 4n)</code>, each plane
+     * in scanline order.  Pixels outside the texture get all zero
+     * entries.
+     *
+     * @param support texture data as returned by
+     *        <code>getSupportData</code> for this region or any region
+     *        containing it (may be null).
+     * @param buf the buffer to fill in, if null or smaller than
+     *        <code>4*w*h</code> a new one is allocated.
+     * @return the filled in buffer.
+     */
+    public float[] getNormals(Raster support,
+                              final int x, final int y,
+                              final int w, final int h,
+                              float[] buf) {
+        final int sz = w*h;
+        if ((buf == null) || (buf.length < 4*sz))
+            buf = new float[4*sz];
+        Arrays.fill(buf, 0, 4*sz, 0f);
+        if ((sz <= 0) || (support == null))
+            return buf;
+
+        final Rectangle texRect = new Rectangle
+            (texture.getMinX(), texture.getMinY(),
+             texture.getWidth(), texture.getHeight());
+        final Rectangle dstRect =
+            new Rectangle(x, y, w, h).intersection(texRect);
+        if (dstRect.isEmpty())
+            return buf;
 
+        final DataBufferInt db = (DataBufferInt)support.getDataBuffer();
         final int[] pixels = db.getBankData()[0];
 
         final SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)r.getSampleModel();
-
+        sppsm = (SinglePixelPackedSampleModel)support.getSampleModel();
 
         final int scanStride = sppsm.getScanlineStride();
-        final int scanStridePP = scanStride + 1;
-        final int scanStrideMM = scanStride - 1;
-        double prpc=0, prcc=0, prnc=0;
-        double crpc=0, crcc=0, crnc=0;
-        double nrpc=0, nrcc=0, nrnc=0;
-        double invNorm;
-
-        final double quarterSurfaceScaleX = surfaceScaleX / 4f;
-        final double quarterSurfaceScaleY = surfaceScaleY / 4f;
-        final double halfSurfaceScaleX = surfaceScaleX / 2f;
-        final double halfSurfaceScaleY = surfaceScaleY /2;
-        final double thirdSurfaceScaleX = surfaceScaleX / 3f;
-        final double thirdSurfaceScaleY = surfaceScaleY / 3f;
-        final double twoThirdSurfaceScaleX = surfaceScaleX * 2 / 3f;
-        final double twoThirdSurfaceScaleY = surfaceScaleY * 2 / 3f;
-
-        final double pixelScale = 1.0/255;
-
-        if(w <= 0)
-            return N;
-        // Process pixels on the border
-        if(h <= 0)
-            return N;
-
-        final int xEnd   = Math.min(srcRect.x+srcRect.width -1, x+w);
-        final int yEnd   = Math.min(srcRect.y+srcRect.height-1, y+h);
         final int offset =
             (db.getOffset() +
-             sppsm.getOffset(srcRect.x -r.getSampleModelTranslateX(),
-                             srcRect.y -r.getSampleModelTranslateY()));
+             sppsm.getOffset(dstRect.x-support.getSampleModelTranslateX(),
+                             dstRect.y-support.getSampleModelTranslateY()));
 
-        int yloc=y;
-        if (yloc < srcRect.y) {
-            yloc = srcRect.y;
-        }
-
-        // Top edge extend filters...
-        if (yloc == srcRect.y) {
-            if (yloc == yEnd) {
-                // Only one row of pixels...
-                final double [][] NRow = N[yloc-y];
-                int xloc=x;
-                if (xloc < srcRect.x)
-                    xloc = srcRect.x;
-                int p  = (offset + (xloc-srcRect.x) +
-                          scanStride*(yloc-srcRect.y));
-
-                crcc = (pixels[p] >>> 24)*pixelScale;
-
-                if (xloc != srcRect.x) {
-                    crpc = (pixels[p - 1] >>> 24)*pixelScale;
-                }
-                else if (xloc < xEnd) {
-                    // Top left pixel, in src (0, 0);
-                    crnc = (pixels[p+1] >>> 24)*pixelScale;
-
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crcc - crnc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
-                    p++;
-                    xloc++;
-                    crpc = crcc;
-                    crcc = crnc;
-                } else {
-                    // Single pix.
-                    crpc = crcc;
-                }
-
-                for (; xloc<xEnd; xloc++) {
-                    // Middle Top row...
-                    crnc = (pixels[p+1] >>> 24)*pixelScale;
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = surfaceScaleX * (crpc - crnc );
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
-                    p++;
-                    crpc = crcc;
-                    crcc = crnc;
-                }
-
-                if ((xloc < x+w) &&
-                    (xloc == srcRect.x+srcRect.width-1)) {
-                    // Last pixel of top row
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crpc - crcc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                    n[0] *= invNorm;
-                    n[1] *= invNorm;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
-                }
-                return N;
-            }
-
-            final double [][] NRow = N[yloc-y];
-            int p  = offset + scanStride*(yloc-srcRect.y);
-            int xloc=x;
-            if (xloc < srcRect.x)
-                xloc = srcRect.x;
-            p += xloc-srcRect.x;
-
-            crcc = (pixels[p] >>> 24)*pixelScale;
-            nrcc = (pixels[p + scanStride] >>> 24)*pixelScale;
-
-            if (xloc != srcRect.x) {
-                crpc = (pixels[p - 1] >>> 24)*pixelScale;
-                nrpc = (pixels[p + scanStrideMM] >>> 24)*pixelScale;
-            }
-            else if (xloc < xEnd) {
-                // Top left pixel, in src (0, 0);
-                crnc = (pixels[p+1] >>> 24)*pixelScale;
-                nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *
-                    ((2*crnc + nrnc - 2*crcc - nrcc));
-                n[1] = - twoThirdSurfaceScaleY *
-                    ((2*nrcc + nrnc - 2*crcc - crnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-                p++;
-                xloc++;
-                crpc = crcc;
-                nrpc = nrcc;
-                crcc = crnc;
-                nrcc = nrnc;
-            } else {
-                // Single pix
-                crpc = crcc;
-                nrpc = nrcc;
+        final double quarterSurfaceScaleX = surfaceScaleX / 4;
+        final double quarterSurfaceScaleY = surfaceScaleY / 4;
+        final double pixelScale = 1.0/255;
+        final double zScale = surfaceScale*pixelScale;
+
+        final int texX0 = texRect.x;
+        final int texX1 = texRect.x+texRect.width-1;
+        final int texY0 = texRect.y;
+        final int texY1 = texRect.y+texRect.height-1;
+
+        final int xEnd = dstRect.x+dstRect.width;
+        final int yEnd = dstRect.y+dstRect.height;
+
+        // Columns for which the full 3x3 neighbourhood is available.
+        final int inX0 = Math.max(dstRect.x, texX0+1);
+        final int inX1 = Math.min(xEnd,      texX1);
+
+        for (int yloc=dstRect.y; yloc<yEnd; yloc++) {
+            final int rowP = offset + (yloc-dstRect.y)*scanStride;
+            int k = (yloc-y)*w + (dstRect.x-x);
+            final boolean hasT = (yloc != texY0);
+            final boolean hasB = (yloc != texY1);
+
+            if (!hasT || !hasB) {
+                for (int xloc=dstRect.x; xloc<xEnd; xloc++, k++)
+                    edgeNormal(pixels, rowP + (xloc-dstRect.x),
+                               scanStride,
+                               (xloc != texX0), (xloc != texX1),
+                               hasT, hasB, buf, k, sz);
+                continue;
             }
 
-            for (; xloc<xEnd; xloc++) {
-                // Middle Top row...
-                crnc = (pixels[p+1] >>> 24)*pixelScale;
-                nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
-                                               - (2*crpc + nrpc));
-                n[1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
-                                             - (crpc + 2*crcc + crnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-                p++;
-                crpc = crcc;
-                nrpc = nrcc;
-                crcc = crnc;
-                nrcc = nrnc;
+            int xloc=dstRect.x;
+            final int leftEnd = Math.min(inX0, xEnd);
+            for (; xloc<leftEnd; xloc++, k++)
+                edgeNormal(pixels, rowP + (xloc-dstRect.x), scanStride,
+                           (xloc != texX0), (xloc != texX1),
+                           true, true, buf, k, sz);
+
+            if (xloc < inX1) {
+                int p = rowP + (xloc-dstRect.x);
+                int pp = p - scanStride;
+                int np = p + scanStride;
+                int prpc = pixels[pp-1] >>> 24, prcc = pixels[pp] >>> 24;
+                int crpc = pixels[p -1] >>> 24, crcc = pixels[p ] >>> 24;
+                int nrpc = pixels[np-1] >>> 24, nrcc = pixels[np] >>> 24;
+                for (; xloc<inX1; xloc++, k++) {
+                    // Middle Middle, the plain Sobel kernel.
+                    p++; pp++; np++;
+                    final int prnc = pixels[pp] >>> 24;
+                    final int crnc = pixels[p ] >>> 24;
+                    final int nrnc = pixels[np] >>> 24;
+
+                    final double nx = - quarterSurfaceScaleX * pixelScale *
+                        (( prnc + 2*crnc + nrnc) - (prpc + 2*crpc + nrpc));
+                    final double ny = - quarterSurfaceScaleY * pixelScale *
+                        (( nrpc + 2*nrcc + nrnc) - (prpc + 2*prcc + prnc));
+                    final double invNorm = 1.0/Math.sqrt(nx*nx + ny*ny + 1);
+                    buf[k]      = (float)(nx*invNorm);
+                    buf[k+sz]   = (float)(ny*invNorm);
+                    buf[k+2*sz] = (float)invNorm;
+                    buf[k+3*sz] = (float)(crcc*zScale);
+
+                    prpc = prcc; crpc = crcc; nrpc = nrcc;
+                    prcc = prnc; crcc = crnc; nrcc = nrnc;
+                }
             }
 
-            if ((xloc < x+w) &&
-                (xloc == srcRect.x+srcRect.width-1)) {
-                // Last pixel of top row
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
-                                                 - (2*crpc + nrpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
-                                                 - (2*crcc + crpc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-            }
-            yloc++;
+            for (; xloc<xEnd; xloc++, k++)
+                edgeNormal(pixels, rowP + (xloc-dstRect.x), scanStride,
+                           (xloc != texX0), (xloc != texX1),
+                           true, true, buf, k, sz);
         }
+        return buf;
+    }
 
-        for (; yloc<yEnd; yloc++) {
-            final double [][] NRow = N[yloc-y];
-            int p  = offset + scanStride*(yloc-srcRect.y);
-
-            int xloc=x;
-            if (xloc < srcRect.x)
-                xloc = srcRect.x;
-
-            p += xloc-srcRect.x;
-
-            prcc = (pixels[p - scanStride] >>> 24)*pixelScale;
-            crcc = (pixels[p] >>> 24)*pixelScale;
-            nrcc = (pixels[p + scanStride] >>> 24)*pixelScale;
-
-            if (xloc != srcRect.x) {
-                prpc = (pixels[p - scanStridePP] >>> 24)*pixelScale;
-                crpc = (pixels[p - 1] >>> 24)*pixelScale;
-                nrpc = (pixels[p + scanStrideMM] >>> 24)*pixelScale;
-            }
-            else if (xloc < xEnd) {
-                // Now, process left column, from (0, 1) to (0, h-1)
-                crnc = (pixels[p+1] >>> 24)*pixelScale;
-                prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
-                nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
-                                             - (prcc + 2*crcc + nrcc));
-                n[1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
-                                              - ( 2*crcc + crnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-
-                p++;
-                xloc++;
-
-                prpc = prcc;
-                crpc = crcc;
-                nrpc = nrcc;
-                prcc = prnc;
-                crcc = crnc;
-                nrcc = nrnc;
-            } else {
-                // Single pix
-                prpc = prcc;
-                crpc = crcc;
-                nrpc = nrcc;
-            }
-
-            for (; xloc<xEnd; xloc++) {
-                // Middle Middle row...
-                prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
-                crnc = (pixels[p+1] >>> 24)*pixelScale;
-                nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
-                                                - (prpc + 2*crpc + nrpc));
-                n[1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
-                                                - (prpc + 2*prcc + prnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-
-                p++;
-                prpc = prcc;
-                crpc = crcc;
-                nrpc = nrcc;
-                prcc = prnc;
-                crcc = crnc;
-                nrcc = nrnc;
+    /**
+     * Computes the normal of a pixel on the border of the texture,
+     * using the reduced kernels given by the SVG specification.  The
+     * hasX flags tell which neighbours exist.  Dropping a column
+     * turns the central difference into a one sided one (so the
+     * factor doubles), dropping a row removes a weight one row from
+     * the smoothing part of the kernel.
+     */
+    private void edgeNormal(int[] pixels, int p, int scanStride,
+                            boolean hasL, boolean hasR,
+                            boolean hasT, boolean hasB,
+                            float[] buf, int k, int sz) {
+        final int cl = hasL ? -1 : 0;
+        final int cr = hasR ?  1 : 0;
+        final int rt = hasT ? -scanStride : 0;
+        final int rb = hasB ?  scanStride : 0;
+
+        double nx = 0;
+        final int colSpan = cr - cl;
+        if (colSpan != 0) {
+            int num = 2*((pixels[p+cr] >>> 24) - (pixels[p+cl] >>> 24));
+            int rowW = 2;
+            if (hasT) {
+                num += (pixels[p+rt+cr] >>> 24) - (pixels[p+rt+cl] >>> 24);
+                rowW++;
             }
-
-            if ((xloc < x+w) &&
-                (xloc == srcRect.x+srcRect.width-1)) {
-                // Now, proces right column, from (w-1, 1) to (w-1, h-1)
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
-                                             -(prpc + 2*crpc + nrpc));
-                n[1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
-                                              - ( prpc + 2*prcc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+            if (hasB) {
+                num += (pixels[p+rb+cr] >>> 24) - (pixels[p+rb+cl] >>> 24);
+                rowW++;
             }
+            nx = -surfaceScaleX * 2.0/(colSpan*rowW) * num / 255;
         }
 
-        if ((yloc < y+h) &&
-            (yloc == srcRect.y+srcRect.height-1)) {
-            final double [][] NRow = N[yloc-y];
-            int p  = offset + scanStride*(yloc-srcRect.y);
-            int xloc=x;
-            if (xloc < srcRect.x)
-                xloc = srcRect.x;
-
-            p += xloc-srcRect.x;
-
-            crcc = (pixels[p] >>> 24)*pixelScale;
-            prcc = (pixels[p - scanStride] >>> 24)*pixelScale;
-
-            if (xloc != srcRect.x) {
-                prpc = (pixels[p - scanStridePP] >>> 24)*pixelScale;
-                crpc = (pixels[p - 1] >>> 24)*pixelScale;
+        double ny = 0;
+        final int rowSpan = (hasT ? 1 : 0) + (hasB ? 1 : 0);
+        if (rowSpan != 0) {
+            int num = 2*((pixels[p+rb] >>> 24) - (pixels[p+rt] >>> 24));
+            int colW = 2;
+            if (hasL) {
+                num += (pixels[p+rb+cl] >>> 24) - (pixels[p+rt+cl] >>> 24);
+                colW++;
             }
-            else if (xloc < xEnd) {
-                // Process first pixel of last row
-                crnc = (pixels[p + 1] >>> 24)*pixelScale;
-                prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
-                n[1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-
-                p++;
-                xloc++;
-                crpc = crcc;
-                prpc = prcc;
-                crcc = crnc;
-                prcc = prnc;
-            } else {
-                // Single pix
-                crpc = crcc;
-                prpc = prcc;
-            }
-
-            for (; xloc<xEnd; xloc++) {
-                // Middle of Bottom row...
-                crnc = (pixels[p + 1] >>> 24)*pixelScale;
-                prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
-
-                // System.out.println("Vals: " +
-                //                    prpc + "," + prcc + "," + prnc + "  " +
-                //                    crpc + "," + crcc + "," + crnc );
-
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
-                                              - (2*crpc + prpc));
-                n[1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
-                                             - (prpc + 2*prcc + prnc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
-
-                p++;
-                crpc = crcc;
-                prpc = prcc;
-                crcc = crnc;
-                prcc = prnc;
-            }
-
-            if ((xloc < x+w) &&
-                (xloc == srcRect.x+srcRect.width-1)) {
-                // Bottom right corner
-                final double [] n = NRow[xloc-x];
-
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
-                                                 - (2*crpc + prpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
-                                                 - (2*prcc + prpc));
-
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+            if (hasR) {
+                num += (pixels[p+rb+cr] >>> 24) - (pixels[p+rt+cr] >>> 24);
+                colW++;
             }
+            ny = -surfaceScaleY * 2.0/(rowSpan*colW) * num / 255;
         }
-        return N;
+
+        final double invNorm = 1.0/Math.sqrt(nx*nx + ny*ny + 1);
+        buf[k]      = (float)(nx*invNorm);
+        buf[k+sz]   = (float)(ny*invNorm);
+        buf[k+2*sz] = (float)invNorm;
+        buf[k+3*sz] = (float)((pixels[p] >>> 24)*surfaceScale/255);
     }
 }
-
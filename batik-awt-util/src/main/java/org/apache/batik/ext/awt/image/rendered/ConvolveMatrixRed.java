@@ -0,0 +1,622 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Convolves an image with a convolution matrix, as specified by the
+ * SVG feConvolveMatrix filter primitive:
+ * <pre>
+ *   RESULT(X,Y) = SUM(I,J) SOURCE(X-targetX+J, Y-targetY+I) *
+ *                          kernel(orderX-J-1, orderY-I-1) + bias
+ * </pre>
+ * The divisor is expected to be folded into the kernel.  Source pixels
+ * outside of the source bounds are provided by the edge mode, which is
+ * resolved through index tables so the source is never padded.
+ *
+ * <p>Kernels of rank one are applied as two one dimensional passes,
+ * large kernels are applied by FFT on tiles sized for the kernel, all
+ * others directly.  The pieces of a request are computed in parallel
+ * through the {@link TileWorkerPool}.</p>
+ *
+ * <p>When <code>preserveAlpha</code> is false all four channels of the
+ * premultiplied source are convolved, otherwise only the color
+ * channels of the unpremultiplied source are, and the source alpha is
+ * kept.</p>
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractRed {
+
+    /**
+     * Non separable kernels with at least this many entries are
+     * applied through FFTs.
+     */
+    public static final int FFT_MIN_KERNEL_SIZE = 100;
+
+    /**
+     * Smallest FFT size used, in each direction.
+     */
+    static final int FFT_MIN_SIZE = 64;
+
+    static final int DIRECT    = 0;
+    static final int SEPARABLE = 1;
+    static final int FFT       = 2;
+
+    /**
+     * Per-thread float working buffer.
+     */
+    private static final ThreadLocal floatBuffer = new ThreadLocal();
+
+    /**
+     * Per-thread real and imaginary planes for the FFT pieces.
+     */
+    private static final ThreadLocal doubleBuffer = new ThreadLocal();
+
+    int kw, kh;
+    int targetX, targetY;
+
+    /**
+     * The kernel rotated by 180 degrees, so that
+     * <code>kernel[i*kw+j]</code> weights the source pixel
+     * <code>(x+j, y+i)</code> of the support of <code>(x, y)</code>.
+     */
+    float [] kernel;
+
+    /**
+     * The factors of <code>kernel</code> when it is separable.
+     */
+    float [] rowKernel, colKernel;
+
+    /**
+     * The FFT of the kernel, when the FFT is used.
+     */
+    int fftW, fftH;
+    double [] fftKernelRe, fftKernelIm;
+    double [] cosW, sinW, cosH, sinH;
+
+    int mode;
+    float bias;
+    PadMode edgeMode;
+    boolean preserveAlpha;
+    boolean fixAlpha;
+
+    /**
+     * Construct a convolution of <code>src</code>.
+     * @param src           The image to convolve.
+     * @param bounds        The region over which the result is defined.
+     * @param kernel        The convolution kernel, divisor included.
+     * @param target        The position of the target pixel in the kernel.
+     * @param bias          The value (in [0,1] units) added to the result.
+     * @param edgeMode      How to extend <code>src</code> past its bounds.
+     * @param preserveAlpha If true the alpha channel is not convolved.
+     */
+    public ConvolveMatrixRed(CachableRed src, Rectangle bounds,
+                             Kernel kernel, Point target, float bias,
+                             PadMode edgeMode, boolean preserveAlpha) {
+        super(); // Remember to call super.init()
+
+        this.kw            = kernel.getWidth();
+        this.kh            = kernel.getHeight();
+        this.targetX       = target.x;
+        this.targetY       = target.y;
+        this.bias          = bias*255;
+        this.edgeMode      = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        float [] kv = kernel.getKernelData(null);
+        this.kernel = new float[kv.length];
+        boolean negValues = false;
+        for (int i=0; i<kv.length; i++) {
+            this.kernel[i] = kv[kv.length-1-i];
+            if (kv[i] < 0) negValues = true;
+        }
+        // Premultiplied colors must not exceed alpha.
+        this.fixAlpha = (!preserveAlpha) && (negValues || (bias != 0));
+
+        if ((kw*kh > kw+kh) && findFactors())
+            mode = SEPARABLE;
+        else if (kw*kh >= FFT_MIN_KERNEL_SIZE) {
+            mode = FFT;
+            initFFT(kv);
+        } else
+            mode = DIRECT;
+
+        ColorSpace cs = src.getColorModel().getColorSpace();
+        ColorModel cm;
+        if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
+            cm = (preserveAlpha ? GraphicsUtil.Linear_sRGB_Unpre
+                                : GraphicsUtil.Linear_sRGB_Pre);
+        else {
+            src = GraphicsUtil.convertTosRGB(src);
+            cm = (preserveAlpha ? GraphicsUtil.sRGB_Unpre
+                                : GraphicsUtil.sRGB_Pre);
+        }
+        src = FormatRed.construct(src, cm);
+        if (!GraphicsUtil.is_INT_PACK_Data(src.getSampleModel(), true))
+            src = new FormatRed(src, cm);
+
+        SampleModel sm = src.getSampleModel();
+        int tw = sm.getWidth();
+        int th = sm.getHeight();
+        if (tw > bounds.width)  tw = bounds.width;
+        if (th > bounds.height) th = bounds.height;
+        if (tw < 1) tw = 1;
+        if (th < 1) th = 1;
+        sm = cm.createCompatibleSampleModel(tw, th);
+
+        init(src, bounds, cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Looks for a column and a row vector whose product is
+     * <code>kernel</code>.  Returns false if there are none.
+     */
+    boolean findFactors() {
+        int p=0, q=0;
+        float max = 0;
+        for (int i=0; i<kh; i++)
+            for (int j=0; j<kw; j++) {
+                float v = Math.abs(kernel[i*kw+j]);
+                if (v > max) { max = v; p = i; q = j; }
+            }
+
+        float [] col = new float[kh];
+        float [] row = new float[kw];
+        if (max != 0) {
+            float pivot = kernel[p*kw+q];
+            for (int i=0; i<kh; i++) col[i] = kernel[i*kw+q];
+            for (int j=0; j<kw; j++) row[j] = kernel[p*kw+j]/pivot;
+        }
+
+        float eps = max*1e-6f;
+        for (int i=0; i<kh; i++)
+            for (int j=0; j<kw; j++)
+                if (Math.abs(kernel[i*kw+j]-col[i]*row[j]) > eps)
+                    return false;
+
+        colKernel = col;
+        rowKernel = row;
+        return true;
+    }
+
+    /**
+     * Picks the FFT size and computes the spectrum of the kernel.
+     * @param kv the kernel in its original (unrotated) order.
+     */
+    void initFFT(float [] kv) {
+        fftW = fftSize(kw);
+        fftH = fftSize(kh);
+        cosW = new double[fftW/2];
+        sinW = new double[fftW/2];
+        cosH = new double[fftH/2];
+        sinH = new double[fftH/2];
+        twiddles(cosW, sinW, fftW);
+        twiddles(cosH, sinH, fftH);
+
+        fftKernelRe = new double[fftW*fftH];
+        fftKernelIm = new double[fftW*fftH];
+        for (int i=0; i<kh; i++)
+            for (int j=0; j<kw; j++)
+                fftKernelRe[i*fftW+j] = kv[i*kw+j];
+        fft2D(fftKernelRe, fftKernelIm, kh, 0, fftH, false);
+    }
+
+    static int fftSize(int k) {
+        int n = FFT_MIN_SIZE;
+        while (n < 4*k) n <<= 1;
+        return n;
+    }
+
+    static void twiddles(double [] cos, double [] sin, int n) {
+        for (int k=0; k<cos.length; k++) {
+            double a = 2*Math.PI*k/n;
+            cos[k] = Math.cos(a);
+            sin[k] = Math.sin(a);
+        }
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        final int minX = wr.getMinX();
+        final int minY = wr.getMinY();
+        final int w    = wr.getWidth();
+        final int h    = wr.getHeight();
+
+        CachableRed src = (CachableRed)getSources().get(0);
+        Rectangle srcR = src.getBounds();
+
+        // The source pixels needed by wr.
+        int sx = minX-targetX, sw = w+kw-1;
+        int sy = minY-targetY, sh = h+kh-1;
+
+        int [] fx = fetchRange(sx, sw, srcR.x, srcR.width);
+        int [] fy = fetchRange(sy, sh, srcR.y, srcR.height);
+
+        int [] srcPixels = null;
+        int srcBase = 0, srcScan = 0;
+        if ((fx != null) && (fy != null)) {
+            // Fetch the source data once, the pieces below only compute.
+            SampleModel sm = getSampleModel().createCompatibleSampleModel
+                (fx[1]-fx[0], fy[1]-fy[0]);
+            WritableRaster sr = Raster.createWritableRaster
+                (sm, new Point(fx[0], fy[0]));
+            src.copyData(sr);
+
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)sr.getSampleModel();
+            DataBufferInt db = (DataBufferInt)sr.getDataBuffer();
+            srcPixels = db.getBankData()[0];
+            srcScan   = sppsm.getScanlineStride();
+            srcBase   = (db.getOffset() +
+                         sppsm.getOffset
+                         (sr.getMinX()-sr.getSampleModelTranslateX(),
+                          sr.getMinY()-sr.getSampleModelTranslateY()));
+        }
+
+        final int [] pixels = srcPixels;
+        final int [] colIdx = indexTable(sx, sw, srcR.x, srcR.width,
+                                         fx, 1, 0);
+        final int [] rowIdx = indexTable(sy, sh, srcR.y, srcR.height,
+                                         fy, srcScan, srcBase);
+
+        SinglePixelPackedSampleModel dstSPPSM;
+        dstSPPSM = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt dstDB = (DataBufferInt)wr.getDataBuffer();
+        final int [] dstPixels = dstDB.getBankData()[0];
+        final int dstScan = dstSPPSM.getScanlineStride();
+        final int dstBase =
+            (dstDB.getOffset() +
+             dstSPPSM.getOffset(minX-wr.getSampleModelTranslateX(),
+                                minY-wr.getSampleModelTranslateY()));
+
+        int pw, ph;
+        if (mode == FFT) {
+            pw = fftW-kw+1;
+            ph = fftH-kh+1;
+        } else {
+            pw = ph = AbstractTiledRed.getDefaultTileSize();
+        }
+
+        TileWorkerPool.run
+            (new Rectangle(minX, minY, w, h), pw, ph,
+             new TileWorkerPool.Task() {
+                 public void run(Rectangle r) {
+                     int dp = dstBase + (r.y-minY)*dstScan + (r.x-minX);
+                     convolve(pixels, colIdx, rowIdx,
+                              r.x-minX, r.y-minY, r.width, r.height,
+                              dstPixels, dp, dstScan);
+                 }
+             });
+
+        return wr;
+    }
+
+    /**
+     * Returns the range [start, end) of source pixels needed to
+     * provide the pixels [s, s+len) along one axis, or null if none
+     * are.
+     */
+    int [] fetchRange(int s, int len, int b, int blen) {
+        if (blen <= 0)
+            return null;
+        int s1 = s+len;
+        int b1 = b+blen;
+        int start, end;
+        if (edgeMode == PadMode.REPLICATE) {
+            start = Math.min(Math.max(s,  b), b1-1);
+            end   = Math.min(Math.max(s1, b+1), b1);
+        } else if ((edgeMode == PadMode.WRAP) &&
+                   ((s < b) || (s1 > b1))) {
+            start = b;
+            end   = b1;
+        } else {
+            start = Math.max(s,  b);
+            end   = Math.min(s1, b1);
+        }
+        if (start >= end)
+            return null;
+        return new int[] { start, end };
+    }
+
+    /**
+     * Builds the table giving, for each of the pixels [s, s+len)
+     * along one axis, <code>base + mul*(v-fetch[0])</code> where
+     * <code>v</code> is the source pixel providing it (after applying
+     * the edge mode), or -1 if the pixel is zero.
+     */
+    int [] indexTable(int s, int len, int b, int blen,
+                      int [] fetch, int mul, int base) {
+        int [] ret = new int[len];
+        for (int k=0; k<len; k++) {
+            int v = s+k;
+            if ((fetch == null) || (blen <= 0)) {
+                ret[k] = -1;
+                continue;
+            }
+            if ((v < b) || (v >= b+blen)) {
+                if (edgeMode == PadMode.REPLICATE) {
+                    v = (v < b) ? b : b+blen-1;
+                } else if (edgeMode == PadMode.WRAP) {
+                    v = b + (((v-b)%blen)+blen)%blen;
+                } else {
+                    ret[k] = -1;
+                    continue;
+                }
+            }
+            ret[k] = base + mul*(v-fetch[0]);
+        }
+        return ret;
+    }
+
+    /**
+     * Convolves the piece at <code>(x0, y0)</code> (relative to the
+     * index tables) of size <code>w</code> by <code>h</code>.
+     */
+    void convolve(int [] src, int [] colIdx, int [] rowIdx,
+                  int x0, int y0, int w, int h,
+                  int [] dst, int dp, int dstScan) {
+        final int sw = w+kw-1;
+        final int sh = h+kh-1;
+        final int planeSz = sw*sh;
+        final int outSz   = w*h;
+        final int nConv   = preserveAlpha ? 3 : 4;
+
+        int sz = 4*planeSz + 4*outSz;
+        if (mode == SEPARABLE) sz += sh*w;
+        float [] buf = (float[])floatBuffer.get();
+        if ((buf == null) || (buf.length < sz)) {
+            buf = new float[sz];
+            floatBuffer.set(buf);
+        }
+        final int out = 4*planeSz;
+
+        // Unpack the support into planes: R, G, B, A.
+        int p = 0;
+        for (int i=0; i<sh; i++) {
+            int row = rowIdx[y0+i];
+            for (int j=0; j<sw; j++, p++) {
+                int col = colIdx[x0+j];
+                int pel = ((row < 0) || (col < 0)) ? 0 : src[row+col];
+                buf[p]           = (pel>>>16)&0xFF;
+                buf[p+planeSz]   = (pel>>> 8)&0xFF;
+                buf[p+2*planeSz] = (pel     )&0xFF;
+                buf[p+3*planeSz] = (pel>>>24);
+            }
+        }
+
+        switch (mode) {
+        case SEPARABLE:
+            for (int c=0; c<nConv; c++)
+                convolveSeparable(buf, c*planeSz, sw, sh,
+                                  out+c*outSz, w, h, 4*planeSz+4*outSz);
+            break;
+        case FFT:
+            for (int c=0; c<nConv; c+=2)
+                convolveFFT(buf, c*planeSz, (c+1<nConv) ? (c+1)*planeSz : -1,
+                            sw, sh, out+c*outSz,
+                            (c+1<nConv) ? out+(c+1)*outSz : -1, w, h);
+            break;
+        default:
+            for (int c=0; c<nConv; c++)
+                convolveDirect(buf, c*planeSz, sw, out+c*outSz, w, h);
+        }
+
+        // Pack the result.
+        final float b = bias;
+        final int aPlane = 3*planeSz + targetY*sw + targetX;
+        int op = 0;
+        for (int i=0; i<h; i++, dp+=dstScan) {
+            for (int j=0; j<w; j++, op++) {
+                int r = clamp(buf[out+op]        +b);
+                int g = clamp(buf[out+outSz+op]  +b);
+                int bl= clamp(buf[out+2*outSz+op]+b);
+                int a;
+                if (preserveAlpha) {
+                    a = (int)buf[aPlane + i*sw + j];
+                } else {
+                    a = clamp(buf[out+3*outSz+op]+b);
+                    if (fixAlpha) {
+                        if (a < r)  a = r;
+                        if (a < g)  a = g;
+                        if (a < bl) a = bl;
+                    }
+                }
+                dst[dp+j] = (a<<24) | (r<<16) | (g<<8) | bl;
+            }
+        }
+    }
+
+    static int clamp(float v) {
+        if (v <= 0)   return 0;
+        if (v >= 255) return 255;
+        return (int)(v+0.5f);
+    }
+
+    void convolveDirect(float [] buf, int sp, int sw,
+                        int op, int w, int h) {
+        final float [] k = kernel;
+        for (int y=0; y<h; y++) {
+            for (int x=0; x<w; x++) {
+                float sum = 0;
+                int kp = 0;
+                int rp = sp + y*sw + x;
+                for (int i=0; i<kh; i++, rp+=sw)
+                    for (int j=0; j<kw; j++)
+                        sum += buf[rp+j]*k[kp++];
+                buf[op++] = sum;
+            }
+        }
+    }
+
+    void convolveSeparable(float [] buf, int sp, int sw, int sh,
+                           int op, int w, int h, int tmp) {
+        final float [] rk = rowKernel;
+        final float [] ck = colKernel;
+
+        // Horizontal pass over every row of the support.
+        int tp = tmp;
+        for (int y=0; y<sh; y++) {
+            int rp = sp + y*sw;
+            for (int x=0; x<w; x++) {
+                float sum = 0;
+                for (int j=0; j<kw; j++)
+                    sum += buf[rp+x+j]*rk[j];
+                buf[tp++] = sum;
+            }
+        }
+
+        // Vertical pass.
+        for (int y=0; y<h; y++) {
+            for (int x=0; x<w; x++) {
+                float sum = 0;
+                int cp = tmp + y*w + x;
+                for (int i=0; i<kh; i++, cp+=w)
+                    sum += buf[cp]*ck[i];
+                buf[op++] = sum;
+            }
+        }
+    }
+
+    /**
+     * Convolves two planes at once, as the real and imaginary parts
+     * of one complex image.  <code>sp1</code> and <code>op1</code>
+     * are -1 when there is only one plane.
+     */
+    void convolveFFT(float [] buf, int sp0, int sp1, int sw, int sh,
+                     int op0, int op1, int w, int h) {
+        final int n = fftW*fftH;
+        double [][] work = (double[][])doubleBuffer.get();
+        if ((work == null) || (work[0].length != n)) {
+            work = new double[][] { new double[n], new double[n] };
+            doubleBuffer.set(work);
+        }
+        double [] re = work[0];
+        double [] im = work[1];
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        for (int y=0; y<sh; y++) {
+            int fp = y*fftW;
+            int bp = y*sw;
+            for (int x=0; x<sw; x++) {
+                re[fp+x] = buf[sp0+bp+x];
+                im[fp+x] = (sp1 < 0) ? 0 : buf[sp1+bp+x];
+            }
+        }
+
+        fft2D(re, im, sh, 0, fftH, false);
+
+        final double [] kr = fftKernelRe;
+        final double [] ki = fftKernelIm;
+        for (int i=0; i<n; i++) {
+            double r = re[i]*kr[i] - im[i]*ki[i];
+            double m = re[i]*ki[i] + im[i]*kr[i];
+            re[i] = r;
+            im[i] = m;
+        }
+
+        fft2D(re, im, fftH, kh-1, kh-1+h, true);
+
+        // Circular convolution: the valid results start at the
+        // kernel size minus one.
+        double scale = 1.0/n;
+        for (int y=0; y<h; y++) {
+            int fp = (y+kh-1)*fftW + kw-1;
+            for (int x=0; x<w; x++) {
+                buf[op0++] = (float)(re[fp+x]*scale);
+                if (op1 >= 0)
+                    buf[op1++] = (float)(im[fp+x]*scale);
+            }
+        }
+    }
+
+    /**
+     * Two dimensional FFT of the <code>fftW</code> by
+     * <code>fftH</code> image.  For the forward transform only the
+     * first <code>rows</code> rows may be non zero; for the inverse
+     * only the rows [rowStart, rowEnd) of the result are needed.
+     */
+    void fft2D(double [] re, double [] im, int rows,
+               int rowStart, int rowEnd, boolean inverse) {
+        if (!inverse) {
+            for (int y=0; y<rows; y++)
+                fft(re, im, y*fftW, 1, fftW, cosW, sinW, false);
+            for (int x=0; x<fftW; x++)
+                fft(re, im, x, fftW, fftH, cosH, sinH, false);
+        } else {
+            for (int x=0; x<fftW; x++)
+                fft(re, im, x, fftW, fftH, cosH, sinH, true);
+            for (int y=rowStart; y<rowEnd; y++)
+                fft(re, im, y*fftW, 1, fftW, cosW, sinW, true);
+        }
+    }
+
+    /**
+     * In place radix-2 FFT of the <code>n</code> values starting at
+     * <code>off</code>, <code>stride</code> apart.  The inverse is not
+     * scaled.
+     */
+    static void fft(double [] re, double [] im, int off, int stride, int n,
+                    double [] cos, double [] sin, boolean inverse) {
+        for (int i=1, j=0; i<n; i++) {
+            int bit = n>>1;
+            for (; (j & bit) != 0; bit >>= 1)
+                j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                int a = off+i*stride, b = off+j*stride;
+                double t = re[a]; re[a] = re[b]; re[b] = t;
+                t = im[a]; im[a] = im[b]; im[b] = t;
+            }
+        }
+
+        for (int len=2; len<=n; len<<=1) {
+            int half = len>>1;
+            int step = n/len;
+            for (int k=0; k<half; k++) {
+                double wr = cos[k*step];
+                double wi = inverse ? sin[k*step] : -sin[k*step];
+                for (int i=k; i<n; i+=len) {
+                    int a = off+i*stride;
+                    int b = a+half*stride;
+                    double xr = re[b]*wr - im[b]*wi;
+                    double xi = re[b]*wi + im[b]*wr;
+                    re[b] = re[a]-xr;
+                    im[b] = im[a]-xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.batik.ext.awt.image.rendered;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
@@ -94,9 +95,9 @@ public class DiffuseLightingRed extends AbstractRed{
              litRegion.x, litRegion.y, null);
     }
 
-    public WritableRaster copyData(WritableRaster wr){
+    public WritableRaster copyData(final WritableRaster wr){
         final double[] lightColor = light.getColor(linear);
-        
+
         final int w = wr.getWidth();
         final int h = wr.getHeight();
         final int minX = wr.getMinX();
@@ -107,107 +108,104 @@ public class DiffuseLightingRed extends AbstractRed{
 
         final SinglePixelPackedSampleModel sppsm;
         sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
-        
-        final int offset = 
+
+        final int offset =
             (db.getOffset() +
-             sppsm.getOffset(minX-wr.getSampleModelTranslateX(), 
+             sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
                              minY-wr.getSampleModelTranslateY()));
 
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int r=0, g=0, b=0;
-        int i=0, j=0;
-
-        // System.out.println("Getting diffuse red : " + minX + "/" + minY + "/" + w + "/" + h);
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double NL = 0;
-
-        // final double[] L = new double[3];
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
-        if(!light.isConstant()){
-            final double[][] LA = new double[w][3];
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
-                    
-                }
-                p += adjust;
-            }
+
+        // Fetch the bump map data once, the pieces below only compute.
+        final Raster support = bumpMap.getSupportData(minX, minY, w, h);
+
+        final double[] constL;
+        if (light.isConstant()) {
+            constL = new double[3];
+            light.getLight(0, 0, 0, constL);
+        } else {
+            constL = null;
+        }
+
+        final int tileSz = AbstractTiledRed.getDefaultTileSize();
+        TileWorkerPool.run
+            (new Rectangle(minX, minY, w, h), tileSz, tileSz,
+             new TileWorkerPool.Task() {
+                 public void run(Rectangle r) {
+                     float[] N = (float[])normalBuffer.get();
+                     N = bumpMap.getNormals(support, r.x, r.y,
+                                            r.width, r.height, N);
+                     normalBuffer.set(N);
+                     int p = offset + (r.y-minY)*scanStride + (r.x-minX);
+                     light(N, r, p, scanStride - r.width, pixels,
+                           lightColor, constL);
+                 }
+             });
+
+        return wr;
+    }
+
+    /**
+     * Per thread normal buffer, reused from piece to piece.
+     */
+    private static final ThreadLocal normalBuffer = new ThreadLocal();
+
+    /**
+     * Lights the piece <code>r</code> of the destination given the
+     * planar normal buffer <code>N</code> for that piece.
+     *
+     * @param constL the light vector when the light is constant,
+     *        null otherwise.
+     */
+    private void light(final float[] N, final Rectangle r,
+                       int p, final int adjust, final int[] pixels,
+                       final double[] lightColor, final double[] constL) {
+        final int w = r.width;
+        final int h = r.height;
+        final int sz = w*h;
+        final double lr = 255.*kd*lightColor[0];
+        final double lg = 255.*kd*lightColor[1];
+        final double lb = 255.*kd*lightColor[2];
+
+        double L0=0, L1=0, L2=0;
+        double[] L = constL;
+        if (L != null) {
+            L0 = L[0]; L1 = L[1]; L2 = L[2];
+        } else {
+            L = new double[3];
         }
-        else{
-            // System.out.println(">>>>>>>> Processing constant light ...");
-            // Constant light
-            final double[] L = new double[3];
-            light.getLight(0, 0, 0, L);
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double[] N = NR[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
+
+        int r0, g, b;
+        int k = 0;
+        for (int i=0; i<h; i++) {
+            final double y = scaleY*(r.y+i);
+            double x = scaleX*r.x;
+            for (int j=0; j<w; j++, k++, x+=scaleX) {
+                if (constL == null) {
+                    // Get Light Vector
+                    light.getLight(x, y, N[k+3*sz], L);
+                    L0 = L[0]; L1 = L[1]; L2 = L[2];
                 }
-                p += adjust;
+
+                final double NL = N[k]*L0 + N[k+sz]*L1 + N[k+2*sz]*L2;
+
+                r0 = (int)(NL*lr);
+                g  = (int)(NL*lg);
+                b  = (int)(NL*lb);
+
+                // If any high bits are set we are not in range.
+                // If the highest bit is set then we are negative so
+                // clamp to zero else we are > 255 so clamp to 255.
+                if ((r0 & 0xFFFFFF00) != 0)
+                    r0 = ((r0 & 0x80000000) != 0)?0:255;
+                if ((g & 0xFFFFFF00) != 0)
+                    g = ((g & 0x80000000) != 0)?0:255;
+                if ((b & 0xFFFFFF00) != 0)
+                    b = ((b & 0x80000000) != 0)?0:255;
+
+                pixels[p++] = (0xff000000 | r0 << 16 | g << 8 | b);
             }
+            p += adjust;
         }
-        
-        return wr;
     }
-
 }
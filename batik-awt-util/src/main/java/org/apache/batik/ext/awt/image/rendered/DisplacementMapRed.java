@@ -25,6 +25,8 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.batik.ext.awt.image.ARGBChannel;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
@@ -39,9 +41,6 @@ import org.apache.batik.ext.awt.image.PadMode;
  * @version $Id$
  */
 public class DisplacementMapRed extends AbstractRed {
-    // Use these to control timing and Nearest Neighbot vs. Bilinear Interp.
-    private static final boolean TIME   = false;
-    private static final boolean USE_NN = false;
 
     /**
      * The displacement scale factor along the x axis
@@ -84,10 +83,21 @@ public class DisplacementMapRed extends AbstractRed {
     RenderingHints hints;
 
     /**
-     * Computed tile Offsets Soft referencces to TileOffsets instances...
+     * True if the source is sampled with nearest neighbor rather than
+     * bilinear interpolation.  Selected by setting
+     * <code>KEY_INTERPOLATION</code> to
+     * <code>VALUE_INTERPOLATION_NEAREST_NEIGHBOR</code>.
      */
-    TileOffsets [] xOffsets;
-    TileOffsets [] yOffsets;
+    boolean nearest;
+
+    /**
+     * The tile and offset in tile of each column and row of
+     * <code>image</code>, from <code>tableX</code> and
+     * <code>tableY</code> on.  Shared by all the tiles.
+     */
+    TileOffsets xOffsets;
+    TileOffsets yOffsets;
+    int tableX, tableY;
 
     static class TileOffsets {
         int [] tile;
@@ -114,6 +124,32 @@ public class DisplacementMapRed extends AbstractRed {
         }
     }
 
+    /**
+     * The pixels of the tiles of <code>image</code> needed by one
+     * request, fetched up front since the tile cache is not thread
+     * safe.
+     */
+    static class SourceTiles {
+        final int tx0, ty0, ntx;
+        final int [][] pixels;
+
+        SourceTiles(CachableRed image, int tx0, int ty0, int tx1, int ty1) {
+            this.tx0 = tx0;
+            this.ty0 = ty0;
+            this.ntx = tx1-tx0+1;
+            pixels = new int[ntx*(ty1-ty0+1)][];
+            int i = 0;
+            for (int ty=ty0; ty<=ty1; ty++)
+                for (int tx=tx0; tx<=tx1; tx++)
+                    pixels[i++] = ((DataBufferInt)image.getTile(tx, ty)
+                                   .getDataBuffer()).getBankData()[0];
+        }
+
+        int [] tile(int tx, int ty) {
+            return pixels[(ty-ty0)*ntx + (tx-tx0)];
+        }
+    }
+
     /**
      * @param image the image to distort
      * @param offsets the displacement map
@@ -141,12 +177,19 @@ public class DisplacementMapRed extends AbstractRed {
             throw new IllegalArgumentException("Must provide yChannel");
         }
 
-        this.offsets = offsets;
+        // The map is read in place, so it must not be premultiplied.
+        ColorModel mapCM = offsets.getColorModel();
+        offsets = FormatRed.construct
+            (offsets, GraphicsUtil.coerceColorModel(mapCM, false));
+        this.offsets = new TileCacheRed(offsets);
         this.scaleX = scaleX;
         this.scaleY = scaleY;
         this.xChannel = xChannel;
         this.yChannel = yChannel;
         this.hints   = rh;
+        this.nearest = ((rh != null) &&
+                        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                        .equals(rh.get(RenderingHints.KEY_INTERPOLATION)));
 
         maxOffX = (int)Math.ceil(scaleX/2);
         maxOffY = (int)Math.ceil(scaleY/2);
@@ -160,124 +203,206 @@ public class DisplacementMapRed extends AbstractRed {
         image = new TileCacheRed(image);
         this.image = image;
         ColorModel cm = image.getColorModel();
-        if (!USE_NN)
+        if (!nearest)
             // For Bilinear we need alpha premult.
             cm = GraphicsUtil.coerceColorModel(cm, true);
 
         init(image, rect, cm, image.getSampleModel(),
              rect.x, rect.y, null);
 
-        xOffsets = new TileOffsets[getNumXTiles()];
-        yOffsets = new TileOffsets[getNumYTiles()];
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)getSampleModel();
+        tableX   = r.x;
+        tableY   = r.y;
+        xOffsets = makeOffsets(r.x, r.width, image.getTileGridXOffset(),
+                               sppsm.getWidth(), sppsm.getOffset(0, 0), 1);
+        yOffsets = makeOffsets(r.y, r.height, image.getTileGridYOffset(),
+                               sppsm.getHeight(), 0,
+                               sppsm.getScanlineStride());
+    }
+
+    /**
+     * Builds the offsets of the <code>len</code> pixels starting at
+     * <code>start</code>, along one axis of <code>image</code>.
+     */
+    static TileOffsets makeOffsets(int start, int len, int gridOff,
+                                   int tileSz, int base, int stride) {
+        // The start and end in image's tile coordinate system...
+        int p0      = start - gridOff;
+        int p1      = p0 + len-1;
+
+        int tile    = (int)Math.floor(p0/(double)tileSz);
+        int endTile = (int)Math.floor(p1/(double)tileSz);
+        int loc     = p0-(tile*tileSz);
+        int endLoc  = tileSz;
+
+        // Amount not used from the last tile
+        int slop = ((endTile+1)*tileSz-1) - p1;
+
+        return new TileOffsets(len, base, stride,
+                               loc, endLoc, slop, tile, endTile);
     }
 
     public WritableRaster copyData(WritableRaster wr) {
-        copyToRaster(wr);
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), false)) {
+            copyToRaster(wr);
+            return wr;
+        }
+
+        Rectangle area = wr.getBounds().intersection(getBounds());
+        if ((area.width <= 0) || (area.height <= 0))
+            return wr;
+
+        // The source tiles reachable from area, (one extra pixel for
+        // the bilinear interpolation).
+        int x0 = area.x-maxOffX-tableX;
+        int y0 = area.y-maxOffY-tableY;
+        int x1 = Math.min(x0+area.width +2*maxOffX, xOffsets.tile.length-1);
+        int y1 = Math.min(y0+area.height+2*maxOffY, yOffsets.tile.length-1);
+        final SourceTiles src = new SourceTiles
+            (image, xOffsets.tile[x0], yOffsets.tile[y0],
+             xOffsets.tile[x1], yOffsets.tile[y1]);
+
+        // Split area along the tiles of the map, which are then read
+        // in place, and into pieces of at most one default tile.
+        final int tileSz = AbstractTiledRed.getDefaultTileSize();
+        List pieceList = new ArrayList();
+        List mapList   = new ArrayList();
+        int mtx0 = divFloor(area.x-offsets.getTileGridXOffset(),
+                            offsets.getTileWidth());
+        int mty0 = divFloor(area.y-offsets.getTileGridYOffset(),
+                            offsets.getTileHeight());
+        int mtx1 = divFloor(area.x+area.width-1-offsets.getTileGridXOffset(),
+                            offsets.getTileWidth());
+        int mty1 = divFloor(area.y+area.height-1-offsets.getTileGridYOffset(),
+                            offsets.getTileHeight());
+        for (int mty=mty0; mty<=mty1; mty++) {
+            for (int mtx=mtx0; mtx<=mtx1; mtx++) {
+                Raster map = offsets.getTile(mtx, mty);
+                Rectangle mr = map.getBounds().intersection(area);
+                for (int py=mr.y; py<mr.y+mr.height; py+=tileSz)
+                    for (int px=mr.x; px<mr.x+mr.width; px+=tileSz) {
+                        pieceList.add(new Rectangle
+                            (px, py,
+                             Math.min(tileSz, mr.x+mr.width -px),
+                             Math.min(tileSz, mr.y+mr.height-py)));
+                        mapList.add(map);
+                    }
+            }
+        }
+        final Rectangle [] pieces =
+            (Rectangle[])pieceList.toArray(new Rectangle[pieceList.size()]);
+        final Raster [] maps =
+            (Raster[])mapList.toArray(new Raster[mapList.size()]);
+        final WritableRaster dst = wr;
+        final boolean pre = image.getColorModel().isAlphaPremultiplied();
+
+        TileWorkerPool.run
+            (new Rectangle(0, 0, pieces.length, 1), 1, 1,
+             new TileWorkerPool.Task() {
+                 public void run(Rectangle r) {
+                     Rectangle piece = pieces[r.x];
+                     int xs = piece.x-tableX;
+                     int ys = piece.y-tableY;
+                     if (nearest)
+                         filterNN(maps[r.x], dst, piece,
+                                  xOffsets.tile, xOffsets.off,
+                                  yOffsets.tile, yOffsets.off,
+                                  xs, ys, src);
+                     else if (pre)
+                         filterBL(maps[r.x], dst, piece,
+                                  xOffsets.tile, xOffsets.off,
+                                  yOffsets.tile, yOffsets.off,
+                                  xs, ys, src);
+                     else
+                         filterBLPre(maps[r.x], dst, piece,
+                                     xOffsets.tile, xOffsets.off,
+                                     yOffsets.tile, yOffsets.off,
+                                     xs, ys, src);
+                 }
+             });
+
         return wr;
     }
 
+    static int divFloor(int n, int d) {
+        return (int)Math.floor(n/(double)d);
+    }
+
     public Raster getTile(int tileX, int tileY) {
         WritableRaster dest = makeTile(tileX, tileY);
-        Rectangle srcR   = dest.getBounds();
-
-        // Get Raster from offsetes
-        Raster     mapRas = offsets.getData(srcR);
-        ColorModel mapCM  = offsets.getColorModel();
-        // ensure map isn't pre-multiplied.
-        GraphicsUtil.coerceData((WritableRaster)mapRas, mapCM, false);
-
-        TileOffsets xinfo = getXOffsets(tileX);
-        TileOffsets yinfo = getYOffsets(tileY);
-
-        if (USE_NN)
-            filterNN(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
-        else if (image.getColorModel().isAlphaPremultiplied())
-            filterBL(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
-        else
-            filterBLPre(mapRas, dest,
-                        xinfo.tile, xinfo.off,
-                        yinfo.tile, yinfo.off);
-
-        return dest;
+        return copyData(dest);
     }
 
+    /**
+     * Returns the offsets of the columns of the source needed by the
+     * given tile column, starting <code>maxOffX</code> columns left
+     * of the tile.
+     *
+     * @deprecated the offsets of the whole image are now shared by
+     *             all the tiles.
+     */
     public TileOffsets getXOffsets(int xTile) {
-        TileOffsets ret = xOffsets[xTile-getMinTileX()];
-        if (ret != null)
-            return ret;
-
         SinglePixelPackedSampleModel sppsm;
         sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int base  = sppsm.getOffset(0, 0);
-        int tw    = sppsm.getWidth();
-
-        // The span we need to cover in the input image.
-        int width = tw+2*maxOffX;
-
-        // The start and end X in image's tile coordinate system...
-        int x0      = getTileGridXOffset() + xTile * tw - maxOffX
-                          - image.getTileGridXOffset();
-        int x1      = x0 + width-1;
-
-        int tile    = (int)Math.floor(x0/(double)tw);
-        int endTile = (int)Math.floor(x1/(double)tw);
-        int loc     = x0-(tile*tw);
-        int endLoc  = tw;
-
-        // Amount not used from right edge tile
-        int slop = ((endTile+1)*tw-1) - x1;
-
-        ret = new TileOffsets(width, base, 1,
-                              loc, endLoc, slop, tile, endTile);
-
-        xOffsets[xTile-getMinTileX()] = ret;
-        return ret;
+        int tw = sppsm.getWidth();
+        return makeOffsets(getTileGridXOffset() + xTile*tw - maxOffX,
+                           tw+2*maxOffX, image.getTileGridXOffset(),
+                           tw, sppsm.getOffset(0, 0), 1);
     }
 
+    /**
+     * Returns the offsets of the rows of the source needed by the
+     * given tile row, starting <code>maxOffY</code> rows above the
+     * tile.
+     *
+     * @deprecated the offsets of the whole image are now shared by
+     *             all the tiles.
+     */
     public TileOffsets getYOffsets(int yTile) {
-        TileOffsets ret = yOffsets[yTile-getMinTileY()];
-        if (ret != null)
-            return ret;
-
         SinglePixelPackedSampleModel sppsm;
         sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int stride  = sppsm.getScanlineStride();
-        int th      = sppsm.getHeight();
-
-        // The span we need to cover in the input image.
-        int height  = th+2*maxOffY;
-
-        // The start and end Y in image's tile coordinate system...
-        int y0      = getTileGridYOffset() + yTile * th - maxOffY
-                          - image.getTileGridYOffset();
-        int y1      = y0 + height - 1;
-
-        int tile    = (int)Math.floor(y0/(double)th);
-        int endTile = (int)Math.floor(y1/(double)th);
-        int loc     = y0-(tile*th);
-        int endLoc  = th;
-
-        // Amount not used from bottom edge tile
-        int slop = ((endTile+1)*th-1) - y1;
-
-        ret = new TileOffsets(height, 0, stride,
-                              loc, endLoc, slop, tile, endTile);
+        int th = sppsm.getHeight();
+        return makeOffsets(getTileGridYOffset() + yTile*th - maxOffY,
+                           th+2*maxOffY, image.getTileGridYOffset(),
+                           th, 0, sppsm.getScanlineStride());
+    }
 
-        yOffsets[yTile-getMinTileY()] = ret;
-        return ret;
+    /**
+     * Fetches the tiles of the source covered by the given tables.
+     */
+    SourceTiles getSourceTiles(int [] xTile, int [] yTile) {
+        return new SourceTiles(image, xTile[0], yTile[0],
+                               xTile[xTile.length-1],
+                               yTile[yTile.length-1]);
     }
 
+    /**
+     * Filters the tile <code>dst</code>, reading the source through
+     * the offsets of the tile column and row of <code>dst</code>, as
+     * returned by <code>getXOffsets</code> and <code>getYOffsets</code>.
+     *
+     * @deprecated the offsets now cover the whole image and tiles
+     *             are computed by <code>copyData</code>.
+     */
     public void filterBL(Raster off, WritableRaster dst,
                          int [] xTile, int [] xOff,
                          int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        filterBL(off, dst, dst.getBounds(), xTile, xOff, yTile, yOff,
+                 maxOffX, maxOffY, getSourceTiles(xTile, yTile));
+    }
+
+    /**
+     * Filters <code>r</code> of <code>dst</code>.  <code>xStart</code>
+     * and <code>yStart</code> are the entries of the offset tables
+     * for the top left corner of <code>r</code>.
+     */
+    void filterBL(Raster off, WritableRaster dst, Rectangle r,
+                  int [] xTile, int [] xOff,
+                  int [] yTile, int [] yOff,
+                  final int xStart, final int yStart, SourceTiles src) {
+        final int w      = r.width;
+        final int h      = r.height;
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
@@ -290,13 +415,13 @@ public class DisplacementMapRed extends AbstractRed {
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
+            dstSPPSM.getOffset(r.x - dst.getSampleModelTranslateX(),
+                               r.y - dst.getSampleModelTranslateY());
 
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
-                               dst.getMinY() - off.getSampleModelTranslateY());
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
@@ -325,7 +450,6 @@ public class DisplacementMapRed extends AbstractRed {
         final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
         final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
 
-        long start = System.currentTimeMillis();
 
         int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
         int sp0, sp1, pel0, pel1;
@@ -348,8 +472,7 @@ public class DisplacementMapRed extends AbstractRed {
                 if ((xt != xTile[x0]) ||
                     (yt != yTile[y0])) {
                     xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
+                    imgPix = src.tile(xt, yt);
                 }
                 pel00  = imgPix[xOff[x0]+yOff[y0]];
 
@@ -366,8 +489,7 @@ public class DisplacementMapRed extends AbstractRed {
                         // Different tile horizontally...
                         pel01  = imgPix[xOff[x0]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt);
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
                         xt = xt1;
@@ -378,23 +500,19 @@ public class DisplacementMapRed extends AbstractRed {
                         // Different tile horizontally.
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt, yt1);
                         pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
                         yt = yt1;
                     } else {
                         // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt, yt1);
                         pel01  = imgPix[xOff[x0]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt1);
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt);
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
                         xt = xt1;
                     }
@@ -450,19 +568,27 @@ public class DisplacementMapRed extends AbstractRed {
             ip += offAdjust;
         }
 
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 
+    /**
+     * Like <code>filterBL</code> but for a source that is not
+     * premultiplied.
+     *
+     * @deprecated tiles are computed by <code>copyData</code>.
+     */
     public void filterBLPre(Raster off, WritableRaster dst,
                             int [] xTile, int [] xOff,
                             int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        filterBLPre(off, dst, dst.getBounds(), xTile, xOff, yTile, yOff,
+                    maxOffX, maxOffY, getSourceTiles(xTile, yTile));
+    }
+
+    void filterBLPre(Raster off, WritableRaster dst, Rectangle r,
+                     int [] xTile, int [] xOff,
+                     int [] yTile, int [] yOff,
+                     final int xStart, final int yStart, SourceTiles src) {
+        final int w      = r.width;
+        final int h      = r.height;
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
@@ -475,13 +601,13 @@ public class DisplacementMapRed extends AbstractRed {
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
+            dstSPPSM.getOffset(r.x - dst.getSampleModelTranslateX(),
+                               r.y - dst.getSampleModelTranslateY());
 
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
-                               dst.getMinY() - off.getSampleModelTranslateY());
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
@@ -511,7 +637,6 @@ public class DisplacementMapRed extends AbstractRed {
         final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
         final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
 
-        long start = System.currentTimeMillis();
 
         int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
         int sp0, sp1, pel0, pel1, a00, a01, a10, a11;
@@ -535,8 +660,7 @@ public class DisplacementMapRed extends AbstractRed {
                 if ((xt != xTile[x0]) || (yt != yTile[y0])) {
                     xt = xTile[x0];
                     yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
+                    imgPix = src.tile(xt, yt);
                 }
                 pel00  = imgPix[xOff[x0]+yOff[y0]];
 
@@ -553,8 +677,7 @@ public class DisplacementMapRed extends AbstractRed {
                         // Different tile horizontally...
                         pel01  = imgPix[xOff[x0]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt);
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
                         xt = xt1;
@@ -565,23 +688,19 @@ public class DisplacementMapRed extends AbstractRed {
                         // Different tile horizontally.
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt, yt1);
                         pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
                         yt = yt1;
                     } else {
                         // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt, yt1);
                         pel01  = imgPix[xOff[x0]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt1);
                         pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
 
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
+                        imgPix = src.tile(xt1, yt);
                         pel10  = imgPix[xOff[x0+1]+yOff[y0]];
                         xt = xt1;
                     }
@@ -642,10 +761,6 @@ public class DisplacementMapRed extends AbstractRed {
             ip += offAdjust;
         }
 
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 
     /**
@@ -655,14 +770,21 @@ public class DisplacementMapRed extends AbstractRed {
      * @param dst stores the filtered image. If null, a destination will
      *        be created. img and dst can refer to the same Raster, in
      *        which situation the img will be modified.
+     * @deprecated tiles are computed by <code>copyData</code>.
      */
     public void filterNN(Raster off, WritableRaster dst,
                          int [] xTile, int [] xOff,
                          int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        filterNN(off, dst, dst.getBounds(), xTile, xOff, yTile, yOff,
+                 maxOffX, maxOffY, getSourceTiles(xTile, yTile));
+    }
+
+    void filterNN(Raster off, WritableRaster dst, Rectangle r,
+                  int [] xTile, int [] xOff,
+                  int [] yTile, int [] yOff,
+                  final int xStart, final int yStart, SourceTiles src) {
+        final int w      = r.width;
+        final int h      = r.height;
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
@@ -675,13 +797,13 @@ public class DisplacementMapRed extends AbstractRed {
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
+            dstSPPSM.getOffset(r.x - dst.getSampleModelTranslateX(),
+                               r.y - dst.getSampleModelTranslateY());
 
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(off.getMinX() - off.getSampleModelTranslateX(),
-                               off.getMinY() - off.getSampleModelTranslateY());
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
@@ -712,7 +834,6 @@ public class DisplacementMapRed extends AbstractRed {
         // The pointer of img and dst indicating where the pixel values are
         int dp = dstOff, ip = offOff;
 
-        long start = System.currentTimeMillis();
         int y=yStart, xt=xTile[0]-1, yt=yTile[0]-1;
         int [] imgPix = null;
 
@@ -731,8 +852,7 @@ public class DisplacementMapRed extends AbstractRed {
                 if ((xt != xTile[x0]) ||
                     (yt != yTile[y0])) {
                     xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
+                    imgPix = src.tile(xt, yt);
                 }
                 dstPixels[dp] = imgPix[xOff[x0]+yOff[y0]];
 
@@ -745,10 +865,6 @@ public class DisplacementMapRed extends AbstractRed {
             ip += offAdjust;
             y++;
         }
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 }
 
@@ -21,6 +21,7 @@ package org.apache.batik.ext.awt.image.rendered;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
@@ -111,10 +112,6 @@ public class SpecularLightingRed extends AbstractTiledRed{
     }
 
     public void genRect(WritableRaster wr) {
-        // Copy variable on stack for faster access in tight loop
-        final double scaleX = this.scaleX;
-        final double scaleY = this.scaleY;
-
         final double[] lightColor = light.getColor(linear);
 
         final int w = wr.getWidth();
@@ -128,26 +125,17 @@ public class SpecularLightingRed extends AbstractTiledRed{
         final SinglePixelPackedSampleModel sppsm;
         sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
 
-        final int offset = 
+        final int offset =
             (db.getOffset() +
-             sppsm.getOffset(minX-wr.getSampleModelTranslateX(), 
+             sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
                              minY-wr.getSampleModelTranslateY()));
-        // int offset = db.getOffset();
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int a=0, i=0, j=0;
-
-        // x and y are in user space
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double norm = 0;
 
         int pixel = 0, tmp;
         double mult;
         mult = (lightColor[0]>lightColor[1])?lightColor[0]:lightColor[1];
         mult = (mult>lightColor[2])?mult:lightColor[2];
-        
+
         double scale = 255/mult;
         pixel = (int)(lightColor[0]*scale+0.5);
         tmp   = (int)(lightColor[1]*scale+0.5);
@@ -157,98 +145,168 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
         mult*=255*ks;
 
-        // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
-
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
-
-        // System.out.println("Entering Specular Lighting");
-        if (light instanceof SpotLight) {
-            SpotLight slight = (SpotLight)light;
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                slight.getLightRow4(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    double vs = L[3];
-                    if (vs == 0) {
-                        a = 0;
-                    } else {
-                        L[2] += 1;
-                        norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                        norm = Math.sqrt(norm);
-                        double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                        vs = vs*Math.pow(dot/norm, specularExponent);
-                        a = (int)(mult*vs + 0.5);
-                        if ((a & 0xFFFFFF00) != 0)
-                            a = ((a & 0x80000000) != 0)?0:255;
-                    }
-                    pixels[p++] = (a << 24 | pixel);
-                }
-                p += adjust;
-            }
-        } else if(!light.isConstant()){
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    L[2] += 1;
-                    norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                    norm = Math.sqrt(norm);
-                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                    // vs = vs/norm;
-                    norm = Math.pow(dot/norm, specularExponent);
-                    a = (int)(mult*norm + 0.5);
-                    if ((a & 0xFFFFFF00) != 0)
-                        a = ((a & 0x80000000) != 0)?0:255;
-                    pixels[p++] = (a << 24 | pixel);
-                }
-                p += adjust;
-            }
-        }
-        else{
+        // Fetch the bump map data once, the pieces below only compute.
+        final Raster support = bumpMap.getSupportData(minX, minY, w, h);
+
+        final double[] constL;
+        if (light.isConstant()) {
             // Get constant light vector
             final double[] L = new double[3];
             light.getLight(0, 0, 0, L);
 
             // Compute Half-way vector
             L[2] += 1;
-            norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
+            double norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
             if(norm > 0){
                 L[0] /= norm;
                 L[1] /= norm;
                 L[2] /= norm;
             }
+            constL = L;
+        } else {
+            constL = null;
+        }
+
+        final int color = pixel;
+        final double colorMult = mult;
+        // Tiles are small, so split them in bands rather than squares.
+        int band = (h + TileWorkerPool.getThreadCount() - 1)
+            / TileWorkerPool.getThreadCount();
+        if (band < MIN_BAND_HEIGHT) band = MIN_BAND_HEIGHT;
+        TileWorkerPool.run
+            (new Rectangle(minX, minY, w, h), w, band,
+             new TileWorkerPool.Task() {
+                 public void run(Rectangle r) {
+                     float[] N = (float[])normalBuffer.get();
+                     N = bumpMap.getNormals(support, r.x, r.y,
+                                            r.width, r.height, N);
+                     normalBuffer.set(N);
+                     int p = offset + (r.y-minY)*scanStride + (r.x-minX);
+                     light(N, r, p, scanStride - r.width, pixels,
+                           color, colorMult, constL);
+                 }
+             });
+    }
+
+    /**
+     * Smallest number of rows handed to a worker thread.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    /**
+     * Number of intervals in the specular exponent table.
+     */
+    private static final int POW_LUT_SIZE = 8192;
 
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    a = (int)(mult*Math.pow(N[0]*L[0] + N[1]*L[1] + N[2]*L[2], 
-                                            specularExponent) + 0.5);
-                    
+    /**
+     * Per thread normal buffer, reused from piece to piece.
+     */
+    private static final ThreadLocal normalBuffer = new ThreadLocal();
+
+    /**
+     * Table of <code>pow(d, specularExponent)</code> for
+     * <code>d</code> in [-1, 1].  Like <code>Math.pow</code> the table
+     * holds zero where the result is undefined (negative
+     * <code>d</code> with a fractional exponent).
+     */
+    private float[] powLut;
+
+    private synchronized float[] getPowLut() {
+        if (powLut != null)
+            return powLut;
+
+        float[] lut = new float[POW_LUT_SIZE+2];
+        for (int i=0; i<=POW_LUT_SIZE; i++) {
+            double v = Math.pow(i*2.0/POW_LUT_SIZE - 1, specularExponent);
+            lut[i] = (v == v) ? (float)v : 0f; // NaN check
+        }
+        // Guard entry so interpolating at d == 1 stays in bounds.
+        lut[POW_LUT_SIZE+1] = lut[POW_LUT_SIZE];
+        powLut = lut;
+        return lut;
+    }
+
+    /**
+     * Looks up <code>pow(d, specularExponent)</code>, interpolating
+     * linearly between table entries.
+     */
+    private static double pow(final float[] lut, double d) {
+        if (d >=  1) return lut[POW_LUT_SIZE];
+        if (d <= -1) return lut[0];
+        final double f = (d + 1) * (POW_LUT_SIZE / 2);
+        final int i = (int)f;
+        final double t = f - i;
+        return lut[i] + t*(lut[i+1] - lut[i]);
+    }
+
+    /**
+     * Lights the piece <code>r</code> of the destination given the
+     * planar normal buffer <code>N</code> for that piece.
+     *
+     * @param constL the normalized half-way vector when the light is
+     *        constant, null otherwise.
+     */
+    private void light(final float[] N, final Rectangle r,
+                       int p, final int adjust, final int[] pixels,
+                       final int pixel, final double mult,
+                       final double[] constL) {
+        // Copy variable on stack for faster access in tight loop
+        final double scaleX = this.scaleX;
+        final double scaleY = this.scaleY;
+        final float[] lut = getPowLut();
+
+        final int w = r.width;
+        final int h = r.height;
+        final int sz = w*h;
+        int a, k = 0;
+
+        if (constL != null) {
+            final double L0 = constL[0], L1 = constL[1], L2 = constL[2];
+            for (int i=0; i<h; i++) {
+                for (int j=0; j<w; j++, k++) {
+                    a = (int)(mult*pow(lut, N[k]*L0 + N[k+sz]*L1 +
+                                       N[k+2*sz]*L2) + 0.5);
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
-
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
             }
+            return;
+        }
+
+        SpotLight slight = null;
+        if (light instanceof SpotLight)
+            slight = (SpotLight)light;
+
+        final double[] L = new double[4];
+        for (int i=0; i<h; i++) {
+            // x and y are in user space
+            final double y = scaleY*(r.y+i);
+            double x = scaleX*r.x;
+            for (int j=0; j<w; j++, k++, x+=scaleX) {
+                final double z = N[k+3*sz];
+                double vs = 1;
+                if (slight != null) {
+                    slight.getLight4(x, y, z, L);
+                    vs = L[3];
+                } else {
+                    light.getLight(x, y, z, L);
+                }
+                if (vs == 0) {
+                    a = 0;
+                } else {
+                    L[2] += 1;
+                    double norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] +
+                                            L[2]*L[2]);
+                    double dot = N[k]*L[0] + N[k+sz]*L[1] + N[k+2*sz]*L[2];
+                    a = (int)(mult*vs*pow(lut, dot/norm) + 0.5);
+                    if ((a & 0xFFFFFF00) != 0)
+                        a = ((a & 0x80000000) != 0)?0:255;
+                }
+                pixels[p++] = (a << 24 | pixel);
+            }
+            p += adjust;
         }
-        // System.out.println("Exiting Specular Lighting");
     }
 }
@@ -0,0 +1,257 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.batik.util.HaltingThread;
+
+/**
+ * A small pool of daemon threads used to compute independent pieces
+ * of a rendered image in parallel.  The area to compute is cut into
+ * pieces of at most <code>pieceWidth</code> by <code>pieceHeight</code>
+ * pixels which are handed out to the calling thread and to up to
+ * <code>getThreadCount()-1</code> workers.  The calling thread always
+ * takes part in the work, so a busy pool only costs parallelism, never
+ * progress.
+ *
+ * <p>Tasks must only touch state that is private to the piece they
+ * compute (typically a child of the destination raster).  In
+ * particular they should not pull data from source images, since the
+ * tile stores are not thread safe; the source data should be fetched
+ * by the calling thread before the pool is invoked.</p>
+ *
+ * <p>The number of threads defaults to the number of available
+ * processors and can be changed with the
+ * <code>org.apache.batik.tileWorkerThreads</code> system property or
+ * {@link #setThreadCount}.  A count of one disables the pool.</p>
+ *
+ * @version $Id$
+ */
+public final class TileWorkerPool {
+
+    /**
+     * The interface implemented by the work handed to the pool.
+     */
+    public interface Task {
+        /**
+         * Computes the given piece of the image.  Called
+         * concurrently from several threads, each with a distinct
+         * rectangle.
+         */
+        void run(Rectangle piece);
+    }
+
+    private static int threadCount;
+
+    private static ExecutorService executor;
+
+    static {
+        int n = Runtime.getRuntime().availableProcessors();
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.tileWorkerThreads");
+            if (s != null)
+                n = Integer.parseInt(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        threadCount = (n < 1) ? 1 : n;
+    }
+
+    /**
+     * Set by the worker threads so nested invocations run inline
+     * instead of waiting on the pool they are part of.
+     */
+    private static final ThreadLocal IS_WORKER = new ThreadLocal();
+
+    private TileWorkerPool() { }
+
+    /**
+     * Returns the number of threads (including the caller) used to
+     * compute an area.
+     */
+    public static synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of threads (including the caller) used to
+     * compute an area.  Values smaller than two disable the pool.
+     */
+    public static synchronized void setThreadCount(int n) {
+        if (n < 1) n = 1;
+        if (n == threadCount) return;
+        threadCount = n;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (threadCount < 2)
+            return null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool
+                (threadCount-1, new ThreadFactory() {
+                        int count;
+                        public Thread newThread(final Runnable r) {
+                            Thread t = new Thread(new Runnable() {
+                                    public void run() {
+                                        IS_WORKER.set(Boolean.TRUE);
+                                        r.run();
+                                    }
+                                }, "Batik TileWorker-" + (count++));
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * Computes <code>area</code> by calling <code>task</code> on
+     * pieces of at most <code>pieceWidth</code> by
+     * <code>pieceHeight</code> pixels.  Returns when all the pieces
+     * have been computed, or as soon as possible once the calling
+     * thread has been halted (see {@link HaltingThread}).
+     */
+    public static void run(Rectangle area, int pieceWidth, int pieceHeight,
+                           Task task) {
+        if ((area.width <= 0) || (area.height <= 0))
+            return;
+        if (pieceWidth  <= 0) pieceWidth  = area.width;
+        if (pieceHeight <= 0) pieceHeight = area.height;
+
+        int nx = (area.width  + pieceWidth  - 1) / pieceWidth;
+        int ny = (area.height + pieceHeight - 1) / pieceHeight;
+        Pieces pieces = new Pieces(area, pieceWidth, pieceHeight,
+                                   nx, ny, task, Thread.currentThread());
+
+        ExecutorService ex = null;
+        if ((nx*ny > 1) && (IS_WORKER.get() == null))
+            ex = getExecutor();
+        if (ex == null) {
+            pieces.run();
+            pieces.rethrow();
+            return;
+        }
+
+        int helpers = Math.min(nx*ny, getThreadCount()) - 1;
+        Future [] futures = new Future[helpers];
+        try {
+            for (int i = 0; i < helpers; i++)
+                futures[i] = ex.submit(pieces);
+        } catch (RuntimeException re) {
+            // Pool was shut down under us, just do the rest here.
+        }
+
+        pieces.run();
+
+        // Helpers that never got a thread have nothing left to do.
+        for (int i = 0; i < helpers; i++) {
+            if (futures[i] == null) continue;
+            futures[i].cancel(false);
+        }
+        pieces.awaitRunning();
+        pieces.rethrow();
+    }
+
+    /**
+     * The shared state of one invocation of <code>run</code>.  Every
+     * thread working on it pulls the next piece until none is left.
+     */
+    private static class Pieces implements Runnable {
+        final Rectangle area;
+        final int pieceWidth, pieceHeight, nx, total;
+        final Task task;
+        final Thread owner;
+
+        int next;
+        int running;
+        Throwable failure;
+
+        Pieces(Rectangle area, int pieceWidth, int pieceHeight,
+               int nx, int ny, Task task, Thread owner) {
+            this.area        = area;
+            this.pieceWidth  = pieceWidth;
+            this.pieceHeight = pieceHeight;
+            this.nx          = nx;
+            this.total       = nx*ny;
+            this.task        = task;
+            this.owner       = owner;
+        }
+
+        public void run() {
+            synchronized (this) { running++; }
+            try {
+                int idx;
+                while ((idx = nextPiece()) >= 0) {
+                    int px = area.x + (idx % nx) * pieceWidth;
+                    int py = area.y + (idx / nx) * pieceHeight;
+                    int pw = Math.min(pieceWidth,  area.x+area.width -px);
+                    int ph = Math.min(pieceHeight, area.y+area.height-py);
+                    task.run(new Rectangle(px, py, pw, ph));
+                }
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (failure == null) failure = t;
+                    next = total;
+                }
+            } finally {
+                synchronized (this) {
+                    running--;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized int nextPiece() {
+            if ((next >= total) || HaltingThread.hasBeenHalted(owner))
+                return -1;
+            return next++;
+        }
+
+        synchronized void awaitRunning() {
+            boolean interrupted = false;
+            while (running > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        synchronized void rethrow() {
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            if (failure instanceof Error)
+                throw (Error)failure;
+        }
+    }
+}
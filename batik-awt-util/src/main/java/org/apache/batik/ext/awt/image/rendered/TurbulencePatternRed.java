@@ -19,6 +19,7 @@
 
 package org.apache.batik.ext.awt.image.rendered;
 
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
@@ -28,7 +29,17 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -140,6 +151,12 @@ public final class TurbulencePatternRed extends AbstractRed {
      */
     private StitchInfo stitchInfo = null;
 
+    /**
+     * The stitching info for each octave, as consecutive (wrapX,
+     * width, wrapY, height) entries, or null when stitching is off.
+     */
+    private int[] stitchTable;
+
     /**
      * Identity transform, default used when null input in the constructor.
      */
@@ -307,899 +324,348 @@ public final class TurbulencePatternRed extends AbstractRed {
     }
 
     /**
-     * Generate a pixel of noise corresponding to the point vec0,vec1.
-     * See class description for a high level discussion of method.
-     * This handles cases where channels <= 4.
-     * @param noise The place to put the generated noise.
-     * @param vec0  The X coordiate to generate noise for
-     * @param vec1  The Y coordiate to generate noise for
+     * Computes one octave of one channel of noise.
      */
-    private final void noise2(final double[] noise, double vec0, double vec1) {
-        int b0, b1;
-        final int i, j;
-        final double rx0, rx1, ry0, ry1, sx, sy;
-
-        vec0 += PerlinN;
-        b0 = ((int)vec0)&BM;
-
-        i = latticeSelector[b0];
-        j = latticeSelector[b0+1];
-
-        rx0 = vec0 - (int)vec0;
-        rx1 = rx0 - 1.0;
-        sx  = s_curve(rx0);
-
-        vec1 += PerlinN;
-        b0 = (int)vec1;
-
-        // The gradient array already has the latticeSelector applied
-        // to it, So we can avoid doing the last lookup.
-        b1 = ((j + b0)&BM)<<3;
-        b0 = ((i + b0)&BM)<<3;
-
-        ry0 = vec1 - (int)vec1;
-        ry1 = ry0 - 1.0;
-        sy = s_curve(ry0);
-
-        switch (channels.length) {
-            // Intentionally use 'fall through' in switch statement.
-        case 4:
-            noise[3] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
-                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
-                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
-        case 3:
-            noise[2] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
-                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
-                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
-        case 2:
-            noise[1] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
-                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
-                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
-        case 1:
-            noise[0] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
-                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
-                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
-        }
+    private static double noise(final double[] gradient, final int g,
+                                final int b00, final int b10,
+                                final int b01, final int b11,
+                                final double rx0, final double rx1,
+                                final double ry0, final double ry1,
+                                final double sx,  final double sy) {
+        return lerp(sy,
+                    lerp(sx,
+                         rx0*gradient[b00+g] + ry0*gradient[b00+g+1],
+                         rx1*gradient[b10+g] + ry0*gradient[b10+g+1]),
+                    lerp(sx,
+                         rx0*gradient[b01+g] + ry1*gradient[b01+g+1],
+                         rx1*gradient[b11+g] + ry1*gradient[b11+g+1]));
     }
 
     /**
-     * This version of the noise function implements stitching.
-     * If any of the lattice is on the right or bottom edge, the
-     * function uses the the latice on the other side of the
-     * tile, i.e., the left or right edge.
-     * @param noise The place to put the generated noise.
-     * @param vec0  The X coordiate to generate noise for
-     * @param vec1  The Y coordiate to generate noise for
-     * @param stitchInfo The stitching information for the noise function.
+     * Generates a run of pixels.  This is the single loop behind all
+     * the flavors of the filter (fractal or turbulence, stitched or
+     * not, one to four channels): the per octave stitching state is
+     * precomputed in <code>stitchTable</code> and the channel count
+     * tests are loop invariant, so the JIT hoists them out.
+     *
+     * @param dst the destination pixels.
+     * @param dp the index of the first destination pixel.
+     * @param w the number of pixels to generate.
+     * @param pointX x coordinate of the first pixel in filter space.
+     * @param pointY y coordinate of the first pixel in filter space.
+     * @param dx x step in filter space between two pixels.
+     * @param dy y step in filter space between two pixels.
      */
-    private final void noise2Stitch(final double[] noise,
-                                    final double vec0, final double vec1,
-                                    final StitchInfo stitchInfo){
-        int b0, b1;
-        final int i, j, b00, b10, b01, b11;
-        double t;
-        final double rx0, rx1, ry0, ry1, sx, sy;
-
-        t = vec0  + PerlinN;
-        b0 = ((int)t);
-        b1 = b0+1;
-        // Stitch lattice tile x coordinates
-        if (b1 >= stitchInfo.wrapX) {
-            if (b0 >= stitchInfo.wrapX) {
-                b0 -= stitchInfo.width;
-                b1 -= stitchInfo.width;
-            } else {
-                b1 -= stitchInfo.width;
+    private void fillRow(final int[] dst, final int dp, final int w,
+                         final double pointX, final double pointY,
+                         final double dx, final double dy) {
+        final int nc = channels.length;
+        final int[] latticeSelector = this.latticeSelector;
+        final double[] gradient = this.gradient;
+        final boolean fractal = this.isFractalNoise;
+
+        final double ratio0 = fractal ? 127.5 : 255;
+        final double init = fractal ? 127.5 : 0;
+        final int octaves = numOctaves;
+        final int[] wrap = stitchTable;
+
+        for (int j=0; j<w; j++) {
+            double vx = (pointX + j*dx)*baseFrequencyX;
+            double vy = (pointY + j*dy)*baseFrequencyY;
+            double s0 = init, s1 = init, s2 = init, s3 = init;
+            double ratio = ratio0;
+            for (int nOctave = 0, o = 0; nOctave < octaves; nOctave++, o+=4) {
+                double t = vx + PerlinN;
+                int bx0 = (int)t;
+                final double rx0 = t - bx0;
+                int bx1 = bx0+1;
+
+                t = vy + PerlinN;
+                int by0 = (int)t;
+                final double ry0 = t - by0;
+                int by1 = by0+1;
+
+                if (wrap != null) {
+                    // Stitch lattice tile x and y coordinates
+                    if (bx1 >= wrap[o]) {
+                        if (bx0 >= wrap[o]) bx0 -= wrap[o+1];
+                        bx1 -= wrap[o+1];
+                    }
+                    if (by1 >= wrap[o+2]) {
+                        if (by0 >= wrap[o+2]) by0 -= wrap[o+3];
+                        by1 -= wrap[o+3];
+                    }
+                }
+
+                // The gradient array already has the latticeSelector
+                // applied to it, So we can avoid doing the last lookup.
+                final int i  = latticeSelector[bx0&BM];
+                final int k  = latticeSelector[bx1&BM];
+                final int b00 = ((i + by0)&BM)<<3;
+                final int b10 = ((k + by0)&BM)<<3;
+                final int b01 = ((i + by1)&BM)<<3;
+                final int b11 = ((k + by1)&BM)<<3;
+
+                final double rx1 = rx0 - 1.0;
+                final double ry1 = ry0 - 1.0;
+                final double sx  = s_curve(rx0);
+                final double sy  = s_curve(ry0);
+
+                double n0, n1=0, n2=0, n3=0;
+                n0 = noise(gradient, 0, b00, b10, b01, b11,
+                           rx0, rx1, ry0, ry1, sx, sy);
+                if (nc > 1)
+                    n1 = noise(gradient, 2, b00, b10, b01, b11,
+                               rx0, rx1, ry0, ry1, sx, sy);
+                if (nc > 2)
+                    n2 = noise(gradient, 4, b00, b10, b01, b11,
+                               rx0, rx1, ry0, ry1, sx, sy);
+                if (nc > 3)
+                    n3 = noise(gradient, 6, b00, b10, b01, b11,
+                               rx0, rx1, ry0, ry1, sx, sy);
+                if (!fractal) {
+                    if (n0 < 0) n0 = -n0;
+                    if (n1 < 0) n1 = -n1;
+                    if (n2 < 0) n2 = -n2;
+                    if (n3 < 0) n3 = -n3;
+                }
+                s0 += n0 * ratio;
+                s1 += n1 * ratio;
+                s2 += n2 * ratio;
+                s3 += n3 * ratio;
+
+                ratio *= .5;
+                vx *= 2;
+                vy *= 2;
             }
-        }
-        i = latticeSelector[b0&BM];
-        j = latticeSelector[b1&BM];
-
-        rx0 = t - (int)t;
-        rx1 = rx0 - 1.0;
-        sx = s_curve(rx0);
-
-        t = vec1 + PerlinN;
-        b0 = ((int)t);
-        b1 = b0+1;
-        // Stitch lattice tile y coordinates
-        if (b1 >= stitchInfo.wrapY) {
-            if (b0 >= stitchInfo.wrapY) {
-                b0 -= stitchInfo.height;
-                b1 -= stitchInfo.height;
-            } else {
-                b1 -= stitchInfo.height;
+
+            // Pack the sums, channels 0-3 go to R, G, B and A.
+            int v, pix;
+            v = (int)s0;
+            if ((v & 0xFFFFFF00) != 0) v = ((v & 0x80000000) != 0)?0:255;
+            pix = v << 16;
+            if (nc > 1) {
+                v = (int)s1;
+                if ((v & 0xFFFFFF00) != 0) v = ((v & 0x80000000) != 0)?0:255;
+                pix |= v << 8;
             }
-        }
-        // In this case we still need to keep all four indexes since
-        // we may have split y across the stitch boundry, in which
-        // case b0 and b1 do not have a fixed offset from one another.
-        // We still avoid a latticeSelector lookup for each index though...
-        b00 = ((i + b0)&BM)<<3;
-        b10 = ((j + b0)&BM)<<3;
-        b01 = ((i + b1)&BM)<<3;
-        b11 = ((j + b1)&BM)<<3;
-
-        ry0 = t - (int)t;
-        ry1 = ry0 - 1.0;
-        sy = s_curve(ry0);
-
-        switch (channels.length) {
-            // Intentionally use 'fall through' in switch statement.
-        case 4:
-            noise[3] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b00+6] + ry0*gradient[b00+7],
-                          rx1*gradient[b10+6] + ry0*gradient[b10+7]),
-                     lerp(sx,
-                          rx0*gradient[b01+6] + ry1*gradient[b01+7],
-                          rx1*gradient[b11+6] + ry1*gradient[b11+7]));
-        case 3:
-            noise[2] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b00+4] + ry0*gradient[b00+5],
-                          rx1*gradient[b10+4] + ry0*gradient[b10+5]),
-                     lerp(sx,
-                          rx0*gradient[b01+4] + ry1*gradient[b01+5],
-                          rx1*gradient[b11+4] + ry1*gradient[b11+5]));
-        case 2:
-            noise[1] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b00+2] + ry0*gradient[b00+3],
-                          rx1*gradient[b10+2] + ry0*gradient[b10+3]),
-                     lerp(sx,
-                          rx0*gradient[b01+2] + ry1*gradient[b01+3],
-                          rx1*gradient[b11+2] + ry1*gradient[b11+3]));
-        case 1:
-            noise[0] =
-                lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b00+0] + ry0*gradient[b00+1],
-                          rx1*gradient[b10+0] + ry0*gradient[b10+1]),
-                     lerp(sx,
-                          rx0*gradient[b01+0] + ry1*gradient[b01+1],
-                          rx1*gradient[b11+0] + ry1*gradient[b11+1]));
+            if (nc > 2) {
+                v = (int)s2;
+                if ((v & 0xFFFFFF00) != 0) v = ((v & 0x80000000) != 0)?0:255;
+                pix |= v;
+            }
+            if (nc > 3) {
+                v = (int)s3;
+                if ((v & 0xFFFFFF00) != 0) v = ((v & 0x80000000) != 0)?0:255;
+                pix |= v << 24;
+            }
+            dst[dp+j] = pix;
         }
     }
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.  This is
-     * special case for 4 bands of output.
-     *
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @return The ARGB pixel value.
+     * Generates the noise for <code>dest</code>.
      */
-    private final int turbulence_4(double pointX,
-                                   double pointY,
-                                   final double[] fSum) {
-        double n, ratio = 255;
-        int i, j, b0, b1, nOctave;
-        double px, py, rx0, rx1, ry0, ry1, sx, sy;
-
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 0;
-
-        for (nOctave = numOctaves; nOctave > 0; nOctave--){
-            px = pointX+PerlinN;
-
-            b0 = ((int)px)&BM;
-            i = latticeSelector[b0 ];
-            j = latticeSelector[b0+1];
-
-            rx0 = px - (int)px;
-            rx1 = rx0 - 1.0;
-            sx  = s_curve(rx0);
-
-            py = pointY+PerlinN;
-            b0 = ((int)py) & BM;
-            b1 = (b0+1) & BM;
-
-            b1 = ((j + b0)&BM)<<3;
-            b0 = ((i + b0)&BM)<<3;
-
-            ry0 = py - (int)py;
-            ry1 = ry0 - 1.0;
-            sy = s_curve(ry0);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
-                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
-                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
-
-            if (n<0) fSum[0] -= (n * ratio);
-            else     fSum[0] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
-                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
-                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
-
-            if (n<0) fSum[1] -= (n * ratio);
-            else     fSum[1] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
-                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
-                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
-
-            if (n<0) fSum[2] -= (n * ratio);
-            else     fSum[2] += (n * ratio);
-
-            n = lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
-                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
-                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
-            if (n<0) fSum[3] -= (n * ratio);
-            else     fSum[3] += (n * ratio);
-
-            ratio *= .5;
-            pointX *= 2;
-            pointY *= 2;
-        }
+    private void genRect(WritableRaster dest) {
+        int w = dest.getWidth();
+        int h = dest.getHeight();
 
-        i = (int)fSum[0];
-        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
-        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
+        // Access the integer buffer for the destination Raster
+        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
+        SinglePixelPackedSampleModel sppsm;
+        int minX = dest.getMinX();
+        int minY = dest.getMinY();
+        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
+        int dstOff = dstDB.getOffset() +
+            sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
+                            minY - dest.getSampleModelTranslateY());
 
-        i = (int)fSum[1];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
+        final int[] destPixels = dstDB.getBankData()[0];
+        final int scanStride = sppsm.getScanlineStride();
 
-        i = (int)fSum[2];
-        if ((i & 0xFFFFFF00) == 0) j |= i;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
+        final double ty0 = ty[0];
+        final double ty1 = ty[1];
 
-        i = (int)fSum[3];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
-        return j;
-    }
+        double[] p = {minX, minY};
+        txf.transform(p, 0, p, 0, 1);
 
+        for (int i=0; i<h; i++) {
+            fillRow(destPixels, dstOff + i*scanStride, w,
+                    p[0] + i*ty0, p[1] + i*ty1, tx0, tx1);
+        }
+    }
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.
-     * @param rgb array for the four color components
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @param noise array used to avoid reallocating double array for
-     *        each pixel
+     * Generates a Perlin noise pattern into dest Raster.
+     * @param dest Raster to fill with the pattern.
      */
-    private final void turbulence(final int[] rgb,
-                                  double pointX,
-                                  double pointY,
-                                  final double[] fSum,
-                                  final double[] noise) {
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 0;
-        double ratio = 255;
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        switch (channels.length) {
-        case 4:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2(noise, pointX, pointY);
-
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[2]<0) fSum[2] -= (noise[2] * ratio);
-                else            fSum[2] += (noise[2] * ratio);
-                if (noise[3]<0) fSum[3] -= (noise[3] * ratio);
-                else            fSum[3] += (noise[3] * ratio);
-                ratio *= .5;
-                pointX *= 2;
-                pointY *= 2;
-            }
-
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            rgb[1] = (int)fSum[1];
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[2] = (int)fSum[2];
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-            rgb[3] = (int)fSum[3];
-            if ((rgb[3] & 0xFFFFFF00) != 0)
-                rgb[3] = ((rgb[3] & 0x80000000) != 0)?0:255;
-            break;
-        case 3:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2(noise, pointX, pointY);
-
-                if (noise[2]<0) fSum[2] -= (noise[2] * ratio);
-                else            fSum[2] += (noise[2] * ratio);
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio *= .5;
-                pointX *= 2;
-                pointY *= 2;
-            }
-            rgb[2] = (int)fSum[2];
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-            rgb[1] = (int)fSum[1];
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        case 2:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2(noise, pointX, pointY);
-
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio *= .5;
-                pointX *= 2;
-                pointY *= 2;
-            }
+    public WritableRaster copyData(final WritableRaster dest) {
+        //
+        // First, check input arguments
+        //
+        if(dest==null)
+            throw new IllegalArgumentException
+                ("Cannot generate a noise pattern into a null raster");
 
-            rgb[1] = (int)fSum[1];
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        case 1:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2(noise, pointX, pointY);
-
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio *= .5;
-                pointX *= 2;
-                pointY *= 2;
-            }
+        final Rectangle destR = dest.getBounds();
+        final int tw = getTileWidth();
+        final int th = getTileHeight();
 
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
+        if (getTileCacheSize() == 0) {
+            TileWorkerPool.run(destR, tw, th, new TileWorkerPool.Task() {
+                    public void run(Rectangle r) {
+                        genRect(dest.createWritableChild
+                                (r.x, r.y, r.width, r.height,
+                                 r.x, r.y, null));
+                    }
+                });
+            return dest;
         }
+
+        // Work on whole tiles of the tile grid so the results can be
+        // shared with other images using the same parameters.
+        final int tx0 = getXTile(destR.x);
+        final int ty0 = getYTile(destR.y);
+        final int tx1 = getXTile(destR.x+destR.width -1);
+        final int ty1 = getYTile(destR.y+destR.height-1);
+        final int gx = tileGridXOff;
+        final int gy = tileGridYOff;
+        final Rectangle area = new Rectangle
+            (tx0*tw+gx, ty0*th+gy, (tx1-tx0+1)*tw, (ty1-ty0+1)*th);
+
+        TileWorkerPool.run(area, tw, th, new TileWorkerPool.Task() {
+                public void run(Rectangle r) {
+                    Raster tile = getCachedTile(getXTile(r.x),
+                                                getYTile(r.y));
+                    GraphicsUtil.copyData(tile, dest);
+                }
+            });
+
+        return dest;
     }
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.
-     * @param rgb array for the four color components
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @param noise array used to avoid reallocating double array for
-     * each pixel
-     * @param stitchInfo The stitching information for the noise function
+     * Maximum number of noise tiles kept by the shared cache.
      */
-    private final void turbulenceStitch(final int[] rgb,
-                                        double pointX, double pointY,
-                                        final double[] fSum,
-                                        final double[] noise,
-                                        StitchInfo stitchInfo){
-        double ratio = 1;
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 0;
-        switch (channels.length) {
-        case 4:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2Stitch(noise, pointX, pointY, stitchInfo);
-
-                if (noise[3]<0) fSum[3] -= (noise[3] * ratio);
-                else            fSum[3] += (noise[3] * ratio);
-                if (noise[2]<0) fSum[2] -= (noise[2] * ratio);
-                else            fSum[2] += (noise[2] * ratio);
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio  *= .5;
-                pointX *= 2;
-                pointY *= 2;
-
-                stitchInfo.doubleFrequency();
-            }
-            rgb[3] = (int)(fSum[3] * 255);
-            if ((rgb[3] & 0xFFFFFF00) != 0)
-                rgb[3] = ((rgb[3] & 0x80000000) != 0)?0:255;
-            rgb[2] = (int)(fSum[2] * 255);
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-            rgb[1] = (int)(fSum[1] * 255);
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[0] = (int)(fSum[0] * 255);
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        case 3:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2Stitch(noise, pointX, pointY, stitchInfo);
-                if (noise[2]<0) fSum[2] -= (noise[2] * ratio);
-                else            fSum[2] += (noise[2] * ratio);
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio  *= .5;
-                pointX *= 2;
-                pointY *= 2;
-
-                stitchInfo.doubleFrequency();
-            }
-            rgb[2] = (int)(fSum[2] * 255);
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-            rgb[1] = (int)(fSum[1] * 255);
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[0] = (int)(fSum[0] * 255);
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        case 2:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2Stitch(noise, pointX, pointY, stitchInfo);
-                if (noise[1]<0) fSum[1] -= (noise[1] * ratio);
-                else            fSum[1] += (noise[1] * ratio);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio  *= .5;
-                pointX *= 2;
-                pointY *= 2;
-
-                stitchInfo.doubleFrequency();
-            }
-            rgb[1] = (int)(fSum[1] * 255);
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-            rgb[0] = (int)(fSum[0] * 255);
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        case 1:
-            for(int nOctave = 0; nOctave < numOctaves; nOctave++){
-                noise2Stitch(noise, pointX, pointY, stitchInfo);
-                if (noise[0]<0) fSum[0] -= (noise[0] * ratio);
-                else            fSum[0] += (noise[0] * ratio);
-                ratio  *= .5;
-                pointX *= 2;
-                pointY *= 2;
-
-                stitchInfo.doubleFrequency();
+    private static int tileCacheSize = 128;
+
+    /**
+     * Noise tiles shared by all the instances, keyed by the noise
+     * parameters and the tile position.  The least recently used
+     * tiles are dropped first, and the tiles are only softly
+     * reachable so they go away under memory pressure.
+     */
+    private static final LinkedHashMap tileCache =
+        new LinkedHashMap(16, .75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > tileCacheSize;
             }
-            rgb[0] = (int)(fSum[0] * 255);
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
-            break;
-        }
-    }
+        };
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.  This handles the
-     * case where we are generating 4 channels of noise.
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @return The ARGB pixel
+     * Returns the maximum number of noise tiles shared between
+     * instances generating identical noise.
      */
-    private final int turbulenceFractal_4( double pointX,
-                                           double pointY,
-                                           final double[] fSum) {
-        int b0, b1, nOctave, i, j;
-        double px, py, rx0, rx1, ry0, ry1, sx, sy, ratio = 127.5;
-
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 127.5;
-
-        for (nOctave = numOctaves; nOctave > 0; nOctave--){
-            px = pointX+PerlinN;
-
-            b0 = ((int)px)&BM;
-            i = latticeSelector[b0 ];
-            j = latticeSelector[b0+1];
-
-            rx0 = px - (int)px;
-            rx1 = rx0 - 1.0;
-            sx  = s_curve(rx0);
-
-            py = pointY+PerlinN;
-            b0 = ((int)py) & BM;
-            b1 = (b0+1) & BM;
-
-            b1 = ((j + b0)&BM)<<3;
-            b0 = ((i + b0)&BM)<<3;
-
-            ry0 = py - (int)py;
-            ry1 = ry0 - 1.0;
-            sy = s_curve(ry0);
-
-            fSum[0] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+0] + ry0*gradient[b0+1],
-                          rx1*gradient[b1+0] + ry0*gradient[b1+1]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
-                          rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]))*ratio;
-
-            fSum[1] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+2] + ry0*gradient[b0+3],
-                          rx1*gradient[b1+2] + ry0*gradient[b1+3]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
-                          rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]))*ratio;
-
-            fSum[2] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+4] + ry0*gradient[b0+5],
-                          rx1*gradient[b1+4] + ry0*gradient[b1+5]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
-                          rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]))*ratio;
-
-            fSum[3] += lerp(sy,
-                     lerp(sx,
-                          rx0*gradient[b0+6] + ry0*gradient[b0+7],
-                          rx1*gradient[b1+6] + ry0*gradient[b1+7]),
-                     lerp(sx,
-                          rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
-                          rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]))*ratio;
-
-            ratio  *= .5;
-            pointX *= 2;
-            pointY *= 2;
+    public static int getTileCacheSize() {
+        synchronized (tileCache) {
+            return tileCacheSize;
         }
-
-        i = (int)fSum[0];
-        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
-        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
-
-        i = (int)fSum[1];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
-
-        i = (int)fSum[2];
-        if ((i & 0xFFFFFF00) == 0) j |= i;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
-
-        i = (int)fSum[3];
-        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
-        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
-        return j;
     }
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.
-     * @param rgb array for the four color components
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @param noise array used to avoid reallocating double array for
-     * each pixel
+     * Sets the maximum number of noise tiles shared between instances
+     * generating identical noise.  Zero disables the sharing.
      */
-    private final void turbulenceFractal(final int[] rgb,
-                                         double pointX,
-                                         double pointY,
-                                         final double[] fSum,
-                                         final double[] noise){
-        double ratio = 127.5;
-        int    nOctave;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 127.5;
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        for(nOctave = numOctaves; nOctave > 0; nOctave--){
-            noise2(noise, pointX, pointY);
-
-            switch (channels.length) {
-            case 4:
-                fSum[3] += (noise[3] * ratio);
-            case 3:
-                fSum[2] += (noise[2] * ratio);
-            case 2:
-                fSum[1] += (noise[1] * ratio);
-            case 1:
-                fSum[0] += (noise[0] * ratio);
+    public static void setTileCacheSize(int sz) {
+        synchronized (tileCache) {
+            tileCacheSize = (sz < 0) ? 0 : sz;
+            Iterator i = tileCache.entrySet().iterator();
+            for (int n = tileCache.size(); n > tileCacheSize; n--) {
+                i.next();
+                i.remove();
             }
-
-            ratio  *= .5;
-            pointX *= 2;
-            pointY *= 2;
         }
+    }
 
-        switch (channels.length) {
-        case 4:
-            rgb[3] = (int)fSum[3];
-            if ((rgb[3] & 0xFFFFFF00) != 0)
-                rgb[3] = ((rgb[3] & 0x80000000) != 0)?0:255;
-        case 3:
-            rgb[2] = (int)fSum[2];
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-        case 2:
-            rgb[1] = (int)fSum[1];
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-        case 1:
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
+    /**
+     * Holds everything the generated pixels depend on, so two
+     * instances with equal parameters share their tiles.
+     */
+    private double[] cacheParams;
+
+    private double[] getCacheParams() {
+        if (cacheParams == null) {
+            double[] m = new double[6];
+            txf.getMatrix(m);
+            StitchInfo si = stitchInfo;
+            cacheParams = new double[] {
+                baseFrequencyX, baseFrequencyY, numOctaves, seed,
+                isFractalNoise ? 1 : 0, channels.length,
+                m[0], m[1], m[2], m[3], m[4], m[5],
+                (si == null) ? -1 : si.width,
+                (si == null) ? -1 : si.height,
+                (si == null) ? -1 : si.wrapX,
+                (si == null) ? -1 : si.wrapY,
+                getTileWidth(), getTileHeight(),
+                tileGridXOff, tileGridYOff };
         }
+        return cacheParams;
     }
 
     /**
-     * This is the heart of the turbulence calculation. It returns
-     * 'turbFunctionResult', as defined in the spec.
-     * @param rgb array for the four color components
-     * @param pointX x coordinate of the point to process.
-     * @param pointY y coordinate of the point to process.
-     * @param fSum array used to avoid reallocating double array for each pixel
-     * @param noise array used to avoid reallocating double array for
-     * each pixel
-     * @param stitchInfo The stitching information for the noise function
+     * Returns tile (tx, ty) from the shared cache, generating it if
+     * needed.
      */
-    private final void turbulenceFractalStitch(final int[] rgb,
-                                               double pointX,
-                                               double pointY,
-                                               final double[] fSum,
-                                               final double[] noise,
-                                               StitchInfo stitchInfo){
-        double ratio = 127.5;
-        int    nOctave;
-        fSum[0] = fSum[1] = fSum[2] = fSum[3] = 127.5;
-        pointX *= baseFrequencyX;
-        pointY *= baseFrequencyY;
-        for(nOctave = numOctaves; nOctave > 0; nOctave--){
-            noise2Stitch(noise, pointX, pointY, stitchInfo);
-
-            switch (channels.length) {
-            case 4:
-                fSum[3] += (noise[3] * ratio);
-            case 3:
-                fSum[2] += (noise[2] * ratio);
-            case 2:
-                fSum[1] += (noise[1] * ratio);
-            case 1:
-                fSum[0] += (noise[0] * ratio);
-            }
-
-            ratio  *= .5;
-            pointX *= 2;
-            pointY *= 2;
-            stitchInfo.doubleFrequency();
+    private Raster getCachedTile(int tx, int ty) {
+        TileKey key = new TileKey(getCacheParams(), tx, ty);
+        Reference ref;
+        synchronized (tileCache) {
+            ref = (Reference)tileCache.get(key);
         }
-
-        switch (channels.length) {
-        case 4:
-            rgb[3] = (int)fSum[3];
-            if ((rgb[3] & 0xFFFFFF00) != 0)
-                rgb[3] = ((rgb[3] & 0x80000000) != 0)?0:255;
-        case 3:
-            rgb[2] = (int)fSum[2];
-            if ((rgb[2] & 0xFFFFFF00) != 0)
-                rgb[2] = ((rgb[2] & 0x80000000) != 0)?0:255;
-        case 2:
-            rgb[1] = (int)fSum[1];
-            if ((rgb[1] & 0xFFFFFF00) != 0)
-                rgb[1] = ((rgb[1] & 0x80000000) != 0)?0:255;
-        case 1:
-            rgb[0] = (int)fSum[0];
-            if ((rgb[0] & 0xFFFFFF00) != 0)
-                rgb[0] = ((rgb[0] & 0x80000000) != 0)?0:255;
+        Raster ras = (ref == null) ? null : (Raster)ref.get();
+        if (ras != null)
+            return ras;
+
+        // Always generate the full tile, whatever our bounds are.
+        WritableRaster wr = Raster.createWritableRaster
+            (getSampleModel(), new Point(tileGridXOff+tx*getTileWidth(),
+                                         tileGridYOff+ty*getTileHeight()));
+        genRect(wr);
+        synchronized (tileCache) {
+            if (tileCacheSize > 0)
+                tileCache.put(key, new SoftReference(wr));
         }
+        return wr;
     }
 
     /**
-     * Generates a Perlin noise pattern into dest Raster.
-     * @param dest Raster to fill with the pattern.
+     * Key of the shared tile cache.
      */
-    public WritableRaster copyData(WritableRaster dest) {
-        //
-        // First, check input arguments
-        //
-        if(dest==null)
-            throw new IllegalArgumentException
-                ("Cannot generate a noise pattern into a null raster");
-
-
-        int w = dest.getWidth();
-        int h = dest.getHeight();
-
-        // Access the integer buffer for the destination Raster
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-        SinglePixelPackedSampleModel sppsm;
-        int minX = dest.getMinX();
-        int minY = dest.getMinY();
-        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
-            sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
-                            minY - dest.getSampleModelTranslateY());
-
-        final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
-
-        // Generate pixel pattern now
-        int i, end, dp=dstOff;
-        final int[] rgb = new int[4];
-        final double[] fSum = {0, 0, 0, 0};
-        final double[] noise = {0, 0, 0, 0};
-
-        final double tx0, tx1, ty0, ty1;
-        tx0 = tx[0];
-        tx1 = tx[1];
-        // Update for y step, (note we substract all the stuff we
-        // added while going across the scan line).
-        ty0 = ty[0]-(w*tx0);
-        ty1 = ty[1]-(w*tx1);
-
-        double[] p = {minX, minY};
-        txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
-
-        if(isFractalNoise){
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++) {
-                            destPixels[dp] = turbulenceFractal_4
-                                (point_0, point_1, fSum);
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulenceFractal(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                }
-            }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
-                        turbulenceFractalStitch(rgb, point_0, point_1,
-                                                fSum, noise, si);
-
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
-                    }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
-                }
-            }
+    private static final class TileKey {
+        final double[] params;
+        final int tx, ty;
+        final int hash;
+
+        TileKey(double[] params, int tx, int ty) {
+            this.params = params;
+            this.tx = tx;
+            this.ty = ty;
+            this.hash = (Arrays.hashCode(params)*31 + tx)*31 + ty;
         }
-        else{ // Loop for turbulence noise
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            destPixels[dp] = turbulence_4
-                                (point_0, point_1, fSum);
-
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulence(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                }
-            }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
-                        turbulenceStitch(rgb, point_0, point_1,
-                                         fSum, noise, si);
-
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
-                    }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
-                }
-            }
+
+        public int hashCode() {
+            return hash;
         }
 
-        return dest;
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey))
+                return false;
+            TileKey k = (TileKey)o;
+            return (tx == k.tx) && (ty == k.ty) &&
+                Arrays.equals(params, k.params);
+        }
     }
 
     /**
@@ -1327,6 +793,18 @@ public final class TurbulencePatternRed extends AbstractRed {
             //                     " maxLatticeY = " + maxLatticeY);
         }
 
+        if (stitchInfo != null) {
+            StitchInfo si = new StitchInfo(stitchInfo);
+            stitchTable = new int[4*Math.max(this.numOctaves, 0)];
+            for (int i=0; i<stitchTable.length; i+=4) {
+                stitchTable[i  ] = si.wrapX;
+                stitchTable[i+1] = si.width;
+                stitchTable[i+2] = si.wrapY;
+                stitchTable[i+3] = si.height;
+                si.doubleFrequency();
+            }
+        }
+
         initLattice(seed);
 
         ColorModel cm;
@@ -0,0 +1,303 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.util.HaltingThread;
+
+/**
+ * The bounded pool of daemon threads the registry entries decode
+ * images on, in the background of the <code>DeferRable</code> they
+ * return.
+ *
+ * <p>Pending decodes run highest priority first, then in submission
+ * order.  The priority of a decode is the one set with
+ * {@link #setPriority} on the submitting thread (or on the thread that
+ * started it), so a document can be given precedence by setting it on
+ * the thread that loads it.  A decode that has not started yet when
+ * the thread that submitted it is halted (see {@link HaltingThread})
+ * is dropped, and its cancel action is run instead.</p>
+ *
+ * <p>While a decode runs, its priority and the thread that submitted
+ * it are those of the pool thread, so the decodes it submits in turn
+ * get the same priority and are dropped when that same thread is
+ * halted.</p>
+ *
+ * <p>A decode submitted along with the image it produces can be
+ * moved up the queue with {@link #raisePriority}, when the image is
+ * requested with a higher priority than it was submitted with.</p>
+ *
+ * <p>The number of threads defaults to the number of available
+ * processors and can be changed with the
+ * <code>org.apache.batik.imageDecodeThreads</code> system property or
+ * {@link #setThreadCount}.</p>
+ *
+ * @version $Id$
+ */
+public final class ImageDecodeExecutor {
+
+    /**
+     * The priority of threads on which <code>setPriority</code> was
+     * never called.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final InheritableThreadLocal PRIORITY =
+        new InheritableThreadLocal();
+
+    /**
+     * The thread that submitted the decode running on a pool thread.
+     */
+    private static final ThreadLocal OWNER = new ThreadLocal();
+
+    private static int threadCount;
+
+    private static ThreadPoolExecutor executor;
+
+    private static long sequence;
+
+    /**
+     * The jobs that have not started yet, by the image they produce.
+     */
+    private static final Map pending = new HashMap();
+
+    static {
+        int n = Runtime.getRuntime().availableProcessors();
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.imageDecodeThreads");
+            if (s != null)
+                n = Integer.parseInt(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        threadCount = (n < 1) ? 1 : n;
+    }
+
+    private ImageDecodeExecutor() { }
+
+    /**
+     * Returns the maximum number of images decoded at once.
+     */
+    public static synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the maximum number of images decoded at once.
+     */
+    public static synchronized void setThreadCount(int n) {
+        if (n < 1) n = 1;
+        if (executor != null) {
+            if (n > threadCount) {
+                executor.setMaximumPoolSize(n);
+                executor.setCorePoolSize(n);
+            } else {
+                executor.setCorePoolSize(n);
+                executor.setMaximumPoolSize(n);
+            }
+        }
+        threadCount = n;
+    }
+
+    /**
+     * Returns the priority given to the decodes submitted by the
+     * current thread.
+     */
+    public static int getPriority() {
+        Integer p = (Integer)PRIORITY.get();
+        return (p == null) ? DEFAULT_PRIORITY : p.intValue();
+    }
+
+    /**
+     * Sets the priority given to the decodes submitted by the current
+     * thread, and by the threads it starts from now on.  Higher
+     * priorities are decoded first.
+     */
+    public static void setPriority(int priority) {
+        PRIORITY.set(new Integer(priority));
+    }
+
+    /**
+     * Runs <code>decode</code> on the pool, with the priority of the
+     * current thread.
+     * @param decode   The decode to run.
+     * @param onCancel Run instead of <code>decode</code> if the
+     *                 current thread (or the one that submitted the
+     *                 decode running on it) is halted before it
+     *                 started, may be null.
+     */
+    public static void execute(Runnable decode, Runnable onCancel) {
+        execute(decode, onCancel, getPriority());
+    }
+
+    /**
+     * Runs <code>decode</code> on the pool with the given priority.
+     * @param decode   The decode to run.
+     * @param onCancel Run instead of <code>decode</code> if the
+     *                 current thread (or the one that submitted the
+     *                 decode running on it) is halted before it
+     *                 started, may be null.
+     * @param priority The priority of the decode.
+     */
+    public static void execute(Runnable decode, Runnable onCancel,
+                               int priority) {
+        execute(decode, onCancel, priority, null);
+    }
+
+    /**
+     * Runs <code>decode</code> on the pool, with the priority of the
+     * current thread.
+     * @param decode   The decode to run.
+     * @param onCancel Run instead of <code>decode</code> if the
+     *                 current thread (or the one that submitted the
+     *                 decode running on it) is halted before it
+     *                 started, may be null.
+     * @param image    The image <code>decode</code> produces, given to
+     *                 {@link #raisePriority}, may be null.
+     */
+    public static void execute(Runnable decode, Runnable onCancel,
+                               Object image) {
+        execute(decode, onCancel, getPriority(), image);
+    }
+
+    /**
+     * Runs <code>decode</code> on the pool with the given priority.
+     * @param decode   The decode to run.
+     * @param onCancel Run instead of <code>decode</code> if the
+     *                 current thread (or the one that submitted the
+     *                 decode running on it) is halted before it
+     *                 started, may be null.
+     * @param priority The priority of the decode.
+     * @param image    The image <code>decode</code> produces, given to
+     *                 {@link #raisePriority}, may be null.
+     */
+    public static void execute(Runnable decode, Runnable onCancel,
+                               int priority, Object image) {
+        Thread owner = (Thread)OWNER.get();
+        if (owner == null)
+            owner = Thread.currentThread();
+        synchronized (ImageDecodeExecutor.class) {
+            Job job = new Job(decode, onCancel, priority, sequence++,
+                              owner, image);
+            if (image != null)
+                pending.put(image, job);
+            getExecutor().execute(job);
+        }
+    }
+
+    /**
+     * Raises the priority of the decode of <code>image</code> to
+     * <code>priority</code> if it is lower, so that it runs before the
+     * decodes of lower priority still pending.  Does nothing if the
+     * decode has started already.
+     */
+    public static synchronized void raisePriority(Object image,
+                                                  int priority) {
+        Job job = (Job)pending.get(image);
+        if ((job == null) || (job.priority >= priority))
+            return;
+        // The queue must not see the priority change while it holds
+        // the job.
+        if (!executor.remove(job))
+            return;
+        job.priority = priority;
+        executor.execute(job);
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor
+                (threadCount, threadCount, 30, TimeUnit.SECONDS,
+                 new PriorityBlockingQueue(),
+                 new ThreadFactory() {
+                     int count;
+                     public Thread newThread(Runnable r) {
+                         Thread t = new Thread
+                             (r, "Batik ImageDecoder-" + (count++));
+                         t.setDaemon(true);
+                         return t;
+                     }
+                 });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * A pending decode, ordered by decreasing priority then
+     * submission order.
+     */
+    private static class Job implements Runnable, Comparable {
+        final Runnable decode, onCancel;
+        int            priority;
+        final long     seq;
+        final Thread   owner;
+        final Object   image;
+
+        Job(Runnable decode, Runnable onCancel, int priority, long seq,
+            Thread owner, Object image) {
+            this.decode   = decode;
+            this.onCancel = onCancel;
+            this.priority = priority;
+            this.seq      = seq;
+            this.owner    = owner;
+            this.image    = image;
+        }
+
+        public void run() {
+            if (image != null) {
+                synchronized (ImageDecodeExecutor.class) {
+                    pending.remove(image);
+                }
+            }
+            if (HaltingThread.hasBeenHalted(owner)) {
+                if (onCancel != null)
+                    onCancel.run();
+                return;
+            }
+            // Decodes submitted by this one belong to the same owner.
+            Object oldPriority = PRIORITY.get();
+            Object oldOwner    = OWNER.get();
+            PRIORITY.set(new Integer(priority));
+            OWNER.set(owner);
+            try {
+                decode.run();
+            } finally {
+                PRIORITY.set(oldPriority);
+                OWNER.set(oldOwner);
+            }
+        }
+
+        public int compareTo(Object o) {
+            Job j = (Job)o;
+            if (priority != j.priority)
+                return (priority > j.priority) ? -1 : 1;
+            if (seq != j.seq)
+                return (seq < j.seq) ? -1 : 1;
+            return 0;
+        }
+    }
+}
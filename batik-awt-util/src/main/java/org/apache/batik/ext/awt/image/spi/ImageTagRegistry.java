@@ -18,10 +18,13 @@
  */
 package org.apache.batik.ext.awt.image.spi;
 
+import java.awt.Dimension;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StreamCorruptedException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -45,6 +48,8 @@ import org.apache.xmlgraphics.java2d.color.ICCColorSpaceWithIntent;
  */
 public class ImageTagRegistry implements ErrorConstants {
 
+    static final String DATA_PROTOCOL = "data";
+
     List entries    = new LinkedList();
     List extensions = null;
     List mimeTypes  = null;
@@ -83,7 +88,29 @@ public class ImageTagRegistry implements ErrorConstants {
         imgCache.clear(purl);
     }
 
+    /**
+     * Removes the given image from the caches and keeps it out of
+     * them.  Called by the registry entries when the decode of an
+     * image they returned is cancelled.
+     */
+    public void cancelImage(Filter filt) {
+        rawCache.cancel(filt);
+        imgCache.cancel(filt);
+    }
+
     public Filter checkCache(ParsedURL purl, ICCColorSpaceWithIntent colorSpace) {
+        return checkCache(purl, colorSpace, null);
+    }
+
+    /**
+     * Returns the cached image for purl if there is one that can be
+     * displayed at <code>targetSize</code> (see {@link
+     * #readURL(InputStream,ParsedURL,ICCColorSpaceWithIntent,boolean,boolean,Dimension)}),
+     * null otherwise.
+     */
+    public Filter checkCache(ParsedURL purl,
+                             ICCColorSpaceWithIntent colorSpace,
+                             Dimension targetSize) {
         // I just realized that this whole thing could
         boolean needRawData = (colorSpace != null);
 
@@ -92,11 +119,15 @@ public class ImageTagRegistry implements ErrorConstants {
         if (needRawData) cache = rawCache;
         else             cache = imgCache;
 
-        ret = cache.request(purl);
+        Dimension size = getDecodeSize(targetSize);
+        if ((size != null) && cache.isDone(purl))
+            size = null;
+        ret = cache.request(purl, size);
         if (ret == null) {
             cache.clear(purl);
             return null;
         }
+        raisePriority(ret);
 
         // System.out.println("Image came from cache" + purl);
         if (colorSpace != null)
@@ -116,6 +147,24 @@ public class ImageTagRegistry implements ErrorConstants {
                           ICCColorSpaceWithIntent colorSpace,
                           boolean allowOpenStream,
                           boolean returnBrokenLink) {
+        return readURL(is, purl, colorSpace, allowOpenStream,
+                       returnBrokenLink, null);
+    }
+
+    /**
+     * Reads the image at purl (or in <code>is</code>) for display at
+     * <code>targetSize</code> pixels.  Entries that implement {@link
+     * SubsamplingRegistryEntry} may decode it at a reduced resolution,
+     * which is cached apart from the full resolution image.  The
+     * target size is rounded up to a power of two first, so images
+     * displayed at similar sizes share the decoded data.  A null
+     * target size asks for the full resolution image.
+     */
+    public Filter readURL(InputStream is, ParsedURL purl,
+                          ICCColorSpaceWithIntent colorSpace,
+                          boolean allowOpenStream,
+                          boolean returnBrokenLink,
+                          Dimension targetSize) {
         if ((is != null) && !is.markSupported())
             // Doesn't support mark so wrap with
             // BufferedInputStream that does.
@@ -126,13 +175,18 @@ public class ImageTagRegistry implements ErrorConstants {
 
         Filter      ret     = null;
         URLImageCache cache = null;
+        Dimension   size    = getDecodeSize(targetSize);
 
         if (purl != null) {
             if (needRawData) cache = rawCache;
             else             cache = imgCache;
 
-            ret = cache.request(purl);
+            // The full resolution image will do if we have it.
+            if ((size != null) && cache.isDone(purl))
+                size = null;
+            ret = cache.request(purl, size);
             if (ret != null) {
+                raisePriority(ret);
                 // System.out.println("Image came from cache" + purl);
                 if (colorSpace != null)
                     ret = new ProfileRable(ret, colorSpace);
@@ -144,6 +198,37 @@ public class ImageTagRegistry implements ErrorConstants {
         boolean     openFailed = false;
         List mimeTypes = getRegisteredMimeTypes();
 
+        // Images embedded in 'data:' URLs are also looked up by a
+        // digest of their data, so an image embedded several times is
+        // only decoded once.  Opening such a URL only decodes it
+        // from memory, so it is done even if allowOpenStream is false.
+        // The digest is taken from the stream the entries will read,
+        // so the URL is only decoded once either way.
+        String digest = null;
+        if ((cache != null) && DATA_PROTOCOL.equals(purl.getProtocol())) {
+            try {
+                if (is == null) {
+                    is = purl.openStream(mimeTypes.iterator());
+                    if (!is.markSupported())
+                        is = new BufferedInputStream(is);
+                }
+                digest = getDigest(is);
+                if (digest != null) {
+                    ret = cache.requestContent(digest, size);
+                    if (ret != null) {
+                        raisePriority(ret);
+                        cache.put(purl, size, ret);
+                        if (colorSpace != null)
+                            ret = new ProfileRable(ret, colorSpace);
+                        return ret;
+                    }
+                }
+            } catch (IOException ioe) {
+                // Let the entries report it.
+                is = null;
+            }
+        }
+
         Iterator i;
         i = entries.iterator();
         while (i.hasNext()) {
@@ -187,7 +272,12 @@ public class ImageTagRegistry implements ErrorConstants {
                     }
 
                     if (sre.isCompatibleStream(is)) {
-                        ret = sre.handleStream(is, purl, needRawData);
+                        if ((size != null) &&
+                            (sre instanceof SubsamplingRegistryEntry))
+                            ret = ((SubsamplingRegistryEntry)sre).handleStream
+                                (is, purl, needRawData, size);
+                        else
+                            ret = sre.handleStream(is, purl, needRawData);
                         if (ret != null) break;
                     }
                 } catch (StreamCorruptedException sce) {
@@ -199,7 +289,9 @@ public class ImageTagRegistry implements ErrorConstants {
         }
 
         if (cache != null)
-            cache.put(purl, ret);
+            cache.put(purl, size, ret);
+        if (digest != null)
+            cache.putContent(digest, size, ret);
 
         if (ret == null) {
             if (!returnBrokenLink)
@@ -226,6 +318,66 @@ public class ImageTagRegistry implements ErrorConstants {
         return ret;
     }
 
+    /**
+     * Moves the decode of a cached image that is still pending up to
+     * the priority of the current thread, which now waits for it.  The
+     * decode may have been queued by a prefetch with a lower priority.
+     */
+    private static void raisePriority(Filter filt) {
+        ImageDecodeExecutor.raisePriority(filt,
+                                          ImageDecodeExecutor.getPriority());
+    }
+
+    /**
+     * Returns a digest of the data left in <code>is</code>, leaving it
+     * where it was, or null if <code>is</code> can't be reset.
+     */
+    static String getDigest(InputStream is) throws IOException {
+        if (!is.markSupported())
+            return null;
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            return null;
+        }
+        is.mark(Integer.MAX_VALUE);
+        byte[] buf = new byte[8192];
+        long len = 0;
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            md.update(buf, 0, n);
+            len += n;
+        }
+        is.reset();
+
+        byte[] d = md.digest();
+        StringBuffer sb = new StringBuffer(d.length*2 + 16);
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(d[i] & 0xF, 16));
+        }
+        sb.append(':').append(len);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the size an image displayed at <code>targetSize</code>
+     * is decoded for: each dimension rounded up to a power of two.
+     */
+    static Dimension getDecodeSize(Dimension targetSize) {
+        if ((targetSize == null) ||
+            (targetSize.width <= 0) || (targetSize.height <= 0))
+            return null;
+        return new Dimension(roundUp(targetSize.width),
+                             roundUp(targetSize.height));
+    }
+
+    private static int roundUp(int v) {
+        int p = Integer.highestOneBit(v);
+        return ((p == v) || (p >= (1 << 30))) ? p : (p << 1);
+    }
+
     public Filter readStream(InputStream is) {
         return readStream(is, null);
     }
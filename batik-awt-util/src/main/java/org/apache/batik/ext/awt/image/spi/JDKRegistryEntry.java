@@ -87,7 +87,7 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
      *                    any default color correction the file may
      *                    specify applied.
      */
-    public Filter handleURL(ParsedURL purl, boolean needRawData) {
+    public Filter handleURL(final ParsedURL purl, boolean needRawData) {
 
         final URL url;
         try {
@@ -107,7 +107,7 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
             errParam = new Object[] {"JDK"};
         }
 
-        Thread t = new Thread() {
+        Runnable decode = new Runnable() {
                 public void run() {
                     Filter filt = null;
                     try {
@@ -133,7 +133,15 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
                     dr.setSource(filt);
                 }
             };
-        t.start();
+        Runnable cancel = new Runnable() {
+                public void run() {
+                    // Don't leave the broken link image in the cache.
+                    ImageTagRegistry.getRegistry().cancelImage(dr);
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (JDKRegistryEntry.this, errCode, errParam));
+                }
+            };
+        ImageDecodeExecutor.execute(decode, cancel, dr);
         return dr;
     }
 
@@ -0,0 +1,57 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.awt.Dimension;
+import java.io.InputStream;
+
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.util.ParsedURL;
+
+/**
+ * A stream registry entry that can decode an image at a reduced
+ * resolution when it will only be displayed small.  The returned
+ * Filter always has the bounds of the full resolution image; when the
+ * image is subsampled it is scaled back up to them.
+ *
+ * @version $Id$
+ */
+public interface SubsamplingRegistryEntry extends StreamRegistryEntry {
+
+    /**
+     * Decode the Stream into a Filter, see
+     * {@link StreamRegistryEntry#handleStream}.
+     *
+     * @param is The input stream that contains the image.
+     * @param origURL The original URL, if any, for documentation
+     *                purposes only.  This may be null.
+     * @param needRawData If true the image returned should not have
+     *                    any default color correction the file may
+     *                    specify applied.
+     * @param targetSize The size, in pixels, the image will be
+     *                   displayed at.  The image may be decoded at any
+     *                   resolution that is at least this large in both
+     *                   directions.  If null the image is decoded at
+     *                   full resolution.
+     */
+    Filter handleStream(InputStream is,
+                        ParsedURL   origURL,
+                        boolean     needRawData,
+                        Dimension   targetSize);
+}
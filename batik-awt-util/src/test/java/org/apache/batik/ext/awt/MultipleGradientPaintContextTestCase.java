@@ -0,0 +1,184 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a gradient painted from the shared lookup tables gives
+ * the same pixels as one whose tables were just computed.
+ *
+ * @version $Id$
+ */
+public class MultipleGradientPaintContextTestCase {
+
+    private static final Rectangle BOUNDS = new Rectangle(3, 5, 120, 40);
+
+    private static final ColorModel RGB =
+        ColorModel.getRGBdefault();
+    private static final ColorModel RGB_PRE =
+        new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE)
+        .getColorModel();
+
+    private static MultipleGradientPaintContext createContext
+        (MultipleGradientPaint p, ColorModel cm) {
+        return (MultipleGradientPaintContext)p.createContext
+            (cm, BOUNDS, BOUNDS, new AffineTransform(),
+             new RenderingHints(null));
+    }
+
+    private static LinearGradientPaint createPaint
+        (float[] fractions, Color[] colors,
+         MultipleGradientPaint.ColorSpaceEnum colorSpace) {
+        return new LinearGradientPaint
+            (new Point2D.Float(BOUNDS.x+10, 0),
+             new Point2D.Float(BOUNDS.x+BOUNDS.width-10, 0),
+             fractions, colors, MultipleGradientPaint.REFLECT, colorSpace);
+    }
+
+    private static void assertSamePixels(MultipleGradientPaintContext a,
+                                         MultipleGradientPaintContext b) {
+        assertEquals(a.getColorModel(), b.getColorModel());
+        Raster ra = a.getRaster(BOUNDS.x, BOUNDS.y,
+                                BOUNDS.width, BOUNDS.height);
+        Raster rb = b.getRaster(BOUNDS.x, BOUNDS.y,
+                                BOUNDS.width, BOUNDS.height);
+        int[] pa = new int[1];
+        int[] pb = new int[1];
+        for (int y = 0; y < BOUNDS.height; y++)
+            for (int x = 0; x < BOUNDS.width; x++) {
+                ra.getDataElements(x, y, pa);
+                rb.getDataElements(x, y, pb);
+                assertEquals("at " + x + "," + y, pa[0], pb[0]);
+            }
+        a.dispose();
+        b.dispose();
+    }
+
+    /**
+     * Paints the gradient once from tables computed for an
+     * equivalent gradient, with a duplicate first stop so it isn't
+     * shared, then twice more, the second time from the tables
+     * shared by the first.
+     */
+    private void check(float[] fractions, Color[] colors,
+                       MultipleGradientPaint.ColorSpaceEnum colorSpace,
+                       ColorModel cm, boolean alpha) {
+        float[] refFractions = new float[fractions.length+1];
+        Color[] refColors = new Color[colors.length+1];
+        System.arraycopy(fractions, 0, refFractions, 1, fractions.length);
+        System.arraycopy(colors, 0, refColors, 1, colors.length);
+        refFractions[0] = fractions[0];
+        refColors[0] = colors[0];
+
+        MultipleGradientPaintContext ref = createContext
+            (createPaint(refFractions, refColors, colorSpace), cm);
+        MultipleGradientPaintContext first = createContext
+            (createPaint(fractions, colors, colorSpace), cm);
+        MultipleGradientPaintContext second = createContext
+            (createPaint(fractions, colors, colorSpace), cm);
+
+        Object refTable = ref.isSimpleLookup
+            ? (Object)ref.gradient : (Object)ref.gradients;
+        Object table = first.isSimpleLookup
+            ? (Object)first.gradient : (Object)first.gradients;
+        assertNotSame(refTable, table);
+        assertSame(table, second.isSimpleLookup
+                   ? (Object)second.gradient : (Object)second.gradients);
+
+        // The data keeps alpha only when a stop is translucent.
+        assertEquals(alpha, second.dataModel.hasAlpha());
+        assertEquals(alpha, second.getColorModel().hasAlpha());
+        assertEquals(cm.isAlphaPremultiplied(),
+                     second.getColorModel().isAlphaPremultiplied());
+
+        assertSamePixels(ref, first);
+        ref = createContext
+            (createPaint(refFractions, refColors, colorSpace), cm);
+        assertSamePixels(ref, second);
+    }
+
+    @Test
+    public void testOpaque() {
+        float[] f = { 0f, .3f, 1f };
+        Color[] c = { new Color(0x102030), new Color(0xF0E0D1),
+                      new Color(0x306090) };
+        check(f, c, MultipleGradientPaint.SRGB, RGB, false);
+        check(f, c, MultipleGradientPaint.LINEAR_RGB, RGB, false);
+    }
+
+    @Test
+    public void testTranslucent() {
+        float[] f = { .1f, .4f, .9f };
+        Color[] c = { new Color(0x80102030, true),
+                      new Color(0xFFF0E0D2, true),
+                      new Color(0x20306090, true) };
+        check(f, c, MultipleGradientPaint.SRGB, RGB, true);
+        check(f, c, MultipleGradientPaint.SRGB, RGB_PRE, true);
+        check(f, c, MultipleGradientPaint.LINEAR_RGB, RGB_PRE, true);
+    }
+
+    @Test
+    public void testTranslucentMultipleArrays() {
+        // Intervals this uneven need a table per interval.
+        float[] f = { 0f, .001f, .002f, 1f };
+        Color[] c = { new Color(0x40FF0000, true),
+                      new Color(0xFF00FF03, true),
+                      new Color(0x900000FF, true),
+                      new Color(0xFF123456, true) };
+        MultipleGradientPaintContext ctx = createContext
+            (createPaint(f, c, MultipleGradientPaint.SRGB), RGB);
+        assertFalse(ctx.isSimpleLookup);
+        ctx.dispose();
+        check(f, c, MultipleGradientPaint.LINEAR_RGB, RGB_PRE, true);
+    }
+
+    @Test
+    public void testTranslucentPixels() {
+        float[] f = { 0f, 1f };
+        Color[] c = { new Color(0x00FFFFFF, true),
+                      new Color(0xFF000000, true) };
+        for (int i = 0; i < 2; i++) {
+            MultipleGradientPaintContext ctx = createContext
+                (createPaint(f, c, MultipleGradientPaint.SRGB), RGB);
+            Raster r = ctx.getRaster(BOUNDS.x, BOUNDS.y, BOUNDS.width, 1);
+            int[] p = new int[1];
+            // The start and end of the gradient.
+            r.getDataElements(10, 0, p);
+            assertTrue(Integer.toHexString(p[0]), (p[0] >>> 24) < 0x08);
+            r.getDataElements(BOUNDS.width-10, 0, p);
+            assertTrue(Integer.toHexString(p[0]), (p[0] >>> 24) > 0xF8);
+            ctx.dispose();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.Test;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the images whose decode was cancelled don't stay in the
+ * {@link URLImageCache}.
+ *
+ * @version $Id$
+ */
+public class URLImageCacheTestCase {
+
+    @Test
+    public void testCancelBeforePut() {
+        URLImageCache cache = new URLImageCache();
+        ParsedURL purl = new ParsedURL("http://example.org/a.png");
+        assertNull(cache.request(purl, null));
+        Filter filt = new DeferRable();
+        cache.cancel(filt);
+        cache.put(purl, null, filt);
+        assertTrue(!cache.isPresent(purl));
+    }
+
+    @Test
+    public void testCancelAfterPut() {
+        URLImageCache cache = new URLImageCache();
+        ParsedURL purl = new ParsedURL("http://example.org/b.png");
+        Filter other = new DeferRable();
+        ParsedURL otherURL = new ParsedURL("http://example.org/c.png");
+        assertNull(cache.request(otherURL, null));
+        cache.put(otherURL, null, other);
+
+        assertNull(cache.request(purl, null));
+        assertNull(cache.requestContent("digest", null));
+        Filter filt = new DeferRable();
+        cache.put(purl, null, filt);
+        cache.putContent("digest", null, filt);
+        cache.cancel(filt);
+        assertTrue(!cache.isPresent(purl));
+        assertNull(cache.requestContent("digest", null));
+        assertTrue(cache.request(otherURL, null) == other);
+    }
+}
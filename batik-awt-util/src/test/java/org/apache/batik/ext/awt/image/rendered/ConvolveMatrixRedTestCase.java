@@ -0,0 +1,203 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.PadMode;
+
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link ConvolveMatrixRed} against a direct evaluation of the
+ * feConvolveMatrix formula, around the edges of the source too.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRedTestCase {
+
+    private static final int W = 7, H = 5;
+    private static final int X0 = 10, Y0 = 20;
+
+    private static final PadMode[] EDGE_MODES = {
+        PadMode.ZERO_PAD, PadMode.REPLICATE, PadMode.WRAP
+    };
+
+    @Test
+    public void testDirect() {
+        // Not separable, with negative values.
+        float[] k = { 1, -2,  0,
+                      3,  1, -1,
+                      0,  2,  1 };
+        checkAll(new Kernel(3, 3, scale(k, 0.25f)), new Point(0, 2));
+    }
+
+    @Test
+    public void testSeparable() {
+        float[] k = { 1, 2, 1,
+                      0, 0, 0,
+                     -1,-2,-1 };
+        checkAll(new Kernel(3, 3, scale(k, 0.5f)), new Point(1, 1));
+    }
+
+    @Test
+    public void testFFT() {
+        Random r = new Random(29);
+        float[] k = new float[10*10];
+        for (int i = 0; i < k.length; i++)
+            k[i] = r.nextFloat() - 0.3f;
+        checkAll(new Kernel(10, 10, scale(k, 0.05f)), new Point(7, 3));
+    }
+
+    private static float[] scale(float[] k, float s) {
+        for (int i = 0; i < k.length; i++)
+            k[i] *= s;
+        return k;
+    }
+
+    private void checkAll(Kernel k, Point target) {
+        for (int e = 0; e < EDGE_MODES.length; e++) {
+            for (int b = 0; b < 2; b++) {
+                float bias = b * 0.1f;
+                check(createSource(false), k, target, bias, EDGE_MODES[e],
+                      false);
+                check(createSource(true), k, target, bias, EDGE_MODES[e],
+                      true);
+            }
+        }
+    }
+
+    /**
+     * Returns premultiplied pixels, opaque ones if <code>opaque</code>.
+     */
+    private static int[] createSource(boolean opaque) {
+        Random r = new Random(W*H);
+        int[] px = new int[W*H];
+        for (int i = 0; i < px.length; i++) {
+            int a = opaque ? 255 : r.nextInt(256);
+            int red = r.nextInt(a+1);
+            int g = r.nextInt(a+1);
+            int bl = r.nextInt(a+1);
+            px[i] = (a << 24) | (red << 16) | (g << 8) | bl;
+        }
+        return px;
+    }
+
+    /**
+     * Returns the source pixel at (x, y), relative to the source
+     * origin, once the edge mode is applied.
+     */
+    private static int sample(int[] px, int x, int y, PadMode edgeMode) {
+        if ((x < 0) || (x >= W) || (y < 0) || (y >= H)) {
+            if (edgeMode == PadMode.REPLICATE) {
+                x = Math.min(Math.max(x, 0), W-1);
+                y = Math.min(Math.max(y, 0), H-1);
+            } else if (edgeMode == PadMode.WRAP) {
+                x = ((x % W) + W) % W;
+                y = ((y % H) + H) % H;
+            } else {
+                return 0;
+            }
+        }
+        return px[y*W + x];
+    }
+
+    private static int clamp(double v) {
+        return (int)Math.max(0, Math.min(255, Math.floor(v + 0.5)));
+    }
+
+    private void check(int[] px, Kernel k, Point target, float bias,
+                       PadMode edgeMode, boolean preserveAlpha) {
+        BufferedImage bi = new BufferedImage
+            (W, H, preserveAlpha ? BufferedImage.TYPE_INT_ARGB
+                                 : BufferedImage.TYPE_INT_ARGB_PRE);
+        // Opaque pixels are the same premultiplied or not.
+        bi.getRaster().setDataElements(0, 0, W, H, px);
+        CachableRed src = new BufferedImageCachableRed(bi, X0, Y0);
+
+        // The result extends two pixels past the source on each side.
+        Rectangle bounds = new Rectangle(X0-2, Y0-2, W+4, H+4);
+        ConvolveMatrixRed cmr = new ConvolveMatrixRed
+            (src, bounds, k, target, bias, edgeMode, preserveAlpha);
+        WritableRaster wr = Raster.createWritableRaster
+            (cmr.getSampleModel().createCompatibleSampleModel
+             (bounds.width, bounds.height), new Point(bounds.x, bounds.y));
+        cmr.copyData(wr);
+
+        int kw = k.getWidth();
+        int kh = k.getHeight();
+        float[] kv = k.getKernelData(null);
+        boolean negValues = false;
+        for (int i = 0; i < kv.length; i++)
+            if (kv[i] < 0) negValues = true;
+        int nConv = preserveAlpha ? 3 : 4;
+
+        int[] out = new int[1];
+        for (int y = bounds.y; y < bounds.y+bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x+bounds.width; x++) {
+                // RESULT(X,Y) = SUM(I,J) SOURCE(X-targetX+J, Y-targetY+I)
+                //               * kernel(orderX-J-1, orderY-I-1) + bias
+                int[] expected = new int[4];
+                for (int c = 0; c < nConv; c++) {
+                    int shift = (c == 3) ? 24 : 16 - 8*c;
+                    double sum = 0;
+                    for (int i = 0; i < kh; i++) {
+                        for (int j = 0; j < kw; j++) {
+                            int p = sample(px, x-X0-target.x+j,
+                                           y-Y0-target.y+i, edgeMode);
+                            sum += ((p >>> shift) & 0xFF) *
+                                kv[(kh-i-1)*kw + (kw-j-1)];
+                        }
+                    }
+                    expected[c] = clamp(sum + bias*255);
+                }
+                if (preserveAlpha) {
+                    int p = sample(px, x-X0, y-Y0, edgeMode);
+                    expected[3] = p >>> 24;
+                } else if (negValues || (bias != 0)) {
+                    for (int c = 0; c < 3; c++)
+                        expected[3] = Math.max(expected[3], expected[c]);
+                }
+
+                wr.getDataElements(x, y, out);
+                int a = out[0] >>> 24;
+                int[] actual = { (out[0] >> 16) & 0xFF,
+                                 (out[0] >> 8) & 0xFF,
+                                 out[0] & 0xFF, a };
+                for (int c = 0; c < 4; c++) {
+                    // Colors don't matter where alpha is zero.
+                    if (preserveAlpha && (c < 3) && (a == 0))
+                        continue;
+                    assertTrue(edgeMode + " bias=" + bias + " preserve=" +
+                               preserveAlpha + " at " + x + "," + y +
+                               " channel " + c + ": " + expected[c] +
+                               " != " + actual[c],
+                               Math.abs(expected[c] - actual[c]) <= 1);
+                }
+            }
+        }
+    }
+}
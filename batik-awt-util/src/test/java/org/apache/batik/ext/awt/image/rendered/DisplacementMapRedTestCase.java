@@ -0,0 +1,276 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.ARGBChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link DisplacementMapRed} against a per pixel evaluation of
+ * the fixed point arithmetic of the tile by tile implementation it
+ * replaced, across the edges of the source tiles too.
+ *
+ * @version $Id$
+ */
+public class DisplacementMapRedTestCase {
+
+    // Larger than one 128 pixel tile each way, at an odd origin.
+    private static final int W = 300, H = 270;
+    private static final int X0 = 5, Y0 = -7;
+
+    private static final float SCALE_X = 23.5f, SCALE_Y = 17f;
+
+    private static final ARGBChannel X_CHANNEL = ARGBChannel.R;
+    private static final ARGBChannel Y_CHANNEL = ARGBChannel.A;
+
+    /**
+     * Returns random pixels, premultiplied if <code>pre</code>.
+     */
+    private static int[] createPixels(long seed, boolean pre) {
+        Random r = new Random(seed);
+        int[] px = new int[W*H];
+        for (int i = 0; i < px.length; i++) {
+            int a = r.nextInt(256);
+            int max = pre ? a : 255;
+            px[i] = (a << 24) | (r.nextInt(max+1) << 16)
+                | (r.nextInt(max+1) << 8) | r.nextInt(max+1);
+        }
+        return px;
+    }
+
+    private static CachableRed createRed(int[] px, int type, int tileSz) {
+        BufferedImage bi = new BufferedImage(W, H, type);
+        bi.getRaster().setDataElements(0, 0, W, H, px);
+        return new TileCacheRed(new BufferedImageCachableRed(bi, X0, Y0),
+                                tileSz, tileSz);
+    }
+
+    private static DisplacementMapRed create(boolean pre, RenderingHints rh) {
+        int[] src = createPixels(1, pre);
+        int[] map = createPixels(2, false);
+        return new DisplacementMapRed
+            (createRed(src, pre ? BufferedImage.TYPE_INT_ARGB_PRE
+                                : BufferedImage.TYPE_INT_ARGB, 128),
+             // Map tiles that don't line up with the source tiles.
+             createRed(map, BufferedImage.TYPE_INT_ARGB, 50),
+             X_CHANNEL, Y_CHANNEL, SCALE_X, SCALE_Y, rh);
+    }
+
+    /**
+     * Returns the source pixel at (x, y), zero outside the source.
+     */
+    private static int sample(int[] px, int x, int y) {
+        x -= X0;
+        y -= Y0;
+        if ((x < 0) || (x >= W) || (y < 0) || (y >= H))
+            return 0;
+        return px[y*W + x];
+    }
+
+    /**
+     * Premultiplies the color channel of <code>pel</code> at
+     * <code>shift</code> the way <code>filterBLPre</code> does, to
+     * a 16 bit value.
+     */
+    private static int premult(int pel, int shift) {
+        int norm = (1<<24)/255;
+        int a = (((pel>>>24)*norm) + 0x80)>>8;
+        return ((((pel>>shift) & 0xFF)*a) + 0x80)>>8;
+    }
+
+    private static int lerp(int sp0, int sp1, int frac) {
+        return (sp0 + (((sp1-sp0)*frac+0x4000)>>15)) & 0xFFFF;
+    }
+
+    /**
+     * Computes the bilinear result at (x, y) as the tiled
+     * implementation did.
+     */
+    private static int expectedBL(int[] src, int[] map, boolean pre,
+                                  int x, int y) {
+        int fpScaleX = (int)((SCALE_X/255.0)*(1<<15)+0.5);
+        int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
+        int fpScaleY = (int)((SCALE_Y/255.0)*(1<<15)+0.5);
+        int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
+
+        int dPel = sample(map, x, y);
+        int xDisplace =
+            (fpScaleX*((dPel>>(X_CHANNEL.toInt()*8))&0xff))+fpAdjX;
+        int yDisplace =
+            (fpScaleY*((dPel>>(Y_CHANNEL.toInt()*8))&0xff))+fpAdjY;
+        int x0 = x+(xDisplace>>15);
+        int y0 = y+(yDisplace>>15);
+        int xFrac = xDisplace&0x7FFF;
+        int yFrac = yDisplace&0x7FFF;
+
+        int[] pels = { sample(src, x0,   y0), sample(src, x0+1, y0),
+                       sample(src, x0, y0+1), sample(src, x0+1, y0+1) };
+        int result = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int[] sp = new int[4];
+            for (int i = 0; i < 4; i++) {
+                if (pre || (shift == 24))
+                    sp[i] = ((pels[i]>>>shift) & 0xFF) << 8;
+                else
+                    sp[i] = premult(pels[i], shift);
+            }
+            int pel0 = lerp(sp[0], sp[1], xFrac);
+            int pel1 = lerp(sp[2], sp[3], xFrac);
+            int c = (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
+                     &0x7F800000)>>>23;
+            result |= c << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the nearest neighbor result at (x, y).
+     */
+    private static int expectedNN(int[] src, int[] map, int x, int y) {
+        int fpScaleX = (int)((SCALE_X/255.0)*(1<<15)+0.5);
+        int fpScaleY = (int)((SCALE_Y/255.0)*(1<<15)+0.5);
+        int fpAdjX   = (int)(-127.5*fpScaleX-0.5) + 0x4000;
+        int fpAdjY   = (int)(-127.5*fpScaleY-0.5) + 0x4000;
+
+        int dPel = sample(map, x, y);
+        int xDisplace =
+            (fpScaleX*((dPel>>(X_CHANNEL.toInt()*8))&0xff))+fpAdjX;
+        int yDisplace =
+            (fpScaleY*((dPel>>(Y_CHANNEL.toInt()*8))&0xff))+fpAdjY;
+        return sample(src, x+(xDisplace>>15), y+(yDisplace>>15));
+    }
+
+    private static WritableRaster createRaster(DisplacementMapRed dmr,
+                                               Rectangle r) {
+        return Raster.createWritableRaster
+            (dmr.getSampleModel().createCompatibleSampleModel
+             (r.width, r.height), new Point(r.x, r.y));
+    }
+
+    /**
+     * Checks the whole image, computed tile by tile, and an area
+     * that straddles tiles of both the source and the map.
+     */
+    private void checkBL(boolean pre) {
+        DisplacementMapRed dmr = create(pre, null);
+        assertTrue(dmr.getColorModel().isAlphaPremultiplied());
+        int[] src = createPixels(1, pre);
+        int[] map = createPixels(2, false);
+
+        int[] out = new int[1];
+        for (int ty = dmr.getMinTileY();
+             ty < dmr.getMinTileY()+dmr.getNumYTiles(); ty++) {
+            for (int tx = dmr.getMinTileX();
+                 tx < dmr.getMinTileX()+dmr.getNumXTiles(); tx++) {
+                Raster tile = dmr.getTile(tx, ty);
+                Rectangle r = tile.getBounds().intersection(dmr.getBounds());
+                for (int y = r.y; y < r.y+r.height; y++)
+                    for (int x = r.x; x < r.x+r.width; x++) {
+                        tile.getDataElements(x, y, out);
+                        assertEquals("pre=" + pre + " at " + x + "," + y,
+                                     expectedBL(src, map, pre, x, y),
+                                     out[0]);
+                    }
+            }
+        }
+
+        Rectangle r = new Rectangle(X0+90, Y0+100, 111, 57);
+        WritableRaster wr = createRaster(dmr, r);
+        dmr.copyData(wr);
+        for (int y = r.y; y < r.y+r.height; y++)
+            for (int x = r.x; x < r.x+r.width; x++) {
+                wr.getDataElements(x, y, out);
+                assertEquals("pre=" + pre + " at " + x + "," + y,
+                             expectedBL(src, map, pre, x, y), out[0]);
+            }
+    }
+
+    @Test
+    public void testBilinear() {
+        checkBL(true);
+    }
+
+    @Test
+    public void testBilinearUnpremultiplied() {
+        checkBL(false);
+    }
+
+    @Test
+    public void testNearestNeighborHint() {
+        RenderingHints rh = new RenderingHints
+            (RenderingHints.KEY_INTERPOLATION,
+             RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        DisplacementMapRed dmr = create(false, rh);
+        // The source pixels are copied, so are not premultiplied.
+        assertFalse(dmr.getColorModel().isAlphaPremultiplied());
+        int[] src = createPixels(1, false);
+        int[] map = createPixels(2, false);
+
+        Rectangle r = dmr.getBounds();
+        WritableRaster wr = createRaster(dmr, r);
+        dmr.copyData(wr);
+        int[] out = new int[1];
+        boolean differs = false;
+        for (int y = r.y; y < r.y+r.height; y++)
+            for (int x = r.x; x < r.x+r.width; x++) {
+                wr.getDataElements(x, y, out);
+                assertEquals("at " + x + "," + y,
+                             expectedNN(src, map, x, y), out[0]);
+                if (out[0] != expectedBL(src, map, false, x, y))
+                    differs = true;
+            }
+        assertTrue(differs);
+    }
+
+    @Test
+    public void testDeprecatedTileFilter() {
+        DisplacementMapRed dmr = create(true, null);
+        int tx = dmr.getMinTileX()+1;
+        int ty = dmr.getMinTileY()+1;
+        WritableRaster dest = dmr.makeTile(tx, ty);
+        Raster map = dmr.offsets.getData(dest.getBounds());
+        DisplacementMapRed.TileOffsets xinfo = dmr.getXOffsets(tx);
+        DisplacementMapRed.TileOffsets yinfo = dmr.getYOffsets(ty);
+        dmr.filterBL(map, dest, xinfo.tile, xinfo.off,
+                     yinfo.tile, yinfo.off);
+
+        Raster tile = dmr.getTile(tx, ty);
+        Rectangle r = dest.getBounds();
+        int[] expected = new int[1];
+        int[] actual = new int[1];
+        for (int y = r.y; y < r.y+r.height; y++)
+            for (int x = r.x; x < r.x+r.width; x++) {
+                tile.getDataElements(x, y, expected);
+                dest.getDataElements(x, y, actual);
+                assertEquals(expected[0], actual[0]);
+            }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link DiffuseLightingRed} and {@link SpecularLightingRed}
+ * against a per pixel evaluation of the lighting equations of the SVG
+ * specification, with the surface normals of the specification's
+ * Sobel kernels and the specular exponent from <code>Math.pow</code>.
+ *
+ * <p>The normals are stored as floats and the specular exponent is
+ * interpolated from a table, so every channel may differ from the
+ * reference by up to {@link #TOLERANCE} code values.</p>
+ *
+ * @version $Id$
+ */
+public class LightingRedTestCase {
+
+    /**
+     * The largest difference allowed on a channel, out of 255.
+     */
+    private static final int TOLERANCE = 1;
+
+    // Wider than a tile, so the work is split between threads.
+    private static final Rectangle TEXTURE = new Rectangle(3, 4, 300, 150);
+
+    // Two pixels of unlit surface all around the texture.
+    private static final Rectangle LIT = new Rectangle(1, 2, 304, 154);
+
+    private static final double SURFACE_SCALE = 3.5;
+    private static final double SCALE_X = 1.25, SCALE_Y = 0.8;
+
+    private static final Color COLOR = new Color(200, 150, 100);
+
+    /**
+     * Returns the alpha values of the texture, a smooth surface
+     * with some noise so the normals point in every direction.
+     */
+    private static int[] createAlpha() {
+        Random r = new Random(3);
+        int[] a = new int[TEXTURE.width*TEXTURE.height];
+        for (int y = 0; y < TEXTURE.height; y++)
+            for (int x = 0; x < TEXTURE.width; x++) {
+                double v = 127.5 + 110*Math.sin(x*0.07)*Math.cos(y*0.11)
+                    + r.nextInt(41) - 20;
+                a[y*TEXTURE.width + x] =
+                    Math.max(0, Math.min(255, (int)v));
+            }
+        return a;
+    }
+
+    private static BumpMap createBumpMap(int[] alpha) {
+        BufferedImage bi = new BufferedImage
+            (TEXTURE.width, TEXTURE.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < TEXTURE.height; y++)
+            for (int x = 0; x < TEXTURE.width; x++)
+                bi.setRGB(x, y, alpha[y*TEXTURE.width + x] << 24);
+        CachableRed cr =
+            new BufferedImageCachableRed(bi, TEXTURE.x, TEXTURE.y);
+        return new BumpMap(cr, SURFACE_SCALE, SCALE_X, SCALE_Y);
+    }
+
+    /**
+     * Returns the alpha of the texture at (x, y) in device space.
+     */
+    private static int alpha(int[] alpha, int x, int y) {
+        return alpha[(y-TEXTURE.y)*TEXTURE.width + (x-TEXTURE.x)];
+    }
+
+    /**
+     * Computes the normal and elevation at (x, y) with the kernels
+     * of the specification, which drop the rows and columns that
+     * fall outside the texture.
+     */
+    private static double[] normal(int[] alpha, int x, int y) {
+        double[] n = new double[4];
+        if (!TEXTURE.contains(x, y))
+            return n;
+        boolean hasL = x > TEXTURE.x;
+        boolean hasR = x < TEXTURE.x+TEXTURE.width-1;
+        boolean hasT = y > TEXTURE.y;
+        boolean hasB = y < TEXTURE.y+TEXTURE.height-1;
+        int xl = hasL ? x-1 : x, xr = hasR ? x+1 : x;
+        int yt = hasT ? y-1 : y, yb = hasB ? y+1 : y;
+
+        double gx = 2*(alpha(alpha, xr, y) - alpha(alpha, xl, y));
+        if (hasT) gx += alpha(alpha, xr, y-1) - alpha(alpha, xl, y-1);
+        if (hasB) gx += alpha(alpha, xr, y+1) - alpha(alpha, xl, y+1);
+        double gy = 2*(alpha(alpha, x, yb) - alpha(alpha, x, yt));
+        if (hasL) gy += alpha(alpha, x-1, yb) - alpha(alpha, x-1, yt);
+        if (hasR) gy += alpha(alpha, x+1, yb) - alpha(alpha, x+1, yt);
+
+        // The factors of the specification's table.
+        boolean rows3 = hasT && hasB;
+        boolean cols3 = hasL && hasR;
+        double fx = cols3 ? (rows3 ? 1/4. : 1/3.) : (rows3 ? 1/2. : 2/3.);
+        double fy = rows3 ? (cols3 ? 1/4. : 1/3.) : (cols3 ? 1/2. : 2/3.);
+
+        double nx = -SURFACE_SCALE*SCALE_X*fx*gx/255;
+        double ny = -SURFACE_SCALE*SCALE_Y*fy*gy/255;
+        double norm = Math.sqrt(nx*nx + ny*ny + 1);
+        n[0] = nx/norm;
+        n[1] = ny/norm;
+        n[2] = 1/norm;
+        n[3] = SURFACE_SCALE*alpha(alpha, x, y)/255;
+        return n;
+    }
+
+    private static int clamp(double v) {
+        int i = (int)v;
+        return Math.max(0, Math.min(255, i));
+    }
+
+    /**
+     * Returns the unit light vector at (x, y) in <code>L</code> and
+     * the light intensity there.
+     */
+    private static double getLight(Light light, double[] n,
+                                   int x, int y, double[] L) {
+        double ux = x/SCALE_X, uy = y/SCALE_Y;
+        if (light instanceof SpotLight) {
+            ((SpotLight)light).getLight4(ux, uy, n[3], L);
+            return L[3];
+        }
+        light.getLight(ux, uy, n[3], L);
+        return 1;
+    }
+
+    private static void checkPixel(String what, int x, int y, int expected,
+                                   int actual) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int e = (expected >>> shift) & 0xFF;
+            int a = (actual >>> shift) & 0xFF;
+            if (Math.abs(e - a) > TOLERANCE)
+                assertEquals(what + " at " + x + "," + y + " shift " + shift,
+                             Integer.toHexString(expected),
+                             Integer.toHexString(actual));
+        }
+    }
+
+    private static WritableRaster render(CachableRed red) {
+        WritableRaster wr = Raster.createWritableRaster
+            (red.getSampleModel().createCompatibleSampleModel
+             (LIT.width, LIT.height), new Point(LIT.x, LIT.y));
+        red.copyData(wr);
+        return wr;
+    }
+
+    private void checkDiffuse(Light light, double kd) {
+        int[] alpha = createAlpha();
+        DiffuseLightingRed red = new DiffuseLightingRed
+            (kd, light, createBumpMap(alpha), LIT,
+             1/SCALE_X, 1/SCALE_Y, false);
+        WritableRaster wr = render(red);
+        double[] c = light.getColor(false);
+        double[] L = new double[4];
+        int[] px = new int[1];
+        for (int y = LIT.y; y < LIT.y+LIT.height; y++)
+            for (int x = LIT.x; x < LIT.x+LIT.width; x++) {
+                double[] n = normal(alpha, x, y);
+                double nl = getLight(light, n, x, y, L)
+                    * (n[0]*L[0] + n[1]*L[1] + n[2]*L[2]);
+                int expected = 0xFF000000
+                    | clamp(kd*nl*c[0]*255) << 16
+                    | clamp(kd*nl*c[1]*255) << 8
+                    | clamp(kd*nl*c[2]*255);
+                wr.getDataElements(x, y, px);
+                checkPixel("diffuse", x, y, expected, px[0]);
+            }
+    }
+
+    private void checkSpecular(Light light, double ks, double exponent) {
+        int[] alpha = createAlpha();
+        SpecularLightingRed red = new SpecularLightingRed
+            (ks, exponent, light, createBumpMap(alpha), LIT,
+             1/SCALE_X, 1/SCALE_Y, false);
+        WritableRaster wr = render(red);
+        double[] c = light.getColor(false);
+        double max = Math.max(c[0], Math.max(c[1], c[2]));
+        int rgb = ((int)(c[0]*255/max + .5) << 16)
+            | ((int)(c[1]*255/max + .5) << 8)
+            | (int)(c[2]*255/max + .5);
+        double[] L = new double[4];
+        int[] px = new int[1];
+        int lit = 0;
+        for (int y = LIT.y; y < LIT.y+LIT.height; y++)
+            for (int x = LIT.x; x < LIT.x+LIT.width; x++) {
+                double[] n = normal(alpha, x, y);
+                double intensity = getLight(light, n, x, y, L);
+                // The half way vector.
+                L[2] += 1;
+                double norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
+                double nh = (n[0]*L[0] + n[1]*L[1] + n[2]*L[2])/norm;
+                double p = Math.pow(nh, exponent);
+                if (p != p) p = 0; // NaN
+                int a = clamp(ks*intensity*p*max*255 + .5);
+                if (a > 0) lit++;
+                wr.getDataElements(x, y, px);
+                checkPixel("specular " + exponent, x, y, a << 24 | rgb,
+                           px[0]);
+            }
+        assertTrue(lit > 0);
+    }
+
+    /**
+     * Runs <code>r</code> with the given number of tile workers.
+     */
+    private static void withThreads(int n, Runnable r) {
+        int threads = TileWorkerPool.getThreadCount();
+        TileWorkerPool.setThreadCount(n);
+        try {
+            r.run();
+        } finally {
+            TileWorkerPool.setThreadCount(threads);
+        }
+    }
+
+    private static final Light[] LIGHTS = {
+        new DistantLight(30, 45, COLOR),
+        new PointLight(60, 40, 50, COLOR),
+        new SpotLight(100, 60, 80, 140, 90, 0, 1.5, 40, COLOR)
+    };
+
+    @Test
+    public void testDiffuse() {
+        for (int t = 1; t <= 4; t += 3) {
+            withThreads(t, new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < LIGHTS.length; i++)
+                            checkDiffuse(LIGHTS[i], 1.3);
+                    }
+                });
+        }
+    }
+
+    @Test
+    public void testSpecular() {
+        // Whole, fractional (undefined for negative N.H) and the
+        // largest exponent allowed.
+        final double[] exponents = { 1, 20.5, 128 };
+        for (int t = 1; t <= 4; t += 3) {
+            withThreads(t, new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < LIGHTS.length; i++)
+                            for (int j = 0; j < exponents.length; j++)
+                                checkSpecular(LIGHTS[i], 1.5, exponents[j]);
+                    }
+                });
+        }
+    }
+
+    @Test
+    public void testNormalArray() {
+        int[] alpha = createAlpha();
+        BumpMap bm = createBumpMap(alpha);
+        double[][][] n = bm.getNormalArray(LIT.x, LIT.y,
+                                           LIT.width, LIT.height);
+        for (int y = 0; y < LIT.height; y++)
+            for (int x = 0; x < LIT.width; x++) {
+                double[] expected = normal(alpha, LIT.x+x, LIT.y+y);
+                for (int c = 0; c < 4; c++)
+                    assertEquals(expected[c], n[y][x][c], 1e-6);
+            }
+    }
+}
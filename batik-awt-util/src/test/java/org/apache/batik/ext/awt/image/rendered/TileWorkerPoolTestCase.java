@@ -0,0 +1,173 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+
+import org.apache.batik.util.HaltingThread;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link TileWorkerPool} computes every piece of an area
+ * exactly once, and that it stops handing out pieces once the calling
+ * thread has been halted.
+ *
+ * @version $Id$
+ */
+public class TileWorkerPoolTestCase {
+
+    private static final int THREADS = 4;
+
+    private static final Rectangle AREA = new Rectangle(-5, 7, 130, 95);
+
+    /**
+     * Counts the pieces run and the pixels they cover.
+     */
+    static class Counter implements TileWorkerPool.Task {
+        final int[] covered = new int[AREA.width*AREA.height];
+        int pieces;
+
+        public void run(Rectangle piece) {
+            synchronized (this) {
+                pieces++;
+            }
+            // Each pixel belongs to one piece only, no need to lock.
+            for (int y = piece.y; y < piece.y+piece.height; y++)
+                for (int x = piece.x; x < piece.x+piece.width; x++)
+                    covered[(y-AREA.y)*AREA.width + (x-AREA.x)]++;
+        }
+
+        synchronized int getPieces() {
+            return pieces;
+        }
+    }
+
+    /**
+     * Runs <code>r</code> with <code>THREADS</code> tile workers.
+     */
+    private static void withThreads(Runnable r) {
+        int threads = TileWorkerPool.getThreadCount();
+        TileWorkerPool.setThreadCount(THREADS);
+        try {
+            r.run();
+        } finally {
+            TileWorkerPool.setThreadCount(threads);
+        }
+    }
+
+    @Test
+    public void testEveryPieceOnce() {
+        withThreads(new Runnable() {
+                public void run() {
+                    Counter c = new Counter();
+                    TileWorkerPool.run(AREA, 16, 10, c);
+                    // 9 columns by 10 rows of pieces.
+                    assertEquals(90, c.getPieces());
+                    for (int i = 0; i < c.covered.length; i++)
+                        assertEquals(1, c.covered[i]);
+                }
+            });
+    }
+
+    /**
+     * Runs the pool from a halting thread whose task halts that
+     * thread while the first piece is computed.
+     */
+    @Test
+    public void testStopsWhenHalted() throws Exception {
+        final HaltingThread[] owner = new HaltingThread[1];
+        final Counter c = new Counter() {
+                public void run(Rectangle piece) {
+                    owner[0].halt();
+                    super.run(piece);
+                    try {
+                        // Gives the other workers time to ask for more.
+                        Thread.sleep(20);
+                    } catch (InterruptedException ie) {
+                    }
+                }
+            };
+        final int[] done = new int[1];
+        withThreads(new Runnable() {
+                public void run() {
+                    HaltingThread t = new HaltingThread() {
+                            public void run() {
+                                TileWorkerPool.run(AREA, 16, 10, c);
+                                done[0] = c.getPieces();
+                            }
+                        };
+                    owner[0] = t;
+                    t.start();
+                    try {
+                        t.join(10000);
+                    } catch (InterruptedException ie) {
+                    }
+                    assertFalse(t.isAlive());
+                }
+            });
+        // Only the pieces already started when the owner was halted,
+        // at most one per thread, and none once run has returned.
+        assertTrue(String.valueOf(done[0]),
+                   (done[0] >= 1) && (done[0] <= THREADS));
+        Thread.sleep(100);
+        assertEquals(done[0], c.getPieces());
+    }
+
+    @Test
+    public void testHaltedBeforeRun() throws Exception {
+        final Counter c = new Counter();
+        HaltingThread t = new HaltingThread() {
+                public void run() {
+                    halt();
+                    TileWorkerPool.run(AREA, 16, 10, c);
+                }
+            };
+        t.start();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertEquals(0, c.getPieces());
+    }
+
+    @Test
+    public void testFailureRethrown() {
+        withThreads(new Runnable() {
+                public void run() {
+                    Counter c = new Counter() {
+                            public void run(Rectangle piece) {
+                                super.run(piece);
+                                if (piece.y > AREA.y)
+                                    throw new IllegalStateException();
+                            }
+                        };
+                    try {
+                        TileWorkerPool.run(AREA, 16, 10, c);
+                        fail();
+                    } catch (IllegalStateException ise) {
+                    }
+                    // The other pieces are dropped after a failure.
+                    assertTrue(c.getPieces() < 90);
+                }
+            });
+    }
+}
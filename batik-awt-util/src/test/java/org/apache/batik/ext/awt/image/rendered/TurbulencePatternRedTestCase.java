@@ -0,0 +1,293 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TurbulencePatternRed} against a direct transcription
+ * of the feTurbulence pseudo code of the SVG specification, and that
+ * the tiles it shares between instances never mix up parameters.
+ *
+ * @version $Id$
+ */
+public class TurbulencePatternRedTestCase {
+
+    // More than one 128 pixel tile each way, not on the tile grid.
+    private static final Rectangle DEV = new Rectangle(-37, 21, 300, 200);
+
+    private static final Rectangle2D STITCH_TILE =
+        new Rectangle2D.Double(-10, 5, 150, 90);
+
+    /**
+     * The feTurbulence algorithm, one pixel and one channel at a time.
+     */
+    static final class Reference {
+        static final int BSize = 0x100;
+        static final int BM = 0xff;
+        static final int PerlinN = 0x1000;
+
+        final int[] lattice = new int[BSize];
+        final double[][][] gradient = new double[4][BSize][2];
+
+        final double baseFrequencyX, baseFrequencyY;
+        final int numOctaves;
+        final boolean fractal;
+        final int[] stitch;
+
+        Reference(double bfx, double bfy, int numOctaves, int seed,
+                  boolean fractal, Rectangle2D tile) {
+            this.numOctaves = numOctaves;
+            this.fractal = fractal;
+
+            if (seed <= 0) seed = -(seed % (2147483647 - 1)) + 1;
+            if (seed > 2147483647 - 1) seed = 2147483647 - 1;
+            for (int k = 0; k < 4; k++) {
+                for (int i = 0; i < BSize; i++) {
+                    double u = ((seed = random(seed)) % (BSize + BSize))
+                        - BSize;
+                    double v = ((seed = random(seed)) % (BSize + BSize))
+                        - BSize;
+                    double s = 1/Math.sqrt(u*u + v*v);
+                    gradient[k][i][0] = u*s;
+                    gradient[k][i][1] = v*s;
+                }
+            }
+            for (int i = 0; i < BSize; i++)
+                lattice[i] = i;
+            for (int i = BSize-1; i > 0; i--) {
+                int k = lattice[i];
+                int j = (seed = random(seed)) % BSize;
+                lattice[i] = lattice[j];
+                lattice[j] = k;
+            }
+
+            if (tile != null) {
+                // Frequencies that give whole lattice tiles.
+                bfx = adjust(bfx, tile.getWidth());
+                bfy = adjust(bfy, tile.getHeight());
+                int w = (int)(tile.getWidth()*bfx);
+                int h = (int)(tile.getHeight()*bfy);
+                stitch = new int[] {
+                    (int)(tile.getX()*bfx + PerlinN + w), Math.max(w, 1),
+                    (int)(tile.getY()*bfy + PerlinN + h), Math.max(h, 1) };
+            } else {
+                stitch = null;
+            }
+            baseFrequencyX = bfx;
+            baseFrequencyY = bfy;
+        }
+
+        static double adjust(double f, double sz) {
+            double lo = Math.floor(sz*f)/sz;
+            double hi = Math.ceil(sz*f)/sz;
+            return (f/lo < hi/f) ? lo : hi;
+        }
+
+        static int random(int seed) {
+            int r = 16807*(seed % 127773) - 2836*(seed / 127773);
+            return (r <= 0) ? r + 2147483647 : r;
+        }
+
+        double noise2(int c, double vx, double vy, int[] st) {
+            double t = vx + PerlinN;
+            int bx0 = (int)t;
+            int bx1 = bx0+1;
+            double rx0 = t - (int)t;
+            double rx1 = rx0 - 1;
+            t = vy + PerlinN;
+            int by0 = (int)t;
+            int by1 = by0+1;
+            double ry0 = t - (int)t;
+            double ry1 = ry0 - 1;
+            if (st != null) {
+                if (bx0 >= st[0]) bx0 -= st[1];
+                if (bx1 >= st[0]) bx1 -= st[1];
+                if (by0 >= st[2]) by0 -= st[3];
+                if (by1 >= st[2]) by1 -= st[3];
+            }
+            int i = lattice[bx0 & BM];
+            int j = lattice[bx1 & BM];
+            double[] q00 = gradient[c][lattice[(i + by0) & BM]];
+            double[] q10 = gradient[c][lattice[(j + by0) & BM]];
+            double[] q01 = gradient[c][lattice[(i + by1) & BM]];
+            double[] q11 = gradient[c][lattice[(j + by1) & BM]];
+            double sx = rx0*rx0*(3 - 2*rx0);
+            double sy = ry0*ry0*(3 - 2*ry0);
+            double a = lerp(sx, rx0*q00[0] + ry0*q00[1],
+                                rx1*q10[0] + ry0*q10[1]);
+            double b = lerp(sx, rx0*q01[0] + ry1*q01[1],
+                                rx1*q11[0] + ry1*q11[1]);
+            return lerp(sy, a, b);
+        }
+
+        static double lerp(double t, double a, double b) {
+            return a + t*(b - a);
+        }
+
+        /**
+         * Returns channel <code>c</code> at the given point of the
+         * filter space.
+         */
+        int channel(int c, double x, double y) {
+            int[] st = (stitch == null) ? null : (int[])stitch.clone();
+            double vx = x*baseFrequencyX;
+            double vy = y*baseFrequencyY;
+            double sum = 0;
+            double ratio = 1;
+            for (int o = 0; o < numOctaves; o++) {
+                double n = noise2(c, vx, vy, st);
+                sum += (fractal ? n : Math.abs(n))/ratio;
+                vx *= 2;
+                vy *= 2;
+                ratio *= 2;
+                if (st != null) {
+                    st[1] *= 2;
+                    st[0] = 2*st[0] - PerlinN;
+                    st[3] *= 2;
+                    st[2] = 2*st[2] - PerlinN;
+                }
+            }
+            double v = fractal ? (sum*255 + 255)/2 : sum*255;
+            return Math.max(0, Math.min(255, (int)v));
+        }
+    }
+
+    private static TurbulencePatternRed create
+        (double bfx, double bfy, int numOctaves, int seed, boolean fractal,
+         Rectangle2D tile, boolean alpha) {
+        return new TurbulencePatternRed
+            (bfx, bfy, numOctaves, seed, fractal, tile,
+             new AffineTransform(), DEV,
+             ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha);
+    }
+
+    /**
+     * Checks every pixel of <code>ras</code> against the reference.
+     */
+    private static void check(String what, Raster ras, Reference ref,
+                              boolean alpha) {
+        Rectangle r = ras.getBounds().intersection(DEV);
+        assertTrue(what, !r.isEmpty());
+        int[] px = new int[1];
+        // Channels 0-3 are R, G, B and A.
+        int[] shifts = { 16, 8, 0, 24 };
+        int nc = alpha ? 4 : 3;
+        for (int y = r.y; y < r.y+r.height; y++)
+            for (int x = r.x; x < r.x+r.width; x++) {
+                ras.getDataElements(x, y, px);
+                for (int c = 0; c < nc; c++) {
+                    int actual = (px[0] >>> shifts[c]) & 0xFF;
+                    assertEquals(what + " at " + x + "," + y +
+                                 " channel " + c,
+                                 ref.channel(c, x, y), actual);
+                }
+            }
+    }
+
+    private void checkAll(boolean fractal, Rectangle2D tile) {
+        String what = (fractal ? "fractal" : "turbulence") +
+            ((tile != null) ? " stitched" : "");
+        for (int a = 0; a < 2; a++) {
+            boolean alpha = (a == 1);
+            TurbulencePatternRed red =
+                create(0.043, 0.061, 4, 7, fractal, tile, alpha);
+            Reference ref = new Reference(0.043, 0.061, 4, 7, fractal, tile);
+            assertEquals(ref.baseFrequencyX, red.getBaseFrequencyX(), 0);
+            assertEquals(ref.baseFrequencyY, red.getBaseFrequencyY(), 0);
+
+            // A few tiles, then an area across the tile grid.
+            check(what, red.getTile(red.getMinTileX(), red.getMinTileY()),
+                  ref, alpha);
+            check(what, red.getTile(red.getMinTileX()+1,
+                                    red.getMinTileY()+1), ref, alpha);
+            WritableRaster wr = Raster.createWritableRaster
+                (red.getSampleModel().createCompatibleSampleModel(150, 90),
+                 new Point(DEV.x+70, DEV.y+80));
+            red.copyData(wr);
+            check(what, wr, ref, alpha);
+        }
+    }
+
+    @Test
+    public void testFractalNoise() {
+        checkAll(true, null);
+    }
+
+    @Test
+    public void testFractalNoiseStitched() {
+        checkAll(true, STITCH_TILE);
+    }
+
+    @Test
+    public void testTurbulence() {
+        checkAll(false, null);
+    }
+
+    @Test
+    public void testTurbulenceStitched() {
+        checkAll(false, STITCH_TILE);
+    }
+
+    @Test
+    public void testTileCacheKeys() {
+        // Each differs from the first in one parameter only.
+        double[][] params = {
+            // bfx, bfy, octaves, seed, fractal, stitched
+            { 0.05,  0.05,  3, 1, 1, 0 },
+            { 0.05,  0.05,  3, 2, 1, 0 },
+            { 0.051, 0.05,  3, 1, 1, 0 },
+            { 0.05,  0.052, 3, 1, 1, 0 },
+            { 0.05,  0.05,  2, 1, 1, 0 },
+            { 0.05,  0.05,  3, 1, 0, 0 },
+            { 0.05,  0.05,  3, 1, 1, 1 },
+        };
+        TurbulencePatternRed[] reds = new TurbulencePatternRed[params.length];
+        Reference[] refs = new Reference[params.length];
+        for (int i = 0; i < params.length; i++) {
+            double[] p = params[i];
+            Rectangle2D tile = (p[5] != 0) ? STITCH_TILE : null;
+            reds[i] = create(p[0], p[1], (int)p[2], (int)p[3], p[4] != 0,
+                             tile, true);
+            refs[i] = new Reference(p[0], p[1], (int)p[2], (int)p[3],
+                                    p[4] != 0, tile);
+        }
+        // Fill the cache with all of them first, then check them all,
+        // twice so the second pass reads from the cache.
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < reds.length; i++) {
+                Raster ras = reds[i].getTile(reds[i].getMinTileX(),
+                                             reds[i].getMinTileY());
+                if (pass > 0)
+                    check("parameters " + i + " pass " + pass, ras,
+                          refs[i], true);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.util.HaltingThread;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the decodes submitted by a decode running on the pool
+ * belong to the thread that submitted that decode, and that a pending
+ * decode can be moved up the queue.
+ *
+ * @version $Id$
+ */
+public class ImageDecodeExecutorTestCase {
+
+    /**
+     * Submits <code>outer</code> from a new halting thread with the
+     * given priority, and returns that thread.
+     */
+    protected HaltingThread submit(final Runnable outer, final int priority)
+        throws InterruptedException {
+        HaltingThread t = new HaltingThread() {
+                public void run() {
+                    ImageDecodeExecutor.setPriority(priority);
+                    ImageDecodeExecutor.execute(outer, null);
+                }
+            };
+        t.start();
+        t.join();
+        return t;
+    }
+
+    @Test
+    public void testNestedDecodeHasOwnerPriority() throws Exception {
+        int threads = ImageDecodeExecutor.getThreadCount();
+        ImageDecodeExecutor.setThreadCount(1);
+        try {
+            // Makes sure the pool thread is started by a thread of
+            // another priority.
+            final CountDownLatch started = new CountDownLatch(1);
+            submit(new Runnable() {
+                    public void run() {
+                        started.countDown();
+                    }
+                }, 1);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            final int[] priorities = { -1, -1 };
+            final CountDownLatch done = new CountDownLatch(1);
+            final Runnable nested = new Runnable() {
+                    public void run() {
+                        priorities[1] = ImageDecodeExecutor.getPriority();
+                        done.countDown();
+                    }
+                };
+            Runnable outer = new Runnable() {
+                    public void run() {
+                        priorities[0] = ImageDecodeExecutor.getPriority();
+                        ImageDecodeExecutor.execute(nested, null);
+                    }
+                };
+            submit(outer, 5);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(5, priorities[0]);
+            assertEquals(5, priorities[1]);
+        } finally {
+            ImageDecodeExecutor.setThreadCount(threads);
+        }
+    }
+
+    @Test
+    public void testNestedDecodeDroppedWhenOwnerHalted() throws Exception {
+        final HaltingThread[] owner = new HaltingThread[1];
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] ran = new boolean[2];
+        final Runnable nested = new Runnable() {
+                public void run() {
+                    ran[0] = true;
+                    done.countDown();
+                }
+            };
+        final Runnable cancel = new Runnable() {
+                public void run() {
+                    ran[1] = true;
+                    done.countDown();
+                }
+            };
+        Runnable outer = new Runnable() {
+                public void run() {
+                    try {
+                        submitted.await();
+                    } catch (InterruptedException ie) {
+                    }
+                    // The document load is halted while the outer
+                    // decode runs.
+                    owner[0].halt();
+                    ImageDecodeExecutor.execute(nested, cancel);
+                }
+            };
+        owner[0] = submit(outer, 0);
+        submitted.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(ran[0]);
+        assertTrue(ran[1]);
+    }
+
+    /**
+     * Returns a decode that records its name in <code>order</code>.
+     */
+    protected Runnable record(final List order, final String name,
+                              final CountDownLatch done) {
+        return new Runnable() {
+                public void run() {
+                    synchronized (order) {
+                        order.add(name);
+                    }
+                    done.countDown();
+                }
+            };
+    }
+
+    @Test
+    public void testRaisePriority() throws Exception {
+        int threads = ImageDecodeExecutor.getThreadCount();
+        ImageDecodeExecutor.setThreadCount(1);
+        try {
+            // Keeps the pool thread busy while the queue is set up.
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            ImageDecodeExecutor.execute(new Runnable() {
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ie) {
+                        }
+                    }
+                }, null, 10);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            List order = new ArrayList();
+            CountDownLatch done = new CountDownLatch(3);
+            Object a = new Object();
+            Object b = new Object();
+            ImageDecodeExecutor.execute(record(order, "a", done), null, 0, a);
+            ImageDecodeExecutor.execute(record(order, "b", done), null, 1, b);
+            ImageDecodeExecutor.execute(record(order, "c", done), null, 2);
+            ImageDecodeExecutor.raisePriority(a, 5);
+            // Never lowered.
+            ImageDecodeExecutor.raisePriority(b, 0);
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals("[a, c, b]", order.toString());
+
+            // The decode has run, nothing to raise.
+            ImageDecodeExecutor.raisePriority(a, 20);
+        } finally {
+            ImageDecodeExecutor.setThreadCount(threads);
+        }
+    }
+}
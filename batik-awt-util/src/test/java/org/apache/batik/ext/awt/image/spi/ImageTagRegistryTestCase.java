@@ -0,0 +1,113 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that images embedded in 'data:' URLs are shared by content.
+ *
+ * @version $Id$
+ */
+public class ImageTagRegistryTestCase {
+
+    /**
+     * Accepts any stream and records what it was given.
+     */
+    static class CountingEntry extends AbstractRegistryEntry
+        implements StreamRegistryEntry {
+
+        int count;
+        String data;
+
+        CountingEntry() {
+            super("Test", 1000, "tst", "image/x-test");
+        }
+
+        public int getReadlimit() {
+            return 0;
+        }
+
+        public boolean isCompatibleStream(InputStream is) {
+            return true;
+        }
+
+        public Filter handleStream(InputStream is, ParsedURL origURL,
+                                   boolean needRawData) {
+            count++;
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                int b;
+                while ((b = is.read()) != -1)
+                    bos.write(b);
+                data = bos.toString("US-ASCII");
+            } catch (IOException ioe) {
+                return null;
+            }
+            return new FloodRable8Bit(new Rectangle2D.Double(0, 0, 1, 1),
+                                      Color.black);
+        }
+    }
+
+    @Test
+    public void testIdenticalDataURLsShareImage() {
+        ImageTagRegistry reg = new ImageTagRegistry();
+        CountingEntry entry = new CountingEntry();
+        reg.register(entry);
+
+        // Same bytes, wrapped differently.
+        ParsedURL a = new ParsedURL("data:image/x-test;base64,aGVsbG8=");
+        ParsedURL b = new ParsedURL("data:image/x-test;base64,aGVs\nbG8=");
+        Filter fa = reg.readURL(a);
+        Filter fb = reg.readURL(b);
+        assertEquals(1, entry.count);
+        assertEquals("hello", entry.data);
+        assertTrue(fa == fb);
+        // The URL itself is cached too.
+        assertTrue(reg.readURL(b) == fa);
+        assertEquals(1, entry.count);
+    }
+
+    @Test
+    public void testOtherDataURLIsDecoded() {
+        ImageTagRegistry reg = new ImageTagRegistry();
+        CountingEntry entry = new CountingEntry();
+        reg.register(entry);
+
+        Filter fa = reg.readURL
+            (new ParsedURL("data:image/x-test;base64,aGVsbG8="));
+        Filter fb = reg.readURL
+            (new ParsedURL("data:image/x-test;base64,d29ybGQ="));
+        assertEquals(2, entry.count);
+        assertEquals("world", entry.data);
+        assertTrue(fa != fb);
+    }
+}
@@ -458,6 +458,7 @@ public class BaseScriptingEnvironment {
             String href = XLinkSupport.getXLinkHref(script);
             String desc = null;
             Reader reader = null;
+            URL scriptURL = null;
 
             if (href.length() > 0) {
                 desc = href;
@@ -466,6 +467,11 @@ public class BaseScriptingEnvironment {
                 ParsedURL purl = new ParsedURL(script.getBaseURI(), href);
 
                 checkCompatibleScriptURL(type, purl);
+                try {
+                    scriptURL = new URL(purl.toString());
+                } catch (MalformedURLException mue) {
+                    // Only compiled for this document.
+                }
                 InputStream is = purl.openStream();
                 String mediaType = purl.getContentTypeMediaType();
                 String enc = purl.getContentTypeCharset();
@@ -559,7 +565,12 @@ public class BaseScriptingEnvironment {
             }
 
             executedScripts.put(script, null);
-            interpreter.evaluate(reader, desc);
+            if ((scriptURL != null) &&
+                (interpreter instanceof RhinoInterpreter))
+                // Compiled once for all the documents that use it.
+                ((RhinoInterpreter)interpreter).evaluate(reader, scriptURL);
+            else
+                interpreter.evaluate(reader, desc);
 
         } catch (IOException e) {
             if (userAgent != null) {
@@ -28,6 +28,7 @@ import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -52,6 +53,7 @@ import org.apache.batik.css.engine.SVGCSSEngine;
 import org.apache.batik.css.engine.SystemColorSupport;
 import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.dom.AbstractNode;
+import org.apache.batik.dom.events.DOMMutationEvent;
 import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.dom.svg.SVGContext;
 import org.apache.batik.dom.xbl.XBLManager;
@@ -234,6 +236,18 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected int dynamicStatus = STATIC;
 
+    /**
+     * Whether the raster images referenced by the document are fetched
+     * and decoded in the background as soon as the build starts.
+     */
+    protected boolean prefetchImages;
+
+    /**
+     * The number of device pixels per pixel of the document raster
+     * images are decoded for, or 0 to decode them at full resolution.
+     */
+    protected float imageDecodeScale;
+
     /**
      * The update manager.
      */
@@ -348,6 +362,8 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         subCtx.primaryContext = primaryContext != null ? primaryContext : this;
         subCtx.primaryContext.childContexts.add(new WeakReference(subCtx));
         subCtx.dynamicStatus = dynamicStatus;
+        subCtx.prefetchImages = prefetchImages;
+        subCtx.imageDecodeScale = imageDecodeScale;
         subCtx.setGVTBuilder(getGVTBuilder());
         subCtx.setTextPainter(getTextPainter());
         subCtx.setDocument(newDoc);
@@ -667,6 +683,52 @@ public class BridgeContext implements ErrorConstants, CSSContext {
             setDynamicState(STATIC);
     }
 
+    /**
+     * Returns true if the raster images of the document are
+     * prefetched when the build starts.
+     */
+    public boolean isPrefetchImages() {
+        return prefetchImages;
+    }
+
+    /**
+     * Sets whether the raster images referenced by 'image' and
+     * 'feImage' elements are fetched and decoded in the background as
+     * soon as the build starts, in parallel with the cascade and the
+     * GVT building.  The images are not prefetched if an image decode
+     * scale is set (see {@link #setImageDecodeScale}).  Call this
+     * method before the build phase (ie. before
+     * <code>gvtBuilder.build(...)</code>).
+     */
+    public void setPrefetchImages(boolean prefetchImages) {
+        this.prefetchImages = prefetchImages;
+    }
+
+    /**
+     * Returns the number of device pixels per pixel of the document
+     * raster images are decoded for, 0 if they are decoded at full
+     * resolution.
+     */
+    public float getImageDecodeScale() {
+        return imageDecodeScale;
+    }
+
+    /**
+     * Sets the number of device pixels per pixel of the document the
+     * document is expected to be rendered at.  When greater than 0,
+     * raster images displayed much smaller than their natural size
+     * are decoded at a reduced resolution that is still sufficient at
+     * that scale, saving decode time and memory.  Rendering the
+     * document at a larger scale afterwards shows the reduced images
+     * magnified.  Call this method before the build phase
+     * (ie. before <code>gvtBuilder.build(...)</code>).  The
+     * transcoders set it from their
+     * <code>KEY_IMAGE_DECODE_SCALE</code> hint.
+     */
+    public void setImageDecodeScale(float imageDecodeScale) {
+        this.imageDecodeScale = imageDecodeScale;
+    }
+
     /**
      * Returns the update manager, if the bridge supports dynamic features.
      */
@@ -1151,6 +1213,35 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected AnimatedAttributeListener animatedAttributeListener;
 
+    /**
+     * Whether the 'DOMAttrModified' events and CSS property changes are
+     * recorded and processed by {@link #flushPendingMutations()} rather
+     * than as they happen.
+     */
+    protected boolean mutationBatching;
+
+    /**
+     * The attribute changes recorded while batching, mapped from their
+     * element to a map that holds, for each attribute name, a
+     * 'DOMAttrModified' event merging the changes made to it, and each
+     * AnimatedLiveAttributeValue whose animated value changed, mapped to
+     * itself.  Null when there is
+     * none.
+     */
+    protected Map pendingAttributeChanges;
+
+    /**
+     * The CSS property changes recorded while batching, mapped from the
+     * element to a {@link PendingPropertiesChange}.  Null when there is
+     * none.
+     */
+    protected Map pendingPropertiesChanges;
+
+    /**
+     * Whether {@link #flushPendingMutations()} is running.
+     */
+    protected boolean flushingMutations;
+
     /**
      * The EventListener that is responsible of managing DOM focus event.
      */
@@ -1271,12 +1362,136 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         cssEngine.addCSSEngineListener(cssPropertiesChangedListener);
     }
 
+    /**
+     * Sets whether DOM mutations are batched.  When they are, the
+     * attribute changes and the CSS property changes are only recorded,
+     * merging the changes made to each attribute and the properties
+     * changed on each element, and the CSS engine
+     * recascades each modified element once.  {@link
+     * #flushPendingMutations()} then updates the GVT tree in one pass.
+     * Node insertions and removals flush the recorded mutations first.
+     * Turning batching off flushes them too.
+     */
+    public void setMutationBatching(boolean b) {
+        mutationBatching = b;
+        CSSEngine eng = ((SVGOMDocument)document).getCSSEngine();
+        if (eng != null) {
+            eng.setBatchingUpdates(b);
+        }
+        if (!b) {
+            flushPendingMutations();
+        }
+    }
+
+    /**
+     * Returns whether DOM mutations are batched.
+     */
+    public boolean isMutationBatching() {
+        return mutationBatching;
+    }
+
+    /**
+     * Returns whether mutations are waiting for
+     * {@link #flushPendingMutations()}.
+     */
+    public boolean hasPendingMutations() {
+        if (pendingAttributeChanges != null ||
+            pendingPropertiesChanges != null) {
+            return true;
+        }
+        CSSEngine eng = ((SVGOMDocument)document).getCSSEngine();
+        return eng != null && eng.hasPendingUpdates();
+    }
+
+    /**
+     * Processes the mutations recorded while batching: the CSS engine
+     * recascades the modified elements, then the bridges are notified
+     * of the merged property changes, then of the attribute changes.
+     */
+    public void flushPendingMutations() {
+        if (flushingMutations) {
+            return;
+        }
+        flushingMutations = true;
+        try {
+            CSSEngine eng = ((SVGOMDocument)document).getCSSEngine();
+            do {
+                if (eng != null) {
+                    eng.flushPendingUpdates();
+                }
+
+                Map m = pendingPropertiesChanges;
+                pendingPropertiesChanges = null;
+                if (m != null) {
+                    Iterator it = m.values().iterator();
+                    while (it.hasNext()) {
+                        PendingPropertiesChange pc =
+                            (PendingPropertiesChange)it.next();
+                        ((CSSPropertiesChangedListener)
+                         cssPropertiesChangedListener).handlePropertiesChanged
+                            (pc.createEvent());
+                    }
+                }
+
+                m = pendingAttributeChanges;
+                pendingAttributeChanges = null;
+                if (m != null) {
+                    Iterator it = m.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry e = (Map.Entry)it.next();
+                        Element elt = (Element)e.getKey();
+                        Iterator it2 = ((Map)e.getValue()).values().iterator();
+                        while (it2.hasNext()) {
+                            Object o = it2.next();
+                            if (o instanceof MutationEvent) {
+                                dispatchDOMAttrModifiedEvent((MutationEvent)o);
+                            } else {
+                                dispatchAnimatedAttributeChanged
+                                    (elt, (AnimatedLiveAttributeValue)o);
+                            }
+                        }
+                    }
+                }
+            } while (hasPendingMutations());
+        } finally {
+            flushingMutations = false;
+        }
+    }
+
+    /**
+     * Returns the map of the attribute changes recorded on the given
+     * element, creating it if needed.
+     */
+    protected Map getPendingAttributeChanges(Object elt) {
+        if (pendingAttributeChanges == null) {
+            pendingAttributeChanges = new LinkedHashMap();
+        }
+        Map m = (Map)pendingAttributeChanges.get(elt);
+        if (m == null) {
+            m = new LinkedHashMap(4);
+            pendingAttributeChanges.put(elt, m);
+        }
+        return m;
+    }
+
+    /**
+     * Flushes the recorded mutations, if any.
+     */
+    protected void flushPendingMutationsIfNeeded() {
+        if (mutationBatching && hasPendingMutations()) {
+            flushPendingMutations();
+        }
+    }
+
     /**
      * Removes event listeners from the DOM and CSS engine.
      */
     protected void removeDOMListeners() {
         SVGOMDocument doc = (SVGOMDocument)document;
 
+        pendingAttributeChanges = null;
+        pendingPropertiesChanges = null;
+
         doc.removeEventListenerNS
             (XMLConstants.XML_EVENTS_NAMESPACE_URI, "DOMAttrModified",
              domAttrModifiedEventListener, true);
@@ -1503,6 +1718,37 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         return (ctx == null) ? null : (BridgeUpdateHandler)ctx;
     }
 
+    /**
+     * Forwards a 'DOMAttrModified' event to the bridge of its target.
+     */
+    protected void dispatchDOMAttrModifiedEvent(MutationEvent evt) {
+        Node node = (Node)evt.getTarget();
+        BridgeUpdateHandler h = getBridgeUpdateHandler(node);
+        if (h != null) {
+            try {
+                h.handleDOMAttrModifiedEvent(evt);
+            } catch (Exception e) {
+                userAgent.displayError(e);
+            }
+        }
+    }
+
+    /**
+     * Notifies the bridge of the given element that the animated value
+     * of one of its attributes changed.
+     */
+    protected void dispatchAnimatedAttributeChanged
+            (Element e, AnimatedLiveAttributeValue alav) {
+        BridgeUpdateHandler h = getBridgeUpdateHandler(e);
+        if (h != null) {
+            try {
+                h.handleAnimatedAttributeChanged(alav);
+            } catch (Exception ex) {
+                userAgent.displayError(ex);
+            }
+        }
+    }
+
     /**
      * The DOM EventListener invoked when an attribute is modified.
      */
@@ -1518,16 +1764,59 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          * Handles 'DOMAttrModified' event type.
          */
         public void handleEvent(Event evt) {
-            Node node = (Node)evt.getTarget();
-            BridgeUpdateHandler h = getBridgeUpdateHandler(node);
-            if (h != null) {
-                try {
-                    h.handleDOMAttrModifiedEvent((MutationEvent)evt);
-                } catch (Exception e) {
-                    userAgent.displayError(e);
-                }
+            MutationEvent me = (MutationEvent)evt;
+            if (!mutationBatching) {
+                dispatchDOMAttrModifiedEvent(me);
+                return;
+            }
+            Map m = getPendingAttributeChanges(me.getTarget());
+            String name = me.getAttrName();
+            Object o = m.get(name);
+            if (o == null) {
+                m.put(name, me);
+                return;
+            }
+            me = mergeDOMAttrModifiedEvents((MutationEvent)o, me);
+            if (me == null) {
+                m.remove(name);
+            } else {
+                m.put(name, me);
+            }
+        }
+
+    }
+
+    /**
+     * Returns a 'DOMAttrModified' event with the overall effect of two
+     * successive ones on the same attribute: the previous value and
+     * the change type are taken from <code>first</code>, the new value
+     * from <code>last</code>.  Returns null if the attribute was added
+     * and then removed again.
+     */
+    protected MutationEvent mergeDOMAttrModifiedEvents(MutationEvent first,
+                                                       MutationEvent last) {
+        short change;
+        if (first.getAttrChange() == MutationEvent.ADDITION) {
+            if (last.getAttrChange() == MutationEvent.REMOVAL) {
+                return null;
             }
+            change = MutationEvent.ADDITION;
+        } else if (last.getAttrChange() == MutationEvent.REMOVAL) {
+            change = MutationEvent.REMOVAL;
+        } else {
+            change = MutationEvent.MODIFICATION;
         }
+        if (!(last instanceof DOMMutationEvent)) {
+            return last;
+        }
+        DOMMutationEvent evt = (DOMMutationEvent)
+            ((DOMMutationEvent)last).cloneEvent();
+        evt.initMutationEventNS(evt.getNamespaceURI(), evt.getType(),
+                                evt.getBubbles(), evt.getCancelable(),
+                                evt.getRelatedNode(), first.getPrevValue(),
+                                last.getNewValue(), last.getAttrName(),
+                                change);
+        return evt;
     }
 
     /**
@@ -1602,6 +1891,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          * Handles 'DOMNodeInserted' event type.
          */
         public void handleEvent(Event evt) {
+            flushPendingMutationsIfNeeded();
             MutationEvent me = (MutationEvent)evt;
             BridgeUpdateHandler h =
                 getBridgeUpdateHandler(me.getRelatedNode());
@@ -1632,6 +1922,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          * Handles 'DOMNodeRemoved' event type.
          */
         public void handleEvent(Event evt) {
+            flushPendingMutationsIfNeeded();
             Node node = (Node)evt.getTarget();
             BridgeUpdateHandler h = getBridgeUpdateHandler(node);
             if (h != null) {
@@ -1660,6 +1951,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          * Handles 'DOMCharacterDataModified' event type.
          */
         public void handleEvent(Event evt) {
+            flushPendingMutationsIfNeeded();
             Node node = (Node)evt.getTarget();
             while (node != null && !(node instanceof SVGOMElement)) {
                 node = (Node) ((AbstractNode) node).getParentNodeEventTarget();
@@ -1692,6 +1984,29 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          * that have changed on a particular element.
          */
         public void propertiesChanged(CSSEngineEvent evt) {
+            if (!mutationBatching) {
+                handlePropertiesChanged(evt);
+                return;
+            }
+            if (pendingPropertiesChanges == null) {
+                pendingPropertiesChanges = new LinkedHashMap();
+            }
+            Element elem = evt.getElement();
+            PendingPropertiesChange pc =
+                (PendingPropertiesChange)pendingPropertiesChanges.get(elem);
+            if (pc == null) {
+                pc = new PendingPropertiesChange
+                    ((CSSEngine)evt.getSource(), elem);
+                pendingPropertiesChanges.put(elem, pc);
+            }
+            pc.add(evt.getProperties());
+        }
+
+        /**
+         * Updates the GVT tree for the CSS properties that have changed
+         * on a particular element.
+         */
+        public void handlePropertiesChanged(CSSEngineEvent evt) {
             Element elem = evt.getElement();
             SVGContext ctx = getSVGContext(elem);
             if (ctx == null) {
@@ -1746,6 +2061,67 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         }
     }
 
+    /**
+     * The CSS properties changed on an element while batching.
+     */
+    protected static class PendingPropertiesChange {
+
+        /**
+         * The CSS engine that fired the changes.
+         */
+        protected CSSEngine engine;
+
+        /**
+         * The element.
+         */
+        protected Element element;
+
+        /**
+         * The changed properties, by index.
+         */
+        protected boolean[] properties;
+
+        /**
+         * The number of changed properties.
+         */
+        protected int count;
+
+        /**
+         * Creates a new PendingPropertiesChange.
+         */
+        public PendingPropertiesChange(CSSEngine eng, Element elt) {
+            engine = eng;
+            element = elt;
+            properties = new boolean[eng.getNumberOfProperties()];
+        }
+
+        /**
+         * Adds changed properties.
+         */
+        public void add(int[] props) {
+            for (int i = 0; i < props.length; i++) {
+                if (!properties[props[i]]) {
+                    properties[props[i]] = true;
+                    count++;
+                }
+            }
+        }
+
+        /**
+         * Returns an event for all the changed properties.
+         */
+        public CSSEngineEvent createEvent() {
+            int[] props = new int[count];
+            int n = 0;
+            for (int i = properties.length - 1; i >= 0; i--) {
+                if (properties[i]) {
+                    props[n++] = i;
+                }
+            }
+            return new CSSEngineEvent(engine, element, props);
+        }
+    }
+
     /**
      * A listener class for changes to animated attributes in the document.
      */
@@ -1766,14 +2142,11 @@ public class BridgeContext implements ErrorConstants, CSSContext {
          */
         public void animatedAttributeChanged(Element e,
                                              AnimatedLiveAttributeValue alav) {
-            BridgeUpdateHandler h = getBridgeUpdateHandler(e);
-            if (h != null) {
-                try {
-                    h.handleAnimatedAttributeChanged(alav);
-                } catch (Exception ex) {
-                    userAgent.displayError(ex);
-                }
+            if (!mutationBatching) {
+                dispatchAnimatedAttributeChanged(e, alav);
+                return;
             }
+            getPendingAttributeChanges(e).put(alav, alav);
         }
 
         /**
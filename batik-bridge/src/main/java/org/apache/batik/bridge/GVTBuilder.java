@@ -52,6 +52,11 @@ public class GVTBuilder implements SVGConstants {
     public GraphicsNode build(BridgeContext ctx, Document document) {
         // the bridge context is now associated to one document
         ctx.setDocument(document);
+
+        // start loading the images while the tree is built
+        if (ctx.isPrefetchImages())
+            ImagePrefetcher.prefetch(ctx, document);
+
         ctx.initializeDocument(document);
 
         // inform the bridge context the builder to use
@@ -41,6 +41,19 @@ public class GlobalWrapper extends WindowWrapper {
      */
     public GlobalWrapper(Context context) {
         super(context);
+        defineGlobalProperties();
+    }
+
+    /**
+     * Creates a new GlobalWrapper that inherits the standard objects
+     * from <code>sharedScope</code>.
+     */
+    public GlobalWrapper(Context context, Scriptable sharedScope) {
+        super(context, sharedScope);
+        defineGlobalProperties();
+    }
+
+    private void defineGlobalProperties() {
         String[] names = { "startMouseCapture", "stopMouseCapture" };
         this.defineFunctionProperties(names, GlobalWrapper.class,
                                       ScriptableObject.DONTENUM);
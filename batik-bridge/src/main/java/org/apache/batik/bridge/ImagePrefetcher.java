@@ -0,0 +1,150 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.batik.dom.AbstractNode;
+import org.apache.batik.dom.util.XLinkSupport;
+import org.apache.batik.ext.awt.image.spi.ImageDecodeExecutor;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.SVGConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.svg.SVGDocument;
+
+/**
+ * Scans a document for the raster images referenced by 'image' and
+ * 'feImage' elements, and starts fetching and decoding them on the
+ * {@link ImageDecodeExecutor}.  The decoded images land in the
+ * {@link ImageTagRegistry} cache, where the image bridges find them.
+ *
+ * <p>The prefetch runs with a lower priority than the decodes the
+ * bridges request, and is dropped if the building thread is halted.
+ * A pending decode is moved up when a bridge requests its image.
+ * References the user agent would refuse to load are skipped.</p>
+ *
+ * <p>Nothing is prefetched when the bridge context has an image
+ * decode scale, since the size the images are then decoded at is
+ * only known once their element is built.</p>
+ *
+ * @version $Id$
+ */
+final class ImagePrefetcher implements SVGConstants {
+
+    private ImagePrefetcher() { }
+
+    /**
+     * Starts prefetching the raster images referenced by
+     * <code>doc</code>.
+     */
+    static void prefetch(BridgeContext ctx, Document doc) {
+        // Full resolution images would be useless to the bridges.
+        if (ctx.getImageDecodeScale() > 0)
+            return;
+
+        ParsedURL pDocURL = null;
+        if (doc instanceof SVGDocument) {
+            String docURL = ((SVGDocument)doc).getURL();
+            if (docURL != null)
+                pDocURL = new ParsedURL(docURL);
+        }
+        UserAgent userAgent = ctx.getUserAgent();
+        int priority = ImageDecodeExecutor.getPriority()-1;
+        Set seen = new HashSet();
+
+        Node n = doc.getDocumentElement();
+        while (n != null) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                ParsedURL purl = getImageURL((Element)n);
+                if ((purl != null) && seen.add(purl.toString())) {
+                    try {
+                        if (userAgent != null)
+                            userAgent.checkLoadExternalResource(purl,
+                                                                pDocURL);
+                        ImageDecodeExecutor.execute(new Fetch(purl), null,
+                                                    priority);
+                    } catch (SecurityException se) {
+                        // The bridge will report it.
+                    }
+                }
+            }
+
+            // Next node in document order.
+            Node next = n.getFirstChild();
+            while ((next == null) && (n != null)) {
+                next = n.getNextSibling();
+                if (next == null) {
+                    n = n.getParentNode();
+                    if (n == doc) n = null;
+                }
+            }
+            n = next;
+        }
+    }
+
+    /**
+     * Returns the URL of the raster image <code>e</code> references,
+     * or null if <code>e</code> is not an image element or references
+     * an SVG document or an element.
+     */
+    private static ParsedURL getImageURL(Element e) {
+        if (!SVG_NAMESPACE_URI.equals(e.getNamespaceURI()))
+            return null;
+        String ln = e.getLocalName();
+        if (!SVG_IMAGE_TAG.equals(ln) && !SVG_FE_IMAGE_TAG.equals(ln))
+            return null;
+
+        String uriStr = XLinkSupport.getXLinkHref(e);
+        if ((uriStr == null) || (uriStr.length() == 0) ||
+            (uriStr.indexOf('#') != -1))
+            return null;
+        String lc = uriStr.toLowerCase();
+        if (lc.endsWith(".svg") || lc.endsWith(".svgz"))
+            return null;
+
+        String baseURI = AbstractNode.getBaseURI(e);
+        if (baseURI == null)
+            return new ParsedURL(uriStr);
+        return new ParsedURL(baseURI, uriStr);
+    }
+
+    /**
+     * Loads one image into the registry cache.
+     */
+    private static class Fetch implements Runnable {
+        final ParsedURL purl;
+
+        Fetch(ParsedURL purl) {
+            this.purl = purl;
+        }
+
+        public void run() {
+            ImageTagRegistry reg = ImageTagRegistry.getRegistry();
+            if (reg.checkCache(purl, null) != null)
+                return;
+            // Only keeps what was decoded, failures are left for the
+            // bridge to report.
+            reg.readURL(null, purl, null, true, false);
+        }
+    }
+}
@@ -27,9 +27,11 @@ import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.MissingResourceException;
 
 import org.apache.batik.script.Interpreter;
@@ -39,12 +41,14 @@ import org.apache.batik.script.rhino.BatikSecurityController;
 import org.apache.batik.script.rhino.RhinoClassLoader;
 import org.apache.batik.script.rhino.RhinoClassShutter;
 
+import org.mozilla.javascript.Callable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ClassCache;
 import org.mozilla.javascript.ClassShutter;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
@@ -63,9 +67,38 @@ import org.w3c.dom.events.EventTarget;
 public class RhinoInterpreter implements Interpreter {
 
     /**
-     * The number of cached compiled scripts to store.
+     * The default number of compiled scripts kept for all the
+     * interpreters.
      */
-    private static final int MAX_CACHED_SCRIPTS = 32;
+    public static final int DEFAULT_SCRIPT_CACHE_SIZE = 64;
+
+    /**
+     * The compiled scripts shared by all the interpreters, by
+     * ScriptKey, least recently used first.
+     */
+    private static final Map scriptCache =
+        new LinkedHashMap(16, 0.75f, true);
+
+    private static int scriptCacheSize = DEFAULT_SCRIPT_CACHE_SIZE;
+
+    /**
+     * Whether the interpreters inherit the standard objects from a
+     * sealed scope shared by all of them.
+     */
+    private static boolean useSharedScope;
+
+    /**
+     * The sealed scope holding the standard objects, when shared.
+     */
+    private static ScriptableObject sharedScope;
+
+    static {
+        try {
+            useSharedScope = Boolean.valueOf(System.getProperty
+                ("org.apache.batik.rhinoSharedScope")).booleanValue();
+        } catch (SecurityException se) {
+        }
+    }
 
     /**
      * Constant used to describe an SVG source
@@ -94,9 +127,11 @@ public class RhinoInterpreter implements Interpreter {
     protected ScriptableObject globalObject = null;
 
     /**
-     * List of cached compiled scripts.
+     * Identifies the permissions of the scripts of this interpreter,
+     * null when they run without a security domain.  Compiled
+     * scripts are only shared between interpreters with the same key.
      */
-    protected LinkedList compiledScripts = new LinkedList();
+    protected String securityKey;
 
     /**
      * Factory for Java wrapper objects.
@@ -170,11 +205,22 @@ public class RhinoInterpreter implements Interpreter {
         } catch (SecurityException se) {
             rhinoClassLoader = null;
         }
+        if (rhinoClassLoader != null) {
+            securityKey = getSecurityKey(documentURL);
+        }
         ContextAction initAction = new ContextAction() {
             public Object run(Context cx) {
-                Scriptable scriptable = cx.initStandardObjects(null, false);
-                defineGlobalWrapperClass(scriptable);
-                globalObject = createGlobalObject(cx);
+                ScriptableObject shared = getSharedScope(cx);
+                if (shared == null) {
+                    Scriptable scriptable = cx.initStandardObjects(null, false);
+                    defineGlobalWrapperClass(scriptable);
+                    globalObject = createGlobalObject(cx);
+                } else {
+                    globalObject = createGlobalObject(cx, shared);
+                    // Keep the Java reflection caches out of the
+                    // shared scope.
+                    new ClassCache().associate(globalObject);
+                }
                 ClassCache cache = ClassCache.get(globalObject);
                 cache.setCachingEnabled(rhinoClassLoader != null);
                 
@@ -198,14 +244,170 @@ public class RhinoInterpreter implements Interpreter {
                     sb.append(cls);
                     sb.append(");");
                 }
-                cx.evaluateString(globalObject, sb.toString(), null, 0,
-                                  rhinoClassLoader);
+                compile(cx, sb.toString(), null, 0).exec(cx, globalObject);
                 return null;
             }
         };
         contextFactory.call(initAction);
     }
 
+    /**
+     * Returns the key identifying the permissions given to the scripts
+     * of the document at <code>documentURL</code> by
+     * {@link RhinoClassLoader}.  The compiled classes carry the code
+     * source of the document they were compiled for, so this is the
+     * document URL itself.
+     */
+    protected static String getSecurityKey(URL documentURL) {
+        if (documentURL == null)
+            return "";
+        return documentURL.toString();
+    }
+
+    /**
+     * Returns the sealed scope holding the standard objects shared by
+     * the interpreters, or null if they don't share them.
+     */
+    protected static synchronized ScriptableObject getSharedScope
+        (Context cx) {
+        if (!useSharedScope)
+            return null;
+        if (sharedScope == null) {
+            ScriptableObject scope = new ImporterTopLevel(cx, true);
+            // The lazily initialized objects can't be created once
+            // the scope is sealed.
+            Object[] ids = scope.getAllIds();
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] instanceof String)
+                    ScriptableObject.getProperty(scope, (String)ids[i]);
+            }
+            scope.sealObject();
+            sharedScope = scope;
+        }
+        return sharedScope;
+    }
+
+    /**
+     * Tells whether the interpreters inherit the standard objects from
+     * a sealed scope shared by all of them.
+     */
+    public static synchronized boolean getUseSharedScope() {
+        return useSharedScope;
+    }
+
+    /**
+     * Sets whether the interpreters created from now on inherit the
+     * standard objects from a sealed scope shared by all of them,
+     * rather than creating their own.  This makes the creation of an
+     * interpreter much cheaper, but the scripts can no longer modify
+     * the standard objects, e.g. add methods to
+     * <code>Array.prototype</code>.  Defaults to the value of the
+     * <code>org.apache.batik.rhinoSharedScope</code> system property.
+     */
+    public static synchronized void setUseSharedScope(boolean b) {
+        useSharedScope = b;
+    }
+
+    /**
+     * Returns the maximum number of compiled scripts kept for all the
+     * interpreters.
+     */
+    public static int getScriptCacheSize() {
+        synchronized (scriptCache) {
+            return scriptCacheSize;
+        }
+    }
+
+    /**
+     * Sets the maximum number of compiled scripts kept for all the
+     * interpreters.
+     */
+    public static void setScriptCacheSize(int size) {
+        synchronized (scriptCache) {
+            scriptCacheSize = size;
+            trimScriptCache();
+        }
+    }
+
+    private static void trimScriptCache() {
+        Iterator i = scriptCache.keySet().iterator();
+        while (scriptCache.size() > scriptCacheSize && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    /**
+     * Returns the compiled form of <code>source</code>, from the
+     * scripts compiled by any interpreter with the same permissions
+     * if possible.
+     */
+    protected Script compile(final Context cx, final String source,
+                             final String sourceName, final int lineno) {
+        ScriptKey key = new ScriptKey(securityKey, cx.getOptimizationLevel(),
+                                      sourceName, lineno, source);
+        synchronized (scriptCache) {
+            Script script = (Script)scriptCache.get(key);
+            if (script != null)
+                return script;
+        }
+        PrivilegedAction compile = new PrivilegedAction() {
+            public Object run() {
+                return cx.compileString(source, sourceName, lineno,
+                                        rhinoClassLoader);
+            }
+        };
+        Script script = (Script)AccessController.doPrivileged(compile);
+        synchronized (scriptCache) {
+            scriptCache.put(key, script);
+            trimScriptCache();
+        }
+        return script;
+    }
+
+    /**
+     * Returns the compiled form of the external script at
+     * <code>scriptURL</code>, shared by all the interpreters that load
+     * the same content from that URL, whatever their document.  The
+     * script is compiled in the security domain of its own URL, and
+     * runs with the intersection of those permissions and the ones of
+     * the document (see {@link Factory#doTopCall}).
+     */
+    protected Script compile(final Context cx, final String source,
+                             final URL scriptURL) {
+        final String sourceName = scriptURL.toString();
+        if (rhinoClassLoader == null)
+            return compile(cx, source, sourceName, 1);
+        ScriptKey key = new ScriptKey("script " + sourceName,
+                                      cx.getOptimizationLevel(),
+                                      sourceName, 1, source);
+        synchronized (scriptCache) {
+            Script script = (Script)scriptCache.get(key);
+            if (script != null)
+                return script;
+        }
+        PrivilegedAction compile = new PrivilegedAction() {
+            public Object run() {
+                RhinoClassLoader loader = new RhinoClassLoader
+                    (scriptURL, RhinoInterpreter.this.getClass()
+                                                     .getClassLoader());
+                return cx.compileString(source, sourceName, 1, loader);
+            }
+        };
+        Script script;
+        try {
+            script = (Script)AccessController.doPrivileged(compile);
+        } catch (SecurityException se) {
+            // Not allowed to make a loader, keep it to this document.
+            return compile(cx, source, sourceName, 1);
+        }
+        synchronized (scriptCache) {
+            scriptCache.put(key, script);
+            trimScriptCache();
+        }
+        return script;
+    }
+
     /**
      * Returns the content types of the scripting languages this interpreter
      * handles.
@@ -246,6 +448,15 @@ public class RhinoInterpreter implements Interpreter {
         return new WindowWrapper(ctx);
     }
 
+    /**
+     * Creates the global object, inheriting the standard objects from
+     * <code>sharedScope</code>.
+     */
+    protected ScriptableObject createGlobalObject(Context ctx,
+                                                  Scriptable sharedScope) {
+        return new WindowWrapper(ctx, sharedScope);
+    }
+
     /**
      * Returns the AccessControlContext associated with this Interpreter.
      * @see org.apache.batik.script.rhino.RhinoClassLoader
@@ -285,17 +496,51 @@ public class RhinoInterpreter implements Interpreter {
      */
     public Object evaluate(final Reader scriptReader, final String description)
         throws IOException {
+        return evaluate(scriptReader, description, null);
+    }
+
+    /**
+     * This method evaluates the external script at
+     * <code>scriptURL</code>, whose compiled form is shared with the
+     * other interpreters that load it (see {@link
+     * #compile(Context,String,URL)}).
+     * @param scriptReader a <code>java.io.Reader</code> on the script
+     * @param scriptURL the URL the script was read from
+     * @return if no exception is thrown during the call, should return the
+     * value of the last expression evaluated in the script.
+     */
+    public Object evaluate(Reader scriptReader, URL scriptURL)
+        throws IOException {
+        return evaluate(scriptReader, null, scriptURL);
+    }
+
+    /**
+     * Evaluates the script read from <code>scriptReader</code>,
+     * described by <code>description</code> or read from
+     * <code>scriptURL</code> if it isn't null.
+     */
+    protected Object evaluate(final Reader scriptReader,
+                              final String description,
+                              final URL scriptURL)
+        throws IOException {
 
         ContextAction evaluateAction = new ContextAction() {
             public Object run(Context cx) {
+                StringBuffer sb = new StringBuffer();
+                char[] buf = new char[4096];
                 try {
-                    return cx.evaluateReader(globalObject,
-                                             scriptReader,
-                                             description,
-                                             1, rhinoClassLoader);
+                    int n;
+                    while ((n = scriptReader.read(buf)) != -1)
+                        sb.append(buf, 0, n);
                 } catch (IOException ioe) {
                     throw new WrappedException(ioe);
                 }
+                Script script;
+                if (scriptURL == null)
+                    script = compile(cx, sb.toString(), description, 1);
+                else
+                    script = compile(cx, sb.toString(), scriptURL);
+                return script.exec(cx, globalObject);
             }
         };
         try {
@@ -333,55 +578,7 @@ public class RhinoInterpreter implements Interpreter {
 
         ContextAction evalAction = new ContextAction() {
             public Object run(final Context cx) {
-                Script script = null;
-                Entry entry = null;
-                Iterator it = compiledScripts.iterator();
-                // between nlog(n) and log(n) because it is
-                // an AbstractSequentialList
-                while (it.hasNext()) {
-                    if ((entry = (Entry) it.next()).str.equals(scriptStr)) {
-                        // if it is not at the end, remove it because
-                        // it will change from place (it is faster
-                        // to remove it now)
-                        script = entry.script;
-                        it.remove();
-                        break;
-                    }
-                }
-
-                if (script == null) {
-                    // this script has not been compiled yet or has been
-                    // forgotten since the compilation:
-                    // compile it and store it for future use.
-
-                    PrivilegedAction compile = new PrivilegedAction() {
-                        public Object run() {
-                            try {
-                                return cx.compileReader
-                                    (new StringReader(scriptStr),
-                                     SOURCE_NAME_SVG, 1, rhinoClassLoader);
-                            } catch (IOException ioEx ) {
-                                // Should never happen: using a string
-                                throw new Error( ioEx.getMessage() );
-                            }
-                        }
-                    };
-                    script = (Script)AccessController.doPrivileged(compile);
-
-                    if (compiledScripts.size() + 1 > MAX_CACHED_SCRIPTS) {
-                        // too many cached items - we should delete the
-                        // oldest entry.  all of this is very fast on
-                        // linkedlist
-                        compiledScripts.removeFirst();
-                    }
-                    // storing is done here:
-                    compiledScripts.addLast(new Entry(scriptStr, script));
-                } else {
-                    // this script has been compiled before,
-                    // just update its index so it won't get deleted soon.
-                    compiledScripts.addLast(entry);
-                }
-
+                Script script = compile(cx, scriptStr, SOURCE_NAME_SVG, 1);
                 return script.exec(cx, globalObject);
             }
         };
@@ -561,26 +758,48 @@ public class RhinoInterpreter implements Interpreter {
     }
 
     /**
-     * Class to store cached compiled scripts.
-     */
-    protected static class Entry {
-
-        /**
-         * The script string.
-         */
-        public String str;
+     * The key of a compiled script in the shared cache.  Scripts are
+     * compiled with the security domain of the interpreter that
+     * compiled them, so the key includes the permissions.
+     */
+    protected static class ScriptKey {
+        protected String securityKey;
+        protected int optimizationLevel;
+        protected String sourceName;
+        protected int lineno;
+        protected String source;
+        protected int hash;
+
+        public ScriptKey(String securityKey, int optimizationLevel,
+                         String sourceName, int lineno, String source) {
+            this.securityKey       = securityKey;
+            this.optimizationLevel = optimizationLevel;
+            this.sourceName        = sourceName;
+            this.lineno            = lineno;
+            this.source            = source;
+            hash = source.hashCode() * 31 + optimizationLevel;
+            if (sourceName != null)
+                hash = hash * 31 + sourceName.hashCode();
+            if (securityKey != null)
+                hash = hash * 31 + securityKey.hashCode();
+        }
 
-        /**
-         * The compiled script.
-         */
-        public Script script;
+        public int hashCode() {
+            return hash;
+        }
 
-        /**
-         * Creates a new script cache entry object.
-         */
-        public Entry(String str, Script script) {
-            this.str = str;
-            this.script = script;
+        public boolean equals(Object o) {
+            if (!(o instanceof ScriptKey))
+                return false;
+            ScriptKey k = (ScriptKey)o;
+            return (hash == k.hash) &&
+                (optimizationLevel == k.optimizationLevel) &&
+                (lineno == k.lineno) &&
+                ((securityKey == null) ? (k.securityKey == null)
+                                       : securityKey.equals(k.securityKey)) &&
+                ((sourceName == null) ? (k.sourceName == null)
+                                      : sourceName.equals(k.sourceName)) &&
+                source.equals(k.source);
         }
     }
 
@@ -602,5 +821,27 @@ public class RhinoInterpreter implements Interpreter {
             }
             return cx;
         }
+
+        /**
+         * Runs the calls into the scripts with the permissions of the
+         * document, so the scripts compiled in the security domain of
+         * their own URL get no more than the document's scripts.
+         */
+        protected Object doTopCall(final Callable callable,
+                                   final Context cx,
+                                   final Scriptable scope,
+                                   final Scriptable thisObj,
+                                   final Object[] args) {
+            AccessControlContext acc = getAccessControlContext();
+            if (acc == null)
+                return super.doTopCall(callable, cx, scope, thisObj, args);
+            PrivilegedAction call = new PrivilegedAction() {
+                public Object run() {
+                    return Factory.super.doTopCall(callable, cx, scope,
+                                                   thisObj, args);
+                }
+            };
+            return AccessController.doPrivileged(call, acc);
+        }
     }
 }
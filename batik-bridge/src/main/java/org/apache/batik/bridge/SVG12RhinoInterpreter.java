@@ -66,4 +66,13 @@ public class SVG12RhinoInterpreter extends RhinoInterpreter {
     protected ScriptableObject createGlobalObject(Context ctx) {
         return new GlobalWrapper(ctx);
     }
+
+    /**
+     * Creates the global object, inheriting the standard objects from
+     * <code>sharedScope</code>.
+     */
+    protected ScriptableObject createGlobalObject(Context ctx,
+                                                  Scriptable sharedScope) {
+        return new GlobalWrapper(ctx, sharedScope);
+    }
 }
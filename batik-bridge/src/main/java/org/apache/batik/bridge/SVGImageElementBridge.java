@@ -18,6 +18,7 @@
  */
 package org.apache.batik.bridge;
 
+import java.awt.Dimension;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.color.ColorSpace;
@@ -34,13 +35,16 @@ import java.util.List;
 import org.apache.batik.anim.dom.AbstractSVGAnimatedLength;
 import org.apache.batik.anim.dom.AnimatedLiveAttributeValue;
 import org.apache.batik.anim.dom.SVGOMAnimatedPreserveAspectRatio;
+import org.apache.batik.anim.dom.SVGOMAnimatedRect;
 import org.apache.batik.anim.dom.SVGOMDocument;
 import org.apache.batik.anim.dom.SVGOMElement;
+import org.apache.batik.anim.dom.SVGOMSVGElement;
 import org.apache.batik.css.engine.CSSEngine;
 import org.apache.batik.css.engine.SVGCSSEngine;
 import org.apache.batik.dom.AbstractNode;
 import org.apache.batik.dom.events.DOMMouseEvent;
 import org.apache.batik.dom.events.NodeEventTarget;
+import org.apache.batik.dom.svg.AbstractSVGTransformList;
 import org.apache.batik.dom.svg.LiveAttributeException;
 import org.apache.batik.dom.util.DOMUtilities;
 import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
@@ -63,6 +67,7 @@ import org.apache.xmlgraphics.java2d.color.RenderingIntent;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.events.DocumentEvent;
 import org.w3c.dom.events.Event;
 import org.w3c.dom.events.EventListener;
@@ -70,6 +75,7 @@ import org.w3c.dom.events.EventTarget;
 import org.w3c.dom.svg.SVGDocument;
 import org.w3c.dom.svg.SVGImageElement;
 import org.w3c.dom.svg.SVGSVGElement;
+import org.w3c.dom.svg.SVGTransformable;
 
 /**
  * Bridge class for the &lt;image> element.
@@ -208,6 +214,7 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
         DocumentLoader loader = ctx.getDocumentLoader();
         ImageTagRegistry reg = ImageTagRegistry.getRegistry();
         ICCColorSpaceWithIntent colorspace = extractColorSpace(e, ctx);
+        Dimension targetSize = getTargetSize(ctx, e, bounds);
         {
             /**
              *  Before we open the URL we see if we have the
@@ -227,7 +234,7 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
             }
 
             /* Check the ImageTagRegistry Cache */
-            Filter img = reg.checkCache(purl, colorspace);
+            Filter img = reg.checkCache(purl, colorspace, targetSize);
             if (img != null) {
                 return createRasterImageNode(ctx, e, img, purl);
             }
@@ -259,7 +266,7 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
              * tell it not to open that url.
              */
             Filter img = reg.readURL(reference, purl, colorspace,
-                                     false, false);
+                                     false, false, targetSize);
             if (img != null) {
                 try {
                     reference.tie();
@@ -334,7 +341,7 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
             // PNG) allowing the registry to open the url (so the
             // JDK readers can be checked).
             Filter img = reg.readURL(reference, purl, colorspace,
-                                     true, true);
+                                     true, true, targetSize);
             if (img != null) {
                 // It's a bouncing baby Raster...
                 return createRasterImageNode(ctx, e, img, purl);
@@ -345,6 +352,55 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
         return null;
     }
 
+    /**
+     * Returns the size in device pixels of the viewport of the image,
+     * using the image decode scale of the bridge context (see {@link
+     * BridgeContext#setImageDecodeScale}) and the transforms of the
+     * element and its ancestors.  Returns null if the image should be
+     * decoded at full resolution.
+     */
+    protected Dimension getTargetSize(BridgeContext ctx, Element e,
+                                      Rectangle2D bounds) {
+        float scale = ctx.getImageDecodeScale();
+        if (scale <= 0) {
+            return null;
+        }
+        try {
+            AffineTransform at = AffineTransform.getScaleInstance(scale,
+                                                                  scale);
+            for (Node n = e; n instanceof Element;
+                 n = CSSEngine.getCSSParentNode(n)) {
+                if (n instanceof SVGOMSVGElement) {
+                    SVGOMSVGElement se = (SVGOMSVGElement) n;
+                    float w = ((AbstractSVGAnimatedLength) se.getWidth())
+                        .getCheckedValue();
+                    float h = ((AbstractSVGAnimatedLength) se.getHeight())
+                        .getCheckedValue();
+                    at.preConcatenate(ViewBox.getPreserveAspectRatioTransform
+                                      ((Element) n,
+                                       (SVGOMAnimatedRect) se.getViewBox(),
+                                       se.getPreserveAspectRatio(),
+                                       w, h, ctx));
+                } else if (n instanceof SVGTransformable) {
+                    AbstractSVGTransformList tl = (AbstractSVGTransformList)
+                        ((SVGTransformable) n).getTransform().getAnimVal();
+                    at.preConcatenate(tl.getAffineTransform());
+                }
+            }
+            double sx = Math.hypot(at.getScaleX(), at.getShearY());
+            double sy = Math.hypot(at.getShearX(), at.getScaleY());
+            int w = (int) Math.ceil(bounds.getWidth()  * sx);
+            int h = (int) Math.ceil(bounds.getHeight() * sy);
+            if ((w <= 0) || (h <= 0)) {
+                return null;
+            }
+            return new Dimension(w, h);
+        } catch (RuntimeException ex) {
+            // Can't tell, decode it all.
+            return null;
+        }
+    }
+
     public static class ProtectedStream extends BufferedInputStream {
         static final int BUFFER_SIZE = 8192;
         ProtectedStream(InputStream is) {
@@ -68,6 +68,17 @@ public class UpdateManager  {
         }
     }
 
+    static final boolean MUTATION_BATCHING;
+    static {
+        boolean value = false;
+        try {
+            value = Boolean.getBoolean("org.apache.batik.mutation_batching");
+        } catch (SecurityException se) {
+        } finally {
+            MUTATION_BATCHING = value;
+        }
+    }
+
     /**
      * The bridge context.
      */
@@ -144,6 +155,11 @@ public class UpdateManager  {
      */
     protected int minRepaintTime;
 
+    /**
+     * Whether the DOM mutations made by a runnable are batched.
+     */
+    protected boolean mutationBatching;
+
     /**
      * Creates a new update manager.
      * @param ctx The bridge context.
@@ -184,6 +200,9 @@ public class UpdateManager  {
             secondaryScriptingEnvironments[i] = se;
         }
         minRepaintTime = MIN_REPAINT_TIME;
+        if (MUTATION_BATCHING) {
+            setMutationBatching(true);
+        }
     }
 
     public int getMinRepaintTime() {
@@ -194,6 +213,50 @@ public class UpdateManager  {
         this.minRepaintTime = minRepaintTime;
     }
 
+    /**
+     * Returns whether the DOM mutations made by a runnable are batched.
+     */
+    public boolean getMutationBatching() {
+        return mutationBatching;
+    }
+
+    /**
+     * Sets whether the DOM mutations made by a runnable are batched.
+     * When they are, the attribute changes a runnable makes are
+     * recorded and deduplicated, and the style recomputation and GVT
+     * updates they cause are done in one pass when the runnable
+     * returns, before the repaint.  Geometry queries made by a script
+     * in the middle of a batch, such as getBBox, see the GVT tree as
+     * it was before the batch.  The default is given by the
+     * <code>org.apache.batik.mutation_batching</code> system property.
+     * This method must be called from the update thread, or before
+     * the updates are started.
+     */
+    public void setMutationBatching(boolean b) {
+        mutationBatching = b;
+        bridgeContext.setMutationBatching(b);
+        for (int i = 0; i < secondaryBridgeContexts.length; i++) {
+            if (secondaryScriptingEnvironments[i] != null) {
+                secondaryBridgeContexts[i].setMutationBatching(b);
+            }
+        }
+    }
+
+    /**
+     * Processes the DOM mutations recorded while batching.
+     */
+    protected void flushPendingMutations() {
+        if (!mutationBatching) {
+            return;
+        }
+        bridgeContext.flushPendingMutations();
+        for (int i = 0; i < secondaryBridgeContexts.length; i++) {
+            if (secondaryScriptingEnvironments[i] != null) {
+                secondaryBridgeContexts[i].flushPendingMutations();
+            }
+        }
+    }
+
     /**
      * Creates an appropriate ScriptingEnvironment and XBL manager for
      * the given document.
@@ -588,6 +651,7 @@ public class UpdateManager  {
      * 'SVGSVGElement.forceRedraw()' method.
      */
     public void forceRepaint() {
+        flushPendingMutations();
         if (!updateTracker.hasChanged()) {
             // No changes, nothing to repaint.
             outOfDateTime = 0;
@@ -866,6 +930,7 @@ public class UpdateManager  {
          * has returned.
          */
         public void runnableInvoked(RunnableQueue rq, Runnable r) {
+            flushPendingMutations();
             if (running && !(r instanceof NoRepaintRunnable)) {
                 repaint();
             }
@@ -26,7 +26,9 @@ import java.security.PrivilegedAction;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
+import org.mozilla.javascript.FunctionObject;
 import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.NativeJavaClass;
 import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -62,6 +64,35 @@ public class WindowWrapper extends ImporterTopLevel {
      */
     public WindowWrapper(Context context) {
         super(context);
+        defineWindowProperties();
+    }
+
+    /**
+     * Creates a new WindowWrapper that inherits the standard objects
+     * from <code>sharedScope</code> instead of creating its own.  The
+     * Java imports are still kept in this object.
+     */
+    public WindowWrapper(Context context, Scriptable sharedScope) {
+        setPrototype(sharedScope);
+        setParentScope(null);
+        try {
+            Class[] args = { Context.class, Scriptable.class,
+                             Object[].class, Function.class };
+            defineProperty("importPackage", new FunctionObject
+                           ("importPackage", WindowWrapper.class.getMethod
+                            ("importPackageIntoScope", args), this),
+                           ScriptableObject.DONTENUM);
+            defineProperty("importClass", new FunctionObject
+                           ("importClass", WindowWrapper.class.getMethod
+                            ("importClassIntoScope", args), this),
+                           ScriptableObject.DONTENUM);
+        } catch (NoSuchMethodException nsme) {
+            // cannot happen
+        }
+        defineWindowProperties();
+    }
+
+    private void defineWindowProperties() {
         String[] names = { "setInterval", "setTimeout", "clearInterval",
                            "clearTimeout", "parseXML", "printNode", "getURL",
                            "postURL", "alert", "confirm", "prompt" };
@@ -79,6 +110,46 @@ public class WindowWrapper extends ImporterTopLevel {
         return "[object Window]";
     }
 
+    /**
+     * The 'importPackage' function of a window sharing its standard
+     * objects: the packages are imported in the window, not in the
+     * shared scope.
+     */
+    public static void importPackageIntoScope(Context cx,
+                                              Scriptable thisObj,
+                                              Object[] args,
+                                              Function funObj) {
+        WindowWrapper ww = (WindowWrapper)getTopLevelScope(funObj);
+        ww.importPackage(cx, ww, args, funObj);
+    }
+
+    /**
+     * The 'importClass' function of a window sharing its standard
+     * objects.
+     */
+    public static void importClassIntoScope(Context cx,
+                                            Scriptable thisObj,
+                                            Object[] args,
+                                            Function funObj) {
+        WindowWrapper ww = (WindowWrapper)getTopLevelScope(funObj);
+        for (int i = 0; i < args.length; i++) {
+            if (!(args[i] instanceof NativeJavaClass)) {
+                throw Context.reportRuntimeError
+                    ("Not a Java class: " + Context.toString(args[i]));
+            }
+            NativeJavaClass cl = (NativeJavaClass)args[i];
+            String s = cl.getClassObject().getName();
+            String n = s.substring(s.lastIndexOf('.') + 1);
+            Object val = ww.get(n, ww);
+            if (val != NOT_FOUND && val != cl) {
+                throw Context.reportRuntimeError
+                    ("Cannot import \"" + n + "\" since a property by that"
+                     + " name is already defined.");
+            }
+            ww.put(n, ww, cl);
+        }
+    }
+
     /**
      * Wraps the 'setInterval' methods of the Window interface.
      */
@@ -0,0 +1,236 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.css.engine.CSSEngine;
+import org.apache.batik.css.engine.CSSStylableElement;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.MutationEvent;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the mutations batched by a {@link BridgeContext} give the
+ * same computed styles and GVT tree as the same mutations processed as
+ * they happen.
+ *
+ * @version $Id$
+ */
+public class BridgeContextBatchingTestCase {
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='40' height='40'>"
+        + "<style type='text/css'>"
+        + ".a { fill: red } .b rect { stroke: blue; stroke-width: 2 }"
+        + " .c + rect { opacity: .5 } [foo] { fill: green }"
+        + "</style>"
+        + "<g id='g'>"
+        + "<rect id='r1' class='a' x='2' y='2' width='10' height='10'/>"
+        + "<rect id='r2' x='20' y='2' width='10' height='10' fill='blue'/>"
+        + "<rect id='r3' x='2' y='20' width='10' height='10'"
+        + " style='fill: yellow'/>"
+        + "</g>"
+        + "</svg>";
+
+    @Test
+    public void testBatchedMatchesUnbatched() throws Exception {
+        Fixture batched = new Fixture();
+        Fixture unbatched = new Fixture();
+        batched.ctx.setMutationBatching(true);
+        mutate(batched.doc);
+        assertTrue(batched.ctx.hasPendingMutations());
+        batched.ctx.flushPendingMutations();
+        mutate(unbatched.doc);
+
+        assertEquals(unbatched.dumpStyles(), batched.dumpStyles());
+        assertEquals(unbatched.dumpTree(), batched.dumpTree());
+        assertTrue(Arrays.equals(unbatched.render(), batched.render()));
+    }
+
+    @Test
+    public void testMergedEventKeepsFirstPrevValue() throws Exception {
+        Fixture f = new Fixture();
+        f.ctx.setMutationBatching(true);
+        Element r1 = f.doc.getElementById("r1");
+        Element r2 = f.doc.getElementById("r2");
+        Element r3 = f.doc.getElementById("r3");
+        r1.setAttributeNS(null, "width", "5");
+        r1.setAttributeNS(null, "width", "6");
+        r1.setAttributeNS(null, "width", "7");
+        r2.removeAttributeNS(null, "fill");
+        r2.setAttributeNS(null, "fill", "red");
+        r3.setAttributeNS(null, "foo", "1");
+        r3.removeAttributeNS(null, "foo");
+        f.ctx.flushPendingMutations();
+
+        List l = f.ctx.dispatched;
+        assertEquals(2, l.size());
+        MutationEvent me = (MutationEvent)l.get(0);
+        assertEquals("width", me.getAttrName());
+        assertEquals("10", me.getPrevValue());
+        assertEquals("7", me.getNewValue());
+        assertEquals(MutationEvent.MODIFICATION, me.getAttrChange());
+        me = (MutationEvent)l.get(1);
+        assertEquals("fill", me.getAttrName());
+        assertEquals("blue", me.getPrevValue());
+        assertEquals("red", me.getNewValue());
+        assertEquals(MutationEvent.MODIFICATION, me.getAttrChange());
+    }
+
+    /**
+     * Applies the same sequence of mutations to a document built from
+     * {@link #DOCUMENT}, changing some attributes several times and
+     * some back to their original value.
+     */
+    protected void mutate(Document doc) {
+        Element g = doc.getElementById("g");
+        Element r1 = doc.getElementById("r1");
+        Element r2 = doc.getElementById("r2");
+        Element r3 = doc.getElementById("r3");
+        r1.setAttributeNS(null, "class", "x");
+        r1.setAttributeNS(null, "class", "c");
+        r1.setAttributeNS(null, "width", "15");
+        r1.setAttributeNS(null, "width", "12");
+        r2.setAttributeNS(null, "fill", "red");
+        r2.setAttributeNS(null, "fill", "blue");
+        r2.setAttributeNS(null, "foo", "1");
+        r2.setAttributeNS(null, "x", "22");
+        r3.setAttributeNS(null, "style", "fill: orange");
+        r3.removeAttributeNS(null, "style");
+        r3.setAttributeNS(null, "foo", "1");
+        r3.removeAttributeNS(null, "foo");
+        g.setAttributeNS(null, "class", "b");
+        g.setAttributeNS(null, "opacity", ".8");
+        g.setAttributeNS(null, "transform", "translate(1,1)");
+        g.setAttributeNS(null, "transform", "translate(2,1)");
+    }
+
+    /**
+     * A dynamic document and the BridgeContext that built its GVT tree.
+     */
+    protected static class Fixture {
+
+        protected Document doc;
+
+        protected RecordingBridgeContext ctx;
+
+        protected GraphicsNode root;
+
+        public Fixture() throws Exception {
+            SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+                (XMLResourceDescriptor.getXMLParserClassName());
+            doc = f.createDocument("file:/batching.svg",
+                                   new StringReader(DOCUMENT));
+            ctx = new RecordingBridgeContext();
+            ctx.setDynamic(true);
+            root = new GVTBuilder().build(ctx, doc);
+        }
+
+        public String dumpStyles() {
+            StringBuffer sb = new StringBuffer();
+            dumpStyles(doc.getDocumentElement(),
+                       ((SVGOMDocument)doc).getCSSEngine(), sb);
+            return sb.toString();
+        }
+
+        protected void dumpStyles(Element e, CSSEngine eng, StringBuffer sb) {
+            if (e instanceof CSSStylableElement) {
+                sb.append(e.getNodeName());
+                for (int i = 0; i < eng.getNumberOfProperties(); i++) {
+                    sb.append('|');
+                    sb.append(eng.getComputedStyle
+                              ((CSSStylableElement)e, null, i).getCssText());
+                }
+                sb.append('\n');
+            }
+            for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (n instanceof Element) {
+                    dumpStyles((Element)n, eng, sb);
+                }
+            }
+        }
+
+        public String dumpTree() {
+            StringBuffer sb = new StringBuffer();
+            dumpTree(root, sb);
+            return sb.toString();
+        }
+
+        protected void dumpTree(GraphicsNode n, StringBuffer sb) {
+            sb.append(n.getClass().getName());
+            sb.append(' ').append(n.getTransform());
+            sb.append(' ').append(n.getComposite());
+            sb.append(' ').append(n.isVisible());
+            sb.append(' ').append(n.getPrimitiveBounds());
+            sb.append('\n');
+            if (n instanceof CompositeGraphicsNode) {
+                Iterator it = ((CompositeGraphicsNode)n).iterator();
+                while (it.hasNext()) {
+                    dumpTree((GraphicsNode)it.next(), sb);
+                }
+            }
+        }
+
+        public int[] render() {
+            BufferedImage img = new BufferedImage
+                (40, 40, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = GraphicsUtil.createGraphics(img);
+            root.paint(g);
+            g.dispose();
+            return img.getRGB(0, 0, 40, 40, null, 0, 40);
+        }
+    }
+
+    /**
+     * A BridgeContext that records the 'DOMAttrModified' events it
+     * dispatches to the bridges.
+     */
+    protected static class RecordingBridgeContext extends BridgeContext {
+
+        protected List dispatched = new ArrayList();
+
+        public RecordingBridgeContext() {
+            super(new UserAgentAdapter());
+        }
+
+        protected void dispatchDOMAttrModifiedEvent(MutationEvent evt) {
+            dispatched.add(evt);
+            super.dispatchDOMAttrModifiedEvent(evt);
+        }
+    }
+}
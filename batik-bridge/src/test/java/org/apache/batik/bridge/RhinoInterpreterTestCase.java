@@ -0,0 +1,278 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.File;
+import java.io.StringReader;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.DomainCombiner;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Script;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the sharing of compiled scripts between {@link RhinoInterpreter}s,
+ * the permissions of the shared external scripts, and that disposed
+ * interpreters are not referenced.
+ *
+ * @version $Id$
+ */
+public class RhinoInterpreterTestCase {
+
+    protected static final String SOURCE = "var x = 1; x + 1;";
+
+    @Test
+    public void testSameDocumentSharesScripts() throws Exception {
+        URL url = getURL("a.svg");
+        RhinoInterpreter i1 = new RhinoInterpreter(url);
+        RhinoInterpreter i2 = new RhinoInterpreter(url);
+        Script s1 = compile(i1, SOURCE);
+        Script s2 = compile(i2, SOURCE);
+        assertTrue(s1 == s2);
+        assertEquals(new Double(2), toNumber(i2.evaluate(SOURCE)));
+    }
+
+    @Test
+    public void testOtherDocumentIsIsolated() throws Exception {
+        RhinoInterpreter a = new RhinoInterpreter(getURL("d.svg"));
+        RhinoInterpreter b = new RhinoInterpreter(getURL("e.svg"));
+        Script sa = compile(a, SOURCE);
+        Script sb = compile(b, SOURCE);
+        assertTrue(sa != sb);
+        // The compiled classes are defined in the security domain of
+        // the document that uses them.
+        assertTrue(sa.getClass().getClassLoader() == a.rhinoClassLoader);
+        assertTrue(sb.getClass().getClassLoader() == b.rhinoClassLoader);
+        assertEquals(getURL("e.svg"), sb.getClass().getProtectionDomain()
+                     .getCodeSource().getLocation());
+    }
+
+    @Test
+    public void testExternalScriptSharedBetweenDocuments() throws Exception {
+        URL scriptURL = getURL("lib/shared.js");
+        RhinoInterpreter a = new RhinoInterpreter(getURL("g.svg"));
+        RhinoInterpreter b = new RhinoInterpreter(getURL("h.svg"));
+        Script sa = compile(a, SOURCE, scriptURL);
+        Script sb = compile(b, SOURCE, scriptURL);
+        assertTrue(sa == sb);
+        // Compiled in the security domain of the script.
+        assertTrue(sa.getClass().getClassLoader() != a.rhinoClassLoader);
+        assertEquals(scriptURL, sa.getClass().getProtectionDomain()
+                     .getCodeSource().getLocation());
+        assertEquals(new Double(2), toNumber
+                     (b.evaluate(new StringReader(SOURCE), scriptURL)));
+
+        // Another content at the same URL.
+        assertTrue(compile(b, "var y = 3;", scriptURL) != sa);
+        // The same content at another URL.
+        assertTrue(compile(b, SOURCE, getURL("lib/other.js")) != sa);
+    }
+
+    @Test
+    public void testExternalScriptRunsWithDocumentPermissions()
+        throws Exception {
+        URL scriptURL = getURL("lib/probe.js");
+        final URL docURL = getURL("p.svg");
+        final RecordingCombiner combiner = new RecordingCombiner();
+        RhinoInterpreter i = new RhinoInterpreter(docURL) {
+                public AccessControlContext getAccessControlContext() {
+                    return new AccessControlContext
+                        (super.getAccessControlContext(), combiner);
+                }
+            };
+        i.bindObject("probe", new Probe());
+        i.evaluate(new StringReader("probe.check();"), scriptURL);
+        // The stack holds the script's domain, and the document's
+        // domain is assigned to it.
+        assertTrue(combiner.current.contains(scriptURL));
+        assertFalse(combiner.current.contains(docURL));
+        assertTrue(combiner.assigned.contains(docURL));
+    }
+
+    @Test
+    public void testDisposedInterpreterIsNotReferenced() throws Exception {
+        RhinoInterpreter i = new RhinoInterpreter(getURL("c.svg"));
+        i.evaluate(SOURCE);
+        i.evaluate(new StringReader(SOURCE), getURL("lib/c.js"));
+        i.dispose();
+        // No Context is left entered on this thread.
+        assertNull(Context.getCurrentContext());
+        // Nothing kept by the interpreters or by the thread locals of
+        // this thread refers to it.
+        List roots = new ArrayList();
+        Field[] fields = RhinoInterpreter.class.getDeclaredFields();
+        for (int n = 0; n < fields.length; n++) {
+            if (Modifier.isStatic(fields[n].getModifiers())) {
+                fields[n].setAccessible(true);
+                roots.add(fields[n].get(null));
+            }
+        }
+        roots.add(ContextFactory.getGlobal());
+        String[] locals = { "threadLocals", "inheritableThreadLocals" };
+        for (int n = 0; n < locals.length; n++) {
+            Field f = Thread.class.getDeclaredField(locals[n]);
+            f.setAccessible(true);
+            roots.add(f.get(Thread.currentThread()));
+        }
+        assertFalse(isReachable(roots, i));
+    }
+
+    protected static URL getURL(String name) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        return new File(dir, name).toURI().toURL();
+    }
+
+    protected static Script compile(final RhinoInterpreter i,
+                                    final String source) {
+        return (Script)i.getContextFactory().call(new ContextAction() {
+            public Object run(Context cx) {
+                return i.compile(cx, source, "test", 1);
+            }
+        });
+    }
+
+    protected static Script compile(final RhinoInterpreter i,
+                                    final String source,
+                                    final URL scriptURL) {
+        return (Script)i.getContextFactory().call(new ContextAction() {
+            public Object run(Context cx) {
+                return i.compile(cx, source, scriptURL);
+            }
+        });
+    }
+
+    /**
+     * Tells whether <code>target</code> is reachable from
+     * <code>roots</code>, through the fields of the objects, the
+     * elements of arrays and collections, the entries of maps and the
+     * referents of references.  Classes, class loaders and threads
+     * are not followed.
+     */
+    protected static boolean isReachable(List roots, Object target)
+        throws IllegalAccessException {
+        Map seen = new IdentityHashMap();
+        LinkedList todo = new LinkedList(roots);
+        while (!todo.isEmpty()) {
+            Object o = todo.removeFirst();
+            if ((o == null) || (o instanceof Class) ||
+                (o instanceof ClassLoader) || (o instanceof Thread) ||
+                seen.containsKey(o))
+                continue;
+            if (o == target)
+                return true;
+            seen.put(o, o);
+            Class c = o.getClass();
+            if (c.isArray()) {
+                if (!c.getComponentType().isPrimitive()) {
+                    for (int n = 0; n < Array.getLength(o); n++)
+                        todo.add(Array.get(o, n));
+                }
+            } else if (o instanceof Map) {
+                Iterator it = ((Map)o).entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry e = (Map.Entry)it.next();
+                    todo.add(e.getKey());
+                    todo.add(e.getValue());
+                }
+            } else if (o instanceof Collection) {
+                todo.addAll((Collection)o);
+            } else {
+                if (o instanceof Reference)
+                    todo.add(((Reference)o).get());
+                for (; (c != null) && (c != Reference.class);
+                     c = c.getSuperclass()) {
+                    Field[] fields = c.getDeclaredFields();
+                    for (int n = 0; n < fields.length; n++) {
+                        Field f = fields[n];
+                        if (Modifier.isStatic(f.getModifiers()) ||
+                            f.getType().isPrimitive())
+                            continue;
+                        try {
+                            f.setAccessible(true);
+                        } catch (RuntimeException re) {
+                            // Internal to the JDK, holds nothing of ours.
+                            continue;
+                        }
+                        todo.add(f.get(o));
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by the scripts to check the permissions they run with.
+     */
+    public static class Probe {
+        public void check() {
+            AccessController.getContext();
+        }
+    }
+
+    /**
+     * Records the code sources of the domains it is asked to combine.
+     */
+    protected static class RecordingCombiner implements DomainCombiner {
+        protected List current = new ArrayList();
+        protected List assigned = new ArrayList();
+
+        public ProtectionDomain[] combine(ProtectionDomain[] current,
+                                          ProtectionDomain[] assigned) {
+            record(this.current, current);
+            record(this.assigned, assigned);
+            return current;
+        }
+
+        protected void record(List urls, ProtectionDomain[] domains) {
+            if (domains == null)
+                return;
+            for (int n = 0; n < domains.length; n++) {
+                if (domains[n].getCodeSource() != null)
+                    urls.add(domains[n].getCodeSource().getLocation());
+            }
+        }
+    }
+
+    protected static Double toNumber(Object o) {
+        return new Double(Context.toNumber(o));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.dom.util.DOMUtilities;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The base class of the tests that compare the computed styles of
+ * dynamic SVG documents with those of a fresh cascade.
+ *
+ * @version $Id$
+ */
+public abstract class AbstractCSSEngineTestCase {
+
+    /**
+     * Parses the given SVG document and builds its GVT tree, so that
+     * the document is dynamic and its CSS engine is set up.
+     */
+    public static Document createDocument(String uri, String svg)
+        throws Exception {
+        return createDocument(uri, svg, new UserAgentAdapter());
+    }
+
+    /**
+     * Parses the given SVG document and builds its GVT tree with the
+     * given user agent.
+     */
+    public static Document createDocument(String uri, String svg,
+                                          UserAgent ua)
+        throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument(uri, new StringReader(svg));
+        BridgeContext ctx = new BridgeContext(ua);
+        ctx.setDynamic(true);
+        new GVTBuilder().build(ctx, doc);
+        return doc;
+    }
+
+    /**
+     * Returns the CSS engine of the given document.
+     */
+    public static CSSEngine getCSSEngine(Document doc) {
+        return ((SVGOMDocument)doc).getCSSEngine();
+    }
+
+    /**
+     * Returns the text of the computed value of a property of the
+     * given element.
+     */
+    public static String getComputedValue(Element e, String property) {
+        CSSEngine eng = getCSSEngine(e.getOwnerDocument());
+        int idx = eng.getPropertyIndex(property);
+        return eng.getComputedStyle
+            ((CSSStylableElement)e, null, idx).getCssText();
+    }
+
+    /**
+     * Returns the computed values of all the properties of the elements
+     * of the given document, one element per line, in document order.
+     */
+    public static String dumpStyles(Document doc) {
+        StringBuffer sb = new StringBuffer();
+        dumpStyles(doc.getDocumentElement(), getCSSEngine(doc), sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the computed values of the given element and its
+     * descendants to the buffer.
+     */
+    protected static void dumpStyles(Element e, CSSEngine eng,
+                                     StringBuffer sb) {
+        if (e instanceof CSSStylableElement) {
+            sb.append(e.getNodeName());
+            for (int i = 0; i < eng.getNumberOfProperties(); i++) {
+                sb.append('|');
+                sb.append(eng.getComputedStyle
+                          ((CSSStylableElement)e, null, i).getCssText());
+            }
+            sb.append('\n');
+        }
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element) {
+                dumpStyles((Element)n, eng, sb);
+            }
+        }
+    }
+
+    /**
+     * Returns the computed values of the elements of a new document
+     * parsed from the serialization of the given one, that is the
+     * styles of a full cascade of its current state.
+     */
+    public static String dumpRestyledStyles(Document doc) throws Exception {
+        String svg = DOMUtilities.getXML(doc.getDocumentElement());
+        return dumpStyles(createDocument(doc.getDocumentURI(), svg));
+    }
+}
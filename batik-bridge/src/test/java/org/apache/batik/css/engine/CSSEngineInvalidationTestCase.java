@@ -0,0 +1,195 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.util.XMLConstants;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the elements restyled after random attribute mutations,
+ * through the selector invalidation sets, get the same computed styles
+ * as a full cascade of the mutated document.
+ *
+ * @version $Id$
+ */
+public class CSSEngineInvalidationTestCase extends AbstractCSSEngineTestCase {
+
+    /**
+     * The style sheet, with conditions in subject, ancestor and
+     * adjacent sibling compounds.
+     */
+    protected static final String STYLE_SHEET =
+        ".a { fill: red } .b rect { stroke: blue }"
+        + " g.c > rect { stroke-width: 3 } .d + rect { opacity: .5 }"
+        + " #i1 { fill: green }"
+        + " [foo] { font-size: 20px } [bar=x] g { color: yellow }"
+        + " [baz~=q] { fill-opacity: .3 } :lang(fr) { stroke-opacity: .2 }"
+        + " rect.e { visibility: hidden } .f + g rect { display: none }"
+        + " .a.b { fill: purple }";
+
+    protected static final String[] CLASSES = {
+        "a", "b", "c", "d", "e", "f", "a b", "b c", "x", "d e f", ""
+    };
+
+    protected static final int MUTATIONS = 200;
+
+    @Test
+    public void testRandomMutations() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            checkRandomMutations(seed, false);
+        }
+    }
+
+    @Test
+    public void testRandomBatchedMutations() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            checkRandomMutations(seed, true);
+        }
+    }
+
+    @Test
+    public void testInlineStyleRemovedFromUncomputedStyle() throws Exception {
+        Document doc = createDocument
+            ("file:/inline.svg",
+             "<svg xmlns='http://www.w3.org/2000/svg'>"
+             + "<style type='text/css'>rect { stroke: blue }"
+             + " .b rect { fill: green }</style>"
+             + "<defs><g><rect style='stroke: orange'/></g></defs></svg>");
+        Element rect = (Element)doc.getElementsByTagName("rect").item(0);
+        assertEquals("rgb(0, 0, 0)", getComputedValue(rect, "fill"));
+        // The rect is cascaded again, and nothing computes its values
+        // since it is not rendered.
+        ((Element)rect.getParentNode()).setAttributeNS(null, "class", "b");
+        rect.setAttributeNS(null, "style", "");
+        assertEquals("rgb(0, 0, 255)", getComputedValue(rect, "stroke"));
+        assertEquals("rgb(0, 128, 0)", getComputedValue(rect, "fill"));
+    }
+
+    /**
+     * Applies random mutations to a random document, comparing its
+     * computed styles with those of a full cascade from time to time.
+     */
+    protected void checkRandomMutations(long seed, boolean batch)
+        throws Exception {
+        Random r = new Random(seed);
+        StringBuffer svg = new StringBuffer
+            ("<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+             + "<style type='text/css'>" + STYLE_SHEET + "</style>");
+        appendChildren(svg, r, 3);
+        svg.append("</svg>");
+        Document doc = createDocument("file:/invalidation.svg",
+                                      svg.toString());
+        CSSEngine eng = getCSSEngine(doc);
+        dumpStyles(doc);
+
+        NodeList all = doc.getElementsByTagName("*");
+        List elts = new ArrayList();
+        for (int i = 0; i < all.getLength(); i++) {
+            if (!all.item(i).getNodeName().equals("style")) {
+                elts.add(all.item(i));
+            }
+        }
+        eng.resetUpdateCounters();
+        eng.setBatchingUpdates(batch);
+        for (int k = 0; k < MUTATIONS; k++) {
+            Element e = (Element)elts.get(r.nextInt(elts.size()));
+            mutate(e, r);
+            if (r.nextInt(4) == 0) {
+                eng.setBatchingUpdates(false);
+                assertEquals("seed " + seed + ", mutation " + k,
+                             dumpRestyledStyles(doc), dumpStyles(doc));
+                eng.setBatchingUpdates(batch);
+            }
+        }
+        eng.setBatchingUpdates(false);
+        assertEquals("seed " + seed, dumpRestyledStyles(doc), dumpStyles(doc));
+        if (!batch) {
+            // Some of the elements reached were not recascaded.
+            assertTrue(eng.getSkippedElementCount() > 0);
+        }
+    }
+
+    /**
+     * Applies a random mutation to the given element.
+     */
+    protected void mutate(Element e, Random r) {
+        switch (r.nextInt(8)) {
+        case 0:
+        case 1:
+            e.setAttributeNS(null, "class", CLASSES[r.nextInt(CLASSES.length)]);
+            break;
+        case 2:
+            if (r.nextBoolean()) {
+                e.setAttributeNS(null, "id", "i" + r.nextInt(3));
+            } else {
+                e.removeAttributeNS(null, "id");
+            }
+            break;
+        case 3:
+            if (r.nextBoolean()) {
+                e.setAttributeNS(null, "foo", "1");
+            } else {
+                e.removeAttributeNS(null, "foo");
+            }
+            break;
+        case 4:
+            e.setAttributeNS(null, r.nextBoolean() ? "bar" : "baz",
+                             r.nextBoolean() ? "x" : "q p");
+            break;
+        case 5:
+            e.setAttributeNS(XMLConstants.XML_NAMESPACE_URI, "xml:lang",
+                             r.nextBoolean() ? "fr" : "en");
+            break;
+        case 6:
+            e.setAttributeNS(null, "style",
+                             r.nextBoolean() ? "stroke: orange" : "");
+            break;
+        case 7:
+            e.setAttributeNS(null, "fill", r.nextBoolean() ? "black" : "gray");
+            break;
+        }
+    }
+
+    /**
+     * Appends 2 to 4 random children, rects or groups, to the buffer.
+     */
+    protected void appendChildren(StringBuffer sb, Random r, int depth) {
+        int n = 2 + r.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            if (depth > 0 && r.nextBoolean()) {
+                sb.append("<g>");
+                appendChildren(sb, r, depth - 1);
+                sb.append("</g>");
+            } else {
+                sb.append("<rect width='1' height='1'/>");
+            }
+        }
+    }
+}
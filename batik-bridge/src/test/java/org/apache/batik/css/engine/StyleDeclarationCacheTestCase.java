@@ -0,0 +1,145 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import org.apache.batik.bridge.UserAgentAdapter;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the declarations parsed from style and presentation
+ * attributes, cached by the {@link CSSEngine}, give the same computed
+ * styles as parsing the attributes for each element.
+ *
+ * @version $Id$
+ */
+public class StyleDeclarationCacheTestCase extends AbstractCSSEngineTestCase {
+
+    /**
+     * The elements are in different groups, so that they do not share
+     * their computed styles.
+     */
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='40' height='40'>"
+        + "<g><rect id='r1' style='fill: red; stroke: blue'"
+        + " stroke-width='3' width='1' height='1'/></g>"
+        + "<g><rect id='r2' style='fill: red; stroke: blue'"
+        + " stroke-width='3' width='1' height='1'/></g>"
+        + "<g id='g3'/>"
+        + "</svg>";
+
+    @Test
+    public void testCachedDeclarationIsNotModified() throws Exception {
+        Document doc = createDocument("file:/cache.svg", DOCUMENT);
+        CSSEngine eng = getCSSEngine(doc);
+        Element r1 = doc.getElementById("r1");
+        Element r2 = doc.getElementById("r2");
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r1, "fill"));
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r2, "fill"));
+        assertNotNull(eng.styleDeclarationCache.get
+                      (new CSSEngine.StyleDeclarationCacheKey
+                       (null, "fill: red; stroke: blue")));
+        assertNotNull(eng.styleDeclarationCache.get
+                      (new CSSEngine.StyleDeclarationCacheKey
+                       ("stroke-width", "3")));
+
+        // The updates of r1 must not reach the declarations r2 and the
+        // new element are cascaded from.
+        r1.setAttributeNS(null, "style", "fill: green; stroke: blue");
+        r1.setAttributeNS(null, "stroke-width", "5");
+        assertEquals("rgb(0, 128, 0)", getComputedValue(r1, "fill"));
+        assertEquals("5", getComputedValue(r1, "stroke-width"));
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r2, "fill"));
+        assertEquals("3", getComputedValue(r2, "stroke-width"));
+
+        Element r3 = doc.createElementNS("http://www.w3.org/2000/svg", "rect");
+        r3.setAttributeNS(null, "style", "fill: red; stroke: blue");
+        r3.setAttributeNS(null, "stroke-width", "3");
+        r3.setAttributeNS(null, "width", "1");
+        r3.setAttributeNS(null, "height", "1");
+        doc.getElementById("g3").appendChild(r3);
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r3, "fill"));
+        assertEquals("rgb(0, 0, 255)", getComputedValue(r3, "stroke"));
+        assertEquals("3", getComputedValue(r3, "stroke-width"));
+
+        assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+    }
+
+    @Test
+    public void testBaseURIDependentDeclaration() throws Exception {
+        Document doc = createDocument
+            ("file:/cache.svg",
+             "<svg xmlns='http://www.w3.org/2000/svg'><defs>"
+             + "<g xml:base='http://a.example/'>"
+             + "<rect id='r1' style='fill: url(#p)' stroke='url(#p)'/></g>"
+             + "<g xml:base='http://b.example/'>"
+             + "<rect id='r2' style='fill: url(#p)' stroke='url(#p)'/></g>"
+             + "</defs></svg>");
+        Element r1 = doc.getElementById("r1");
+        Element r2 = doc.getElementById("r2");
+        assertTrue(getComputedValue(r1, "fill").indexOf("a.example") != -1);
+        assertTrue(getComputedValue(r2, "fill").indexOf("b.example") != -1);
+        assertTrue(getComputedValue(r1, "stroke").indexOf("a.example") != -1);
+        assertTrue(getComputedValue(r2, "stroke").indexOf("b.example") != -1);
+        assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+    }
+
+    @Test
+    public void testInvalidDeclarationIsNotCached() throws Exception {
+        ErrorCountingUserAgent ua = new ErrorCountingUserAgent();
+        Document doc = createDocument
+            ("file:/cache.svg",
+             "<svg xmlns='http://www.w3.org/2000/svg'>"
+             + "<g><rect id='r1' style='fill: red; stroke: 12px' width='1'"
+             + " height='1'/></g>"
+             + "<g><rect id='r2' style='fill: red; stroke: 12px' width='1'"
+             + " height='1'/></g>"
+             + "</svg>", ua);
+        CSSEngine eng = getCSSEngine(doc);
+        Element r1 = doc.getElementById("r1");
+        Element r2 = doc.getElementById("r2");
+        // The declarations before the error are still applied.
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r1, "fill"));
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r2, "fill"));
+        assertNull(eng.styleDeclarationCache.get
+                   (new CSSEngine.StyleDeclarationCacheKey
+                    (null, "fill: red; stroke: 12px")));
+        // Each element reports the error.
+        assertEquals(2, ua.errors);
+    }
+
+    /**
+     * A user agent that counts the errors it is given.
+     */
+    protected static class ErrorCountingUserAgent extends UserAgentAdapter {
+
+        protected int errors;
+
+        public void displayError(Exception e) {
+            errors++;
+        }
+    }
+}
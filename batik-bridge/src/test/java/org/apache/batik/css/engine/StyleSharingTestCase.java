@@ -0,0 +1,191 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.util.Random;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that equivalent siblings share their computed style map, and
+ * that a shared map is copied before being modified for one of them.
+ *
+ * @version $Id$
+ */
+public class StyleSharingTestCase extends AbstractCSSEngineTestCase {
+
+    protected static final String STYLE_SHEET =
+        ".road { stroke: gray; stroke-width: 2 } .main { stroke: red }"
+        + " [foo] { opacity: .5 }";
+
+    /**
+     * Returns a document whose group holds the given number of
+     * identical rects.
+     */
+    protected Document createRectsDocument(String styleSheet, int rects)
+        throws Exception {
+        StringBuffer svg = new StringBuffer
+            ("<svg xmlns='http://www.w3.org/2000/svg' width='40' height='40'>"
+             + "<style type='text/css'>" + styleSheet + "</style>"
+             + "<g id='g' fill='blue'>");
+        for (int i = 0; i < rects; i++) {
+            svg.append("<rect class='road' width='1' height='1'/>");
+        }
+        svg.append("</g></svg>");
+        return createDocument("file:/sharing.svg", svg.toString());
+    }
+
+    /**
+     * Returns the computed style map of the given element.
+     */
+    protected static StyleMap getStyleMap(Element e) {
+        return ((CSSStylableElement)e).getComputedStyleMap(null);
+    }
+
+    @Test
+    public void testEquivalentSiblingsShare() throws Exception {
+        Document doc = createRectsDocument(STYLE_SHEET, 5);
+        NodeList rects = doc.getElementsByTagName("rect");
+        StyleMap sm = getStyleMap((Element)rects.item(0));
+        assertTrue(sm.isShared());
+        for (int i = 1; i < rects.getLength(); i++) {
+            assertSame(sm, getStyleMap((Element)rects.item(i)));
+        }
+        assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+    }
+
+    @Test
+    public void testDifferentSiblingsDoNotShare() throws Exception {
+        Document doc = createRectsDocument(STYLE_SHEET, 4);
+        NodeList rects = doc.getElementsByTagName("rect");
+        Element r0 = (Element)rects.item(0);
+        Element r1 = (Element)rects.item(1);
+        Element r2 = (Element)rects.item(2);
+        Element r3 = (Element)rects.item(3);
+        r1.setAttributeNS(null, "class", "road main");
+        r2.setAttributeNS(null, "foo", "1");
+        r3.setAttributeNS(null, "stroke-linecap", "round");
+        assertEquals("rgb(128, 128, 128)", getComputedValue(r0, "stroke"));
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r1, "stroke"));
+        assertEquals("0.5", getComputedValue(r2, "opacity"));
+        assertEquals("1", getComputedValue(r0, "opacity"));
+        assertEquals("butt", getComputedValue(r0, "stroke-linecap"));
+        assertEquals("round", getComputedValue(r3, "stroke-linecap"));
+        assertFalse(getStyleMap(r0) == getStyleMap(r1));
+        assertFalse(getStyleMap(r0) == getStyleMap(r2));
+        assertFalse(getStyleMap(r0) == getStyleMap(r3));
+        assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+    }
+
+    @Test
+    public void testSiblingSelectorsDisableSharing() throws Exception {
+        String[] sheets = {
+            STYLE_SHEET + " .road + rect { stroke: green }",
+            STYLE_SHEET + " rect:first-child { stroke: green }"
+        };
+        for (int i = 0; i < sheets.length; i++) {
+            Document doc = createRectsDocument(sheets[i], 3);
+            NodeList rects = doc.getElementsByTagName("rect");
+            Element r0 = (Element)rects.item(0);
+            Element r1 = (Element)rects.item(1);
+            assertFalse(getStyleMap(r0) == getStyleMap(r1));
+            assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+        }
+    }
+
+    @Test
+    public void testSharedStyleIsCopiedOnWrite() throws Exception {
+        Document doc = createRectsDocument(STYLE_SHEET, 3);
+        NodeList rects = doc.getElementsByTagName("rect");
+        Element r0 = (Element)rects.item(0);
+        Element r1 = (Element)rects.item(1);
+        Element r2 = (Element)rects.item(2);
+        StyleMap sm = getStyleMap(r0);
+        assertSame(sm, getStyleMap(r1));
+
+        // Inline style.
+        r1.setAttributeNS(null, "style", "stroke: black");
+        assertFalse(getStyleMap(r1) == sm);
+        assertSame(sm, getStyleMap(r0));
+        assertEquals("rgb(0, 0, 0)", getComputedValue(r1, "stroke"));
+        assertEquals("rgb(128, 128, 128)", getComputedValue(r0, "stroke"));
+        assertEquals("rgb(128, 128, 128)", getComputedValue(r2, "stroke"));
+
+        // Presentation attribute.
+        r2.setAttributeNS(null, "fill", "yellow");
+        assertEquals("rgb(255, 255, 0)", getComputedValue(r2, "fill"));
+        assertEquals("rgb(0, 0, 255)", getComputedValue(r0, "fill"));
+
+        // Inherited value change.
+        doc.getElementById("g").setAttributeNS(null, "fill", "green");
+        assertEquals("rgb(0, 128, 0)", getComputedValue(r0, "fill"));
+        assertEquals("rgb(0, 128, 0)", getComputedValue(r1, "fill"));
+        assertEquals("rgb(255, 255, 0)", getComputedValue(r2, "fill"));
+        assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+    }
+
+    @Test
+    public void testRandomMutations() throws Exception {
+        String[] styles = { "", "stroke: black", "fill: red; opacity: .8" };
+        String[] fills = { "black", "gray", "inherit" };
+        String[] classes = { "road", "road main", "" };
+        for (long seed = 1; seed <= 5; seed++) {
+            Random r = new Random(seed);
+            Document doc = createRectsDocument(STYLE_SHEET, 12);
+            Element g = doc.getElementById("g");
+            NodeList rects = doc.getElementsByTagName("rect");
+            dumpStyles(doc);
+            for (int k = 0; k < 60; k++) {
+                Element e = (Element)rects.item(r.nextInt(rects.getLength()));
+                switch (r.nextInt(4)) {
+                case 0:
+                    e.setAttributeNS(null, "style",
+                                     styles[r.nextInt(styles.length)]);
+                    break;
+                case 1:
+                    e.setAttributeNS(null, "fill",
+                                     fills[r.nextInt(fills.length)]);
+                    break;
+                case 2:
+                    e.setAttributeNS(null, "class",
+                                     classes[r.nextInt(classes.length)]);
+                    break;
+                case 3:
+                    g.setAttributeNS(null, "fill",
+                                     fills[r.nextInt(fills.length - 1)]);
+                    break;
+                }
+                if (r.nextInt(3) == 0) {
+                    assertEquals("seed " + seed + ", mutation " + k,
+                                 dumpRestyledStyles(doc), dumpStyles(doc));
+                }
+            }
+            assertEquals("seed " + seed,
+                         dumpRestyledStyles(doc), dumpStyles(doc));
+        }
+    }
+}
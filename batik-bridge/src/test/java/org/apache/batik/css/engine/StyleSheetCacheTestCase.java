@@ -0,0 +1,227 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.util.ParsedURL;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the style sheets shared by the {@link CSSEngine}s give
+ * every engine the same computed styles, and that the imported style
+ * sheets are loaded again for each use.
+ *
+ * @version $Id$
+ */
+public class StyleSheetCacheTestCase extends AbstractCSSEngineTestCase {
+
+    protected static final String MAIN_STYLE_SHEET =
+        "@import url(imported.css);\n"
+        + ".a { fill: red } rect { stroke: blue }\n"
+        + "g > .b { fill: url(#p) }\n";
+
+    protected static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='40' height='40'>"
+        + "<style type='text/css'>@import url(main.css);</style>"
+        + "<g><rect id='r1' class='a' width='1' height='1'/></g>"
+        + "<defs><g><rect id='r2' class='b' width='1' height='1'/></g></defs>"
+        + "</svg>";
+
+    /**
+     * The directory of the style sheets and documents.
+     */
+    protected File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("stylesheetcache", "");
+        dir.delete();
+        dir.mkdir();
+        write("main.css", MAIN_STYLE_SHEET);
+        write("imported.css", ".a { stroke-width: 4 }");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    protected void write(String name, String content) throws IOException {
+        OutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    protected String getURI(String name) {
+        return new File(dir, name).toURI().toString();
+    }
+
+    protected Document load(String name) throws Exception {
+        return load(name, new UserAgentAdapter());
+    }
+
+    protected Document load(String name, UserAgentAdapter ua)
+        throws Exception {
+        return createDocument(getURI(name), DOCUMENT, ua);
+    }
+
+    /**
+     * Returns the rules of the style sheet imported by the style
+     * element of the given document.
+     */
+    protected static StyleSheet getMainStyleSheet(Document doc) {
+        CSSEngine eng = getCSSEngine(doc);
+        CSSStyleSheetNode n =
+            (CSSStyleSheetNode)eng.getStyleSheetNodes().get(0);
+        return (ImportRule)n.getCSSStyleSheet().getRule(0);
+    }
+
+    @Test
+    public void testEnginesGetSameStyles() throws Exception {
+        Document d1 = load("d1.svg");
+        Document d2 = load("d2.svg");
+        Document d3 = load("d1.svg");
+        String styles = dumpStyles(d1);
+        assertEquals(styles, dumpStyles(d2));
+        assertEquals(styles, dumpStyles(d3));
+
+        Element r1 = d2.getElementById("r1");
+        Element r2 = d2.getElementById("r2");
+        assertEquals("rgb(255, 0, 0)", getComputedValue(r1, "fill"));
+        assertEquals("rgb(0, 0, 255)", getComputedValue(r1, "stroke"));
+        assertEquals("4", getComputedValue(r1, "stroke-width"));
+        // The URIs are resolved against the style sheet.
+        assertEquals("url(" + getURI("main.css") + "#p)",
+                     getComputedValue(r2, "fill"));
+
+        // The rules of main.css are shared, those of the style
+        // elements and the imported sheets are not.
+        StyleSheet s1 = getMainStyleSheet(d1);
+        StyleSheet s2 = getMainStyleSheet(d2);
+        assertTrue(s1 != s2);
+        assertSame(s1.getRule(1), s2.getRule(1));
+        assertTrue(s1.getRule(0) != s2.getRule(0));
+    }
+
+    @Test
+    public void testEnginesInThreadsGetSameStyles() throws Exception {
+        final String styles = dumpStyles(load("d1.svg"));
+        final Throwable[] errors = new Throwable[8];
+        Thread[] threads = new Thread[errors.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int j = 0; j < 5; j++) {
+                                Document d = load("d" + (n % 2 + 1) + ".svg");
+                                assertEquals(styles, dumpStyles(d));
+                            }
+                        } catch (Throwable t) {
+                            errors[n] = t;
+                        }
+                    }
+                };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (errors[i] != null) {
+                throw new AssertionError(errors[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testImportIsLoadedOnEveryUse() throws Exception {
+        CountingUserAgent ua = new CountingUserAgent();
+        Document d1 = load("d1.svg", ua);
+        assertEquals("4", getComputedValue(d1.getElementById("r1"),
+                                           "stroke-width"));
+        assertEquals(1, ua.checks);
+
+        // main.css is unchanged and comes from the cache, the sheet it
+        // imports is loaded and checked again.
+        write("imported.css", ".a { stroke-width: 7 }");
+        Document d2 = load("d2.svg", ua);
+        assertEquals("7", getComputedValue(d2.getElementById("r1"),
+                                           "stroke-width"));
+        assertEquals(2, ua.checks);
+        assertSame(getMainStyleSheet(d1).getRule(1),
+                   getMainStyleSheet(d2).getRule(1));
+
+        // An import the user agent refuses is not loaded.
+        ua.refuse = true;
+        Document d3 = load("d1.svg", ua);
+        assertEquals("1", getComputedValue(d3.getElementById("r1"),
+                                           "stroke-width"));
+        assertEquals("rgb(255, 0, 0)", getComputedValue
+                     (d3.getElementById("r1"), "fill"));
+        assertNotNull(ua.refused);
+    }
+
+    /**
+     * A user agent that counts the checks of the imported style sheet
+     * and can refuse it.
+     */
+    protected static class CountingUserAgent extends UserAgentAdapter {
+
+        protected int checks;
+
+        protected boolean refuse;
+
+        protected Exception refused;
+
+        public void checkLoadExternalResource(ParsedURL resourceURL,
+                                              ParsedURL docURL) {
+            if (resourceURL.getPath().endsWith("imported.css")) {
+                checks++;
+                if (refuse) {
+                    throw new SecurityException("refused");
+                }
+            }
+        }
+
+        public void displayError(Exception e) {
+            refused = e;
+        }
+    }
+}
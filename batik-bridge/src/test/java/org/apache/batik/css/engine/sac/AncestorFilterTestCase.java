@@ -0,0 +1,189 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine.sac;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.css.engine.AbstractCSSEngineTestCase;
+import org.apache.batik.css.engine.CSSEngine;
+import org.apache.batik.css.engine.StyleRule;
+import org.apache.batik.css.engine.StyleSheet;
+
+import org.w3c.css.sac.SelectorList;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link AncestorFilter} never rejects a selector that
+ * matches, and that the styles cascaded with it are those of a full
+ * cascade.
+ *
+ * @version $Id$
+ */
+public class AncestorFilterTestCase extends AbstractCSSEngineTestCase {
+
+    protected static final String[] NAMES = { "g", "rect", "svg", "*" };
+
+    protected static final String[] CLASSES = { "a", "b", "c", "A" };
+
+    protected static final String[] IDS = { "i0", "i1" };
+
+    protected static final String[] COMBINATORS = { " ", " > ", " + " };
+
+    @Test
+    public void testNoFalseNegatives() throws Exception {
+        int rejected = 0;
+        for (long seed = 1; seed <= 10; seed++) {
+            Random r = new Random(seed);
+            StringBuffer svg = new StringBuffer
+                ("<svg xmlns='http://www.w3.org/2000/svg'>");
+            appendChildren(svg, r, 4);
+            svg.append("</svg>");
+            Document doc = createDocument("file:/filter.svg", svg.toString());
+            CSSEngine eng = getCSSEngine(doc);
+
+            StringBuffer rules = new StringBuffer();
+            for (int i = 0; i < 100; i++) {
+                appendSelector(rules, r);
+                rules.append(" { fill: red }\n");
+            }
+            StyleSheet ss = eng.parseStyleSheet(rules.toString(), null, "all");
+            List selectors = new ArrayList();
+            for (int i = 0; i < ss.getSize(); i++) {
+                SelectorList sl = ((StyleRule)ss.getRule(i)).getSelectorList();
+                for (int j = 0; j < sl.getLength(); j++) {
+                    selectors.add(sl.item(j));
+                }
+            }
+
+            NodeList elts = doc.getElementsByTagName("*");
+            for (int i = 0; i < elts.getLength(); i++) {
+                Element e = (Element)elts.item(i);
+                AncestorFilter filter = new AncestorFilter(e);
+                for (int j = 0; j < selectors.size(); j++) {
+                    ExtendedSelector s = (ExtendedSelector)selectors.get(j);
+                    boolean mightMatch = filter.mightMatch(s);
+                    if (s.match(e, null)) {
+                        assertTrue("seed " + seed + ": " + s, mightMatch);
+                    } else if (!mightMatch) {
+                        rejected++;
+                    }
+                }
+            }
+        }
+        // The filter does reject selectors.
+        assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void testAncestorMutations() throws Exception {
+        StringBuffer rules = new StringBuffer();
+        Random r = new Random(0);
+        for (int i = 0; i < 40; i++) {
+            appendSelector(rules, r);
+            rules.append(" { stroke-width: ").append(i).append(" }\n");
+        }
+        for (long seed = 1; seed <= 5; seed++) {
+            r = new Random(seed);
+            StringBuffer svg = new StringBuffer
+                ("<svg xmlns='http://www.w3.org/2000/svg'>"
+                 + "<style type='text/css'>" + rules + "</style>");
+            appendChildren(svg, r, 4);
+            svg.append("</svg>");
+            Document doc = createDocument("file:/filter.svg", svg.toString());
+            NodeList gs = doc.getElementsByTagName("g");
+            assertEquals(dumpRestyledStyles(doc), dumpStyles(doc));
+            for (int k = 0; k < 20 && gs.getLength() > 0; k++) {
+                Element g = (Element)gs.item(r.nextInt(gs.getLength()));
+                if (r.nextBoolean()) {
+                    g.setAttributeNS(null, "class",
+                                     CLASSES[r.nextInt(CLASSES.length)]);
+                } else {
+                    g.setAttributeNS(null, "id", IDS[r.nextInt(IDS.length)]);
+                }
+                assertEquals("seed " + seed + ", mutation " + k,
+                             dumpRestyledStyles(doc), dumpStyles(doc));
+            }
+        }
+    }
+
+    /**
+     * Appends a random selector of one to four compounds.
+     */
+    protected void appendSelector(StringBuffer sb, Random r) {
+        appendCompound(sb, r);
+        int n = r.nextInt(4);
+        for (int i = 0; i < n; i++) {
+            sb.append(COMBINATORS[r.nextInt(COMBINATORS.length)]);
+            appendCompound(sb, r);
+        }
+    }
+
+    /**
+     * Appends a random compound selector.
+     */
+    protected void appendCompound(StringBuffer sb, Random r) {
+        sb.append(NAMES[r.nextInt(NAMES.length)]);
+        if (r.nextInt(3) == 0) {
+            sb.append('#').append(IDS[r.nextInt(IDS.length)]);
+        }
+        int n = r.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            sb.append('.').append(CLASSES[r.nextInt(CLASSES.length)]);
+        }
+    }
+
+    /**
+     * Appends 1 to 3 random children, rects or groups with random
+     * classes and ids, to the buffer.
+     */
+    protected void appendChildren(StringBuffer sb, Random r, int depth) {
+        int n = 1 + r.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            boolean g = depth > 0 && r.nextInt(3) != 0;
+            sb.append(g ? "<g" : "<rect width='1' height='1'");
+            if (r.nextBoolean()) {
+                sb.append(" class='");
+                sb.append(CLASSES[r.nextInt(CLASSES.length)]);
+                if (r.nextBoolean()) {
+                    sb.append(' ').append(CLASSES[r.nextInt(CLASSES.length)]);
+                }
+                sb.append('\'');
+            }
+            if (r.nextInt(4) == 0) {
+                sb.append(" id='").append(IDS[r.nextInt(IDS.length)]);
+                sb.append('\'');
+            }
+            if (g) {
+                sb.append('>');
+                appendChildren(sb, r, depth - 1);
+                sb.append("</g>");
+            } else {
+                sb.append("/>");
+            }
+        }
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.apache.batik.ext.awt.image.codec.imageio;
 
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -27,18 +29,24 @@ import java.io.InputStream;
 import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.DeferRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.RedRable;
 import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.ImageDecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.ext.awt.image.spi.MagicNumberRegistryEntry;
+import org.apache.batik.ext.awt.image.spi.SubsamplingRegistryEntry;
 import org.apache.batik.util.ParsedURL;
 
 /**
@@ -49,7 +57,8 @@ import org.apache.batik.util.ParsedURL;
  * @version $Id$
  */
 public abstract class AbstractImageIORegistryEntry
-    extends MagicNumberRegistryEntry {
+    extends MagicNumberRegistryEntry
+    implements SubsamplingRegistryEntry {
 
     /**
      * Constructor
@@ -92,6 +101,27 @@ public abstract class AbstractImageIORegistryEntry
     public Filter handleStream(InputStream inIS,
                                ParsedURL   origURL,
                                boolean     needRawData) {
+        return handleStream(inIS, origURL, needRawData, null);
+    }
+
+    /**
+     * Decode the Stream into a RenderableImage, using source
+     * subsampling when the image is much larger than
+     * <code>targetSize</code>.
+     *
+     * @param inIS The input stream that contains the image.
+     * @param origURL The original URL, if any, for documentation
+     *                purposes only.  This may be null.
+     * @param needRawData If true the image returned should not have
+     *                    any default color correction the file may
+     *                    specify applied.
+     * @param targetSize The size the image will be displayed at, null
+     *                   to decode it at full resolution.
+     */
+    public Filter handleStream(InputStream inIS,
+                               final ParsedURL origURL,
+                               boolean     needRawData,
+                               final Dimension targetSize) {
         final DeferRable  dr  = new DeferRable();
         final InputStream is  = inIS;
         final String      errCode;
@@ -104,8 +134,7 @@ public abstract class AbstractImageIORegistryEntry
             errParam = new Object[] {getFormatName()};
         }
 
-        Thread t = new Thread() {
-                @Override
+        Runnable decode = new Runnable() {
                 public void run() {
                     Filter filt;
                     try{
@@ -121,15 +150,24 @@ public abstract class AbstractImageIORegistryEntry
                         reader.setInput(imageIn, true);
 
                         int imageIndex = 0;
-                        dr.setBounds(new Rectangle2D.Double
-                                     (0, 0,
-                                      reader.getWidth(imageIndex),
-                                      reader.getHeight(imageIndex)));
+                        int w = reader.getWidth(imageIndex);
+                        int h = reader.getHeight(imageIndex);
+                        dr.setBounds(new Rectangle2D.Double(0, 0, w, h));
+                        ImageReadParam param = null;
+                        int s = 1;
+                        if (targetSize != null) {
+                            s = Math.min(w/targetSize.width,
+                                         h/targetSize.height);
+                            if (s > 1) {
+                                param = reader.getDefaultReadParam();
+                                param.setSourceSubsampling(s, s, 0, 0);
+                            }
+                        }
                         CachableRed cr;
                         //Naive approach possibly wasting lots of memory
                         //and ignoring the gamma correction done by PNGRed :-(
                         //Matches the code used by the former JPEGRegistryEntry, though.
-                        BufferedImage bi = reader.read(imageIndex);
+                        BufferedImage bi = reader.read(imageIndex, param);
                         cr = GraphicsUtil.wrap(bi);
                         cr = new Any2sRGBRed(cr);
                         cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
@@ -139,6 +177,16 @@ public abstract class AbstractImageIORegistryEntry
                             (cm, wr, cm.isAlphaPremultiplied(), null);
                         cr = GraphicsUtil.wrap(image);
                         filt = new RedRable(cr);
+                        if (s > 1) {
+                            // Subsampled, scale it back by the step and
+                            // crop the last partial step.
+                            AffineTransform at =
+                                AffineTransform.getScaleInstance(s, s);
+                            filt = new AffineRable8Bit(filt, at);
+                            filt = new PadRable8Bit
+                                (filt, new Rectangle2D.Double(0, 0, w, h),
+                                 PadMode.ZERO_PAD);
+                        }
                     } catch (IOException ioe) {
                         // Something bad happened here...
                         filt = ImageTagRegistry.getBrokenLinkImage
@@ -159,7 +207,19 @@ public abstract class AbstractImageIORegistryEntry
                     dr.setSource(filt);
                 }
             };
-        t.start();
+        Runnable cancel = new Runnable() {
+                public void run() {
+                    // Don't leave the broken link image in the cache.
+                    ImageTagRegistry.getRegistry().cancelImage(dr);
+                    try {
+                        is.close();
+                    } catch (IOException ioe) {
+                    }
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (AbstractImageIORegistryEntry.this, errCode, errParam));
+                }
+            };
+        ImageDecodeExecutor.execute(decode, cancel, dr);
         return dr;
     }
 
@@ -308,6 +308,39 @@ public class PNGDecodeParam implements ImageDecodeParam {
         this.expandGrayAlpha = expandGrayAlpha;
     }
 
+    private int targetWidth = 0;
+    private int targetHeight = 0;
+
+    /**
+     * Returns the width the image will be displayed at, or 0 if it
+     * is to be decoded at full resolution.
+     */
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    /**
+     * Returns the height the image will be displayed at, or 0 if it
+     * is to be decoded at full resolution.
+     */
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Sets the size the image will be displayed at.  The decoder may
+     * then only decode one pixel out of every <i>n</i> by <i>n</i>
+     * square, as long as the decoded image stays at least this
+     * large.  Interlaced images are reduced by 2, 4 or 8, skipping the
+     * Adam7 passes that are not needed.
+     *
+     * <p> By default (0, 0), the full image is decoded.
+     */
+    public void setTargetSize(int targetWidth, int targetHeight) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+    }
+
     private boolean generateEncodeParam = false;
 
     private PNGEncodeParam encodeParam = null;
@@ -191,6 +191,13 @@ public class PNGRed extends AbstractRed {
     // If true, perform palette lookup internally
     private boolean expandPalette = false;
 
+    // The size the image will be displayed at, 0 for full resolution
+    private int targetWidth;
+    private int targetHeight;
+
+    // Only one pixel in subsampling x subsampling is decoded
+    private int subsampling = 1;
+
     // If true, output < 8 bit gray images in 8 bit components format
     private boolean output8BitGray = false;
 
@@ -297,6 +304,10 @@ public class PNGRed extends AbstractRed {
     private WritableRaster theTile;
     private Rectangle bounds;
 
+    // The size of the image in the file
+    private int sourceWidth;
+    private int sourceHeight;
+
     /** A Hashtable containing the image properties. */
     private Map properties = new HashMap();
 
@@ -368,6 +379,8 @@ public class PNGRed extends AbstractRed {
         this.expandPalette = decodeParam.getExpandPalette();
         this.output8BitGray = decodeParam.getOutput8BitGray();
         this.expandGrayAlpha = decodeParam.getExpandGrayAlpha();
+        this.targetWidth = decodeParam.getTargetWidth();
+        this.targetHeight = decodeParam.getTargetHeight();
         if (decodeParam.getPerformGammaCorrection()) {
             this.userExponent = decodeParam.getUserExponent();
             this.displayExponent = decodeParam.getDisplayExponent();
@@ -522,6 +535,8 @@ public class PNGRed extends AbstractRed {
         int height = chunk.getInt4(4);
 
         bounds = new Rectangle(0, 0, width, height);
+        sourceWidth  = width;
+        sourceHeight = height;
 
         bitDepth = chunk.getInt1(8);
 
@@ -635,6 +650,16 @@ public class PNGRed extends AbstractRed {
             throw new RuntimeException(msg);
         }
 
+        // Decode at a reduced resolution if a smaller image will do.
+        if ((targetWidth > 0) && (targetHeight > 0)) {
+            int s = Math.min(width/targetWidth, height/targetHeight);
+            if (interlaceMethod == 1) {
+                // Only whole Adam7 passes can be skipped.
+                s = (s >= 8) ? 8 : (s >= 4) ? 4 : (s >= 2) ? 2 : 1;
+            }
+            subsampling = Math.max(s, 1);
+        }
+
         bytesPerPixel = (bitDepth == 16) ? 2 : 1;
 
         switch (colorType) {
@@ -764,8 +789,8 @@ public class PNGRed extends AbstractRed {
         if ((colorType == PNG_COLOR_PALETTE) && expandPalette) {
             depth = 8;
         }
-        int width  = bounds.width;
-        int height = bounds.height;
+        int width  = (bounds.width  + subsampling - 1)/subsampling;
+        int height = (bounds.height + subsampling - 1)/subsampling;
 
         int bytesPerRow = (outputBands*width*depth + 7)/8;
         int scanlineStride =
@@ -785,6 +810,7 @@ public class PNGRed extends AbstractRed {
         }
 
         decodeImage(interlaceMethod == 1);
+        bounds = new Rectangle(0, 0, width, height);
 
         // Free resources associated with compressed data.
         dataStream.close();
@@ -1493,7 +1519,8 @@ public class PNGRed extends AbstractRed {
 
     private void processPixels(int process,
                                Raster src, WritableRaster dst,
-                               int xOffset, int step, int y, int width) {
+                               int xOffset, int step, int y, int width,
+                               int srcStep) {
         int srcX, dstX;
 
         // Create an array suitable for holding one pixel
@@ -1503,7 +1530,7 @@ public class PNGRed extends AbstractRed {
         dstX = xOffset;
         switch (process) {
         case POST_NONE:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
                 dst.setPixel(dstX, y, ps);
                 dstX += step;
@@ -1511,7 +1538,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GAMMA:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 for (int i = 0; i < inputBands; i++) {
@@ -1525,7 +1552,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GRAY_LUT:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 pd[0] = grayLut[ps[0]];
@@ -1536,7 +1563,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GRAY_LUT_ADD_TRANS:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1553,7 +1580,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_PALETTE_TO_RGB:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1567,7 +1594,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_PALETTE_TO_RGBA:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1582,7 +1609,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_ADD_GRAY_TRANS:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1604,7 +1631,7 @@ public class PNGRed extends AbstractRed {
         case POST_ADD_RGB_TRANS:
             boolean flagGammaCorrection = performGammaCorrection; // local is cheaper
             int[] workGammaLut = gammaLut;
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int r = ps[0];
@@ -1633,7 +1660,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_REMOVE_GRAY_TRANS:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int g = ps[0];
@@ -1649,7 +1676,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_REMOVE_RGB_TRANS:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int r = ps[0];
@@ -1671,7 +1698,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GAMMA_EXP:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1688,7 +1715,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GRAY_ALPHA_EXP:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1704,7 +1731,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_ADD_GRAY_TRANS_EXP:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1726,7 +1753,7 @@ public class PNGRed extends AbstractRed {
             break;
 
         case POST_GRAY_LUT_ADD_TRANS_EXP:
-            for (srcX = 0; srcX < width; srcX++) {
+            for (srcX = 0; srcX < width; srcX += srcStep) {
                 src.getPixel(srcX, 0, ps);
 
                 int val = ps[0];
@@ -1754,7 +1781,8 @@ public class PNGRed extends AbstractRed {
     private void decodePass(WritableRaster imRas,
                             int xOffset, int yOffset,
                             int xStep, int yStep,
-                            int passWidth, int passHeight) {
+                            int passWidth, int passHeight,
+                            int srcStep) {
         if ((passWidth == 0) || (passHeight == 0)) {
             return;
         }
@@ -1779,11 +1807,10 @@ public class PNGRed extends AbstractRed {
             shortData = ((DataBufferUShort)dataBuffer).getData();
         }
 
-        // Decode the (sub)image row-by-row
+        // Decode the (sub)image row-by-row, only keeping one row and
+        // column in srcStep
         int srcY, dstY;
-        for (srcY = 0, dstY = yOffset;
-             srcY < passHeight;
-             srcY++, dstY += yStep) {
+        for (srcY = 0, dstY = yOffset; srcY < passHeight; srcY++) {
             // Read the filter type byte and a row of data
             int filter = 0;
             try {
@@ -1814,20 +1841,23 @@ public class PNGRed extends AbstractRed {
                 throw new RuntimeException(msg);
             }
 
-            // Copy data into passRow byte by byte
-            if (bitDepth < 16) {
-                System.arraycopy(curr, 0, byteData, 0, bytesPerRow);
-            } else {
-                int idx = 0;
-                for (int j = 0; j < eltsPerRow; j++) {
-                    shortData[j] =
-                        (short)((curr[idx] << 8) | (curr[idx + 1] & 0xff));
-                    idx += 2;
+            if ((srcY % srcStep) == 0) {
+                // Copy data into passRow byte by byte
+                if (bitDepth < 16) {
+                    System.arraycopy(curr, 0, byteData, 0, bytesPerRow);
+                } else {
+                    int idx = 0;
+                    for (int j = 0; j < eltsPerRow; j++) {
+                        shortData[j] =
+                            (short)((curr[idx] << 8) | (curr[idx + 1] & 0xff));
+                        idx += 2;
+                    }
                 }
-            }
 
-            processPixels(postProcess,
-                          passRow, imRas, xOffset, xStep, dstY, passWidth);
+                processPixels(postProcess, passRow, imRas,
+                              xOffset, xStep, dstY, passWidth, srcStep);
+                dstY += yStep;
+            }
 
             // Swap curr and prior
             byte[] tmp = prior;
@@ -1839,20 +1869,56 @@ public class PNGRed extends AbstractRed {
     private void decodeImage(boolean useInterlacing) {
         int width = bounds.width;
         int height = bounds.height;
+        int s = subsampling;
 
         if (!useInterlacing) {
-            decodePass(theTile, 0, 0, 1, 1, width, height);
+            decodePass(theTile, 0, 0, 1, 1, width, height, s);
         } else {
-            decodePass(theTile, 0, 0, 8, 8, (width + 7)/8, (height + 7)/8);
-            decodePass(theTile, 4, 0, 8, 8, (width + 3)/8, (height + 7)/8);
-            decodePass(theTile, 0, 4, 4, 8, (width + 3)/4, (height + 3)/8);
-            decodePass(theTile, 2, 0, 4, 4, (width + 1)/4, (height + 3)/4);
-            decodePass(theTile, 0, 2, 2, 4, (width + 1)/2, (height + 1)/4);
-            decodePass(theTile, 1, 0, 2, 2, width/2, (height + 1)/2);
-            decodePass(theTile, 0, 1, 1, 2, width, height/2);
+            // When subsampling, the passes that only hold pixels off
+            // the reduced grid come last and are not decoded at all.
+            decodePass(theTile, 0, 0, 8/s, 8/s,
+                       (width + 7)/8, (height + 7)/8, 1);
+            if (s >= 8) return;
+            decodePass(theTile, 4/s, 0, 8/s, 8/s,
+                       (width + 3)/8, (height + 7)/8, 1);
+            decodePass(theTile, 0, 4/s, 4/s, 8/s,
+                       (width + 3)/4, (height + 3)/8, 1);
+            if (s >= 4) return;
+            decodePass(theTile, 2/s, 0, 4/s, 4/s,
+                       (width + 1)/4, (height + 3)/4, 1);
+            decodePass(theTile, 0, 2/s, 2/s, 4/s,
+                       (width + 1)/2, (height + 1)/4, 1);
+            if (s >= 2) return;
+            decodePass(theTile, 1, 0, 2, 2, width/2, (height + 1)/2, 1);
+            decodePass(theTile, 0, 1, 1, 2, width, height/2, 1);
         }
     }
 
+    /**
+     * Returns the width of the image in the file.  It is larger than
+     * the width of this image if it was subsampled (see {@link
+     * PNGDecodeParam#setTargetSize}).
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * Returns the height of the image in the file.
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Returns the subsampling step: each pixel of this image is the
+     * top left pixel of a square of that many pixels on a side in the
+     * image in the file.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
     public WritableRaster copyData(WritableRaster wr) {
         GraphicsUtil.copyData(theTile, wr);
         return wr;
@@ -18,6 +18,8 @@
  */
 package org.apache.batik.ext.awt.image.codec.png;
 
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -26,14 +28,19 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.DeferRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.RedRable;
 import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.ImageDecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.ext.awt.image.spi.MagicNumberRegistryEntry;
+import org.apache.batik.ext.awt.image.spi.SubsamplingRegistryEntry;
 import org.apache.batik.util.ParsedURL;
 
 /**
@@ -41,7 +48,8 @@ import org.apache.batik.util.ParsedURL;
  * @version $Id$
  */
 public class PNGRegistryEntry
-    extends MagicNumberRegistryEntry {
+    extends MagicNumberRegistryEntry
+    implements SubsamplingRegistryEntry {
 
 
     static final byte [] signature = {(byte)0x89, 80, 78, 71, 13, 10, 26, 10};
@@ -60,8 +68,27 @@ public class PNGRegistryEntry
      *                    any default color correction the file may
      *                    specify applied.  */
     public Filter handleStream(InputStream inIS,
-                               ParsedURL   origURL,
+                               ParsedURL origURL,
                                boolean needRawData) {
+        return handleStream(inIS, origURL, needRawData, null);
+    }
+
+    /**
+     * Decode the Stream into a RenderableImage, skipping the pixels
+     * that are not needed to display it at <code>targetSize</code>.
+     *
+     * @param inIS The input stream that contains the image.
+     * @param origURL The original URL, if any, for documentation
+     *                purposes only.  This may be null.
+     * @param needRawData If true the image returned should not have
+     *                    any default color correction the file may
+     *                    specify applied.
+     * @param targetSize The size the image will be displayed at, null
+     *                   to decode it at full resolution.  */
+    public Filter handleStream(InputStream inIS,
+                               final ParsedURL origURL,
+                               boolean needRawData,
+                               final Dimension targetSize) {
 
         final DeferRable  dr  = new DeferRable();
         final InputStream is  = inIS;
@@ -76,7 +103,7 @@ public class PNGRegistryEntry
             errParam = new Object[] {"PNG"};
         }
 
-        Thread t = new Thread() {
+        Runnable decode = new Runnable() {
                 public void run() {
                     Filter filt;
                     try {
@@ -89,9 +116,15 @@ public class PNGRegistryEntry
                             param.setPerformGammaCorrection(true);
                             param.setDisplayExponent(2.2f); // sRGB gamma
                         }
-                        CachableRed cr = new PNGRed(is, param);
-                        dr.setBounds(new Rectangle2D.Double
-                                     (0, 0, cr.getWidth(), cr.getHeight()));
+                        if (targetSize != null)
+                            param.setTargetSize(targetSize.width,
+                                                targetSize.height);
+                        PNGRed png = new PNGRed(is, param);
+                        int w = png.getSourceWidth();
+                        int h = png.getSourceHeight();
+                        dr.setBounds(new Rectangle2D.Double(0, 0, w, h));
+
+                        CachableRed cr = png;
 
                         cr = new Any2sRGBRed(cr);
                         cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
@@ -102,6 +135,17 @@ public class PNGRegistryEntry
                             (cm, wr, cm.isAlphaPremultiplied(), null);
                         cr = GraphicsUtil.wrap(image);
                         filt = new RedRable(cr);
+                        int s = png.getSubsampling();
+                        if (s > 1) {
+                            // Subsampled, scale it back by the step and
+                            // crop the last partial step.
+                            AffineTransform at =
+                                AffineTransform.getScaleInstance(s, s);
+                            filt = new AffineRable8Bit(filt, at);
+                            filt = new PadRable8Bit
+                                (filt, new Rectangle2D.Double(0, 0, w, h),
+                                 PadMode.ZERO_PAD);
+                        }
                     } catch (IOException ioe) {
                         filt = ImageTagRegistry.getBrokenLinkImage
                             (PNGRegistryEntry.this, errCode, errParam);
@@ -118,7 +162,19 @@ public class PNGRegistryEntry
                     dr.setSource(filt);
                 }
             };
-        t.start();
+        Runnable cancel = new Runnable() {
+                public void run() {
+                    // Don't leave the broken link image in the cache.
+                    ImageTagRegistry.getRegistry().cancelImage(dr);
+                    try {
+                        is.close();
+                    } catch (IOException ioe) {
+                    }
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (PNGRegistryEntry.this, errCode, errParam));
+                }
+            };
+        ImageDecodeExecutor.execute(decode, cancel, dr);
         return dr;
     }
 }
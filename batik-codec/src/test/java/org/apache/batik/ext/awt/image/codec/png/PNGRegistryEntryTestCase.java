@@ -0,0 +1,86 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.ext.awt.image.renderable.Filter;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that PNG images decoded at a reduced resolution are scaled
+ * back by the subsampling step.
+ *
+ * @version $Id$
+ */
+public class PNGRegistryEntryTestCase {
+
+    /**
+     * Returns a PNG image whose columns are 20 times their index.
+     */
+    private static byte[] createPNG(int w, int h) throws Exception {
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                bi.setRGB(x, y, 0xFF000000 | ((20*x) << 16));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(bi, "png", bos);
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testSubsampledImage() throws Exception {
+        byte[] png = createPNG(10, 10);
+        PNGRegistryEntry re = new PNGRegistryEntry();
+        // Decoded every third pixel, as 4x4.
+        Filter filt = re.handleStream
+            (new BufferedInputStream(new ByteArrayInputStream(png)),
+             null, true, new Dimension(3, 3));
+        assertEquals(new Rectangle(0, 0, 10, 10),
+                     filt.getBounds2D().getBounds());
+
+        RenderingHints rh = new RenderingHints
+            (RenderingHints.KEY_INTERPOLATION,
+             RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        RenderedImage ri = filt.createRendering
+            (new RenderContext(new AffineTransform(), rh));
+        Raster r = ri.getData(new Rectangle(0, 5, 10, 1));
+        int[] px = new int[r.getNumBands()];
+        // Each decoded pixel covers three columns, the last one is cut.
+        int[] expected = { 0, 0, 0, 3, 3, 3, 6, 6, 6, 9 };
+        for (int x = 0; x < 10; x++) {
+            r.getPixel(x, 5, px);
+            assertEquals(20*expected[x], px[0]);
+        }
+    }
+}
@@ -18,15 +18,28 @@
  */
 package org.apache.batik.css.engine;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.batik.css.engine.sac.AncestorFilter;
 import org.apache.batik.css.engine.sac.CSSConditionFactory;
 import org.apache.batik.css.engine.sac.CSSSelectorFactory;
 import org.apache.batik.css.engine.sac.ExtendedSelector;
@@ -38,13 +51,21 @@ import org.apache.batik.css.engine.value.ValueManager;
 import org.apache.batik.css.parser.ExtendedParser;
 import org.apache.batik.util.CSSConstants;
 import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.XMLConstants;
 
+import org.w3c.css.sac.AttributeCondition;
 import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CombinatorCondition;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.ConditionalSelector;
+import org.w3c.css.sac.DescendantSelector;
 import org.w3c.css.sac.DocumentHandler;
 import org.w3c.css.sac.InputSource;
 import org.w3c.css.sac.LexicalUnit;
 import org.w3c.css.sac.SACMediaList;
+import org.w3c.css.sac.Selector;
 import org.w3c.css.sac.SelectorList;
+import org.w3c.css.sac.SiblingSelector;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -273,6 +294,56 @@ public abstract class CSSEngine {
      */
     protected CSSStylableElement element;
 
+    /**
+     * The maximum number of entries of the style declaration cache.
+     */
+    protected static final int STYLE_DECLARATION_CACHE_SIZE = 1024;
+
+    /**
+     * The declarations parsed from inline style and non CSS
+     * presentational hint values, keyed by {@link
+     * StyleDeclarationCacheKey}.  The cached declarations are shared
+     * by all the elements with the same attribute value and must not
+     * be modified.
+     */
+    protected Map styleDeclarationCache =
+        new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry e) {
+                return size() > STYLE_DECLARATION_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * The maximum number of entries of the style sheet cache.
+     */
+    protected static final int STYLE_SHEET_CACHE_SIZE = 32;
+
+    /**
+     * The rules parsed from style sheets, keyed by {@link
+     * StyleSheetCacheKey}.  The values are soft references to arrays
+     * of rules shared by all the engines, possibly in different
+     * threads, and must not be modified.
+     */
+    protected static final Map styleSheetCache =
+        new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry e) {
+                return size() > STYLE_SHEET_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * The description of the parser, value and shorthand managers of
+     * this engine, used to share the style sheet cache entries between
+     * the engines that parse style sheets the same way.
+     */
+    protected String styleSheetCacheSignature;
+
+    /**
+     * Whether {@link #getCSSBaseURI()} was called since this flag was
+     * last cleared.
+     */
+    protected boolean cssBaseURIUsed;
+
     /**
      * The current base URI.
      */
@@ -323,6 +394,20 @@ public abstract class CSSEngine {
      */
     protected Node removedStylableElementSibling;
 
+    /**
+     * Whether attribute modifications are recorded and processed by
+     * {@link #flushPendingUpdates()} rather than as they happen.
+     */
+    protected boolean batchingUpdates;
+
+    /**
+     * The elements whose attributes were modified since the last
+     * {@link #flushPendingUpdates()}, in modification order.  Each one
+     * is mapped to Boolean.TRUE if its siblings must be invalidated
+     * too, Boolean.FALSE otherwise.  Null when there is none.
+     */
+    protected Map pendingUpdates;
+
     /**
      * The listeners.
      */
@@ -333,6 +418,67 @@ public abstract class CSSEngine {
      */
     protected Set selectorAttributes;
 
+    /**
+     * The invalidations caused by a change of the attributes found in
+     * stylesheets selectors.  The keys are attribute names, or an
+     * attribute name and a value separated by a space for the class
+     * and id conditions.  The values are Integer combinations of the
+     * INVALIDATE_* flags.
+     */
+    protected Map selectorInvalidations;
+
+    /**
+     * Invalidation flag: the element itself can match differently.
+     */
+    protected static final int INVALIDATE_ELEMENT = 1;
+
+    /**
+     * Invalidation flag: the descendants of the element can match
+     * differently.
+     */
+    protected static final int INVALIDATE_DESCENDANTS = 2;
+
+    /**
+     * Invalidation flag: the following siblings of the element, and
+     * their descendants, can match differently.
+     */
+    protected static final int INVALIDATE_SIBLINGS = 4;
+
+    /**
+     * The number of elements recascaded by dynamic updates.
+     */
+    protected int restyledElementCount;
+
+    /**
+     * The number of elements reached by dynamic updates without being
+     * recascaded.
+     */
+    protected int skippedElementCount;
+
+    /**
+     * Whether the document style-sheets contain selectors which depend
+     * on the position of an element among its siblings.
+     */
+    protected boolean siblingSelectors;
+
+    /**
+     * The attributes found in the user agent and user style-sheets
+     * selectors, or null if they were not looked for yet.
+     */
+    protected Set userSelectorAttributes;
+
+    /**
+     * Whether the user agent or user style-sheets contain selectors
+     * which depend on the position of an element among its siblings.
+     */
+    protected boolean userSiblingSelectors;
+
+    /**
+     * The maximum number of previous siblings looked at when searching
+     * for a computed style map to share.
+     */
+    protected static final int STYLE_SHARING_SIBLING_COUNT = 8;
+
     /**
      * Used to fire a change event for all the properties.
      */
@@ -509,6 +655,7 @@ public abstract class CSSEngine {
      * Disposes the CSSEngine and all the attached resources.
      */
     public void dispose() {
+        pendingUpdates = null;
         setCSSEngineUserAgent(null);
         disposeStyleMaps(document.getDocumentElement());
         if (document instanceof EventTarget) {
@@ -609,6 +756,7 @@ public abstract class CSSEngine {
      */
     public void setUserAgentStyleSheet(StyleSheet ss) {
         userAgentStyleSheet = ss;
+        userSelectorAttributes = null;
     }
 
     /**
@@ -616,6 +764,7 @@ public abstract class CSSEngine {
      */
     public void setUserStyleSheet(StyleSheet ss) {
         userStyleSheet = ss;
+        userSelectorAttributes = null;
     }
 
     /**
@@ -700,12 +849,68 @@ public abstract class CSSEngine {
      * Returns the current base-url.
      */
     public ParsedURL getCSSBaseURI() {
+        cssBaseURIUsed = true;
         if (cssBaseURI == null) {
             cssBaseURI = element.getCSSBase();
         }
         return cssBaseURI;
     }
 
+    /**
+     * Returns the cached declaration parsed from the given attribute
+     * value, or null if there is none or if it was resolved against
+     * another base URI than the one of the current element.
+     * @param name The presentational hint name, or null for an inline
+     *             style.
+     * @param value The attribute value.
+     */
+    protected StyleDeclaration getCachedStyleDeclaration(String name,
+                                                         String value) {
+        StyleDeclarationCacheEntry e = (StyleDeclarationCacheEntry)
+            styleDeclarationCache.get
+            (new StyleDeclarationCacheKey(name, value));
+        if (e == null) {
+            return null;
+        }
+        if (e.baseURIDependent) {
+            ParsedURL base = getCSSBaseURI();
+            if ((base == null) ? e.baseURI != null : !base.equals(e.baseURI)) {
+                return null;
+            }
+        }
+        return e.styleDeclaration;
+    }
+
+    /**
+     * Caches the declaration just parsed from the given attribute value.
+     * {@link #cssBaseURIUsed} tells whether the declaration depends on
+     * the base URI of the current element.
+     */
+    protected void putCachedStyleDeclaration(String name, String value,
+                                             StyleDeclaration sd) {
+        StyleDeclarationCacheEntry e = new StyleDeclarationCacheEntry();
+        e.styleDeclaration = sd;
+        if (cssBaseURIUsed) {
+            e.baseURIDependent = true;
+            e.baseURI = getCSSBaseURI();
+        }
+        styleDeclarationCache.put(new StyleDeclarationCacheKey(name, value),
+                                  e);
+    }
+
+    /**
+     * Puts the properties of the given declaration in a style-map, in
+     * declaration order.
+     */
+    protected void putStyleDeclaration(StyleMap dest, StyleDeclaration sd,
+                                       short origin) {
+        int len = sd.size();
+        for (int i = 0; i < len; i++) {
+            putAuthorProperty(dest, sd.getIndex(i), sd.getValue(i),
+                              sd.getPriority(i), origin);
+        }
+    }
+
     /**
      * Returns the cascaded style of the given element/pseudo-element.
      * @param elt The stylable element.
@@ -715,18 +920,19 @@ public abstract class CSSEngine {
                                         String pseudo) {
         int props = getNumberOfProperties();
         final StyleMap result = new StyleMap(props);
+        AncestorFilter filter = new AncestorFilter(elt);
 
         // Apply the user-agent style-sheet to the result.
         if (userAgentStyleSheet != null) {
             ArrayList rules = new ArrayList();
-            addMatchingRules(rules, userAgentStyleSheet, elt, pseudo);
+            addMatchingRules(rules, userAgentStyleSheet, elt, pseudo, filter);
             addRules(elt, pseudo, result, rules, StyleMap.USER_AGENT_ORIGIN);
         }
 
         // Apply the user properties style-sheet to the result.
         if (userStyleSheet != null) {
             ArrayList rules = new ArrayList();
-            addMatchingRules(rules, userStyleSheet, elt, pseudo);
+            addMatchingRules(rules, userStyleSheet, elt, pseudo, filter);
             addRules(elt, pseudo, result, rules, StyleMap.USER_ORIGIN);
         }
 
@@ -734,49 +940,47 @@ public abstract class CSSEngine {
         try {
             // Apply the non-CSS presentational hints to the result.
             if (nonCSSPresentationalHints != null) {
-                ShorthandManager.PropertyHandler ph =
-                    new ShorthandManager.PropertyHandler() {
-                        public void property(String pname, LexicalUnit lu,
-                                             boolean important) {
-                            int idx = getPropertyIndex(pname);
-                            if (idx != -1) {
-                                ValueManager vm = valueManagers[idx];
-                                Value v = vm.createValue(lu, CSSEngine.this);
-                                putAuthorProperty(result, idx, v, important,
-                                                  StyleMap.NON_CSS_ORIGIN);
-                                return;
-                            }
-                            idx = getShorthandIndex(pname);
-                            if (idx == -1)
-                                return; // Unknown property...
-                            // Shorthand value
-                            shorthandManagers[idx].setValues
-                                (CSSEngine.this, this, lu, important);
-                        }
-                    };
-
                 NamedNodeMap attrs = elt.getAttributes();
                 int len = attrs.getLength();
                 for (int i = 0; i < len; i++) {
                     Node attr = attrs.item(i);
                     String an = attr.getNodeName();
                     if (nonCSSPresentationalHints.contains(an)) {
+                        String av = attr.getNodeValue();
+                        StyleDeclaration sd =
+                            getCachedStyleDeclaration(an, av);
+                        if (sd != null) {
+                            putStyleDeclaration(result, sd,
+                                                StyleMap.NON_CSS_ORIGIN);
+                            continue;
+                        }
+                        sd = new StyleDeclaration();
+                        styleDeclarationBuilder.styleDeclaration = sd;
+                        cssBaseURIUsed = false;
                         try {
                             LexicalUnit lu;
-                            lu = parser.parsePropertyValue(attr.getNodeValue());
-                            ph.property(an, lu, false);
+                            lu = parser.parsePropertyValue(av);
+                            styleDeclarationBuilder.property(an, lu, false);
+                            putCachedStyleDeclaration(an, av, sd);
                         } catch (Exception e) {
+                            putStyleDeclaration(result, sd,
+                                                StyleMap.NON_CSS_ORIGIN);
                             String m = e.getMessage();
                             if (m == null) m = "";
                             String u = ((documentURI == null)?"<unknown>":
                                         documentURI.toString());
                             String s = Messages.formatMessage
                                 ("property.syntax.error.at",
-                                 new Object[] { u, an, attr.getNodeValue(), m});
+                                 new Object[] { u, an, av, m});
                             DOMException de = new DOMException(DOMException.SYNTAX_ERR, s);
                             if (userAgent == null) throw de;
                             userAgent.displayError(de);
+                            continue;
+                        } finally {
+                            styleDeclarationBuilder.styleDeclaration = null;
                         }
+                        putStyleDeclaration(result, sd,
+                                            StyleMap.NON_CSS_ORIGIN);
                     }
                 }
             }
@@ -795,7 +999,7 @@ public abstract class CSSEngine {
                          ss.getTitle() == null ||
                          ss.getTitle().equals(alternateStyleSheet)) &&
                         mediaMatch(ss.getMedia())) {
-                        addMatchingRules(rules, ss, elt, pseudo);
+                        addMatchingRules(rules, ss, elt, pseudo, filter);
                     }
                 }
                 addRules(elt, pseudo, result, rules, StyleMap.AUTHOR_ORIGIN);
@@ -805,16 +1009,28 @@ public abstract class CSSEngine {
             if (styleLocalName != null) {
                 String style = elt.getAttributeNS(styleNamespaceURI,
                                                   styleLocalName);
+                StyleDeclaration sd = null;
                 if (style.length() > 0) {
+                    sd = getCachedStyleDeclaration(null, style);
+                }
+                if (sd != null) {
+                    putStyleDeclaration(result, sd,
+                                        StyleMap.INLINE_AUTHOR_ORIGIN);
+                } else if (style.length() > 0) {
+                    sd = new StyleDeclaration();
+                    styleDeclarationBuilder.styleDeclaration = sd;
+                    cssBaseURIUsed = false;
                     try {
                         parser.setSelectorFactory(CSSSelectorFactory.INSTANCE);
                         parser.setConditionFactory(cssConditionFactory);
-                        styleDeclarationDocumentHandler.styleMap = result;
-                        parser.setDocumentHandler
-                            (styleDeclarationDocumentHandler);
+                        parser.setDocumentHandler(styleDeclarationBuilder);
                         parser.parseStyleDeclaration(style);
-                        styleDeclarationDocumentHandler.styleMap = null;
+                        putCachedStyleDeclaration(null, style, sd);
+                        putStyleDeclaration(result, sd,
+                                            StyleMap.INLINE_AUTHOR_ORIGIN);
                     } catch (Exception e) {
+                        putStyleDeclaration(result, sd,
+                                            StyleMap.INLINE_AUTHOR_ORIGIN);
                         String m = e.getMessage();
                         if (m == null) m = e.getClass().getName();
                         String u = ((documentURI == null)?"<unknown>":
@@ -825,6 +1041,8 @@ public abstract class CSSEngine {
                         DOMException de = new DOMException(DOMException.SYNTAX_ERR, s);
                         if (userAgent == null) throw de;
                         userAgent.displayError(de);
+                    } finally {
+                        styleDeclarationBuilder.styleDeclaration = null;
                     }
                 }
             }
@@ -863,9 +1081,17 @@ public abstract class CSSEngine {
     public Value getComputedStyle(CSSStylableElement elt,
                                   String pseudo,
                                   int propidx) {
+        if (pendingUpdates != null) {
+            flushPendingUpdates();
+        }
         StyleMap sm = elt.getComputedStyleMap(pseudo);
         if (sm == null) {
-            sm = getCascadedStyleMap(elt, pseudo);
+            if (pseudo == null) {
+                sm = getSharableStyleMap(elt);
+            }
+            if (sm == null) {
+                sm = getCascadedStyleMap(elt, pseudo);
+            }
             elt.setComputedStyleMap(pseudo, sm);
         }
 
@@ -907,6 +1133,238 @@ public abstract class CSSEngine {
         return result;
     }
 
+    /**
+     * Returns the computed style map of a previous sibling of the given
+     * element that is cascaded from the same inputs, or null if there
+     * is none.  Since the siblings also share their parent, the values
+     * computed for one of them are valid for the other.  The returned
+     * map is marked as shared.
+     */
+    protected StyleMap getSharableStyleMap(CSSStylableElement elt) {
+        if (cssContext.getCSSEngineForElement(elt) != this ||
+            hasOverrideStyle(elt)) {
+            return null;
+        }
+        getStyleSheetNodes();
+        if (userSelectorAttributes == null) {
+            userSelectorAttributes = new HashSet();
+            userSiblingSelectors = false;
+            if (userAgentStyleSheet != null) {
+                findSelectorAttributes(userSelectorAttributes,
+                                       userAgentStyleSheet);
+                userSiblingSelectors |=
+                    hasSiblingSelectors(userAgentStyleSheet);
+            }
+            if (userStyleSheet != null) {
+                findSelectorAttributes(userSelectorAttributes, userStyleSheet);
+                userSiblingSelectors |= hasSiblingSelectors(userStyleSheet);
+            }
+        }
+        if (siblingSelectors || userSiblingSelectors) {
+            return null;
+        }
+        int count = 0;
+        for (Node n = getCSSPreviousSibling(elt);
+             n != null && count < STYLE_SHARING_SIBLING_COUNT;
+             n = getCSSPreviousSibling(n)) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            count++;
+            if (!(n instanceof CSSStylableElement)) {
+                continue;
+            }
+            CSSStylableElement sib = (CSSStylableElement)n;
+            StyleMap sm = sib.getComputedStyleMap(null);
+            if (sm != null &&
+                !sm.hasFixedCascadedValues() &&
+                !hasOverrideStyle(sib) &&
+                hasSameCascadeInputs(elt, sib)) {
+                sm.setShared(true);
+                return sm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the computed style map of the given element, after having
+     * replaced it by a copy if it is shared with other elements.
+     */
+    protected StyleMap getUnsharedStyleMap(CSSStylableElement elt) {
+        StyleMap sm = elt.getComputedStyleMap(null);
+        if (sm != null && sm.isShared()) {
+            sm = new StyleMap(sm);
+            elt.setComputedStyleMap(null, sm);
+        }
+        return sm;
+    }
+
+    /**
+     * Whether the given element has a non empty override style.
+     */
+    protected static boolean hasOverrideStyle(CSSStylableElement elt) {
+        StyleDeclarationProvider p = elt.getOverrideStyleDeclarationProvider();
+        if (p == null) {
+            return false;
+        }
+        StyleDeclaration sd = p.getStyleDeclaration();
+        return sd != null && sd.size() > 0;
+    }
+
+    /**
+     * Whether the two given elements have the same name and the same
+     * values for all the attributes which can take part in their
+     * cascade.
+     */
+    protected boolean hasSameCascadeInputs(Element e1, Element e2) {
+        String ns1 = e1.getNamespaceURI();
+        String ns2 = e2.getNamespaceURI();
+        if ((ns1 == null) ? ns2 != null : !ns1.equals(ns2)) {
+            return false;
+        }
+        if (!e1.getNodeName().equals(e2.getNodeName())) {
+            return false;
+        }
+        NamedNodeMap attrs1 = e1.getAttributes();
+        NamedNodeMap attrs2 = e2.getAttributes();
+        int count = 0;
+        int len = attrs1.getLength();
+        for (int i = 0; i < len; i++) {
+            Node attr = attrs1.item(i);
+            if (!isCascadeAttribute(attr)) {
+                continue;
+            }
+            count++;
+            String ns = attr.getNamespaceURI();
+            Node attr2 = attrs2.getNamedItemNS
+                (ns, (ns == null) ? attr.getNodeName() : attr.getLocalName());
+            if (attr2 == null ||
+                !attr.getNodeValue().equals(attr2.getNodeValue())) {
+                return false;
+            }
+        }
+        len = attrs2.getLength();
+        for (int i = 0; i < len; i++) {
+            if (isCascadeAttribute(attrs2.item(i))) {
+                count--;
+            }
+        }
+        return count == 0;
+    }
+
+    /**
+     * Whether the given attribute can take part in the cascade of its
+     * element: the inline style, the class, the non CSS presentational
+     * hints, the attributes found in the selectors and the XML
+     * attributes.
+     */
+    protected boolean isCascadeAttribute(Node attr) {
+        String ns = attr.getNamespaceURI();
+        String name = (ns == null) ? attr.getNodeName() : attr.getLocalName();
+        if (XMLConstants.XML_NAMESPACE_URI.equals(ns)) {
+            return true;
+        }
+        if (name.equals(styleLocalName) &&
+            ((ns == null) ? styleNamespaceURI == null
+                          : ns.equals(styleNamespaceURI))) {
+            return true;
+        }
+        if (name.equals(classLocalName) &&
+            ((ns == null) ? classNamespaceURI == null
+                          : ns.equals(classNamespaceURI))) {
+            return true;
+        }
+        if (nonCSSPresentationalHints != null &&
+            nonCSSPresentationalHints.contains(name) &&
+            ((ns == null) ? nonCSSPresentationalHintsNamespaceURI == null
+                          : ns.equals(nonCSSPresentationalHintsNamespaceURI))) {
+            return true;
+        }
+        return (selectorAttributes != null &&
+                selectorAttributes.contains(name)) ||
+            (userSelectorAttributes != null &&
+             userSelectorAttributes.contains(name));
+    }
+
+    /**
+     * Whether the given style-sheet contains selectors which depend on
+     * the position of an element among its siblings.
+     */
+    protected boolean hasSiblingSelectors(StyleSheet ss) {
+        int len = ss.getSize();
+        for (int i = 0; i < len; i++) {
+            Rule r = ss.getRule(i);
+            switch (r.getType()) {
+            case StyleRule.TYPE:
+                SelectorList sl = ((StyleRule)r).getSelectorList();
+                int slen = sl.getLength();
+                for (int j = 0; j < slen; j++) {
+                    if (isSiblingDependent(sl.item(j))) {
+                        return true;
+                    }
+                }
+                break;
+
+            case MediaRule.TYPE:
+            case ImportRule.TYPE:
+                MediaRule mr = (MediaRule)r;
+                if (mediaMatch(mr.getMediaList()) &&
+                    hasSiblingSelectors(mr)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the given selector can match an element and not one of
+     * its siblings with the same attributes.  The ancestors of the
+     * siblings being the same, only the last compound selector matters.
+     */
+    protected static boolean isSiblingDependent(Selector s) {
+        switch (s.getSelectorType()) {
+        case Selector.SAC_CONDITIONAL_SELECTOR:
+            ConditionalSelector cs = (ConditionalSelector)s;
+            return isSiblingDependent(cs.getSimpleSelector()) ||
+                isSiblingDependent(cs.getCondition());
+        case Selector.SAC_CHILD_SELECTOR:
+        case Selector.SAC_DESCENDANT_SELECTOR:
+            return isSiblingDependent
+                (((DescendantSelector)s).getSimpleSelector());
+        case Selector.SAC_DIRECT_ADJACENT_SELECTOR:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Whether the given condition can match an element and not one of
+     * its siblings with the same attributes.
+     */
+    protected static boolean isSiblingDependent(Condition c) {
+        switch (c.getConditionType()) {
+        case Condition.SAC_AND_CONDITION:
+        case Condition.SAC_OR_CONDITION:
+            CombinatorCondition cc = (CombinatorCondition)c;
+            return isSiblingDependent(cc.getFirstCondition()) ||
+                isSiblingDependent(cc.getSecondCondition());
+        case Condition.SAC_ID_CONDITION:
+        case Condition.SAC_CLASS_CONDITION:
+        case Condition.SAC_ATTRIBUTE_CONDITION:
+        case Condition.SAC_ONE_OF_ATTRIBUTE_CONDITION:
+        case Condition.SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION:
+        case Condition.SAC_LANG_CONDITION:
+            return false;
+        default:
+            // Pseudo-classes like first-child.
+            return true;
+        }
+    }
+
     /**
      * Returns the document CSSStyleSheetNodes in a list. This list is
      * updated as the document is modified.
@@ -915,6 +1373,8 @@ public abstract class CSSEngine {
         if (styleSheetNodes == null) {
             styleSheetNodes = new ArrayList();
             selectorAttributes = new HashSet();
+            selectorInvalidations = new HashMap();
+            siblingSelectors = false;
             // Find all the style-sheets in the document.
             findStyleSheetNodes(document);
             int len = styleSheetNodes.size();
@@ -924,6 +1384,8 @@ public abstract class CSSEngine {
                 StyleSheet ss = ssn.getCSSStyleSheet();
                 if (ss != null) {
                     findSelectorAttributes(selectorAttributes, ss);
+                    findSelectorInvalidations(selectorInvalidations, ss);
+                    siblingSelectors |= hasSiblingSelectors(ss);
                 }
             }
         }
@@ -973,6 +1435,167 @@ public abstract class CSSEngine {
         }
     }
 
+    /**
+     * Finds the invalidations caused by the selector attributes in the
+     * given stylesheet.
+     */
+    protected void findSelectorInvalidations(Map m, StyleSheet ss) {
+        int len = ss.getSize();
+        for (int i = 0; i < len; i++) {
+            Rule r = ss.getRule(i);
+            switch (r.getType()) {
+            case StyleRule.TYPE:
+                StyleRule style = (StyleRule)r;
+                SelectorList sl = style.getSelectorList();
+                int slen = sl.getLength();
+                for (int j = 0; j < slen; j++) {
+                    addSelectorInvalidations(m, sl.item(j),
+                                             INVALIDATE_ELEMENT);
+                }
+                break;
+
+            case MediaRule.TYPE:
+            case ImportRule.TYPE:
+                MediaRule mr = (MediaRule)r;
+                if (mediaMatch(mr.getMediaList())) {
+                    findSelectorInvalidations(m, mr);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the invalidations caused by the attributes of the given
+     * selector.
+     * @param inv The invalidation caused by the selector when it
+     *            starts or stops matching an element.
+     */
+    protected static void addSelectorInvalidations(Map m, Selector s,
+                                                   int inv) {
+        switch (s.getSelectorType()) {
+        case Selector.SAC_CONDITIONAL_SELECTOR:
+            ConditionalSelector cs = (ConditionalSelector)s;
+            addSelectorInvalidations(m, cs.getSimpleSelector(), inv);
+            addConditionInvalidations(m, cs.getCondition(), inv);
+            break;
+        case Selector.SAC_CHILD_SELECTOR:
+        case Selector.SAC_DESCENDANT_SELECTOR:
+            DescendantSelector ds = (DescendantSelector)s;
+            addSelectorInvalidations(m, ds.getAncestorSelector(),
+                                     INVALIDATE_DESCENDANTS);
+            addSelectorInvalidations(m, ds.getSimpleSelector(), inv);
+            break;
+        case Selector.SAC_DIRECT_ADJACENT_SELECTOR:
+            SiblingSelector ss = (SiblingSelector)s;
+            addSelectorInvalidations(m, ss.getSelector(),
+                                     INVALIDATE_SIBLINGS);
+            addSelectorInvalidations(m, ss.getSiblingSelector(), inv);
+            break;
+        }
+    }
+
+    /**
+     * Adds the invalidations caused by the attributes of the given
+     * condition.
+     */
+    protected static void addConditionInvalidations(Map m, Condition c,
+                                                    int inv) {
+        String key;
+        switch (c.getConditionType()) {
+        case Condition.SAC_AND_CONDITION:
+        case Condition.SAC_OR_CONDITION:
+            CombinatorCondition cc = (CombinatorCondition)c;
+            addConditionInvalidations(m, cc.getFirstCondition(), inv);
+            addConditionInvalidations(m, cc.getSecondCondition(), inv);
+            return;
+        case Condition.SAC_ID_CONDITION:
+        case Condition.SAC_CLASS_CONDITION:
+            AttributeCondition ac = (AttributeCondition)c;
+            key = ac.getLocalName() + ' ' + ac.getValue();
+            break;
+        case Condition.SAC_ATTRIBUTE_CONDITION:
+        case Condition.SAC_ONE_OF_ATTRIBUTE_CONDITION:
+        case Condition.SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION:
+            key = ((AttributeCondition)c).getLocalName();
+            break;
+        case Condition.SAC_LANG_CONDITION:
+            // The language is inherited by the descendants.
+            key = "lang";
+            inv |= INVALIDATE_DESCENDANTS;
+            break;
+        default:
+            return;
+        }
+        Integer i = (Integer)m.get(key);
+        if (i != null) {
+            inv |= i.intValue();
+        }
+        m.put(key, new Integer(inv));
+    }
+
+    /**
+     * Returns the invalidations caused by a change of the given
+     * selector attribute.
+     */
+    protected int getSelectorInvalidations(String name,
+                                           String prevValue,
+                                           String newValue) {
+        int inv = getSelectorInvalidations(name);
+        inv |= getSelectorInvalidations(name + ' ' + prevValue);
+        inv |= getSelectorInvalidations(name + ' ' + newValue);
+
+        // Class conditions match the space separated tokens.
+        Set prev = getValueTokens(prevValue);
+        Set next = getValueTokens(newValue);
+        Iterator it = prev.iterator();
+        while (it.hasNext()) {
+            String t = (String)it.next();
+            if (!next.contains(t)) {
+                inv |= getSelectorInvalidations(name + ' ' + t);
+            }
+        }
+        it = next.iterator();
+        while (it.hasNext()) {
+            String t = (String)it.next();
+            if (!prev.contains(t)) {
+                inv |= getSelectorInvalidations(name + ' ' + t);
+            }
+        }
+        return inv;
+    }
+
+    /**
+     * Returns the invalidations registered for the given key.
+     */
+    protected int getSelectorInvalidations(String key) {
+        Integer i = (Integer)selectorInvalidations.get(key);
+        return (i == null) ? 0 : i.intValue();
+    }
+
+    /**
+     * Returns the space separated tokens of the given attribute value.
+     */
+    protected static Set getValueTokens(String value) {
+        Set result = new HashSet();
+        if (value == null) {
+            return result;
+        }
+        int len = value.length();
+        int start = -1;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || Character.isSpaceChar(value.charAt(i))) {
+                if (start != -1) {
+                    result.add(value.substring(start, i));
+                    start = -1;
+                }
+            } else if (start == -1) {
+                start = i;
+            }
+        }
+        return result;
+    }
+
     /**
      * Interface for people interesting in having 'primary' properties
      * set.  Shorthand properties will be expanded "automatically".
@@ -1232,18 +1855,45 @@ public abstract class CSSEngine {
 
     /**
      * Parses and fills the given style-sheet.
+     * The rules of a style sheet with a base URI are looked up in the
+     * style sheet cache, by content, before being parsed.
      * @param ss The stylesheet to fill.
      * @param uri The base URI.
      */
     protected void parseStyleSheet(StyleSheet ss, InputSource is, ParsedURL uri)
         throws IOException {
+        StyleSheetCacheKey key = null;
+        if (uri != null) {
+            is = readInputSource(is);
+            if (is.getByteStream() != null ||
+                is.getCharacterStream() != null) {
+                key = new StyleSheetCacheKey(getStyleSheetCacheSignature(),
+                                             uri.toString(),
+                                             getDigest(is));
+            }
+        }
         parser.setSelectorFactory(CSSSelectorFactory.INSTANCE);
         parser.setConditionFactory(cssConditionFactory);
         try {
             cssBaseURI = uri;
-            styleSheetDocumentHandler.styleSheet = ss;
-            parser.setDocumentHandler(styleSheetDocumentHandler);
-            parser.parseStyleSheet(is);
+            Rule[] rules = (key == null) ? null : getCachedStyleSheet(key);
+            if (rules != null) {
+                for (int i = 0; i < rules.length; i++) {
+                    Rule r = rules[i];
+                    if (r.getType() == ImportRule.TYPE) {
+                        r = copyImportRule((ImportRule)r, ss);
+                    }
+                    ss.append(r);
+                }
+            } else {
+                int start = ss.getSize();
+                styleSheetDocumentHandler.styleSheet = ss;
+                parser.setDocumentHandler(styleSheetDocumentHandler);
+                parser.parseStyleSheet(is);
+                if (key != null) {
+                    putCachedStyleSheet(key, ss, start);
+                }
+            }
 
             // Load the imported sheets.
             int len = ss.getSize();
@@ -1261,6 +1911,174 @@ public abstract class CSSEngine {
         }
     }
 
+    /**
+     * Returns an input source with the same content as the given one,
+     * read in memory so that it can be both digested and parsed.  The
+     * given input source is returned if it has no content.
+     */
+    protected InputSource readInputSource(InputSource is) throws IOException {
+        InputSource result = new InputSource();
+        result.setURI(is.getURI());
+        result.setEncoding(is.getEncoding());
+        result.setMedia(is.getMedia());
+        result.setTitle(is.getTitle());
+        Reader r = is.getCharacterStream();
+        if (r != null) {
+            StringWriter w = new StringWriter();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                w.write(buf, 0, n);
+            }
+            result.setCharacterStream(new StringReader(w.toString()));
+            return result;
+        }
+        InputStream in = is.getByteStream();
+        if (in == null) {
+            if (is.getURI() == null) {
+                return is;
+            }
+            ParsedURL purl = new ParsedURL(is.getURI());
+            in = purl.openStreamRaw(CSSConstants.CSS_MIME_TYPE);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            if (is.getByteStream() == null) {
+                in.close();
+            }
+        }
+        result.setByteStream(new ByteArrayInputStream(out.toByteArray()));
+        return result;
+    }
+
+    /**
+     * Returns a digest of the content of an input source returned by
+     * {@link #readInputSource(InputSource)}, leaving it unread.
+     */
+    protected static String getDigest(InputSource is) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        StringBuffer sb = new StringBuffer(64);
+        Reader r = is.getCharacterStream();
+        if (r != null) {
+            StringReader sr = (StringReader)r;
+            sr.mark(0);
+            char[] buf = new char[4096];
+            int n;
+            while ((n = sr.read(buf)) != -1) {
+                md.update(new String(buf, 0, n).getBytes("UTF-8"));
+            }
+            sr.reset();
+            sb.append("c:");
+        } else {
+            InputStream in = is.getByteStream();
+            in.mark(0);
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                md.update(buf, 0, n);
+            }
+            in.reset();
+            sb.append("b:").append(is.getEncoding()).append(':');
+        }
+        byte[] d = md.digest();
+        for (int i = 0; i < d.length; i++) {
+            sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(d[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the description of the way this engine parses style
+     * sheets.  Two engines with the same signature produce the same
+     * rules from the same style sheet.
+     */
+    protected String getStyleSheetCacheSignature() {
+        if (styleSheetCacheSignature == null) {
+            StringBuffer sb = new StringBuffer(4096);
+            sb.append(getClass().getName());
+            sb.append(' ').append(parser.getClass().getName());
+            sb.append(' ').append(classNamespaceURI);
+            sb.append(' ').append(classLocalName);
+            for (int i = 0; i < valueManagers.length; i++) {
+                ValueManager vm = valueManagers[i];
+                sb.append(' ').append(vm.getPropertyName());
+                sb.append('=').append(vm.getClass().getName());
+            }
+            for (int i = 0; i < shorthandManagers.length; i++) {
+                ShorthandManager sm = shorthandManagers[i];
+                sb.append(' ').append(sm.getPropertyName());
+                sb.append('=').append(sm.getClass().getName());
+            }
+            styleSheetCacheSignature = sb.toString();
+        }
+        return styleSheetCacheSignature;
+    }
+
+    /**
+     * Returns the cached rules of the given style sheet, or null if
+     * there are none.
+     */
+    protected static Rule[] getCachedStyleSheet(StyleSheetCacheKey key) {
+        synchronized (styleSheetCache) {
+            SoftReference sr = (SoftReference)styleSheetCache.get(key);
+            if (sr == null) {
+                return null;
+            }
+            Rule[] rules = (Rule[])sr.get();
+            if (rules == null) {
+                styleSheetCache.remove(key);
+            }
+            return rules;
+        }
+    }
+
+    /**
+     * Caches the rules of the given style sheet from the given index.
+     * The imported style sheets are not cached with the rules: they
+     * are loaded again, through the cache, each time the rules are
+     * used.
+     */
+    protected static void putCachedStyleSheet(StyleSheetCacheKey key,
+                                              StyleSheet ss,
+                                              int start) {
+        Rule[] rules = new Rule[ss.getSize() - start];
+        for (int i = 0; i < rules.length; i++) {
+            Rule r = ss.getRule(start + i);
+            if (r.getType() == ImportRule.TYPE) {
+                r = copyImportRule((ImportRule)r, null);
+            }
+            rules[i] = r;
+        }
+        synchronized (styleSheetCache) {
+            styleSheetCache.put(key, new SoftReference(rules));
+        }
+    }
+
+    /**
+     * Returns an empty copy of the given import rule.
+     * @param parent The style sheet the copy is added to.
+     */
+    protected static ImportRule copyImportRule(ImportRule ir,
+                                               StyleSheet parent) {
+        ImportRule result = new ImportRule();
+        result.setMediaList(ir.getMediaList());
+        result.setURI(ir.getURI());
+        result.setParent(parent);
+        return result;
+    }
+
     /**
      * Puts an author property from a style-map in another style-map,
      * if possible.
@@ -1306,6 +2124,20 @@ public abstract class CSSEngine {
                                     StyleSheet ss,
                                     Element elt,
                                     String pseudo) {
+        addMatchingRules(rules, ss, elt, pseudo, null);
+    }
+
+    /**
+     * Adds the rules matching the element/pseudo-element of given style
+     * sheet to the list.  The selectors the given ancestor filter
+     * rejects are not matched against the document.
+     * @param filter The filter of the ancestors of elt, or null.
+     */
+    protected void addMatchingRules(List rules,
+                                    StyleSheet ss,
+                                    Element elt,
+                                    String pseudo,
+                                    AncestorFilter filter) {
         int len = ss.getSize();
         for (int i = 0; i < len; i++) {
             Rule r = ss.getRule(i);
@@ -1316,6 +2148,9 @@ public abstract class CSSEngine {
                 int slen = sl.getLength();
                 for (int j = 0; j < slen; j++) {
                     ExtendedSelector s = (ExtendedSelector)sl.item(j);
+                    if (filter != null && !filter.mightMatch(s)) {
+                        continue;
+                    }
                     if (s.match(elt, pseudo)) {
                         rules.add(style);
                     }
@@ -1326,7 +2161,7 @@ public abstract class CSSEngine {
             case ImportRule.TYPE:
                 MediaRule mr = (MediaRule)r;
                 if (mediaMatch(mr.getMediaList())) {
-                    addMatchingRules(rules, mr, elt, pseudo);
+                    addMatchingRules(rules, mr, elt, pseudo, filter);
                 }
                 break;
             }
@@ -1665,6 +2500,122 @@ public abstract class CSSEngine {
         }
     }
 
+    /**
+     * The key of a style declaration cache entry.
+     */
+    protected static class StyleDeclarationCacheKey {
+
+        /**
+         * The presentational hint name, or null for an inline style.
+         */
+        protected String name;
+
+        /**
+         * The attribute value.
+         */
+        protected String value;
+
+        /**
+         * Creates a new StyleDeclarationCacheKey.
+         */
+        public StyleDeclarationCacheKey(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * Returns a hash code value for this key.
+         */
+        public int hashCode() {
+            int h = value.hashCode();
+            return (name == null) ? h : h * 31 + name.hashCode();
+        }
+
+        /**
+         * Indicates whether some other object is equal to this one.
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StyleDeclarationCacheKey)) {
+                return false;
+            }
+            StyleDeclarationCacheKey k = (StyleDeclarationCacheKey)obj;
+            return value.equals(k.value) &&
+                ((name == null) ? k.name == null : name.equals(k.name));
+        }
+    }
+
+    /**
+     * The key of a style sheet cache entry.
+     */
+    protected static class StyleSheetCacheKey {
+
+        /**
+         * The signature of the engines the rules can be shared with.
+         */
+        protected String signature;
+
+        /**
+         * The style sheet URI.
+         */
+        protected String uri;
+
+        /**
+         * The digest of the style sheet content.
+         */
+        protected String digest;
+
+        /**
+         * Creates a new StyleSheetCacheKey.
+         */
+        public StyleSheetCacheKey(String signature, String uri,
+                                  String digest) {
+            this.signature = signature;
+            this.uri = uri;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns a hash code value for this key.
+         */
+        public int hashCode() {
+            return (digest.hashCode() * 31 + uri.hashCode()) * 31 +
+                signature.hashCode();
+        }
+
+        /**
+         * Indicates whether some other object is equal to this one.
+         */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StyleSheetCacheKey)) {
+                return false;
+            }
+            StyleSheetCacheKey k = (StyleSheetCacheKey)obj;
+            return digest.equals(k.digest) && uri.equals(k.uri) &&
+                signature.equals(k.signature);
+        }
+    }
+
+    /**
+     * An entry of the style declaration cache.
+     */
+    protected static class StyleDeclarationCacheEntry {
+
+        /**
+         * The parsed declaration.
+         */
+        public StyleDeclaration styleDeclaration;
+
+        /**
+         * Whether the values were resolved against the base URI.
+         */
+        public boolean baseURIDependent;
+
+        /**
+         * The base URI the values were resolved against.
+         */
+        public ParsedURL baseURI;
+    }
+
     /**
      * Provides an (empty) adapter for the DocumentHandler interface.
      * Most methods just throw an UnsupportedOperationException, so
@@ -1884,10 +2835,13 @@ public abstract class CSSEngine {
             if (prevValue != null && prevValue.length() > 0) {
                 // Check if the style map has cascaded styles which
                 // come from the inline style attribute or override style.
+                // The values of a map cascaded again by an invalidation
+                // may not be computed yet, so the origin alone is tested.
                 for (int i = getNumberOfProperties() - 1; i >= 0; --i) {
-                    if (style.isComputed(i) && !updated[i]) {
+                    if (!updated[i]) {
                         short origin = style.getOrigin(i);
-                        if (origin >= StyleMap.INLINE_AUTHOR_ORIGIN) {     // ToDo Jlint says: always same result ??
+                        if (origin == StyleMap.INLINE_AUTHOR_ORIGIN ||
+                            origin == StyleMap.OVERRIDE_ORIGIN) {
                             removed = true;
                             updated[i] = true;
                         }
@@ -1963,6 +2917,20 @@ public abstract class CSSEngine {
                                         int [] properties,
                                         boolean [] updated,
                                         boolean recascade) {
+        invalidateProperties(node, properties, updated, recascade,
+                             recascade);
+    }
+
+    /**
+     * Invalidates all the properties of the given node.
+     * @param recascadeDescendants Whether the stylesheets must be
+     *        applied again to the descendants of the node.
+     */
+    protected void invalidateProperties(Node node,
+                                        int [] properties,
+                                        boolean [] updated,
+                                        boolean recascade,
+                                        boolean recascadeDescendants) {
 
         if (!(node instanceof CSSStylableElement))
             return;  // Not Stylable sub tree
@@ -1983,12 +2951,23 @@ public abstract class CSSEngine {
         }
         int count =0;
         if (!recascade) {
+            skippedElementCount++;
             for (int i=0; i<diffs.length; i++) {
                 if (diffs[i]) {
+                    if (style.isComputed(i)) {
+                        if (!style.isParentRelative(i)) {
+                            // The parent value is not used.
+                            diffs[i] = false;
+                            continue;
+                        }
+                        style = getUnsharedStyleMap(elt);
+                        clearComputedValue(style, i);
+                    }
                     count++;
                 }
             }
         } else {
+            restyledElementCount++;
             StyleMap newStyle = getCascadedStyleMap(elt, null);
             elt.setComputedStyleMap(null, newStyle);
             for (int i=0; i<diffs.length; i++) {
@@ -2029,7 +3008,7 @@ public abstract class CSSEngine {
                     props[count++] = i;
             }
         }
-        propagateChanges(elt, props, recascade);
+        propagateChanges(elt, props, recascadeDescendants);
     }
 
     /**
@@ -2044,7 +3023,7 @@ public abstract class CSSEngine {
         if (!(node instanceof CSSStylableElement))
             return;
         CSSStylableElement elt = (CSSStylableElement)node;
-        StyleMap style = elt.getComputedStyleMap(null);
+        StyleMap style = getUnsharedStyleMap(elt);
         if (style != null) {
             boolean[] updated =
                 styleDeclarationUpdateHandler.updatedProperties;
@@ -2098,7 +3077,7 @@ public abstract class CSSEngine {
         }
 
         int [] inherited = props;
-        if (props != null) {
+        if (props != null && recascade) {
             // Filter out uninheritable properties when we
             // propogate to children.
             int count = 0;
@@ -2120,6 +3099,11 @@ public abstract class CSSEngine {
             }
         }
 
+        if (inherited == null && !recascade) {
+            // Nothing can change in the descendants.
+            return;
+        }
+
         for (Node n = getCSSFirstChild(node);
              n != null;
              n = getCSSNextSibling(n)) {
@@ -2316,6 +3300,11 @@ public abstract class CSSEngine {
                     || attrNS != null && attrNS.equals(styleNamespaceURI)) {
                 if (name.equals(styleLocalName)) {
                     // The style declaration attribute has been modified.
+                    if (batchingUpdates) {
+                        addPendingUpdate(elt, false);
+                        return;
+                    }
+                    style = getUnsharedStyleMap(elt);
                     inlineStyleAttributeUpdated
                         (elt, style, attrChange, prevValue, newValue);
                     return;
@@ -2329,6 +3318,11 @@ public abstract class CSSEngine {
                     if (nonCSSPresentationalHints.contains(name)) {
                         // The 'name' attribute which represents a non CSS
                         // presentational hint has been modified.
+                        if (batchingUpdates) {
+                            addPendingUpdate(elt, false);
+                            return;
+                        }
+                        style = getUnsharedStyleMap(elt);
                         nonCSSPresentationalHintUpdated
                             (elt, style, name, attrChange, newValue);
                         return;
@@ -2337,23 +3331,174 @@ public abstract class CSSEngine {
             }
         }
 
-        if (selectorAttributes != null &&
-            selectorAttributes.contains(name)) {
-            // An attribute has been modified, invalidate all the
-            // properties to correctly match attribute selectors.
-            invalidateProperties(elt, null, null, true);
-            for (Node n = getCSSNextSibling(elt);
-                 n != null;
-                 n = getCSSNextSibling(n)) {
-                invalidateProperties(n, null, null, true);
+        if (selectorInvalidations != null) {
+            int inv = getSelectorInvalidations(name, prevValue, newValue);
+            if (inv == 0) {
+                // No selector can start or stop matching.
+                return;
+            }
+            boolean siblings = (inv & INVALIDATE_SIBLINGS) != 0;
+            if (batchingUpdates) {
+                addPendingUpdate(elt, siblings);
+                return;
+            }
+            // An attribute has been modified, invalidate the properties
+            // of the elements the attribute selectors can match
+            // differently.
+            if ((inv & (INVALIDATE_ELEMENT | INVALIDATE_DESCENDANTS)) != 0) {
+                invalidateProperties(elt, null, null, true,
+                                     (inv & INVALIDATE_DESCENDANTS) != 0);
+            } else {
+                skippedElementCount++;
+            }
+            if (siblings) {
+                for (Node n = getCSSNextSibling(elt);
+                     n != null;
+                     n = getCSSNextSibling(n)) {
+                    invalidateProperties(n, null, null, true);
+                }
             }
         }
     }
 
+    /**
+     * Returns the number of elements recascaded by dynamic updates
+     * since the creation of this engine or the last call to {@link
+     * #resetUpdateCounters()}.
+     */
+    public int getRestyledElementCount() {
+        return restyledElementCount;
+    }
+
+    /**
+     * Returns the number of elements reached by dynamic updates whose
+     * matching rules did not have to be computed again, since the
+     * creation of this engine or the last call to {@link
+     * #resetUpdateCounters()}.
+     */
+    public int getSkippedElementCount() {
+        return skippedElementCount;
+    }
+
+    /**
+     * Resets the restyled and skipped element counters.
+     */
+    public void resetUpdateCounters() {
+        restyledElementCount = 0;
+        skippedElementCount = 0;
+    }
+
+    /**
+     * Sets whether attribute modifications are batched.  When they are,
+     * the elements whose style attribute, presentational hints or
+     * selector attributes change are only recorded, and are recascaded
+     * once each by {@link #flushPendingUpdates()}.  Node insertions and
+     * removals, and {@link #getComputedStyle(CSSStylableElement,String,int)},
+     * flush the recorded modifications first.  Turning batching off
+     * flushes them too.
+     */
+    public void setBatchingUpdates(boolean b) {
+        batchingUpdates = b;
+        if (!b) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Returns whether attribute modifications are batched.
+     */
+    public boolean isBatchingUpdates() {
+        return batchingUpdates;
+    }
+
+    /**
+     * Returns whether attribute modifications are waiting for
+     * {@link #flushPendingUpdates()}.
+     */
+    public boolean hasPendingUpdates() {
+        return pendingUpdates != null;
+    }
+
+    /**
+     * Records an element whose attributes were modified while batching.
+     * @param siblings Whether the element's following siblings must be
+     *        invalidated as well.
+     */
+    protected void addPendingUpdate(CSSStylableElement elt,
+                                    boolean siblings) {
+        if (pendingUpdates == null) {
+            pendingUpdates = new LinkedHashMap();
+        }
+        if (siblings) {
+            pendingUpdates.put(elt, Boolean.TRUE);
+        } else if (!pendingUpdates.containsKey(elt)) {
+            pendingUpdates.put(elt, Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Recascades the elements recorded while batching, firing at most
+     * one CSSEngineEvent for each element whose properties changed.
+     * An element is skipped when one of its ancestors is recorded too,
+     * since recascading the ancestor also recascades its descendants.
+     */
+    public void flushPendingUpdates() {
+        Map pending = pendingUpdates;
+        if (pending == null) {
+            return;
+        }
+        pendingUpdates = null;
+
+        Set done = new HashSet();
+        Iterator it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry e = (Map.Entry) it.next();
+            CSSStylableElement elt = (CSSStylableElement) e.getKey();
+            if (hasPendingAncestor(elt, pending)) {
+                // The ancestor also recascades the siblings.
+                continue;
+            }
+            if (done.add(elt)) {
+                invalidateProperties(elt, null, null, true);
+            }
+            if (e.getValue() == Boolean.TRUE) {
+                // The siblings that follow a sibling which is itself
+                // recorded are left to that sibling.
+                for (Node n = getCSSNextSibling(elt);
+                     n != null;
+                     n = getCSSNextSibling(n)) {
+                    if (done.add(n)) {
+                        invalidateProperties(n, null, null, true);
+                    }
+                    if (pending.get(n) == Boolean.TRUE) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether an ancestor of the given element, with a computed
+     * style, is a key of the given map.
+     */
+    protected boolean hasPendingAncestor(Node n, Map pending) {
+        for (Node p = getCSSParentNode(n); p != null; p = getCSSParentNode(p)) {
+            if (pending.containsKey(p) &&
+                ((CSSStylableElement) p).getComputedStyleMap(null) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Handles a node insertion in the document.
      */
     protected void handleNodeInserted(Node n) {
+        if (pendingUpdates != null) {
+            flushPendingUpdates();
+        }
         if (hasStyleSheetNode(n)) {
             // Invalidate all the CSSStylableElements in the document.
             styleSheetNodes = null;
@@ -2374,6 +3519,9 @@ public abstract class CSSEngine {
      * Handles a node removal from the document.
      */
     protected void handleNodeRemoved(Node n) {
+        if (pendingUpdates != null) {
+            flushPendingUpdates();
+        }
         if (hasStyleSheetNode(n)) {
             // Wait for the DOMSubtreeModified to do the invalidations
             // because at this time the node is in the tree.
@@ -2416,6 +3564,9 @@ public abstract class CSSEngine {
      * Handles a character data modification in the document.
      */
     protected void handleCharacterDataModified(Node n) {
+        if (pendingUpdates != null) {
+            flushPendingUpdates();
+        }
         if (getCSSParentNode(n) instanceof CSSStyleSheetNode) {
             // Invalidate all the CSSStylableElements in the document.
             styleSheetNodes = null;
@@ -72,6 +72,11 @@ public class StyleMap {
      */
     protected boolean fixedCascadedValues;
 
+    /**
+     * Whether this map may be the computed style map of several elements.
+     */
+    protected boolean shared;
+
     /**
      * Creates a new StyleMap.
      */
@@ -80,6 +85,31 @@ public class StyleMap {
         masks = new short[size];
     }
 
+    /**
+     * Creates a new, unshared, StyleMap holding the values of the given
+     * one.
+     */
+    public StyleMap(StyleMap sm) {
+        values = (Value[])sm.values.clone();
+        masks = (short[])sm.masks.clone();
+        fixedCascadedValues = sm.fixedCascadedValues;
+    }
+
+    /**
+     * Whether this map may be the computed style map of several elements.
+     * Such a map must be copied before being modified for one of them.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Sets the shared property.
+     */
+    public void setShared(boolean b) {
+        shared = b;
+    }
+
     /**
      * Whether this map has fixed cascaded value.
      */
@@ -48,6 +48,13 @@ public abstract class AbstractSiblingSelector
      */
     protected SimpleSelector simpleSelector;
 
+    /**
+     * The hashes the ancestors must have for this selector to match,
+     * computed by {@link AncestorFilter}.  The selectors of the cached
+     * style sheets are shared between threads.
+     */
+    protected volatile int[] ancestorHashes;
+
     /**
      * Creates a new SiblingSelector object.
      */
@@ -0,0 +1,263 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine.sac;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.css.engine.CSSStylableElement;
+
+import org.w3c.css.sac.AttributeCondition;
+import org.w3c.css.sac.CombinatorCondition;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.ConditionalSelector;
+import org.w3c.css.sac.DescendantSelector;
+import org.w3c.css.sac.ElementSelector;
+import org.w3c.css.sac.Selector;
+import org.w3c.css.sac.SiblingSelector;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A Bloom filter of the names, ids and classes of the ancestors of an
+ * element.  It is used to reject, without walking the document, the
+ * descendant and child selectors that require an ancestor the element
+ * does not have.  The filter is only computed when a selector with
+ * such a requirement is tested.
+ *
+ * @version $Id$
+ */
+public class AncestorFilter {
+
+    /**
+     * The number of bits of the filter.
+     */
+    protected static final int SIZE = 256;
+
+    /**
+     * The empty hash list of the selectors without ancestor requirement.
+     */
+    protected static final int[] NO_HASHES = new int[0];
+
+    /**
+     * The element whose ancestors are in this filter.
+     */
+    protected Element element;
+
+    /**
+     * The bits, or null if not computed yet.
+     */
+    protected int[] bits;
+
+    /**
+     * Creates a new AncestorFilter for the ancestors of the given element.
+     */
+    public AncestorFilter(Element e) {
+        element = e;
+    }
+
+    /**
+     * Returns false if the given selector cannot match the element of
+     * this filter because of its ancestors.  Returns true if it may
+     * match.
+     */
+    public boolean mightMatch(Selector s) {
+        int[] hashes;
+        if (s instanceof AbstractDescendantSelector) {
+            AbstractDescendantSelector ds = (AbstractDescendantSelector)s;
+            hashes = ds.ancestorHashes;
+            if (hashes == null) {
+                hashes = getAncestorHashes(s);
+                ds.ancestorHashes = hashes;
+            }
+        } else if (s instanceof AbstractSiblingSelector) {
+            AbstractSiblingSelector ss = (AbstractSiblingSelector)s;
+            hashes = ss.ancestorHashes;
+            if (hashes == null) {
+                hashes = getAncestorHashes(s);
+                ss.ancestorHashes = hashes;
+            }
+        } else {
+            return true;
+        }
+        if (hashes.length == 0) {
+            return true;
+        }
+        if (bits == null) {
+            bits = new int[SIZE / 32];
+            for (Node n = element.getParentNode();
+                 n != null;
+                 n = n.getParentNode()) {
+                if (n.getNodeType() == Node.ELEMENT_NODE) {
+                    addElement((Element)n);
+                }
+            }
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            int h = hashes[i];
+            int b1 = h & (SIZE - 1);
+            int b2 = (h >>> 8) & (SIZE - 1);
+            if ((bits[b1 >>> 5] & (1 << (b1 & 31))) == 0 ||
+                (bits[b2 >>> 5] & (1 << (b2 & 31))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the name, id and classes of the given element to the filter.
+     */
+    protected void addElement(Element e) {
+        String name = (e.getPrefix() == null)
+            ? e.getNodeName()
+            : e.getLocalName();
+        add(hash(name, SAC_ELEMENT));
+        if (e instanceof CSSStylableElement) {
+            CSSStylableElement se = (CSSStylableElement)e;
+            String id = se.getXMLId();
+            if (id != null && id.length() > 0) {
+                add(hash(id, Condition.SAC_ID_CONDITION));
+            }
+            String c = se.getCSSClass();
+            if (c != null) {
+                int len = c.length();
+                int start = -1;
+                for (int i = 0; i <= len; i++) {
+                    if (i == len || Character.isSpaceChar(c.charAt(i))) {
+                        if (start != -1) {
+                            add(hash(c.substring(start, i),
+                                     Condition.SAC_CLASS_CONDITION));
+                            start = -1;
+                        }
+                    } else if (start == -1) {
+                        start = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the bits of the given hash.
+     */
+    protected void add(int h) {
+        int b1 = h & (SIZE - 1);
+        int b2 = (h >>> 8) & (SIZE - 1);
+        bits[b1 >>> 5] |= 1 << (b1 & 31);
+        bits[b2 >>> 5] |= 1 << (b2 & 31);
+    }
+
+    /**
+     * The kind of the element name hashes.
+     */
+    protected static final int SAC_ELEMENT = 0;
+
+    /**
+     * Returns the hash of a name, id or class.
+     * @param kind SAC_ELEMENT, SAC_ID_CONDITION or SAC_CLASS_CONDITION.
+     */
+    protected static int hash(String s, int kind) {
+        return (s.hashCode() * 31 + kind) * 0x9E3779B9;
+    }
+
+    /**
+     * Returns the hashes of the names, ids and classes an ancestor of
+     * the elements matched by the given selector must have.
+     */
+    public static int[] getAncestorHashes(Selector s) {
+        List l = new ArrayList();
+        addSubjectAncestorHashes(l, s);
+        int len = l.size();
+        if (len == 0) {
+            return NO_HASHES;
+        }
+        int[] result = new int[len];
+        for (int i = 0; i < len; i++) {
+            result[i] = ((Integer)l.get(i)).intValue();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the hashes required on the ancestors of the elements
+     * matched by the given selector.
+     */
+    protected static void addSubjectAncestorHashes(List l, Selector s) {
+        switch (s.getSelectorType()) {
+        case Selector.SAC_CHILD_SELECTOR:
+        case Selector.SAC_DESCENDANT_SELECTOR:
+            addAncestorHashes(l, ((DescendantSelector)s).getAncestorSelector());
+            break;
+        case Selector.SAC_DIRECT_ADJACENT_SELECTOR:
+            // The siblings have the same ancestors.
+            addSubjectAncestorHashes(l, ((SiblingSelector)s).getSelector());
+            break;
+        }
+    }
+
+    /**
+     * Adds the hashes required by the given selector on an ancestor,
+     * and on the ancestors of that ancestor.
+     */
+    protected static void addAncestorHashes(List l, Selector s) {
+        switch (s.getSelectorType()) {
+        case Selector.SAC_ELEMENT_NODE_SELECTOR:
+            String name = ((ElementSelector)s).getLocalName();
+            if (name != null) {
+                l.add(new Integer(hash(name, SAC_ELEMENT)));
+            }
+            break;
+        case Selector.SAC_CONDITIONAL_SELECTOR:
+            ConditionalSelector cs = (ConditionalSelector)s;
+            addAncestorHashes(l, cs.getSimpleSelector());
+            addConditionHashes(l, cs.getCondition());
+            break;
+        case Selector.SAC_CHILD_SELECTOR:
+        case Selector.SAC_DESCENDANT_SELECTOR:
+            DescendantSelector ds = (DescendantSelector)s;
+            addAncestorHashes(l, ds.getAncestorSelector());
+            addAncestorHashes(l, ds.getSimpleSelector());
+            break;
+        case Selector.SAC_DIRECT_ADJACENT_SELECTOR:
+            SiblingSelector ss = (SiblingSelector)s;
+            addAncestorHashes(l, ss.getSiblingSelector());
+            addSubjectAncestorHashes(l, ss.getSelector());
+            break;
+        }
+    }
+
+    /**
+     * Adds the hashes required by the given condition.
+     */
+    protected static void addConditionHashes(List l, Condition c) {
+        switch (c.getConditionType()) {
+        case Condition.SAC_AND_CONDITION:
+            CombinatorCondition cc = (CombinatorCondition)c;
+            addConditionHashes(l, cc.getFirstCondition());
+            addConditionHashes(l, cc.getSecondCondition());
+            break;
+        case Condition.SAC_ID_CONDITION:
+        case Condition.SAC_CLASS_CONDITION:
+            String v = ((AttributeCondition)c).getValue();
+            l.add(new Integer(hash(v, c.getConditionType())));
+            break;
+        }
+    }
+}
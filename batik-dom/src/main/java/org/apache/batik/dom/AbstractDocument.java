@@ -36,6 +36,7 @@ import org.apache.batik.dom.events.DocumentEventSupport;
 import org.apache.batik.dom.events.EventSupport;
 import org.apache.batik.dom.traversal.TraversalSupport;
 import org.apache.batik.dom.util.DOMUtilities;
+import org.apache.batik.dom.util.IntTable;
 import org.apache.batik.dom.xbl.GenericXBLManager;
 import org.apache.batik.dom.xbl.XBLManager;
 import org.apache.batik.i18n.Localizable;
@@ -126,6 +127,18 @@ public abstract class AbstractDocument
      */
     protected transient boolean eventsEnabled;
 
+    /**
+     * The number of event listeners registered in this document, by
+     * event type.
+     */
+    protected transient IntTable eventListenerCounts;
+
+    /**
+     * Incremented each time a node is inserted in or removed from a
+     * node of this document.
+     */
+    protected transient int treeVersion;
+
     /**
      * The ElementsByTagName lists.
      */
@@ -258,6 +271,53 @@ public abstract class AbstractDocument
         eventsEnabled = b;
     }
 
+    /**
+     * Returns whether an event listener for the given event type may
+     * be registered on a node of this document.
+     */
+    public boolean hasEventListeners(String type) {
+        return eventListenerCounts != null
+            && eventListenerCounts.get(type) > 0;
+    }
+
+    /**
+     * Records that an event listener for the given type was registered
+     * on a node of this document.
+     */
+    public void eventListenerAdded(String type) {
+        if (eventListenerCounts == null) {
+            eventListenerCounts = new IntTable();
+        }
+        eventListenerCounts.inc(type);
+    }
+
+    /**
+     * Records that an event listener for the given type was removed
+     * from a node of this document.
+     */
+    public void eventListenerRemoved(String type) {
+        if (eventListenerCounts != null
+                && eventListenerCounts.get(type) > 0) {
+            eventListenerCounts.dec(type);
+        }
+    }
+
+    /**
+     * Returns the current version of the tree structure of this
+     * document.  Event propagation paths computed for an earlier
+     * version are stale.
+     */
+    public int getTreeVersion() {
+        return treeVersion;
+    }
+
+    /**
+     * Called when a node of this document gets or loses a parent.
+     */
+    public void treeModified() {
+        treeVersion++;
+    }
+
     /**
      * <b>DOM</b>: Implements {@link org.w3c.dom.Node#getNodeName()}.
      * @return "#document".
@@ -994,6 +1054,9 @@ public abstract class AbstractDocument
      * Helper function for {@link #adoptNode(Node)}.
      */
     protected void adoptNode1(AbstractNode n) {
+        if (n.eventSupport != null) {
+            n.eventSupport.moveEventListenerCounts(n.ownerDocument, this);
+        }
         n.ownerDocument = this;
         switch (n.getNodeType()) {
             case Node.ATTRIBUTE_NODE:
@@ -99,6 +99,7 @@ public abstract class AbstractParentNode extends AbstractNode {
             ExtendedNode n = childNodes.insert((ExtendedNode)newChild,
                                                (ExtendedNode)refChild);
             n.setParentNode(this);
+            getCurrentDocument().treeModified();
 
             nodeAdded(n);
 
@@ -154,6 +155,7 @@ public abstract class AbstractParentNode extends AbstractNode {
         ExtendedNode o = childNodes.replace(n, (ExtendedNode)oldChild);
         n.setParentNode(this);
         o.setParentNode(null);
+        getCurrentDocument().treeModified();
 
         nodeAdded(n);
 
@@ -190,6 +192,7 @@ public abstract class AbstractParentNode extends AbstractNode {
         // Node modification
         ExtendedNode result = childNodes.remove((ExtendedNode)oldChild);
         result.setParentNode(null);
+        getCurrentDocument().treeModified();
 
         // Mutation event
         fireDOMSubtreeModifiedEvent();
@@ -217,6 +220,7 @@ public abstract class AbstractParentNode extends AbstractNode {
             // Node modification
             ExtendedNode n = childNodes.append((ExtendedNode)newChild);
             n.setParentNode(this);
+            getCurrentDocument().treeModified();
 
             nodeAdded(n);
 
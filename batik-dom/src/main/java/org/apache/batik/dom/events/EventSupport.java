@@ -58,6 +58,16 @@ public class EventSupport {
      */
     protected AbstractNode node;
 
+    /**
+     * The ancestors of the node, as computed by the last dispatch.
+     */
+    protected NodeEventTarget[] propagationPath;
+
+    /**
+     * The document tree version for which the ancestors were computed.
+     */
+    protected int propagationPathVersion;
+
     /**
      * Creates a new EventSupport object.
      * @param n the node for which events are being handled
@@ -124,7 +134,14 @@ public class EventSupport {
             list = new EventListenerList();
             listeners.put(type, list);
         }
+        int size = list.size();
         list.addListener(namespaceURI, group, listener);
+        if (list.size() != size) {
+            AbstractDocument doc = getDocument();
+            if (doc != null) {
+                doc.eventListenerAdded(type);
+            }
+        }
     }
 
     /**
@@ -177,13 +194,70 @@ public class EventSupport {
         }
         EventListenerList list = (EventListenerList) listeners.get(type);
         if (list != null) {
+            int size = list.size();
             list.removeListener(namespaceURI, listener);
+            if (list.size() != size) {
+                AbstractDocument doc = getDocument();
+                if (doc != null) {
+                    doc.eventListenerRemoved(type);
+                }
+            }
             if (list.size() == 0) {
                 listeners.remove(type);
             }
         }
     }
 
+    /**
+     * Moves the counts of the event listeners registered on the node
+     * from one document to another.  Used by {@link
+     * org.apache.batik.dom.AbstractDocument#adoptNode(Node)}.
+     */
+    public void moveEventListenerCounts(AbstractDocument from,
+                                        AbstractDocument to) {
+        propagationPath = null;
+        if (from == to) {
+            return;
+        }
+        moveEventListenerCounts(capturingListeners, from, to);
+        moveEventListenerCounts(bubblingListeners, from, to);
+    }
+
+    /**
+     * Moves the counts of the given listeners from one document to
+     * another.
+     */
+    protected void moveEventListenerCounts(HashTable listeners,
+                                           AbstractDocument from,
+                                           AbstractDocument to) {
+        if (listeners == null) {
+            return;
+        }
+        int len = listeners.size();
+        for (int i = 0; i < len; i++) {
+            String type = (String) listeners.key(i);
+            int n = ((EventListenerList) listeners.item(i)).size();
+            for (int j = 0; j < n; j++) {
+                if (from != null) {
+                    from.eventListenerRemoved(type);
+                }
+                if (to != null) {
+                    to.eventListenerAdded(type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the document the node belongs to, or null.
+     */
+    protected AbstractDocument getDocument() {
+        if (node.getNodeType() == Node.DOCUMENT_NODE) {
+            return (AbstractDocument) node;
+        }
+        return (AbstractDocument) node.getOwnerDocument();
+    }
+
     /**
      * Moves all of the event listeners from this EventSupport object
      * to the given EventSupport object.
@@ -246,8 +320,18 @@ public class EventSupport {
         e.stopPropagation(false);
         e.stopImmediatePropagation(false);
         e.preventDefault(false);
+        AbstractDocument doc = getDocument();
+        if (doc != null && target == node
+                && !doc.hasEventListeners(type)) {
+            // No node of the document listens to this type of event,
+            // so there is no propagation path to walk.
+            e.setEventPhase(Event.AT_TARGET);
+            e.setCurrentTarget(target);
+            runDefaultActions(e);
+            return e.getDefaultPrevented();
+        }
         // dump the tree hierarchy from top to the target
-        NodeEventTarget[] ancestors = getAncestors(target);
+        NodeEventTarget[] ancestors = getPropagationPath(target, doc);
         // CAPTURING_PHASE : fire event listeners from top to EventTarget
         e.setEventPhase(Event.CAPTURING_PHASE);
         HashSet stoppedGroups = new HashSet();
@@ -367,6 +451,24 @@ public class EventSupport {
                            toBeStoppedGroups);
     }
 
+    /**
+     * Returns the ancestors of the specified node, reusing the ones
+     * computed by the previous dispatch if the document tree has not
+     * been modified since.
+     */
+    protected NodeEventTarget[] getPropagationPath(NodeEventTarget target,
+                                                   AbstractDocument doc) {
+        if (doc == null || target != node) {
+            return getAncestors(target);
+        }
+        int version = doc.getTreeVersion();
+        if (propagationPath == null || propagationPathVersion != version) {
+            propagationPath = getAncestors(target);
+            propagationPathVersion = version;
+        }
+        return propagationPath;
+    }
+
     /**
      * Returns all ancestors of the specified node.
      */
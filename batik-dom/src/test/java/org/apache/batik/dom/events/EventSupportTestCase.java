@@ -0,0 +1,275 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.dom.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.dom.AbstractDocument;
+import org.apache.batik.dom.GenericDOMImplementation;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the per document event listener counts that let {@link
+ * EventSupport} skip the propagation of events nobody listens to, and
+ * the propagation paths it reuses from one dispatch to the next.
+ *
+ * @version $Id$
+ */
+public class EventSupportTestCase {
+
+    private static final String TYPE = "foo";
+
+    private static AbstractDocument createDocument() {
+        return (AbstractDocument) GenericDOMImplementation
+            .getDOMImplementation().createDocument(null, "root", null);
+    }
+
+    /**
+     * Records the nodes it is called on.
+     */
+    static class Recorder implements EventListener {
+        List targets = new ArrayList();
+        public void handleEvent(Event evt) {
+            targets.add(((Element) evt.getCurrentTarget()).getTagName());
+        }
+    }
+
+    private static AbstractEvent createEvent(AbstractDocument doc) {
+        AbstractEvent e = (AbstractEvent) doc.createEvent("Events");
+        e.initEvent(TYPE, true, true);
+        return e;
+    }
+
+    private static void listen(Node n, EventListener l, boolean capture) {
+        ((EventTarget) n).addEventListener(TYPE, l, capture);
+    }
+
+    private static void unlisten(Node n, EventListener l, boolean capture) {
+        ((EventTarget) n).removeEventListener(TYPE, l, capture);
+    }
+
+    @Test
+    public void testCounts() {
+        AbstractDocument doc = createDocument();
+        Element a = doc.createElementNS(null, "a");
+        doc.getDocumentElement().appendChild(a);
+        EventListener l = new Recorder();
+        assertFalse(doc.hasEventListeners(TYPE));
+
+        // A duplicate is not registered, so is not counted.
+        listen(a, l, false);
+        listen(a, l, false);
+        assertTrue(doc.hasEventListeners(TYPE));
+        unlisten(a, l, false);
+        assertFalse(doc.hasEventListeners(TYPE));
+
+        // Removing a listener that is not there changes nothing.
+        EventListener l2 = new Recorder();
+        listen(a, l2, false);
+        unlisten(a, l, false);
+        assertTrue(doc.hasEventListeners(TYPE));
+        unlisten(a, l2, false);
+        assertFalse(doc.hasEventListeners(TYPE));
+        listen(a, l, false);
+
+        // The same listener for both phases counts twice.
+        listen(a, l, true);
+        unlisten(a, l, false);
+        assertTrue(doc.hasEventListeners(TYPE));
+        assertFalse(doc.hasEventListeners("bar"));
+        unlisten(a, l, true);
+        assertFalse(doc.hasEventListeners(TYPE));
+
+        // Listeners on the document node and on nodes out of the tree.
+        listen(doc, l, false);
+        Element b = doc.createElementNS(null, "b");
+        listen(b, l, false);
+        unlisten(doc, l, false);
+        assertTrue(doc.hasEventListeners(TYPE));
+        unlisten(b, l, false);
+        assertFalse(doc.hasEventListeners(TYPE));
+    }
+
+    @Test
+    public void testAdoptNode() {
+        AbstractDocument doc1 = createDocument();
+        AbstractDocument doc2 = createDocument();
+        Element a = doc1.createElementNS(null, "a");
+        Element b = doc1.createElementNS(null, "b");
+        doc1.getDocumentElement().appendChild(a);
+        a.appendChild(b);
+        Recorder l = new Recorder();
+        listen(a, l, true);
+        listen(b, l, false);
+        Recorder other = new Recorder();
+        listen(doc1.getDocumentElement(), other, false);
+
+        // The counts move with the whole subtree.
+        doc2.adoptNode(a);
+        assertTrue(doc1.hasEventListeners(TYPE));
+        unlisten(doc1.getDocumentElement(), other, false);
+        assertFalse(doc1.hasEventListeners(TYPE));
+        assertTrue(doc2.hasEventListeners(TYPE));
+
+        doc2.getDocumentElement().appendChild(a);
+        ((EventTarget) b).dispatchEvent(createEvent(doc2));
+        assertEquals("[a, b]", l.targets.toString());
+        assertEquals(0, other.targets.size());
+
+        unlisten(a, l, true);
+        assertTrue(doc2.hasEventListeners(TYPE));
+        unlisten(b, l, false);
+        assertFalse(doc2.hasEventListeners(TYPE));
+        assertFalse(doc1.hasEventListeners(TYPE));
+    }
+
+    /**
+     * Builds <code>root(p1(t, y), p2(x))</code> with a capturing
+     * listener on every element but <code>t</code>, and dispatches an
+     * event to <code>t</code> so its propagation path is cached.
+     */
+    private static Element[] createTree(AbstractDocument doc, Recorder l) {
+        String[] names = { "root", "p1", "p2", "t", "x", "y" };
+        Element[] e = new Element[names.length];
+        e[0] = doc.getDocumentElement();
+        for (int i = 1; i < names.length; i++)
+            e[i] = doc.createElementNS(null, names[i]);
+        e[0].appendChild(e[1]);
+        e[0].appendChild(e[2]);
+        e[1].appendChild(e[3]);
+        e[1].appendChild(e[5]);
+        e[2].appendChild(e[4]);
+        for (int i = 0; i < names.length; i++)
+            if (i != 3)
+                listen(e[i], l, true);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[root, p1]", l.targets.toString());
+        l.targets.clear();
+        return e;
+    }
+
+    @Test
+    public void testPathAfterInsertBefore() {
+        AbstractDocument doc = createDocument();
+        Recorder l = new Recorder();
+        Element[] e = createTree(doc, l);
+        // Caches the path in the detached p1.
+        e[0].removeChild(e[1]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[p1]", l.targets.toString());
+        l.targets.clear();
+
+        e[0].insertBefore(e[1], e[2]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[root, p1]", l.targets.toString());
+    }
+
+    @Test
+    public void testPathAfterReplaceChild() {
+        AbstractDocument doc = createDocument();
+        Recorder l = new Recorder();
+        Element[] e = createTree(doc, l);
+        e[1].replaceChild(doc.createElementNS(null, "z"), e[3]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[]", l.targets.toString());
+    }
+
+    @Test
+    public void testPathAfterRemoveChild() {
+        AbstractDocument doc = createDocument();
+        Recorder l = new Recorder();
+        Element[] e = createTree(doc, l);
+        e[1].removeChild(e[3]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[]", l.targets.toString());
+    }
+
+    @Test
+    public void testPathAfterAncestorMoved() {
+        AbstractDocument doc = createDocument();
+        Recorder l = new Recorder();
+        Element[] e = createTree(doc, l);
+        e[0].removeChild(e[1]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        l.targets.clear();
+
+        // The parent of the target is unchanged, not its ancestors.
+        e[4].appendChild(e[1]);
+        ((EventTarget) e[3]).dispatchEvent(createEvent(doc));
+        assertEquals("[root, p2, x, p1]", l.targets.toString());
+    }
+
+    @Test
+    public void testDefaultActions() {
+        AbstractDocument doc = createDocument();
+        final Element a = doc.createElementNS(null, "a");
+        doc.getDocumentElement().appendChild(a);
+        final int[] runs = new int[1];
+        Runnable action = new Runnable() {
+                public void run() {
+                    runs[0]++;
+                }
+            };
+
+        // Nobody listens to the event.
+        AbstractEvent e = createEvent(doc);
+        e.addDefaultAction(action);
+        ((EventTarget) a).dispatchEvent(e);
+        assertEquals(1, runs[0]);
+        assertTrue(e.getTarget() == a);
+
+        // Only listeners for other types.
+        Recorder other = new Recorder();
+        ((EventTarget) a).addEventListener("bar", other, false);
+        e = createEvent(doc);
+        e.addDefaultAction(action);
+        ((EventTarget) a).dispatchEvent(e);
+        assertEquals(2, runs[0]);
+
+        // A listener that cancels it, then none again.
+        EventListener cancel = new EventListener() {
+                public void handleEvent(Event evt) {
+                    evt.preventDefault();
+                }
+            };
+        listen(doc.getDocumentElement(), cancel, false);
+        e = createEvent(doc);
+        e.addDefaultAction(action);
+        ((EventTarget) a).dispatchEvent(e);
+        assertEquals(2, runs[0]);
+
+        unlisten(doc.getDocumentElement(), cancel, false);
+        e = createEvent(doc);
+        e.addDefaultAction(action);
+        ((EventTarget) a).dispatchEvent(e);
+        assertEquals(3, runs[0]);
+        assertEquals(0, other.targets.size());
+    }
+}
@@ -80,7 +80,7 @@ public class FillShapePainter implements ShapePainter {
     public void paint(Graphics2D g2d) {
         if (paint != null) {
             g2d.setPaint(paint);
-            g2d.fill(shape);
+            g2d.fill(getShape(g2d));
         }
     }
 
@@ -153,6 +153,17 @@ public class FillShapePainter implements ShapePainter {
         this.shape = shape;
     }
 
+    /**
+     * Returns the outline to fill with the given Graphics2D: the
+     * shape, or a simplified outline when shape simplification is on.
+     */
+    protected Shape getShape(Graphics2D g2d) {
+        if (!SimplifiedShapeCache.isEnabled(g2d)) {
+            return shape;
+        }
+        return SimplifiedShapeCache.getShape(shape, g2d.getTransform());
+    }
+
     /**
      * Gets the Shape this shape painter is associated with.
      *
@@ -0,0 +1,129 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.geom.ShapeSimplifier;
+
+/**
+ * Caches the simplified outlines the shape painters paint instead of
+ * their shape when the {@link RenderingHintsKeyExt#KEY_SHAPE_SIMPLIFICATION}
+ * hint is on.  Outlines are computed once per shape and scale bucket,
+ * with a tolerance below a quarter of a device pixel for every scale of
+ * the bucket, and shared by the fill and stroke painters of a shape.
+ *
+ * @version $Id$
+ */
+final class SimplifiedShapeCache {
+
+    /**
+     * The maximum deviation from the shape, in device pixels.
+     */
+    static final double TOLERANCE = 0.25;
+
+    /**
+     * The number of scale buckets per doubling of the scale.
+     */
+    static final int BUCKETS_PER_OCTAVE = 4;
+
+    /**
+     * The maximum number of outlines kept for a shape.
+     */
+    static final int MAX_OUTLINES = 8;
+
+    /**
+     * The value stored for the scales a shape is painted unchanged at.
+     * Storing the shape itself would keep it reachable from the cache.
+     */
+    private static final Object UNCHANGED = Boolean.FALSE;
+
+    /**
+     * The simplified outlines, by shape, then by scale bucket.
+     */
+    private static final Map outlines = new WeakHashMap();
+
+    private SimplifiedShapeCache() { }
+
+    /**
+     * Tests whether shapes may be simplified when painted with the
+     * given Graphics2D.
+     */
+    static boolean isEnabled(Graphics2D g2d) {
+        if (g2d.getRenderingHint(RenderingHintsKeyExt.KEY_SHAPE_SIMPLIFICATION)
+            != RenderingHintsKeyExt.VALUE_SHAPE_SIMPLIFICATION_ON) {
+            return false;
+        }
+        // Vector outputs are resolution independent.
+        Object trans = g2d.getRenderingHint
+            (RenderingHintsKeyExt.KEY_TRANSCODING);
+        return trans != RenderingHintsKeyExt.VALUE_TRANSCODING_PRINTING
+            && trans != RenderingHintsKeyExt.VALUE_TRANSCODING_VECTOR;
+    }
+
+    /**
+     * Returns the outline to paint for the given shape with the given
+     * device transform.
+     */
+    static Shape getShape(Shape shape, AffineTransform at) {
+        double a = at.getScaleX(), b = at.getShearY();
+        double c = at.getShearX(), d = at.getScaleY();
+        // The largest stretch of the transform.
+        double s2  = (a * a + b * b + c * c + d * d) / 2;
+        double det = a * d - b * c;
+        double scale = Math.sqrt(s2 + Math.sqrt(Math.max(0, s2 * s2 - det * det)));
+        if (!(scale > 0) || Double.isInfinite(scale)) {
+            return shape;
+        }
+        int bucket = (int) Math.ceil
+            (Math.log(scale) / Math.log(2) * BUCKETS_PER_OCTAVE);
+        Integer key = new Integer(bucket);
+        Map m;
+        synchronized (outlines) {
+            m = (Map) outlines.get(shape);
+            if (m == null) {
+                m = new HashMap();
+                outlines.put(shape, m);
+            }
+            Object s = m.get(key);
+            if (s == UNCHANGED) {
+                return shape;
+            }
+            if (s != null) {
+                return (Shape) s;
+            }
+        }
+        double tolerance = TOLERANCE
+            / Math.pow(2, bucket / (double) BUCKETS_PER_OCTAVE);
+        Shape s = ShapeSimplifier.simplify(shape, tolerance);
+        synchronized (outlines) {
+            if (m.size() == MAX_OUTLINES) {
+                m.clear();
+            }
+            m.put(key, (s == shape) ? UNCHANGED : s);
+        }
+        return s;
+    }
+}
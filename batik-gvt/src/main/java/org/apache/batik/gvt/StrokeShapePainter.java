@@ -18,6 +18,7 @@
  */
 package org.apache.batik.gvt;
 
+import java.awt.BasicStroke;
 import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.Shape;
@@ -110,7 +111,7 @@ public class StrokeShapePainter implements ShapePainter {
         if (stroke != null && paint != null) {
             g2d.setPaint(paint);
             g2d.setStroke(stroke);
-            g2d.draw(shape);
+            g2d.draw(getShape(g2d));
         }
     }
 
@@ -198,6 +199,20 @@ public class StrokeShapePainter implements ShapePainter {
         this.strokedShape = null;
     }
 
+    /**
+     * Returns the outline to draw with the given Graphics2D: the
+     * shape, or a simplified outline when shape simplification is on
+     * and the stroke is not dashed.
+     */
+    protected Shape getShape(Graphics2D g2d) {
+        if (!(stroke instanceof BasicStroke)
+            || ((BasicStroke) stroke).getDashArray() != null
+            || !SimplifiedShapeCache.isEnabled(g2d)) {
+            return shape;
+        }
+        return SimplifiedShapeCache.getShape(shape, g2d.getTransform());
+    }
+
     /**
      * Gets the Shape this shape painter is associated with.
      *
@@ -21,7 +21,10 @@ package org.apache.batik.gvt.flow;
 
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
@@ -65,35 +68,128 @@ public class TextLineBreaks {
         return cnt;
     }
 
+    /**
+     * The maximum number of paragraphs in the cache.
+     */
+    protected static final int PARAGRAPH_CACHE_SIZE = 32;
+
+    /**
+     * The length of the longest paragraph kept in the cache.
+     */
+    protected static final int PARAGRAPH_CACHE_MAX_LENGTH = 16384;
+
+    /**
+     * The word limits of the last paragraphs broken, keyed by content.
+     */
+    protected static final Map paragraphCache =
+        new LinkedHashMap(PARAGRAPH_CACHE_SIZE, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > PARAGRAPH_CACHE_SIZE;
+            }
+        };
+
     // handle spaces separately, all others by table
     // as - Attributed string to attribute with Word extents.
     public static void findLineBrk(AttributedString as) {
         AttributedCharacterIterator aci = as.getIterator();
         if (aci.getEndIndex() == 0)
             return;
-        char ch = aci.current(), prevCh = (char)-1;
+        int begin = aci.getBeginIndex();
+        int end   = aci.getEndIndex();
+        int len   = end-begin;
+
+        char[] text = new char[len];
+        int i = 0;
+        for (char ch = aci.first();
+             ch != AttributedCharacterIterator.DONE;
+             ch = aci.next()) {
+            text[i++] = ch;
+        }
+        int[] lineLimits = new int[4];
+        int nLimits = 0;
+        for (int idx = begin; idx < end;) {
+            aci.setIndex(idx);
+            idx = aci.getRunLimit(lineBrks);
+            if (nLimits == lineLimits.length) {
+                int[] t = new int[nLimits*2];
+                System.arraycopy(lineLimits, 0, t, 0, nLimits);
+                lineLimits = t;
+            }
+            lineLimits[nLimits++] = idx-begin;
+        }
+
+        ParagraphKey key = null;
+        int[] words = null;
+        if (len <= PARAGRAPH_CACHE_MAX_LENGTH) {
+            key = new ParagraphKey(new String(text), lineLimits, nLimits);
+            synchronized (paragraphCache) {
+                words = (int[])paragraphCache.get(key);
+            }
+        }
+        if (words == null) {
+            words = new int[len];
+            findWordLimits(text, len, lineLimits, words);
+            if (key != null) {
+                synchronized (paragraphCache) {
+                    paragraphCache.put(key, words);
+                }
+            }
+        }
+
+        // One WORD_LIMIT run per word.
+        int word  = 0;
+        int start = 0;
+        for (i = 1; i <= len; i++) {
+            if ((i == len) || (words[i] != words[start])) {
+                as.addAttribute(WORD_LIMIT, new Integer(word++),
+                                begin+start, begin+i);
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Finds the break opportunities in a paragraph.  Stores in
+     * <code>words</code> the number of the word each character belongs
+     * to, words being delimited by break opportunities.  Word numbers
+     * increase along the text but may skip values.
+     *
+     * @param text the characters of the paragraph
+     * @param len the number of characters
+     * @param lineLimits the ends of the runs of the FLOW_PARAGRAPH
+     *        and FLOW_LINE_BREAK attributes, in increasing order.  The
+     *        last one is <code>len</code>.
+     * @param words receives the word number of each character, must
+     *        hold at least <code>len</code> entries
+     * @return the number of words
+     */
+    public static int findWordLimits(char[] text, int len,
+                                     int[] lineLimits, int[] words) {
+        if (len == 0)
+            return 0;
+        char ch = text[0], prevCh = (char)-1;
         byte         cls = getCharCharClass(ch);
         if (cls == CHAR_CLASS_LF) cls = CHAR_CLASS_BK;
         byte      curCls = cls;
         byte     prevCls = cls;
         byte prevPrevCls = -1;
         int  wordCnt = 0;
-        int  wordBegin = aci.getBeginIndex();
-        // loop over all pairs in the string
-        int ich = wordBegin+1;
-        int lineEnd = aci.getRunLimit(lineBrks);
+        int  wordBegin = 0;
+        int  line = 0;
+        int  lineEnd = lineLimits[line++];
 
         // handle case where input starts with an LF
         if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
 
-        for (ch = aci.next();
-             ch != AttributedCharacterIterator.DONE;
-             ich++, prevCh = ch, ch = aci.next(),
+        // loop over all pairs in the string
+        int ich;
+        for (ich = 1; ich < len;
+             ich++, prevCh = ch,
              prevPrevCls = prevCls, prevCls = curCls) {
+            ch = text[ich];
 
             if (ich == lineEnd) {
-                as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                wordBegin, ich);
+                wordCnt = setWord(words, wordBegin, ich, wordCnt);
                 wordBegin = ich;
 
                 cls    = getCharCharClass(ch);
@@ -101,26 +197,21 @@ public class TextLineBreaks {
                 prevCls = cls;
                 if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
 
-                lineEnd = aci.getRunLimit(lineBrks);
+                lineEnd = lineLimits[line++];
                 continue;
             }
 
             // handle spaces
             curCls = getCharCharClass(ch);
             if (curCls == CHAR_CLASS_SP) {
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
                 continue;
             }
 
-            // handle complex scripts
+            // handle complex scripts, there is no complex break
+            // analysis so no break is found inside their runs.
             if (curCls == CHAR_CLASS_SA) {
-                ich += findComplexBreak(aci);
-                ch = aci.previous();
-                if (ch != AttributedCharacterIterator.DONE)
-                    prevCls = getCharCharClass(ch);
-                ch = aci.next();
-                if (ch != AttributedCharacterIterator.DONE)
-                    curCls = cls = getCharCharClass(ch);
+                prevCls = getCharCharClass(text[ich-1]);
+                cls = curCls;
                 continue;
             }
 
@@ -131,15 +222,13 @@ public class TextLineBreaks {
                 continue; // Don't allow break around JOINER.
 
             if ((curCls == CHAR_CLASS_BK) || (curCls == CHAR_CLASS_LF)) {
-                as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                wordBegin, ich);
+                wordCnt = setWord(words, wordBegin, ich, wordCnt);
                 wordBegin = ich;
                 cls = CHAR_CLASS_BK;
                 continue;
             }
             if (prevCls == CHAR_CLASS_CR) {
-                as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                wordBegin, ich-1);
+                wordCnt = setWord(words, wordBegin, ich-1, wordCnt);
                 wordBegin = ich-1;
                 cls = CHAR_CLASS_BK;
                 continue;
@@ -155,16 +244,12 @@ public class TextLineBreaks {
                     if (prevPrevCls != -1) {
                         if (brkPairs[prevPrevCls][CHAR_CLASS_ID] ==
                             BREAK_ACTION_DIRECT) {
-                            as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                            wordBegin, ich-1);
+                            wordCnt = setWord(words, wordBegin, ich-1,
+                                              wordCnt);
                             wordBegin = ich-1;
-                            // pbrk[ich-2] = BREAK_ACTION_DIRECT;
-                        } else {
-                            // pbrk[ich-2] = BREAK_ACTION_PROHIBITED;
                         }
                     }
                 }
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
                 continue;
             }
 
@@ -177,31 +262,61 @@ public class TextLineBreaks {
             byte brk = brkPairs[cls][curCls];
 
             if (brk == BREAK_ACTION_DIRECT) {
-                as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                wordBegin, ich);
+                wordCnt = setWord(words, wordBegin, ich, wordCnt);
                 wordBegin = ich;
-                // pbrk[ich-1] = brk;
             } else if (brk == BREAK_ACTION_INDIRECT) {
                 if (prevCls == CHAR_CLASS_SP) {
-                    as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                                    wordBegin, ich);
+                    wordCnt = setWord(words, wordBegin, ich, wordCnt);
                     wordBegin = ich;
                 }
-                // pbrk[ich-1] = ((prevCls == CHAR_CLASS_SP) ?
-                //                BREAK_ACTION_INDIRECT :
-                //                BREAK_ACTION_PROHIBITED);
             }
             cls = curCls;
         }
 
         // always break at the end
-        as.addAttribute(WORD_LIMIT, new Integer(wordCnt++),
-                        wordBegin, ich);
-        wordBegin = ich;
-        // pbrk[ich-1] = BREAK_ACTION_DIRECT;
+        return setWord(words, wordBegin, ich, wordCnt);
+    }
+
+    /**
+     * Assigns the given word number to the characters from begin to
+     * end, and returns the next word number.
+     */
+    private static int setWord(int[] words, int begin, int end, int word) {
+        for (int i = begin; i < end; i++) {
+            words[i] = word;
+        }
+        return word+1;
+    }
+
+    /**
+     * The key of the paragraph cache: the text of a paragraph and the
+     * limits of its lines.
+     */
+    protected static class ParagraphKey {
+        protected String text;
+        protected int[] lineLimits;
+        protected int hashCode;
+
+        public ParagraphKey(String text, int[] lineLimits, int nLimits) {
+            this.text = text;
+            this.lineLimits = new int[nLimits];
+            System.arraycopy(lineLimits, 0, this.lineLimits, 0, nLimits);
+            hashCode = text.hashCode() * 31 + Arrays.hashCode(this.lineLimits);
+        }
 
-        return;
-   }
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ParagraphKey))
+                return false;
+            ParagraphKey k = (ParagraphKey)o;
+            return hashCode == k.hashCode
+                && text.equals(k.text)
+                && Arrays.equals(lineLimits, k.lineLimits);
+        }
+    }
 
     public static byte[] stringToLineBreakClasses(String s) {
         int len = s.length();
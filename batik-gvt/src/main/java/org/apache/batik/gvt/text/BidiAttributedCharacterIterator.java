@@ -19,9 +19,9 @@
 package org.apache.batik.gvt.text;
 
 import java.awt.font.FontRenderContext;
-import java.awt.font.TextLayout;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.text.Bidi;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -117,21 +117,22 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
             }
         }
 
-        // We Just want it to do BIDI for us...
-        // In 1.4 we might be able to use the BIDI class...
-        TextLayout tl = new TextLayout(as.getIterator(), frc);
+        // Bidi honors the same attributes (RUN_DIRECTION,
+        // BIDI_EMBEDDING, NUMERIC_SHAPING) as TextLayout, without
+        // laying out the glyphs.
+        Bidi bidi = new Bidi(as.getIterator());
 
         int[] charIndices = new int[numChars];
         int[] charLevels  = new int[numChars];
 
         int runStart   = 0;
-        int currBiDi   = tl.getCharacterLevel(0);
+        int currBiDi   = bidi.getLevelAt(0);
         charIndices[0] = 0;
         charLevels [0] = currBiDi;
         int maxBiDi    = currBiDi;
 
         for (int i = 1; i < numChars; i++) {
-            int newBiDi = tl.getCharacterLevel(i);
+            int newBiDi = bidi.getLevelAt(i);
             charIndices[i] = i;
             charLevels [i] = newBiDi;
 
@@ -174,7 +175,7 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
             if (srcIdx == 0) reorderedFirstChar = i;
 
             // check for mirrored char
-            int bidiLevel = tl.getCharacterLevel(srcIdx);
+            int bidiLevel = bidi.getLevelAt(srcIdx);
             if ((bidiLevel & 0x01) != 0) {
                 // bidi level is odd so writing dir is right to left
                 // So get the mirror version of the char if there
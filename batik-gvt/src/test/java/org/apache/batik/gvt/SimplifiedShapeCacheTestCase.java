@@ -0,0 +1,88 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link SimplifiedShapeCache} doesn't keep the shapes
+ * it was given reachable.
+ *
+ * @version $Id$
+ */
+public class SimplifiedShapeCacheTestCase {
+
+    @Test
+    public void testUnchangedShapeIsCollected() throws Exception {
+        // Too few segments to be simplified.
+        assertCollected(paint(createPath(8, 10), false));
+    }
+
+    @Test
+    public void testSimplifiedShapeIsCollected() throws Exception {
+        assertCollected(paint(createPath(2000, 1), true));
+    }
+
+    /**
+     * Gets the outline of the given shape twice, checks whether it
+     * was simplified and returns a weak reference to the shape.
+     */
+    protected static WeakReference paint(Shape shape, boolean simplified) {
+        AffineTransform at = AffineTransform.getScaleInstance(0.01, 0.01);
+        Shape s = SimplifiedShapeCache.getShape(shape, at);
+        assertTrue((s != shape) == simplified);
+        assertTrue(SimplifiedShapeCache.getShape(shape, at) == s);
+        return new WeakReference(shape);
+    }
+
+    /**
+     * Returns a closed path with a zigzag of the given number of
+     * segments on top.
+     */
+    protected static Shape createPath(int n, float step) {
+        GeneralPath p = new GeneralPath();
+        p.moveTo(0, 0);
+        for (int i = 1; i <= n; i++) {
+            p.lineTo(i * step, (i % 2) * step);
+        }
+        p.lineTo(n * step, 500);
+        p.lineTo(0, 500);
+        p.closePath();
+        return p;
+    }
+
+    /**
+     * Checks that the referenced shape gets collected.
+     */
+    protected static void assertCollected(WeakReference ref)
+        throws Exception {
+        for (int n = 0; n < 20 && ref.get() != null; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.flow;
+
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the WORD_LIMIT runs {@link TextLineBreaks#findLineBrk} adds
+ * to a text, and that its paragraph cache gives the same runs.
+ *
+ * @version $Id$
+ */
+public class TextLineBreaksTestCase {
+
+    /**
+     * Returns the text with the given ranges marked as paragraphs.
+     */
+    private static AttributedString paragraphs(String text, int[] limits) {
+        AttributedString as = new AttributedString(text);
+        int start = 0;
+        for (int i = 0; i < limits.length; i++) {
+            as.addAttribute(TextLineBreaks.FLOW_PARAGRAPH,
+                            new Integer(i), start, limits[i]);
+            start = limits[i];
+        }
+        return as;
+    }
+
+    /**
+     * Returns the words of the text, separated by '|', with CR and LF
+     * written as \r and \n.  Also checks the words are numbered in
+     * order from zero.
+     */
+    private static String words(AttributedString as) {
+        AttributedCharacterIterator aci = as.getIterator();
+        StringBuffer sb = new StringBuffer();
+        int word = 0;
+        for (int i = aci.getBeginIndex(); i < aci.getEndIndex();) {
+            aci.setIndex(i);
+            assertEquals(new Integer(word++),
+                         aci.getAttribute(TextLineBreaks.WORD_LIMIT));
+            int limit = aci.getRunLimit(TextLineBreaks.WORD_LIMIT);
+            if (i != aci.getBeginIndex())
+                sb.append('|');
+            for (char c = aci.current(); aci.getIndex() < limit;
+                 c = aci.next()) {
+                if (c == '\r')
+                    sb.append("\\r");
+                else if (c == '\n')
+                    sb.append("\\n");
+                else
+                    sb.append(c);
+            }
+            i = limit;
+        }
+        return sb.toString();
+    }
+
+    private static String findLineBrk(String text) {
+        return findLineBrk(new AttributedString(text));
+    }
+
+    private static String findLineBrk(AttributedString as) {
+        TextLineBreaks.findLineBrk(as);
+        return words(as);
+    }
+
+    @Test
+    public void testSpaces() {
+        assertEquals("ab |cd  |e", findLineBrk("ab cd  e"));
+        assertEquals("(ab) |12.5%, |x-|y", findLineBrk("(ab) 12.5%, x-y"));
+    }
+
+    @Test
+    public void testLineFeeds() {
+        assertEquals("ab\\r|\\ncd|\\ref|\\ngh |i",
+                     findLineBrk("ab\r\ncd\ref\ngh i"));
+        assertEquals("\\r|\\n\\r|\\nab", findLineBrk("\r\n\r\nab"));
+        assertEquals("ab |\\n\\r", findLineBrk("ab \n\r"));
+    }
+
+    @Test
+    public void testCombiningMarks() {
+        // A mark after a space starts a new word with that space.
+        assertEquals("a\u0301b| \u0301|c| \u0301\u0302",
+                     findLineBrk("a\u0301b \u0301c \u0301\u0302"));
+        assertEquals("\u0301ab |c", findLineBrk("\u0301ab c"));
+    }
+
+    @Test
+    public void testZeroWidthJoiner() {
+        // No break on either side of a joiner.
+        assertEquals("a\u200D\u4E00\u200D\u4E01|\u4E02",
+                     findLineBrk("a\u200D\u4E00\u200D\u4E01\u4E02"));
+        assertEquals("ab \u200Dcd |e", findLineBrk("ab \u200Dcd e"));
+        assertEquals("ab\u200D |cd", findLineBrk("ab\u200D cd"));
+    }
+
+    @Test
+    public void testParagraphs() {
+        AttributedString as = paragraphs("ab cdef gh", new int[] { 4, 10 });
+        assertEquals("ab |c|def |gh", findLineBrk(as));
+        as = paragraphs("ab cd\r\nef", new int[] { 5, 9 });
+        assertEquals("ab |cd|\\r|\\nef", findLineBrk(as));
+
+        // A paragraph starting with a CR, which used to give an
+        // empty word.
+        as = paragraphs("ab\r\rcd e", new int[] { 3, 8 });
+        assertEquals("ab\\r|\\rcd |e", findLineBrk(as));
+        as = paragraphs("\rab", new int[] { 1, 3 });
+        assertEquals("\\r|ab", findLineBrk(as));
+    }
+
+    @Test
+    public void testCache() {
+        String text = "cache hit \r\nwords \u0301x";
+        String expected = "cache |hit \\r|\\nwords| \u0301|x";
+        assertEquals(expected, findLineBrk(text));
+
+        TextLineBreaks.ParagraphKey key = new TextLineBreaks.ParagraphKey
+            (text, new int[] { text.length() }, 1);
+        int[] words;
+        synchronized (TextLineBreaks.paragraphCache) {
+            words = (int[])TextLineBreaks.paragraphCache.get(key);
+        }
+        assertEquals(text.length(), words.length);
+        // Served from the cache.
+        assertEquals(expected, findLineBrk(text));
+        synchronized (TextLineBreaks.paragraphCache) {
+            assertSame(words, TextLineBreaks.paragraphCache.get(key));
+        }
+
+        // Same text, other paragraphs, other entry.
+        AttributedString as =
+            paragraphs(text, new int[] { 2, text.length() });
+        assertEquals("ca|che |hit \\r|\\nwords| \u0301|x", findLineBrk(as));
+        assertEquals(expected, findLineBrk(text));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.text;
+
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.text.Bidi;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link BidiAttributedCharacterIterator} reorders and
+ * mirrors the characters by the bidi levels a TextLayout computes.
+ *
+ * @version $Id$
+ */
+public class BidiAttributedCharacterIteratorTestCase {
+
+    private static final FontRenderContext FRC =
+        new FontRenderContext(null, false, false);
+
+    private static final String HEBREW = "\u05e9\u05dc\u05d5\u05dd";
+    private static final String ARABIC = "\u0645\u0631\u062d\u0628\u0627";
+
+    private static final String[] TEXTS = {
+        "plain latin",
+        HEBREW,
+        "abc " + HEBREW + " def",
+        HEBREW + " 123 " + ARABIC,
+        "(" + HEBREW + ") [x] <" + ARABIC + ">",
+        ARABIC + " (1, 2) " + HEBREW + "{a}",
+        "a(b" + HEBREW + "[c)d]" + ARABIC + "<",
+        "12.5% " + HEBREW + " -3 " + ARABIC + " 4/5"
+    };
+
+    @Test
+    public void testDefaultDirection() {
+        for (int i = 0; i < TEXTS.length; i++)
+            check(new AttributedString(TEXTS[i]));
+    }
+
+    @Test
+    public void testRightToLeft() {
+        for (int i = 0; i < TEXTS.length; i++) {
+            AttributedString as = new AttributedString(TEXTS[i]);
+            as.addAttribute(TextAttribute.RUN_DIRECTION,
+                            TextAttribute.RUN_DIRECTION_RTL);
+            check(as);
+        }
+    }
+
+    @Test
+    public void testEmbedding() {
+        for (int i = 0; i < TEXTS.length; i++) {
+            String s = TEXTS[i];
+            int len = s.length();
+            AttributedString as = new AttributedString(s);
+            as.addAttribute(TextAttribute.BIDI_EMBEDDING, new Integer(-1),
+                            len/4, len/2);
+            as.addAttribute(TextAttribute.BIDI_EMBEDDING, new Integer(2),
+                            len/2, len - len/4);
+            check(as);
+        }
+    }
+
+    /**
+     * Compares the iterator over <code>as</code> with the order,
+     * mirroring and directions given by the levels of a TextLayout.
+     * Only the parity of the levels is compared: in a right to left
+     * paragraph TextLayout flattens a left to right embedding that
+     * holds only right to left characters, which gives the same order
+     * but a lower level.
+     */
+    private static void check(AttributedString as) {
+        TextLayout tl = new TextLayout(as.getIterator(), FRC);
+        BidiAttributedCharacterIterator bi =
+            new BidiAttributedCharacterIterator(as.getIterator(), FRC, 0);
+
+        String s = toString(as);
+        int n = s.length();
+        byte[] levels = new byte[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            levels[i] = (byte)tl.getCharacterLevel(i);
+            order[i] = new Integer(i);
+        }
+        Bidi.reorderVisually(levels, 0, order, 0, n);
+
+        int[] map = bi.getCharMap();
+        char c = bi.first();
+        for (int i = 0; i < n; i++, c = bi.next()) {
+            int src = order[i].intValue();
+            assertEquals(src, map[i]);
+            int level = levels[src];
+            int expected = s.charAt(src);
+            if ((level & 1) != 0)
+                expected = BidiAttributedCharacterIterator.mirrorChar(expected);
+            assertEquals(expected, c);
+            Integer l = (Integer)bi.getAttribute
+                (GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL);
+            assertEquals(level & 1, l.intValue() & 1);
+        }
+    }
+
+    private static String toString(AttributedString as) {
+        StringBuffer sb = new StringBuffer();
+        AttributedCharacterIterator aci = as.getIterator();
+        char c = aci.first();
+        while (c != AttributedCharacterIterator.DONE) {
+            sb.append(c);
+            c = aci.next();
+        }
+        return sb.toString();
+    }
+}
@@ -23,6 +23,10 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.batik.svggen.font.table.CmapFormat;
 import org.apache.batik.svggen.font.table.Feature;
@@ -55,6 +59,11 @@ public class SVGFont implements XMLConstants, SVGConstants, ScriptTags, FeatureT
     static final int DEFAULT_FIRST = 32;
     static final int DEFAULT_LAST = 126;
 
+    /**
+     * The number of glyphs converted before they are written out.
+     */
+    static final int GLYPH_BATCH_SIZE = 256;
+
     static {
         String  temp;
         try {
@@ -371,29 +380,36 @@ public class SVGFont implements XMLConstants, SVGConstants, ScriptTags, FeatureT
                 else            last = cmapFmt.getLast();
             }
 
-            // Include our requested range
+            // Include our requested range.  The glyphs are converted
+            // a batch at a time, in parallel, and written in order.
             Set glyphSet = new HashSet();
-            for (int i = first; i <= last; i++) {
-                int glyphIndex = cmapFmt.mapCharCode(i);
-                //        ps.println(String.valueOf(i) + " -> " + String.valueOf(glyphIndex));
-                //      if (font.getGlyphs()[glyphIndex] != null)
-                //        sb.append(font.getGlyphs()[glyphIndex].toString() + "\n");
-
-                if (glyphIndex > 0) {
-                    // add glyph ID to set so we can filter later
-                    glyphSet.add(glyphIndex);
-
-                    ps.println(getGlyphAsSVG(
-                        font,
-                        font.getGlyph(glyphIndex),
-                        glyphIndex,
-                        horiz_advance_x,
-                        initialSubst, medialSubst, terminalSubst,
-                        (32 <= i && i <= 127) ?
-                        encodeEntities( String.valueOf( (char)i ) ) :
-                        XML_CHAR_REF_PREFIX + Integer.toHexString(i) + XML_CHAR_REF_SUFFIX));
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            ExecutorService executor = (nThreads > 1)
+                ? Executors.newFixedThreadPool(nThreads) : null;
+            try {
+                GlyphBatch batch = new GlyphBatch
+                    (font, horiz_advance_x,
+                     initialSubst, medialSubst, terminalSubst);
+                for (int i = first; i <= last; i++) {
+                    int glyphIndex = cmapFmt.mapCharCode(i);
+                    if (glyphIndex > 0) {
+                        // add glyph ID to set so we can filter later
+                        glyphSet.add(glyphIndex);
+
+                        batch.add(glyphIndex,
+                            (32 <= i && i <= 127) ?
+                            encodeEntities( String.valueOf( (char)i ) ) :
+                            XML_CHAR_REF_PREFIX + Integer.toHexString(i) + XML_CHAR_REF_SUFFIX);
+                        if (batch.size == GLYPH_BATCH_SIZE) {
+                            batch.write(ps, executor, nThreads);
+                        }
+                    }
+                }
+                batch.write(ps, executor, nThreads);
+            } finally {
+                if (executor != null) {
+                    executor.shutdownNow();
                 }
-
             }
 
             // Output kerning pairs from the requested range
@@ -419,6 +435,92 @@ public class SVGFont implements XMLConstants, SVGConstants, ScriptTags, FeatureT
         // ps.println("</font>");
     }
 
+    /**
+     * A batch of glyphs to convert to SVG elements.
+     */
+    private static class GlyphBatch {
+        Font font;
+        int defaultHorizAdvanceX;
+        SingleSubst arabInitSubst;
+        SingleSubst arabMediSubst;
+        SingleSubst arabTermSubst;
+        int[] glyphIndices = new int[GLYPH_BATCH_SIZE];
+        String[] codes = new String[GLYPH_BATCH_SIZE];
+        String[] elements = new String[GLYPH_BATCH_SIZE];
+        int size;
+
+        GlyphBatch(Font font, int defaultHorizAdvanceX,
+                   SingleSubst arabInitSubst, SingleSubst arabMediSubst,
+                   SingleSubst arabTermSubst) {
+            this.font = font;
+            this.defaultHorizAdvanceX = defaultHorizAdvanceX;
+            this.arabInitSubst = arabInitSubst;
+            this.arabMediSubst = arabMediSubst;
+            this.arabTermSubst = arabTermSubst;
+        }
+
+        void add(int glyphIndex, String code) {
+            glyphIndices[size] = glyphIndex;
+            codes[size] = code;
+            size++;
+        }
+
+        /**
+         * Converts the glyphs from <code>start</code> to
+         * <code>end</code>.
+         */
+        void convert(int start, int end) {
+            for (int i = start; i < end; i++) {
+                int glyphIndex = glyphIndices[i];
+                elements[i] = getGlyphAsSVG
+                    (font, font.getGlyph(glyphIndex), glyphIndex,
+                     defaultHorizAdvanceX, arabInitSubst, arabMediSubst,
+                     arabTermSubst, codes[i]);
+            }
+        }
+
+        /**
+         * Converts the glyphs of the batch, splitting the work between
+         * <code>nThreads</code> tasks when an executor is given, then
+         * writes them in order and empties the batch.
+         */
+        void write(PrintStream ps, ExecutorService executor, int nThreads)
+            throws Exception {
+            if (executor == null) {
+                convert(0, size);
+            } else {
+                Future[] futures = new Future[nThreads];
+                int step = (size + nThreads - 1) / nThreads;
+                for (int t = 0; t < nThreads; t++) {
+                    final int start = Math.min(t * step, size);
+                    final int end = Math.min(start + step, size);
+                    futures[t] = executor.submit(new Runnable() {
+                            public void run() {
+                                convert(start, end);
+                            }
+                        });
+                }
+                try {
+                    for (int t = 0; t < nThreads; t++) {
+                        futures[t].get();
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception)cause;
+                    }
+                    throw (Error)cause;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                ps.println(elements[i]);
+                elements[i] = null;
+                codes[i] = null;
+            }
+            size = 0;
+        }
+    }
+
     protected static String getGlyphAsSVG(
             Font font,
             Glyph glyph,
@@ -21,20 +21,25 @@ package org.apache.batik.svggen.font.table;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
+ * The glyph data.  The table is mapped from the font file and each
+ * glyph description is parsed the first time it is requested.
+ *
  * @version $Id$
  * @author <a href="mailto:david@steadystate.co.uk">David Schweinsberg</a>
  */
 public class GlyfTable implements Table {
 
-    private byte[] buf = null;
+    private ByteBuffer buf = null;
+    private LocaTable loca;
     private GlyfDescript[] descript;
 
     protected GlyfTable(DirectoryEntry de, RandomAccessFile raf) throws IOException {
-        raf.seek(de.getOffset());
-        buf = new byte[de.getLength()];
-        raf.read(buf);
+        buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                   de.getOffset(), de.getLength());
 /*
         TableMaxp t_maxp = (TableMaxp) td.getEntryByTag(maxp).getTable();
         TableLoca t_loca = (TableLoca) td.getEntryByTag(loca).getTable();
@@ -71,32 +76,29 @@ public class GlyfTable implements Table {
         if (buf == null) {
             return;
         }
+        this.loca = loca;
         descript = new GlyfDescript[numGlyphs];
-        ByteArrayInputStream bais = new ByteArrayInputStream(buf);
-        for (int i = 0; i < numGlyphs; i++) {
-            int len = loca.getOffset((i + 1)) - loca.getOffset(i);
-            if (len > 0) {
-                bais.reset();
-                bais.skip(loca.getOffset(i));
+    }
+
+    public synchronized GlyfDescript getDescription(int i) {
+        if ((descript[i] == null) && (buf != null)) {
+            int off = loca.getOffset(i);
+            int len = Math.min(loca.getOffset(i + 1), buf.limit()) - off;
+            if ((len > 0) && (off >= 0)) {
+                byte[] b = new byte[len];
+                ByteBuffer bb = buf.duplicate();
+                bb.position(off);
+                bb.get(b);
+                ByteArrayInputStream bais = new ByteArrayInputStream(b);
                 short numberOfContours = (short)(bais.read()<<8 | bais.read());
                 if (numberOfContours >= 0) {
                     descript[i] = new GlyfSimpleDescript(this, numberOfContours, bais);
                 } else {
                     descript[i] = new GlyfCompositeDescript(this, bais);
                 }
+                descript[i].resolve();
             }
         }
-
-        buf = null;
-
-        for (int i = 0; i < numGlyphs; i++) {
-            if (descript[i] == null) continue;
-
-            descript[i].resolve();
-        }
-    }
-
-    public GlyfDescript getDescription(int i) {
         return descript[i];
     }
 
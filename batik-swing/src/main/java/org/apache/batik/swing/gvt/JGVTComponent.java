@@ -123,6 +123,35 @@ public class JGVTComponent extends JComponent {
      */
     protected BufferedImage image;
 
+    /**
+     * Whether the tree is rendered in tiles.
+     */
+    protected boolean tiledRendering;
+
+    /**
+     * The number of rings of tiles rendered ahead around the view,
+     * when the tree is rendered in tiles.
+     */
+    protected int tilePrefetchRings = 1;
+
+    /**
+     * The tiles of the current tree, when it is rendered in tiles.
+     */
+    protected TilePyramid tilePyramid;
+
+    /**
+     * The rendering transform the tiles are painted with, the
+     * counterpart of the transform <code>image</code> was rendered
+     * with.
+     */
+    protected AffineTransform tileTransform;
+
+    /**
+     * The last tile renderer started, which may still be rendering
+     * the tiles around the view.
+     */
+    protected TiledGVTTreeRenderer tileRenderer;
+
     /**
      * The initial rendering transform.
      */
@@ -232,7 +261,7 @@ public class JGVTComponent extends JComponent {
 
         addComponentListener(new ComponentAdapter() {
                 public void componentResized(ComponentEvent e) {
-                    if (updateRenderingTransform())
+                    if (updateRenderingTransform() || (tilePyramid != null))
                         scheduleGVTRendering();
                 }
             });
@@ -340,6 +369,9 @@ public class JGVTComponent extends JComponent {
             gvtTreeRenderer.halt();
             haltProgressivePaintThread();
         }
+        if (tileRenderer != null) {
+            tileRenderer.halt();
+        }
     }
 
     /**
@@ -363,6 +395,9 @@ public class JGVTComponent extends JComponent {
      * Sets the GVT tree to display.
      */
     protected void setGraphicsNode(GraphicsNode gn, boolean createDispatcher) {
+        if (gn != gvtRoot) {
+            releaseTiles();
+        }
         gvtRoot = gn;
         if (gn != null && createDispatcher) {
             initializeEventHandling();
@@ -570,11 +605,27 @@ public class JGVTComponent extends JComponent {
         g2d.fillRect(visRect.x,     visRect.y,
                      visRect.width, visRect.height);
 
-        if (image != null) {
+        boolean tiled = (tilePyramid != null) && (tileTransform != null);
+        if (tiled || (image != null)) {
             if (paintingTransform != null) {
                 g2d.transform(paintingTransform);
             }
-            g2d.drawRenderedImage(image, null);
+            if (tiled) {
+                Rectangle area = g2d.getClipBounds();
+                if (area == null) {
+                    area = visRect;
+                    if (paintingTransform != null) {
+                        try {
+                            area = paintingTransform.createInverse()
+                                .createTransformedShape(visRect).getBounds();
+                        } catch (NoninvertibleTransformException e) {
+                        }
+                    }
+                }
+                tilePyramid.paint(g2d, tileTransform, area);
+            } else {
+                g2d.drawRenderedImage(image, null);
+            }
             g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                                  RenderingHints.VALUE_ANTIALIAS_OFF);
             Iterator it = overlays.iterator();
@@ -666,6 +717,55 @@ public class JGVTComponent extends JComponent {
         return doubleBufferedRendering;
     }
 
+    /**
+     * Sets whether this component renders the GVT tree in tiles.
+     * The tiles are kept across renderings, so pans only render the
+     * tiles that were never visible, and zooms show the tiles of the
+     * previous scale until the new ones are ready.  The tiles around
+     * the view are rendered in the background once the visible ones
+     * are done.  In this mode <code>getOffScreen</code> returns null.
+     */
+    public void setTiledRendering(boolean b) {
+        if (tiledRendering == b)
+            return;
+        tiledRendering = b;
+        if (gvtRoot != null)
+            scheduleGVTRendering();
+    }
+
+    /**
+     * Tells whether this component renders the GVT tree in tiles.
+     */
+    public boolean getTiledRendering() {
+        return tiledRendering;
+    }
+
+    /**
+     * Tells whether the current tree should be rendered in tiles.
+     */
+    protected boolean useTiledRendering() {
+        return tiledRendering;
+    }
+
+    /**
+     * Creates the pyramid the tiles of a tree are kept in.
+     */
+    protected TilePyramid createTilePyramid() {
+        return new TilePyramid();
+    }
+
+    /**
+     * Stops the rendering of tiles and drops them.
+     */
+    protected void releaseTiles() {
+        if (tileRenderer != null) {
+            tileRenderer.halt();
+            tileRenderer = null;
+        }
+        tilePyramid = null;
+        tileTransform = null;
+    }
+
     /**
      * Adds a GVTTreeRendererListener to this component.
      */
@@ -686,6 +786,9 @@ public class JGVTComponent extends JComponent {
      */
     public void flush() {
         renderer.flush();
+        if (tilePyramid != null) {
+            tilePyramid.clear();
+        }
     }
 
     /**
@@ -694,6 +797,9 @@ public class JGVTComponent extends JComponent {
      */
     public void flush(Rectangle r) {
         renderer.flush(r);
+        if (tilePyramid != null) {
+            tilePyramid.clear();
+        }
     }
 
     /**
@@ -712,8 +818,18 @@ public class JGVTComponent extends JComponent {
             return;
         }
 
+        boolean tiled = useTiledRendering();
+        if (!tiled && (tilePyramid != null)) {
+            // The tile renderer may still be using the renderer.
+            releaseTiles();
+            renderer = null;
+        }
+
         // Renderer setup.
         if (renderer == null || renderer.getTree() != gvtRoot) {
+            if (tileRenderer != null) {
+                releaseTiles();
+            }
             renderer = createImageRenderer();
             renderer.setTree(gvtRoot);
         }
@@ -728,9 +844,25 @@ public class JGVTComponent extends JComponent {
         Shape s = inv.createTransformedShape(visRect);
 
         // Rendering thread setup.
-        gvtTreeRenderer = new GVTTreeRenderer(renderer, renderingTransform,
-                                              doubleBufferedRendering, s,
-                                              visRect.width, visRect.height);
+        if (tiled) {
+            if (tilePyramid == null) {
+                tilePyramid = createTilePyramid();
+            }
+            if (tileRenderer != null) {
+                tileRenderer.halt();
+            }
+            // The tiles are painted with the new transform right away.
+            tileTransform = new AffineTransform(renderingTransform);
+            paintingTransform = null;
+            tileRenderer = new TiledGVTTreeRenderer
+                (renderer, tilePyramid, renderingTransform, visRect,
+                 tilePrefetchRings, this);
+            gvtTreeRenderer = tileRenderer;
+        } else {
+            gvtTreeRenderer = new GVTTreeRenderer
+                (renderer, renderingTransform, doubleBufferedRendering, s,
+                 visRect.width, visRect.height);
+        }
         gvtTreeRenderer.setPriority(Thread.MIN_PRIORITY);
 
         Iterator it = gvtTreeRendererListeners.iterator();
@@ -786,6 +918,7 @@ public class JGVTComponent extends JComponent {
             overlays.remove(textSelectionManager.getSelectionOverlay());
             textSelectionManager = null;
         }
+        releaseTiles();
         renderer = null;
         image = null;
         gvtRoot = null;
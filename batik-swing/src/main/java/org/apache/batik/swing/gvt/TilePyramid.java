@@ -0,0 +1,494 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.swing.gvt;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.gvt.renderer.ImageRenderer;
+import org.apache.batik.util.HaltingThread;
+
+/**
+ * The rendered tiles of a GVT tree, for several rendering transforms.
+ *
+ * <p>The tiles are grouped in levels.  All the rendering transforms
+ * that only differ by an integer translation share a level, so the
+ * tiles rendered before a pan can be reused as they are.  Within a
+ * level the device space is cut into square tiles of
+ * <code>tileSize</code> pixels.  At most <code>maxTiles</code> tiles
+ * are kept; the least recently painted ones are dropped first.  The
+ * renderers raise <code>maxTiles</code> with {@link #ensureCapacity}
+ * so the tiles of the view, and the ones prefetched around it, always
+ * fit.</p>
+ *
+ * <p>When painting, the tiles missing from the current level are
+ * stood in for by the tiles of the other levels, scaled to the current
+ * transform, so a zoom shows the coarser rendering until the new one
+ * is ready.</p>
+ *
+ * @see TiledGVTTreeRenderer
+ * @version $Id$
+ */
+public class TilePyramid {
+
+    /**
+     * The default width and height of the tiles.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * The default maximum number of tiles kept, before it is raised to
+     * fit the view.
+     */
+    public static final int DEFAULT_MAX_TILES = 128;
+
+    /**
+     * The number of steps a pixel is divided into when matching the
+     * fractional part of translations.
+     */
+    protected static final double SUBPIXEL_STEPS = 64;
+
+    /**
+     * The width and height of the tiles.
+     */
+    protected int tileSize;
+
+    /**
+     * The maximum number of tiles kept.
+     */
+    protected int maxTiles;
+
+    /**
+     * The tiles by key, least recently used first.
+     */
+    protected Map tiles = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * Incremented each time the tiles are dropped, so the renderings
+     * in progress are not stored.
+     */
+    protected int generation;
+
+    /**
+     * Serializes the use of the renderers.
+     */
+    protected Object renderLock = new Object();
+
+    /**
+     * Creates a pyramid with the default tile size and tile count.
+     */
+    public TilePyramid() {
+        this(DEFAULT_TILE_SIZE, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Creates a pyramid.
+     * @param tileSize The width and height of the tiles.
+     * @param maxTiles The maximum number of tiles kept.
+     */
+    public TilePyramid(int tileSize, int maxTiles) {
+        this.tileSize = tileSize;
+        this.maxTiles = maxTiles;
+    }
+
+    /**
+     * Returns the width and height of the tiles.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Returns the maximum number of tiles kept.
+     */
+    public synchronized int getMaxTiles() {
+        return maxTiles;
+    }
+
+    /**
+     * Sets the maximum number of tiles kept.
+     */
+    public synchronized void setMaxTiles(int maxTiles) {
+        this.maxTiles = maxTiles;
+        evict();
+    }
+
+    /**
+     * Raises the maximum number of tiles kept to at least
+     * <code>n</code>.
+     */
+    public synchronized void ensureCapacity(int n) {
+        if (maxTiles < n)
+            maxTiles = n;
+    }
+
+    /**
+     * Returns the largest number of tiles an area the size of
+     * <code>area</code> can intersect, whatever its position, once
+     * grown by <code>rings</code> tiles on each side.
+     */
+    public int getTileCount(Rectangle area, int rings) {
+        int cols = (area.width  + tileSize - 1) / tileSize + 1 + 2*rings;
+        int rows = (area.height + tileSize - 1) / tileSize + 1 + 2*rings;
+        return cols * rows;
+    }
+
+    /**
+     * Drops all the tiles.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        generation++;
+    }
+
+    /**
+     * Returns the level of the given rendering transform.
+     */
+    public Level getLevel(AffineTransform usr2dev) {
+        return new Level(usr2dev);
+    }
+
+    /**
+     * Returns the tiles of the level of <code>usr2dev</code> that
+     * intersect <code>area</code> and have not been rendered yet,
+     * the ones closest to the center of the area first.
+     * @param usr2dev The rendering transform.
+     * @param area The area of interest, in device space.
+     */
+    public synchronized List getMissingTiles(AffineTransform usr2dev,
+                                             Rectangle area) {
+        Level l = getLevel(usr2dev);
+        int dx = l.getOffsetX(usr2dev);
+        int dy = l.getOffsetY(usr2dev);
+        Rectangle r = getTileRange(area, dx, dy);
+
+        List missing = new ArrayList();
+        for (int row = r.y; row < r.y+r.height; row++) {
+            for (int col = r.x; col < r.x+r.width; col++) {
+                Tile t = new Tile(l, col, row);
+                if (!tiles.containsKey(t))
+                    missing.add(t);
+            }
+        }
+
+        final double cx = (area.getCenterX() - dx) / tileSize - 0.5;
+        final double cy = (area.getCenterY() - dy) / tileSize - 0.5;
+        Collections.sort(missing, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    Tile t1 = (Tile)o1;
+                    Tile t2 = (Tile)o2;
+                    double d1 = (t1.col-cx)*(t1.col-cx) + (t1.row-cy)*(t1.row-cy);
+                    double d2 = (t2.col-cx)*(t2.col-cx) + (t2.row-cy)*(t2.row-cy);
+                    return (d1 < d2) ? -1 : ((d1 > d2) ? 1 : 0);
+                }
+            });
+        return missing;
+    }
+
+    /**
+     * Returns the range of tiles covering <code>area</code>, in a
+     * level offset by <code>(dx, dy)</code>.
+     */
+    protected Rectangle getTileRange(Rectangle area, int dx, int dy) {
+        int c0 = floorDiv(area.x - dx, tileSize);
+        int r0 = floorDiv(area.y - dy, tileSize);
+        int c1 = floorDiv(area.x + area.width  - 1 - dx, tileSize);
+        int r1 = floorDiv(area.y + area.height - 1 - dy, tileSize);
+        return new Rectangle(c0, r0, c1-c0+1, r1-r0+1);
+    }
+
+    protected static int floorDiv(int a, int b) {
+        return (a >= 0) ? a / b : -((-a + b - 1) / b);
+    }
+
+    /**
+     * Renders a tile with <code>renderer</code>, which must render
+     * the GVT tree of this pyramid.  Does nothing if the current
+     * thread is halted before the rendering completes.
+     * @return true if the tile was rendered.
+     */
+    public boolean renderTile(ImageRenderer renderer, Tile t) {
+        BufferedImage img;
+        int gen;
+        synchronized (renderLock) {
+            if (HaltingThread.hasBeenHalted())
+                return false;
+            synchronized (this) {
+                if (tiles.containsKey(t))
+                    return true;
+                gen = generation;
+            }
+            AffineTransform at = AffineTransform.getTranslateInstance
+                (-t.col*tileSize, -t.row*tileSize);
+            at.concatenate(t.level.transform);
+            Shape aoi;
+            try {
+                aoi = at.createInverse().createTransformedShape
+                    (new Rectangle(0, 0, tileSize, tileSize));
+            } catch (NoninvertibleTransformException e) {
+                return false;
+            }
+            renderer.setTransform(at);
+            renderer.setDoubleBuffered(true);
+            renderer.updateOffScreen(tileSize, tileSize);
+            renderer.repaint(aoi);
+            if (HaltingThread.hasBeenHalted())
+                return false;
+
+            // The offscreen is reused by the next rendering.
+            img = new BufferedImage(tileSize, tileSize,
+                                    BufferedImage.TYPE_INT_ARGB_PRE);
+            BufferedImage off = renderer.getOffScreen();
+            if (off != null) {
+                Graphics2D g = img.createGraphics();
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(off, 0, 0, null);
+                g.dispose();
+            }
+        }
+        synchronized (this) {
+            if (gen != generation)
+                // Cleared in the meantime.
+                return false;
+            tiles.put(t, img);
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Drops the least recently used tiles until there are at most
+     * <code>maxTiles</code> left.
+     */
+    protected void evict() {
+        Iterator i = tiles.keySet().iterator();
+        while ((tiles.size() > maxTiles) && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    /**
+     * Paints the tiles covering <code>area</code> for the given
+     * rendering transform.  The missing ones are stood in for by the
+     * tiles of the other levels.
+     * @param g2d The graphics to paint to, in device space.
+     * @param usr2dev The rendering transform.
+     * @param area The area to paint, in device space.
+     */
+    public synchronized void paint(Graphics2D g2d, AffineTransform usr2dev,
+                                   Rectangle area) {
+        Level l = getLevel(usr2dev);
+        int dx = l.getOffsetX(usr2dev);
+        int dy = l.getOffsetY(usr2dev);
+        Rectangle r = getTileRange(area, dx, dy);
+
+        List holes = null;
+        for (int row = r.y; row < r.y+r.height; row++) {
+            for (int col = r.x; col < r.x+r.width; col++) {
+                BufferedImage img = (BufferedImage)tiles.get
+                    (new Tile(l, col, row));
+                int x = dx + col*tileSize;
+                int y = dy + row*tileSize;
+                if (img != null) {
+                    g2d.drawImage(img, x, y, null);
+                } else {
+                    if (holes == null)
+                        holes = new ArrayList();
+                    holes.add(new Rectangle(x, y, tileSize, tileSize));
+                }
+            }
+        }
+        if (holes != null)
+            paintStandIns(g2d, usr2dev, l, holes);
+    }
+
+    /**
+     * Paints the tiles of the other levels over the holes of level
+     * <code>l</code>.  The levels with the closest scale are painted
+     * last.
+     */
+    protected void paintStandIns(Graphics2D g2d, AffineTransform usr2dev,
+                                 Level l, List holes) {
+        List others = new ArrayList();
+        Iterator i = tiles.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            if (!((Tile)e.getKey()).level.equals(l))
+                others.add(e);
+        }
+        if (others.isEmpty())
+            return;
+
+        final double scale = l.getScale();
+        Collections.sort(others, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    Level l1 = ((Tile)((Map.Entry)o1).getKey()).level;
+                    Level l2 = ((Tile)((Map.Entry)o2).getKey()).level;
+                    double d1 = Math.abs(Math.log(l1.getScale() / scale));
+                    double d2 = Math.abs(Math.log(l2.getScale() / scale));
+                    return (d1 > d2) ? -1 : ((d1 < d2) ? 1 : 0);
+                }
+            });
+
+        Graphics2D g = (Graphics2D)g2d.create();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        Shape clip = g.getClip();
+        Iterator h = holes.iterator();
+        while (h.hasNext()) {
+            Rectangle hole = (Rectangle)h.next();
+            g.setClip(clip);
+            g.clip(hole);
+            Iterator j = others.iterator();
+            while (j.hasNext()) {
+                Map.Entry e = (Map.Entry)j.next();
+                Tile t = (Tile)e.getKey();
+                AffineTransform at;
+                try {
+                    at = new AffineTransform(usr2dev);
+                    at.concatenate(t.level.transform.createInverse());
+                } catch (NoninvertibleTransformException ex) {
+                    continue;
+                }
+                at.translate(t.col*tileSize, t.row*tileSize);
+                Rectangle tr = at.createTransformedShape
+                    (new Rectangle(0, 0, tileSize, tileSize)).getBounds();
+                if (tr.intersects(hole))
+                    g.drawImage((BufferedImage)e.getValue(), at, null);
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * A set of rendering transforms that only differ by an integer
+     * translation.
+     */
+    public static class Level {
+
+        /**
+         * The transform the tiles of this level are rendered with,
+         * before their own translation.
+         */
+        protected AffineTransform transform;
+
+        protected float m00, m10, m01, m11;
+        protected int fx, fy;
+
+        /**
+         * Creates the level of <code>usr2dev</code>.
+         */
+        protected Level(AffineTransform usr2dev) {
+            m00 = (float)usr2dev.getScaleX();
+            m10 = (float)usr2dev.getShearY();
+            m01 = (float)usr2dev.getShearX();
+            m11 = (float)usr2dev.getScaleY();
+            double tx = usr2dev.getTranslateX();
+            double ty = usr2dev.getTranslateY();
+            fx = (int)Math.round((tx - Math.floor(tx)) * SUBPIXEL_STEPS);
+            fy = (int)Math.round((ty - Math.floor(ty)) * SUBPIXEL_STEPS);
+            fx %= (int)SUBPIXEL_STEPS;
+            fy %= (int)SUBPIXEL_STEPS;
+            transform = new AffineTransform
+                (usr2dev.getScaleX(), usr2dev.getShearY(),
+                 usr2dev.getShearX(), usr2dev.getScaleY(),
+                 fx / SUBPIXEL_STEPS, fy / SUBPIXEL_STEPS);
+        }
+
+        /**
+         * Returns the horizontal offset of this level in the device
+         * space of <code>usr2dev</code>.
+         */
+        public int getOffsetX(AffineTransform usr2dev) {
+            return (int)Math.round(usr2dev.getTranslateX() -
+                                   transform.getTranslateX());
+        }
+
+        /**
+         * Returns the vertical offset of this level in the device
+         * space of <code>usr2dev</code>.
+         */
+        public int getOffsetY(AffineTransform usr2dev) {
+            return (int)Math.round(usr2dev.getTranslateY() -
+                                   transform.getTranslateY());
+        }
+
+        /**
+         * Returns the mean scale factor of this level.
+         */
+        public double getScale() {
+            return Math.sqrt(Math.abs(transform.getDeterminant()));
+        }
+
+        public int hashCode() {
+            return Float.floatToIntBits(m00) ^ Float.floatToIntBits(m10)*31 ^
+                Float.floatToIntBits(m01)*961 ^ Float.floatToIntBits(m11)*29791 ^
+                (fx << 16) ^ fy;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Level))
+                return false;
+            Level l = (Level)o;
+            return (m00 == l.m00) && (m10 == l.m10) &&
+                (m01 == l.m01) && (m11 == l.m11) &&
+                (fx == l.fx) && (fy == l.fy);
+        }
+    }
+
+    /**
+     * The key of a tile.
+     */
+    public static class Tile {
+        protected Level level;
+        protected int col, row;
+
+        public Tile(Level level, int col, int row) {
+            this.level = level;
+            this.col   = col;
+            this.row   = row;
+        }
+
+        public int hashCode() {
+            return level.hashCode() ^ (col * 8191) ^ row;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Tile))
+                return false;
+            Tile t = (Tile)o;
+            return (t.level.equals(level)) && (t.col == col) &&
+                (t.row == row);
+        }
+    }
+}
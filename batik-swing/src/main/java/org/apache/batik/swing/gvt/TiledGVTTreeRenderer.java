@@ -0,0 +1,153 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.swing.gvt;
+
+import java.awt.Component;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.batik.bridge.InterruptedBridgeException;
+import org.apache.batik.gvt.renderer.ImageRenderer;
+
+/**
+ * A GVTTreeRenderer that renders the missing tiles of a
+ * {@link TilePyramid} instead of a single offscreen image.
+ *
+ * <p>The visible tiles are rendered first, closest to the center of
+ * the view first, and the component is repainted as each one
+ * completes.  The rendering is then reported as completed, and the
+ * tiles around the view are rendered in the background until the
+ * thread is halted, so that the next pan finds them ready.  The
+ * pyramid is grown to hold all of these tiles at once.  The events
+ * carry no image; the component paints the pyramid.</p>
+ *
+ * @version $Id$
+ */
+public class TiledGVTTreeRenderer extends GVTTreeRenderer {
+
+    /**
+     * The tiles.
+     */
+    protected TilePyramid pyramid;
+
+    /**
+     * The visible area, in device space.
+     */
+    protected Rectangle visibleRect;
+
+    /**
+     * The number of rings of tiles rendered around the visible ones.
+     */
+    protected int prefetchRings;
+
+    /**
+     * The component to repaint when tiles are ready, may be null.
+     */
+    protected Component component;
+
+    /**
+     * Creates a new TiledGVTTreeRenderer.
+     * @param r The renderer to use to paint the tiles.
+     * @param pyramid The pyramid to render the tiles of.
+     * @param usr2dev The user to device transform.
+     * @param visRect The visible area, in device space.
+     * @param prefetchRings The number of rings of tiles to render
+     *        around the visible area.
+     * @param c The component to repaint when tiles are ready.
+     */
+    public TiledGVTTreeRenderer(ImageRenderer r, TilePyramid pyramid,
+                                AffineTransform usr2dev, Rectangle visRect,
+                                int prefetchRings, Component c) {
+        super(r, usr2dev, true, null, visRect.width, visRect.height);
+        this.pyramid       = pyramid;
+        this.visibleRect   = visRect;
+        this.prefetchRings = prefetchRings;
+        this.component     = c;
+        pyramid.ensureCapacity(pyramid.getTileCount(visRect, prefetchRings));
+    }
+
+    /**
+     * Runs this renderer.
+     */
+    public void run() {
+        GVTTreeRendererEvent ev = new GVTTreeRendererEvent(this, null);
+        // No more events once the completion has been reported.
+        boolean completed = false;
+        try {
+            fireEvent(prepareDispatcher, ev);
+            if (isHalted()) {
+                fireEvent(cancelledDispatcher, ev);
+                return;
+            }
+            fireEvent(startedDispatcher, ev);
+
+            List visible = pyramid.getMissingTiles(user2DeviceTransform,
+                                                   visibleRect);
+            Iterator i = visible.iterator();
+            while (i.hasNext()) {
+                if (!pyramid.renderTile(renderer,
+                                        (TilePyramid.Tile)i.next())) {
+                    if (isHalted()) {
+                        fireEvent(cancelledDispatcher, ev);
+                        return;
+                    }
+                    continue;
+                }
+                if (component != null)
+                    component.repaint();
+            }
+            if (isHalted()) {
+                fireEvent(cancelledDispatcher, ev);
+                return;
+            }
+            fireEvent(completedDispatcher, ev);
+            completed = true;
+
+            // Render the neighbours, as long as they don't push the
+            // visible tiles out of the pyramid.
+            int ts = pyramid.getTileSize();
+            int n = ts * prefetchRings;
+            Rectangle r = new Rectangle(visibleRect);
+            r.grow(n, n);
+            int budget = pyramid.getMaxTiles() -
+                pyramid.getTileCount(visibleRect, 0);
+            i = pyramid.getMissingTiles(user2DeviceTransform, r).iterator();
+            while (i.hasNext() && (budget-- > 0) && !isHalted())
+                pyramid.renderTile(renderer, (TilePyramid.Tile)i.next());
+        } catch (NoClassDefFoundError e) {
+            // This error was reported to happen when the rendering
+            // is interrupted with JDK1.3.0rc1 Solaris.
+        } catch (InterruptedBridgeException e) {
+            // this sometimes happens with SVG Fonts since the glyphs are
+            // not built till the rendering stage
+            if (!completed)
+                fireEvent(cancelledDispatcher, ev);
+        } catch (ThreadDeath td) {
+            if (!completed)
+                fireEvent(failedDispatcher, ev);
+            throw td;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            if (!completed)
+                fireEvent(failedDispatcher, ev);
+        }
+    }
+}
@@ -1066,6 +1066,15 @@ public class JSVGComponent extends JGVTComponent {
         return true;
     }
 
+    /**
+     * Tells whether the current tree should be rendered in tiles.
+     * Interactive documents are not, since the update manager repaints
+     * them through the offscreen image.
+     */
+    protected boolean useTiledRendering() {
+        return super.useTiledRendering() && !isInteractiveDocument;
+    }
+
     /**
      * Renders the GVT tree.
      */
@@ -0,0 +1,163 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.swing.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.renderer.ImageRenderer;
+import org.apache.batik.gvt.renderer.StaticRenderer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which tiles a {@link TilePyramid} renders, keeps and paints.
+ *
+ * @version $Id$
+ */
+public class TilePyramidTestCase {
+
+    private static final int RED = 0xFFFF0000;
+
+    /**
+     * Returns a renderer for a tree that paints everything red.
+     */
+    private static ImageRenderer createRenderer() {
+        Rectangle r = new Rectangle(-10000, -10000, 20000, 20000);
+        FillShapePainter p = new FillShapePainter(r);
+        p.setPaint(Color.red);
+        ShapeNode n = new ShapeNode();
+        n.setShape(r);
+        n.setShapePainter(p);
+        CompositeGraphicsNode root = new CompositeGraphicsNode();
+        root.getChildren().add(n);
+        ImageRenderer renderer = new StaticRenderer();
+        renderer.setTree(root);
+        return renderer;
+    }
+
+    @Test
+    public void testMissingTiles() {
+        TilePyramid pyramid = new TilePyramid(100, 100);
+        AffineTransform at = new AffineTransform();
+        Rectangle area = new Rectangle(0, 0, 300, 300);
+        List missing = pyramid.getMissingTiles(at, area);
+        assertEquals(9, missing.size());
+        TilePyramid.Tile t = (TilePyramid.Tile)missing.get(0);
+        // The center one first.
+        assertEquals(1, t.col);
+        assertEquals(1, t.row);
+
+        assertTrue(pyramid.renderTile(createRenderer(), t));
+        missing = pyramid.getMissingTiles(at, area);
+        assertEquals(8, missing.size());
+        assertTrue(!missing.contains(t));
+    }
+
+    @Test
+    public void testEviction() {
+        TilePyramid pyramid = new TilePyramid(100, 2);
+        ImageRenderer renderer = createRenderer();
+        AffineTransform at = new AffineTransform();
+        TilePyramid.Level l = pyramid.getLevel(at);
+        TilePyramid.Tile t0 = new TilePyramid.Tile(l, 0, 0);
+        TilePyramid.Tile t1 = new TilePyramid.Tile(l, 1, 0);
+        TilePyramid.Tile t2 = new TilePyramid.Tile(l, 2, 0);
+        pyramid.renderTile(renderer, t0);
+        pyramid.renderTile(renderer, t1);
+
+        // Painting t0 makes t1 the least recently used one.
+        BufferedImage img = new BufferedImage(100, 100,
+                                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        pyramid.paint(g, at, new Rectangle(0, 0, 100, 100));
+        g.dispose();
+        pyramid.renderTile(renderer, t2);
+
+        List missing = pyramid.getMissingTiles
+            (at, new Rectangle(0, 0, 300, 100));
+        assertEquals(1, missing.size());
+        assertEquals(t1, missing.get(0));
+    }
+
+    @Test
+    public void testPaint() {
+        TilePyramid pyramid = new TilePyramid(100, 16);
+        ImageRenderer renderer = createRenderer();
+        AffineTransform at = AffineTransform.getTranslateInstance(30, 40);
+        Rectangle area = new Rectangle(0, 0, 200, 200);
+        List missing = pyramid.getMissingTiles(at, area);
+        for (int i = 0; i < missing.size(); i++)
+            pyramid.renderTile(renderer, (TilePyramid.Tile)missing.get(i));
+
+        BufferedImage img = new BufferedImage(200, 200,
+                                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        pyramid.paint(g, at, area);
+        g.dispose();
+        assertEquals(RED, img.getRGB(0, 0));
+        assertEquals(RED, img.getRGB(199, 199));
+
+        // A zoom has no tiles yet, the ones above stand in for them.
+        AffineTransform zoom = AffineTransform.getScaleInstance(2, 2);
+        zoom.preConcatenate(at);
+        img = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        g = img.createGraphics();
+        pyramid.paint(g, zoom, area);
+        g.dispose();
+        assertEquals(RED, img.getRGB(100, 100));
+    }
+
+    @Test
+    public void testVisibleTilesFit() {
+        // A 4K view with a ring of prefetched tiles doesn't fit in the
+        // default pyramid.
+        TilePyramid pyramid = new TilePyramid();
+        Rectangle vis = new Rectangle(0, 0, 3840, 2160);
+        AffineTransform at = AffineTransform.getTranslateInstance(37, 11);
+        TiledGVTTreeRenderer tr = new TiledGVTTreeRenderer
+            (createRenderer(), pyramid, at, vis, 1, null);
+        assertTrue(pyramid.getMaxTiles() >= pyramid.getTileCount(vis, 1));
+
+        tr.run();
+        assertTrue(pyramid.getMissingTiles(at, vis).isEmpty());
+
+        // The ring was prefetched too.
+        Rectangle ring = new Rectangle(vis);
+        ring.grow(pyramid.getTileSize(), pyramid.getTileSize());
+        assertTrue(pyramid.getMissingTiles(at, ring).isEmpty());
+
+        BufferedImage img = new BufferedImage(vis.width, vis.height,
+                                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        pyramid.paint(g, at, vis);
+        g.dispose();
+        assertEquals(RED, img.getRGB(0, 0));
+        assertEquals(RED, img.getRGB(vis.width-1, vis.height-1));
+    }
+}
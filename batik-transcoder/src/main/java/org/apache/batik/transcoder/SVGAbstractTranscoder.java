@@ -192,6 +192,9 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
         SVGOMDocument svgDoc = (SVGOMDocument)document;
         SVGSVGElement root = svgDoc.getRootElement();
         ctx = createBridgeContext(svgDoc);
+        if (hints.containsKey(KEY_IMAGE_DECODE_SCALE))
+            ctx.setImageDecodeScale
+                (((Float)hints.get(KEY_IMAGE_DECODE_SCALE)).floatValue());
 
         // build the GVT tree
         builder = new GVTBuilder();
@@ -802,6 +805,39 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     public static final TranscodingHints.Key KEY_SNAPSHOT_TIME
         = new FloatKey();
 
+    /**
+     * The image decode scale key.
+     * <table border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_IMAGE_DECODE_SCALE</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Float</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">0</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">The number of output pixels per pixel of the
+     *       document.  When greater than 0, raster images displayed much
+     *       smaller than their natural size are decoded at a reduced
+     *       resolution that is still sufficient at that scale.  0
+     *       decodes them at full resolution.  See {@link
+     *       BridgeContext#setImageDecodeScale}.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_IMAGE_DECODE_SCALE
+        = new FloatKey();
+
     /**
      * The set of supported script languages (i.e., the set of possible
      * values for the &lt;script&gt; tag's type attribute).
@@ -21,6 +21,7 @@ package org.apache.batik.transcoder.image;
 import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.Paint;
+import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
@@ -28,6 +29,7 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.awt.image.SinglePixelPackedSampleModel;
 
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
 import org.apache.batik.gvt.renderer.ImageRenderer;
@@ -98,6 +100,12 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
         // paint the SVG document using the bridge package
         // create the appropriate renderer
         ImageRenderer renderer = createRenderer();
+        if (Boolean.TRUE.equals(hints.get(KEY_SIMPLIFY_SHAPES))) {
+            RenderingHints rh = renderer.getRenderingHints();
+            rh.put(RenderingHintsKeyExt.KEY_SHAPE_SIMPLIFICATION,
+                   RenderingHintsKeyExt.VALUE_SHAPE_SIMPLIFICATION_ON);
+            renderer.setRenderingHints(rh);
+        }
         renderer.updateOffScreen(w, h);
         // curTxf.translate(0.5, 0.5);
         renderer.setTransform(curTxf);
@@ -275,4 +283,36 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
      */
     public static final TranscodingHints.Key KEY_FORCE_TRANSPARENT_WHITE
         = new BooleanKey();
+
+    /**
+     * The shape simplification key.
+     * <table border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_SIMPLIFY_SHAPES</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Boolean</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">false</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">It controls whether shapes whose vertices are
+     *       closer to each other than a quarter of a pixel in the
+     *       image may be painted with a simplified outline.  This speeds
+     *       up thumbnails and overviews of detailed documents, such as
+     *       maps, without visible difference.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_SIMPLIFY_SHAPES
+        = new BooleanKey();
 }
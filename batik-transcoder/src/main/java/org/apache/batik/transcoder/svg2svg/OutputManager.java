@@ -113,10 +113,7 @@ public class OutputManager {
      * Prints a newline.
      */
     public void printNewline() throws IOException {
-        String nl = prettyPrinter.getNewline();
-        for (int i = 0; i < nl.length(); i++) {
-            writer.write(nl.charAt(i));
-        }
+        writer.write(prettyPrinter.getNewline());
         column = 0;
         line++;
      }
@@ -125,18 +122,33 @@ public class OutputManager {
      * Prints a string.
      */
     public void printString(String s) throws IOException {
-        for (int i = 0; i < s.length(); i++) {
-            printCharacter(s.charAt(i));
+        int len = s.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) == 10) {
+                writer.write(s, start, i - start);
+                printNewline();
+                start = i + 1;
+            }
         }
+        writer.write(s, start, len - start);
+        column += len - start;
     }
 
     /**
      * Prints a char array.
      */
     public void printCharacters(char[] ca) throws IOException {
+        int start = 0;
         for (int i = 0; i < ca.length; i++) {
-            printCharacter(ca[i]);
+            if (ca[i] == 10) {
+                writer.write(ca, start, i - start);
+                printNewline();
+                start = i + 1;
+            }
         }
+        writer.write(ca, start, ca.length - start);
+        column += ca.length - start;
     }
 
     /**
@@ -763,21 +775,22 @@ public class OutputManager {
                 startsWithSpace = true;
                 i++;
             }
-            StringBuffer sb = new StringBuffer();
+            int start = i;
             for (;;) {
                 if (i >= text.length || XMLUtilities.isXMLSpace(text[i])) {
                     break;
                 }
-                sb.append(text[i++]);
+                i++;
             }
-            if (sb.length() == 0) {
+            int len = i - start;
+            if (len == 0) {
                 return startsWithSpace;
             }
             if (startsWithSpace) {
                 // Consider reformatting ws so things look nicer.
-                int endCol = column + sb.length();
+                int endCol = column + len;
                 if ((endCol >= prettyPrinter.getDocumentWidth() - 1) &&
-                    ((margin.length() + sb.length() <
+                    ((margin.length() + len <
                       prettyPrinter.getDocumentWidth() - 1) ||
                      (margin.length() < column))) {
                     printNewline();
@@ -787,7 +800,9 @@ public class OutputManager {
                     printCharacter(' ');
                 }
             }
-            printString(sb.toString());
+            // The word holds no white space, hence no newline.
+            writer.write(text, start, len);
+            column += len;
             startsWithSpace = false;
         }
         return startsWithSpace;
@@ -893,4 +908,99 @@ public class OutputManager {
             return false;
         }
     }
+
+    /**
+     * A writer that collects the output in a large buffer and writes
+     * it to another writer by blocks.  It is not synchronized.
+     */
+    public static class OutputBuffer extends Writer {
+
+        /**
+         * The default size of the buffer.
+         */
+        public static final int DEFAULT_SIZE = 65536;
+
+        /**
+         * The writer the buffer is written to.
+         */
+        protected Writer out;
+
+        /**
+         * The buffer.
+         */
+        protected char[] buffer;
+
+        /**
+         * The number of characters in the buffer.
+         */
+        protected int count;
+
+        /**
+         * Creates a new OutputBuffer.
+         */
+        public OutputBuffer(Writer out) {
+            this(out, DEFAULT_SIZE);
+        }
+
+        /**
+         * Creates a new OutputBuffer.
+         * @param out The writer to write the buffer to.
+         * @param size The size of the buffer.
+         */
+        public OutputBuffer(Writer out, int size) {
+            this.out = out;
+            buffer = new char[size];
+        }
+
+        public void write(int c) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (char)c;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (len > buffer.length - count) {
+                flushBuffer();
+                if (len > buffer.length) {
+                    out.write(cbuf, off, len);
+                    return;
+                }
+            }
+            System.arraycopy(cbuf, off, buffer, count, len);
+            count += len;
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+            if (len > buffer.length - count) {
+                flushBuffer();
+                if (len > buffer.length) {
+                    out.write(str, off, len);
+                    return;
+                }
+            }
+            str.getChars(off, off + len, buffer, count);
+            count += len;
+        }
+
+        /**
+         * Writes the content of the buffer to the output writer.
+         */
+        protected void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            flushBuffer();
+            out.close();
+        }
+    }
 }
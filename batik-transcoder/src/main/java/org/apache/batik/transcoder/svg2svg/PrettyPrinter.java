@@ -200,8 +200,8 @@ public class PrettyPrinter {
                                                  IOException {
         try {
             scanner = new XMLScanner(r);
-            output = new OutputManager(this, w);
-            writer = w;
+            writer = new OutputManager.OutputBuffer(w);
+            output = new OutputManager(this, writer);
             type = scanner.next();
 
             printXMLDecl();
@@ -276,6 +276,10 @@ public class PrettyPrinter {
             }
         } catch (XMLException e) {
             errorHandler.fatalError(new TranscoderException(e.getMessage()));
+        } finally {
+            if (writer != null) {
+                writer.flush();
+            }
         }
     }
 
@@ -822,6 +826,12 @@ public class PrettyPrinter {
         }
     }
 
+    /**
+     * The buffer used to read the attribute values, reused between
+     * elements.
+     */
+    protected StringBuffer attributeValue = new StringBuffer();
+
     /**
      * Prints an element.
      */
@@ -866,7 +876,8 @@ public class PrettyPrinter {
                 char valueDelim = scanner.getStringDelimiter();
                 boolean hasEntityRef = false;
 
-                StringBuffer sb = new StringBuffer();
+                StringBuffer sb = attributeValue;
+                sb.setLength(0);
                 sb.append(getCurrentValue());
                 loop: for (;;) {
                     scanner.clearBuffer();
@@ -42,6 +42,12 @@ public class WMFRecordStore extends AbstractWMFReader {
 
     private boolean _bext = true;
 
+    /**
+     * The handler the records are given to as they are read, or null
+     * to keep them in this store.
+     */
+    protected RecordHandler recordHandler;
+
 
     public WMFRecordStore() {
       super();
@@ -64,6 +70,27 @@ public class WMFRecordStore extends AbstractWMFReader {
       records = new ArrayList( 20 );
     }
 
+    /**
+     * Sets the handler the records are given to as they are read.  A
+     * store with a handler does not keep the records, so the memory
+     * it uses no longer grows with their number.  Set to null to keep
+     * the records in the store.
+     */
+    public void setRecordHandler( RecordHandler handler ) {
+        recordHandler = handler;
+    }
+
+    /**
+     * Adds a record that has just been read.
+     */
+    protected void addRecord( MetaRecord mr ) {
+        if ( recordHandler != null ) {
+            recordHandler.handleRecord( mr );
+        } else {
+            records.add( mr );
+        }
+    }
+
     /**
      * Reads the WMF file from the specified Stream.
      */
@@ -92,7 +119,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int mapmode = readShort( is ); 
                     if (mapmode == WMFConstants.MM_ANISOTROPIC) isotropic = false;
                     mr.addElement(mapmode);
-                    records.add( mr );
+                    addRecord( mr );
             }
                 break;                
             case WMFConstants.META_DRAWTEXT:
@@ -151,7 +178,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                         mr.addElement( x2 );
                         mr.addElement( y2 );
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -184,7 +211,7 @@ public class WMFRecordStore extends AbstractWMFReader {
 
                     mr.addElement( xVal );
                     mr.addElement( yVal );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -229,7 +256,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( lfOrientation );
                     // escapement is the orientation of the text in tenth of degrees
                     mr.addElement( lfEscapement );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -269,7 +296,7 @@ public class WMFRecordStore extends AbstractWMFReader {
 
                     mr.addElement((int)(width  * scaleXY));
                     mr.addElement( height );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -282,7 +309,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int x = (int)(readShort( is ) * xSign * scaleXY);
                     mr.addElement( x );
                     mr.addElement( y );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -299,7 +326,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( ydenom );
                     mr.addElement( xnum );
                     mr.addElement( ynum );
-                    records.add( mr );
+                    addRecord( mr );
                     scaleX = scaleX * (float)xdenom / (float)xnum;
                     scaleY = scaleY * (float)ydenom / (float)ynum;
                 }
@@ -325,7 +352,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // The hatch style
                     mr.addElement( readShort( is ) );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -360,7 +387,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // The pen width
                     mr.addElement( width );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -372,7 +399,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // need to do this, because sometimes there is more than one short
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
                     mr.addElement( align );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -390,7 +417,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( red );
                     mr.addElement( green );
                     mr.addElement( blue );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -404,7 +431,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int x = (int)(readShort( is ) * xSign * scaleXY);
                     mr.addElement( x );
                     mr.addElement( y );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -417,7 +444,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // need to do this, because sometimes there is more than one short
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
                     mr.addElement( mode );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -446,7 +473,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                             mr.addElement( readShort( is ) * ySign ); // y position of the polygon
                         }
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -462,7 +489,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                         mr.addElement((int)(readShort( is ) * xSign * scaleXY));
                         mr.addElement( readShort( is ) * ySign );
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -481,7 +508,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( right );
                     mr.addElement( bottom );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -496,7 +523,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( right );
                     mr.addElement( bottom );
-                    records.add( mr );
+                    addRecord( mr );
             }
             break;
 
@@ -516,7 +543,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( bottom );
                     mr.addElement( el_width );
                     mr.addElement( el_height );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -542,7 +569,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( ystart );
                     mr.addElement( xend );
                     mr.addElement( yend );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -564,7 +591,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( left );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -577,7 +604,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( mode );
                     //if (recSize > 1) readShort( is );
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -593,7 +620,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     else rop = readInt( is );
 
                     mr.addElement( rop );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             // UPDATED : META_DIBSTRETCHBLT added
@@ -625,7 +652,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( widthDst );
                     mr.addElement( dy );
                     mr.addElement( dx );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             case WMFConstants.META_STRETCHDIB: {
@@ -656,7 +683,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement(widthDst); 
                     mr.addElement(dy);
                     mr.addElement(dx);                      
-                    records.add( mr );                
+                    addRecord( mr );                
             }
             break;                                                                                
             // UPDATED : META_DIBBITBLT added
@@ -693,7 +720,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( sx );
                     mr.addElement( dy );
                     mr.addElement( dx );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             // UPDATED : META_CREATEPATTERNBRUSH added
@@ -708,7 +735,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.numPoints = recSize;
                     mr.functionId = functionId;
                     mr.addElement( type );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             default:
@@ -718,7 +745,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                 for ( int j = 0; j < recSize; j++ )
                     mr.addElement( readShort( is ) );
 
-                records.add( mr );
+                addRecord( mr );
                 break;
 
             }
@@ -795,4 +822,14 @@ public class WMFRecordStore extends AbstractWMFReader {
       vpY = newValue;
     }
 
+    /**
+     * Receives the records of a metafile as they are read.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handles a record that has just been read.
+         */
+        void handleRecord( MetaRecord mr );
+    }
 }
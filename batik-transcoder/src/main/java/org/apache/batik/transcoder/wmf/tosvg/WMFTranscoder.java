@@ -23,9 +23,11 @@ import java.awt.Dimension;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -106,16 +108,44 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
     public void transcode(TranscoderInput input, TranscoderOutput output)
         throws TranscoderException {
         //
-        // Extract the input
+        // The input is read twice: once for the header and the
+        // viewport, then to paint the records as they are read, so
+        // that they are never all held in memory.  Unless it is a
+        // local file, the input is first spooled to a temporary file
+        // so that it is only fetched once.
         //
-        DataInputStream is = getCompatibleInput(input);
+        File spool;
+        try {
+            spool = spool(input);
+        } catch (IOException e){
+            handler.fatalError(new TranscoderException(e));
+            return;
+        }
+        try {
+            transcode(input, spool, output);
+        } finally {
+            if (spool != null) {
+                spool.delete();
+            }
+        }
+    }
 
+    /**
+     * Transcodes the input, read from <code>spool</code> if not null.
+     */
+    private void transcode(TranscoderInput input, File spool,
+                           TranscoderOutput output)
+        throws TranscoderException {
         //
-        // Build a RecordStore from the input
+        // Read the header and viewport of the input, without the records
         //
         WMFRecordStore currentStore = new WMFRecordStore();
+        currentStore.setRecordHandler(new WMFRecordStore.RecordHandler() {
+                public void handleRecord(MetaRecord mr) {
+                }
+            });
         try {
-            currentStore.read(is);
+            currentStore.read(getCompatibleInput(input, spool));
         } catch (IOException e){
             handler.fatalError(new TranscoderException(e));
             return;
@@ -184,7 +214,12 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
          */
         svgGenerator.getGeneratorContext().setPrecision(4);
 
-        painter.paint(svgGenerator);
+        try {
+            painter.paint(svgGenerator, getCompatibleInput(input, spool));
+        } catch (IOException e){
+            handler.fatalError(new TranscoderException(e));
+            return;
+        }
 
         svgGenerator.setSVGCanvasSize(new Dimension(vpW, vpH));
 
@@ -198,6 +233,62 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
         writeSVGToOutput(svgGenerator, svgRoot, output);
     }
 
+    /**
+     * Returns a new stream on the input, reading from <code>spool</code>
+     * when the input was spooled.
+     */
+    private DataInputStream getCompatibleInput(TranscoderInput input,
+                                               File spool)
+        throws TranscoderException, IOException {
+        if (spool != null) {
+            return new DataInputStream
+                (new BufferedInputStream(new FileInputStream(spool)));
+        }
+        return getCompatibleInput(input);
+    }
+
+    /**
+     * Copies an <code>InputStream</code> input, or a URI input other
+     * than a local file, to a temporary file.  Returns the file, or
+     * null when the input is read in place.
+     */
+    private static File spool(TranscoderInput input) throws IOException {
+        if (input == null) {
+            return null;
+        }
+        InputStream in = input.getInputStream();
+        if ((in == null) && (input.getURI() != null)) {
+            URL url = new URL(input.getURI());
+            if ("file".equals(url.getProtocol())) {
+                return null;
+            }
+            in = url.openStream();
+        }
+        if (in == null) {
+            return null;
+        }
+
+        File spool = File.createTempFile("batik-wmf", WMF_EXTENSION);
+        try {
+            OutputStream out = new FileOutputStream(spool);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            spool.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+        return spool;
+    }
+
     /**
      * Checks that the input is one of URI or an <code>InputStream</code>
      * returns it as a DataInputStream
@@ -0,0 +1,169 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.wmf.tosvg;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.svggen.SVGGraphics2D;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that painting the records of a WMF as they are read gives the
+ * same SVG as painting them from a record store that holds them all,
+ * and that the transcoder gives the same SVG for every kind of input.
+ *
+ * @version $Id$
+ */
+public class WMFTranscoderTestCase {
+
+    private static final File WMF_DIR =
+        new File("../samples/tests/resources/wmf");
+
+    private static File[] getFiles() {
+        File[] files = WMF_DIR.listFiles();
+        assertTrue(WMF_DIR.getAbsolutePath(),
+                   (files != null) && (files.length > 0));
+        return files;
+    }
+
+    private static DataInputStream open(File f) throws IOException {
+        return new DataInputStream
+            (new BufferedInputStream(new FileInputStream(f)));
+    }
+
+    /**
+     * Paints <code>f</code> to SVG, either from a store that holds all
+     * the records or from a store with just the header and viewport
+     * while a second read of the file gives the records.
+     */
+    private static String paint(File f, boolean streaming)
+        throws IOException {
+        WMFRecordStore store = new WMFRecordStore();
+        if (streaming) {
+            store.setRecordHandler(new WMFRecordStore.RecordHandler() {
+                    public void handleRecord(MetaRecord mr) {
+                    }
+                });
+        }
+        store.read(open(f));
+
+        WMFPainter painter = new WMFPainter(store, 0, 0, 1f);
+        SVGGraphics2D g = new SVGGraphics2D
+            (GenericDOMImplementation.getDOMImplementation()
+             .createDocument(null, "svg", null));
+        g.getGeneratorContext().setPrecision(4);
+        if (streaming) {
+            painter.paint(g, open(f));
+        } else {
+            painter.paint(g);
+        }
+
+        StringWriter w = new StringWriter();
+        g.stream(w);
+        return w.toString();
+    }
+
+    @Test
+    public void testStreamingPaint() throws Exception {
+        File[] files = getFiles();
+        for (int i = 0; i < files.length; i++) {
+            String stored = paint(files[i], false);
+            assertTrue(files[i].getName(), stored.indexOf("<path") != -1 ||
+                       stored.indexOf("<text") != -1 ||
+                       stored.indexOf("<image") != -1 ||
+                       stored.indexOf("<rect") != -1);
+            assertEquals(files[i].getName(), stored, paint(files[i], true));
+        }
+    }
+
+    private static String transcode(TranscoderInput input)
+        throws Exception {
+        StringWriter w = new StringWriter();
+        new WMFTranscoder().transcode(input, new TranscoderOutput(w));
+        return w.toString();
+    }
+
+    /**
+     * Returns a zip holding <code>f</code>, to read it through a URI
+     * that isn't a local file.
+     */
+    private static File zip(File f) throws IOException {
+        File zip = File.createTempFile("wmftest", ".zip");
+        zip.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        out.putNextEntry(new ZipEntry(f.getName()));
+        InputStream in = new FileInputStream(f);
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        out.close();
+        return zip;
+    }
+
+    private static int countSpooled() {
+        File[] tmp = new File(System.getProperty("java.io.tmpdir"))
+            .listFiles();
+        int n = 0;
+        for (int i = 0; i < tmp.length; i++) {
+            if (tmp[i].getName().startsWith("batik-wmf")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testInputs() throws Exception {
+        int spooled = countSpooled();
+        File[] files = getFiles();
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            String uri = files[i].toURI().toString();
+            String expected = transcode(new TranscoderInput(uri));
+
+            InputStream in = new FileInputStream(files[i]);
+            assertEquals(name, expected,
+                         transcode(new TranscoderInput(in)));
+
+            String jar = "jar:" + zip(files[i]).toURI() + "!/" + name;
+            assertEquals(name, expected,
+                         transcode(new TranscoderInput(jar)));
+        }
+        // The spooled copies are gone.
+        assertEquals(spooled, countSpooled());
+    }
+}
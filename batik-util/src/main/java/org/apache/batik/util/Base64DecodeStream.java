@@ -118,9 +118,11 @@ public class Base64DecodeStream extends InputStream {
                 }
             }
 
-            out[offset+idx] = out_buffer[out_offset++];
-
-            idx++;
+            int n = Math.min(3-out_offset, len-idx);
+            for (int i = 0; i < n; i++)
+                out[offset+idx+i] = out_buffer[out_offset+i];
+            out_offset += n;
+            idx += n;
         }
         return idx;
     }
@@ -128,6 +130,8 @@ public class Base64DecodeStream extends InputStream {
     final boolean getNextAtom() throws IOException {
         int count, a, b, c, d;
 
+        // Only one atom is read from src at a time, so nothing past
+        // the padding is consumed.
         int off = 0;
         while(off != 4) {
             count = src.read(decode_buffer, off, 4-off);
@@ -173,4 +177,69 @@ public class Base64DecodeStream extends InputStream {
 
         return false;
     }
+
+    /**
+     * Returns the size of an array large enough to hold the decoded
+     * form of <code>len</code> base64 characters.
+     */
+    static int getMaxDecodedLength(int len) {
+        return ((len + 3) / 4) * 3;
+    }
+
+    /**
+     * Decodes the base64 characters of <code>s</code> between
+     * <code>start</code> and <code>end</code> in one pass, without
+     * going through a stream.  For well formed input the result is the
+     * same as reading a <code>Base64DecodeStream</code> over those
+     * characters.  Input the stream would decode to garbage, a
+     * character outside the base64 alphabet or misplaced padding, is
+     * rejected instead so the caller can fall back to the stream.
+     * @param dst Receives the decoded bytes, it must be at least
+     *            <code>getMaxDecodedLength(end-start)</code> long.
+     * @return the number of decoded bytes, or -1 if the input is not
+     *         well formed.
+     */
+    static int decode(CharSequence s, int start, int end, byte[] dst) {
+        int j = 0;
+        int n = 0;
+        int acc = 0;
+        char c2 = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if ((ch == '\n') || (ch == '\r') || (ch == ' '))
+                continue;
+            int v;
+            if (ch == '=') {
+                // Padding is only allowed in the last two places.
+                if (n < 2) return -1;
+                v = 0;
+            } else {
+                if ((ch > 0xFF) || ((n == 3) && (c2 == '=')))
+                    return -1;
+                v = pem_array[ch];
+                if (v < 0) return -1;
+            }
+            acc = (acc << 6) | v;
+            if (n == 2) c2 = ch;
+            if (n < 3) {
+                n++;
+                continue;
+            }
+            n = 0;
+
+            if (ch != '=') {
+                dst[j++] = (byte)(acc >> 16);
+                dst[j++] = (byte)(acc >> 8);
+                dst[j++] = (byte) acc;
+            } else if (c2 == '=') {
+                dst[j++] = (byte)(acc >> 16);
+                break;
+            } else {
+                dst[j++] = (byte)(acc >> 16);
+                dst[j++] = (byte)(acc >> 8);
+                break;
+            }
+        }
+        return j;
+    }
 }
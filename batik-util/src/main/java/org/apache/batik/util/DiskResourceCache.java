@@ -0,0 +1,671 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A {@link ResourceCache} that keeps the resources fetched over HTTP
+ * in a directory, so repeated renderings don't download the same
+ * stylesheets, images and fonts again.
+ *
+ * <p>Each resource is stored as a body file and a header file; the
+ * header files are read back into an in-memory index when the cache
+ * is created.  Resources are stored per URL and per value of the
+ * <code>Accept</code> and <code>Accept-Encoding</code> request headers,
+ * since the server may send a different representation for each.  A
+ * stored resource is served without a request while it is fresh
+ * according to its <code>Cache-Control: max-age</code> or
+ * <code>Expires</code> headers.  Once stale it is revalidated with a
+ * conditional request using its <code>ETag</code> and
+ * <code>Last-Modified</code> validators.  Responses marked
+ * <code>no-store</code>, responses other than 200 and responses that
+ * could never be reused are passed through untouched.</p>
+ *
+ * <p>Concurrent requests for the same URL are coalesced: one thread
+ * fetches the resource while the others wait for it to be stored.
+ * When the cache grows beyond its maximum size the least recently used
+ * resources are dropped.</p>
+ *
+ * @version $Id$
+ */
+public class DiskResourceCache implements ResourceCache {
+
+    /**
+     * The default maximum size of the cache, in bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    protected static final String HEADER_SUFFIX = ".hdr";
+    protected static final String BODY_SUFFIX   = ".body";
+
+    /**
+     * The directory the resources are stored in.
+     */
+    protected File directory;
+
+    /**
+     * The maximum total size of the stored resources.
+     */
+    protected long maxSize;
+
+    /**
+     * The current total size of the stored resources.
+     */
+    protected long size;
+
+    /**
+     * The stored resources by key (see {@link #getKey}), least
+     * recently used first.
+     */
+    protected Map index = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The fetches in progress by key.
+     */
+    protected Map pending = new HashMap();
+
+    protected long hitCount;
+    protected long revalidationCount;
+    protected long missCount;
+    protected long coalescedCount;
+    protected long storeCount;
+    protected long evictionCount;
+
+    /**
+     * Creates a cache of at most <code>DEFAULT_MAX_SIZE</code> bytes
+     * in <code>directory</code>.
+     */
+    public DiskResourceCache(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache of at most <code>maxSize</code> bytes in
+     * <code>directory</code>, which is created if needed.  The
+     * resources already stored there are reused.
+     */
+    public DiskResourceCache(File directory, long maxSize)
+        throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create cache directory " +
+                                  directory);
+        this.directory = directory;
+        this.maxSize   = maxSize;
+        load();
+    }
+
+    /**
+     * Opens <code>url</code>, from the disk store if possible.  Only
+     * http and https URLs are handled.
+     */
+    public Resource open(URL url, Map requestProperties)
+        throws IOException {
+        String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) &&
+            !"https".equalsIgnoreCase(protocol))
+            return null;
+
+        String key = getKey(url, requestProperties);
+        Fetch fetch;
+        Entry stale = null;
+        boolean owner = false;
+        synchronized (this) {
+            Entry e = (Entry)index.get(key);
+            if ((e != null) &&
+                (e.expires > System.currentTimeMillis())) {
+                Resource r = openEntry(e);
+                if (r != null) {
+                    hitCount++;
+                    return r;
+                }
+                e = null;
+            }
+            fetch = (Fetch)pending.get(key);
+            if (fetch == null) {
+                fetch = new Fetch();
+                pending.put(key, fetch);
+                stale = e;
+                owner = true;
+            } else {
+                coalescedCount++;
+            }
+        }
+
+        if (!owner) {
+            // Someone is already fetching it, use what they store.
+            Entry e = fetch.await();
+            if (e != null) {
+                synchronized (this) {
+                    Resource r = openEntry(e);
+                    if (r != null)
+                        return r;
+                }
+            }
+            return fetch(url, requestProperties, null, null);
+        }
+
+        try {
+            return fetch(url, requestProperties, stale, fetch);
+        } finally {
+            synchronized (this) {
+                pending.remove(key);
+            }
+            fetch.finish();
+        }
+    }
+
+    /**
+     * Fetches <code>url</code> and stores it if possible.
+     * @param stale The stored copy of the resource to revalidate, or
+     *        null.
+     * @param fetch Receives the stored entry, may be null.
+     */
+    protected Resource fetch(URL url, Map requestProperties,
+                             Entry stale, Fetch fetch)
+        throws IOException {
+        URLConnection urlC = url.openConnection();
+        if (requestProperties != null) {
+            Iterator i = requestProperties.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry me = (Map.Entry)i.next();
+                urlC.setRequestProperty((String)me.getKey(),
+                                        (String)me.getValue());
+            }
+        }
+        if (stale != null) {
+            if (stale.etag != null)
+                urlC.setRequestProperty("If-None-Match", stale.etag);
+            if (stale.lastModified != null)
+                urlC.setRequestProperty("If-Modified-Since",
+                                        stale.lastModified);
+        }
+        if (!(urlC instanceof HttpURLConnection))
+            return passThrough(urlC);
+
+        HttpURLConnection httpC = (HttpURLConnection)urlC;
+        int code = httpC.getResponseCode();
+        long now = System.currentTimeMillis();
+
+        if ((code == HttpURLConnection.HTTP_NOT_MODIFIED) &&
+            (stale != null)) {
+            try {
+                httpC.getInputStream().close();
+            } catch (IOException ioe) {
+            }
+            synchronized (this) {
+                stale.expires = getExpiration(httpC, now);
+                String etag = httpC.getHeaderField("ETag");
+                if (etag != null)
+                    stale.etag = etag;
+                writeHeaders(stale);
+                revalidationCount++;
+                Resource r = openEntry(stale);
+                if (r != null) {
+                    if (fetch != null)
+                        fetch.entry = stale;
+                    return r;
+                }
+            }
+            // The body went away in the meantime.
+            return fetch(url, requestProperties, null, fetch);
+        }
+
+        synchronized (this) {
+            missCount++;
+        }
+        if ((code != HttpURLConnection.HTTP_OK) || !isStorable(httpC, now))
+            return passThrough(httpC);
+        long length = httpC.getContentLength();
+        if (length > maxSize)
+            return passThrough(httpC);
+
+        Entry e = new Entry();
+        e.key             = getKey(url, requestProperties);
+        e.url             = url.toExternalForm();
+        e.name            = getName(e.key);
+        e.contentType     = httpC.getContentType();
+        e.contentEncoding = httpC.getContentEncoding();
+        e.finalURL        = httpC.getURL().toExternalForm();
+        e.etag            = httpC.getHeaderField("ETag");
+        e.lastModified    = httpC.getHeaderField("Last-Modified");
+        e.expires         = getExpiration(httpC, now);
+
+        File body = File.createTempFile(e.name + "-", BODY_SUFFIX, directory);
+        e.body = body.getName();
+        InputStream in = httpC.getInputStream();
+        try {
+            OutputStream out = new FileOutputStream(body);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                    e.length += n;
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            body.delete();
+            throw ioe;
+        } finally {
+            in.close();
+        }
+
+        synchronized (this) {
+            Entry old = (Entry)index.remove(e.key);
+            if (old != null) {
+                size -= old.length;
+                deleteFiles(old, false);
+            }
+            writeHeaders(e);
+            index.put(e.key, e);
+            size += e.length;
+            storeCount++;
+            evict(e);
+            if (fetch != null)
+                fetch.entry = e;
+            Resource r = openEntry(e);
+            if (r != null)
+                return r;
+        }
+        throw new IOException("Unable to read back " + url);
+    }
+
+    /**
+     * Returns the content of a connection that is not cached.
+     */
+    protected Resource passThrough(URLConnection urlC) throws IOException {
+        InputStream is;
+        try {
+            is = urlC.getInputStream();
+        } catch (IOException e) {
+            if (!(urlC instanceof HttpURLConnection))
+                throw e;
+            // Let the caller interpret the error response, if any.
+            is = ((HttpURLConnection)urlC).getErrorStream();
+        }
+        return new Resource(is, urlC.getContentType(),
+                            urlC.getContentEncoding(), urlC.getURL());
+    }
+
+    /**
+     * Returns a stream on a stored resource, or null if its body is
+     * gone, in which case it is dropped from the index.
+     */
+    protected Resource openEntry(Entry e) {
+        try {
+            InputStream is = new FileInputStream(new File(directory, e.body));
+            return new Resource(is, e.contentType, e.contentEncoding,
+                                new URL(e.finalURL));
+        } catch (IOException ioe) {
+            if (index.get(e.key) == e) {
+                index.remove(e.key);
+                size -= e.length;
+                deleteFiles(e, true);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the response is worth storing: it may be
+     * stored and it is either fresh or can be revalidated.
+     */
+    protected boolean isStorable(HttpURLConnection httpC, long now) {
+        String cc = httpC.getHeaderField("Cache-Control");
+        if ((cc != null) && (cc.toLowerCase().indexOf("no-store") != -1))
+            return false;
+        if ("*".equals(httpC.getHeaderField("Vary")))
+            return false;
+        return (getExpiration(httpC, now) > now) ||
+            (httpC.getHeaderField("ETag") != null) ||
+            (httpC.getHeaderField("Last-Modified") != null);
+    }
+
+    /**
+     * Returns the time until which the response can be used without
+     * revalidation.
+     */
+    protected long getExpiration(HttpURLConnection httpC, long now) {
+        String cc = httpC.getHeaderField("Cache-Control");
+        if (cc != null) {
+            long maxAge = -1;
+            String[] directives = cc.split(",");
+            for (int i = 0; i < directives.length; i++) {
+                String d = directives[i].trim().toLowerCase();
+                if (d.startsWith("no-cache"))
+                    return 0;
+                if (d.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(d.substring(8).trim());
+                    } catch (NumberFormatException nfe) {
+                    }
+                }
+            }
+            if (maxAge >= 0) {
+                long age = httpC.getHeaderFieldInt("Age", 0);
+                return now + (maxAge - age) * 1000;
+            }
+        }
+        long expires = httpC.getExpiration();
+        if (expires > 0) {
+            // Correct for the clock of the server.
+            long date = httpC.getDate();
+            return (date > 0) ? now + expires - date : expires;
+        }
+        return 0;
+    }
+
+    /**
+     * Drops the least recently used resources until the cache is
+     * small enough.
+     * @param keep An entry that must not be dropped.
+     */
+    protected void evict(Entry keep) {
+        Iterator i = index.values().iterator();
+        while ((size > maxSize) && i.hasNext()) {
+            Entry e = (Entry)i.next();
+            if (e == keep)
+                continue;
+            i.remove();
+            size -= e.length;
+            deleteFiles(e, true);
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes every resource from the cache.
+     */
+    public synchronized void clear() {
+        Iterator i = index.values().iterator();
+        while (i.hasNext())
+            deleteFiles((Entry)i.next(), true);
+        index.clear();
+        size = 0;
+    }
+
+    /**
+     * Reads the header files of the cache directory into the index,
+     * and deletes the files that don't belong to a resource.
+     */
+    protected void load() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++) {
+            String fn = files[i].getName();
+            if (!fn.endsWith(HEADER_SUFFIX))
+                continue;
+            Entry e = readHeaders(files[i]);
+            File body = (e == null) ? null : new File(directory, e.body);
+            if ((e == null) || !body.isFile() || (body.length() != e.length)) {
+                files[i].delete();
+                continue;
+            }
+            index.put(e.key, e);
+            size += e.length;
+        }
+        for (int i = 0; i < files.length; i++) {
+            String fn = files[i].getName();
+            if (fn.endsWith(HEADER_SUFFIX))
+                continue;
+            boolean used = false;
+            Iterator j = index.values().iterator();
+            while (!used && j.hasNext())
+                used = fn.equals(((Entry)j.next()).body);
+            if (!used)
+                files[i].delete();
+        }
+        evict(null);
+    }
+
+    protected Entry readHeaders(File f) {
+        Properties p = new Properties();
+        try {
+            InputStream is = new FileInputStream(f);
+            try {
+                p.load(is);
+            } finally {
+                is.close();
+            }
+            Entry e = new Entry();
+            e.key             = p.getProperty("key");
+            e.url             = p.getProperty("url");
+            e.body            = p.getProperty("body");
+            e.contentType     = p.getProperty("contentType");
+            e.contentEncoding = p.getProperty("contentEncoding");
+            e.finalURL        = p.getProperty("finalURL");
+            e.etag            = p.getProperty("etag");
+            e.lastModified    = p.getProperty("lastModified");
+            e.expires         = Long.parseLong(p.getProperty("expires"));
+            e.length          = Long.parseLong(p.getProperty("length"));
+            if ((e.key == null) || (e.url == null) || (e.body == null) ||
+                (e.finalURL == null))
+                return null;
+            e.name = getName(e.key);
+            return e;
+        } catch (IOException ioe) {
+            return null;
+        } catch (RuntimeException re) {
+            return null;
+        }
+    }
+
+    protected void writeHeaders(Entry e) {
+        Properties p = new Properties();
+        p.setProperty("key", e.key);
+        p.setProperty("url", e.url);
+        p.setProperty("body", e.body);
+        p.setProperty("finalURL", e.finalURL);
+        p.setProperty("expires", String.valueOf(e.expires));
+        p.setProperty("length", String.valueOf(e.length));
+        if (e.contentType != null)
+            p.setProperty("contentType", e.contentType);
+        if (e.contentEncoding != null)
+            p.setProperty("contentEncoding", e.contentEncoding);
+        if (e.etag != null)
+            p.setProperty("etag", e.etag);
+        if (e.lastModified != null)
+            p.setProperty("lastModified", e.lastModified);
+        try {
+            OutputStream os = new FileOutputStream
+                (new File(directory, e.name + HEADER_SUFFIX));
+            try {
+                p.store(os, null);
+            } finally {
+                os.close();
+            }
+        } catch (IOException ioe) {
+            // Only the persistence across runs is lost.
+        }
+    }
+
+    protected void deleteFiles(Entry e, boolean headers) {
+        new File(directory, e.body).delete();
+        if (headers)
+            new File(directory, e.name + HEADER_SUFFIX).delete();
+    }
+
+    /**
+     * Returns the key of the resource at <code>url</code> requested
+     * with the given headers.  The representation the server sends
+     * depends on the <code>Accept</code> and
+     * <code>Accept-Encoding</code> headers, so a compressed body
+     * stored for one request is never returned to a request that
+     * can't decode it.
+     */
+    protected static String getKey(URL url, Map requestProperties) {
+        String accept = null;
+        String encoding = null;
+        if (requestProperties != null) {
+            accept   = (String)requestProperties.get("Accept");
+            encoding = (String)requestProperties.get("Accept-Encoding");
+        }
+        return url.toExternalForm() + '\n' +
+            ((accept == null) ? "" : accept) + '\n' +
+            ((encoding == null) ? "" : encoding);
+    }
+
+    /**
+     * Returns the base name of the files of the resource with the
+     * given key.
+     */
+    protected static String getName(String url) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest
+                (url.getBytes("UTF-8"));
+            StringBuffer sb = new StringBuffer(d.length*2);
+            for (int i = 0; i < d.length; i++) {
+                sb.append(Character.forDigit((d[i] >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(d[i] & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+        } catch (IOException ioe) {
+        }
+        return Integer.toHexString(url.hashCode());
+    }
+
+    /**
+     * Returns the maximum total size of the stored resources.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum total size of the stored resources.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict(null);
+    }
+
+    /**
+     * Returns the current total size of the stored resources.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of requests served from the store without
+     * contacting the server.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of stored resources the server confirmed
+     * with a 304 (Not Modified) response.
+     */
+    public synchronized long getRevalidationCount() {
+        return revalidationCount;
+    }
+
+    /**
+     * Returns the number of full responses fetched from the server.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of requests that waited for the fetch of the
+     * same URL by another thread.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Returns the number of responses stored.
+     */
+    public synchronized long getStoreCount() {
+        return storeCount;
+    }
+
+    /**
+     * Returns the number of resources dropped to make room.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * A stored resource.
+     */
+    protected static class Entry {
+        String key;
+        String url;
+        String name;
+        String body;
+        String contentType;
+        String contentEncoding;
+        String finalURL;
+        String etag;
+        String lastModified;
+        long   expires;
+        long   length;
+    }
+
+    /**
+     * A fetch in progress, other requests for the same URL wait on it.
+     */
+    protected static class Fetch {
+        Entry entry;
+        boolean done;
+
+        synchronized void finish() {
+            done = true;
+            notifyAll();
+        }
+
+        synchronized Entry await() throws InterruptedIOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return entry;
+        }
+    }
+}
@@ -95,6 +95,28 @@ public class ParsedURL {
         globalUserAgent = userAgent;
     }
 
+    /**
+     * The cache the resources fetched over the network go through,
+     * null if there is none.
+     */
+    private static ResourceCache resourceCache;
+
+    /**
+     * Returns the cache the resources fetched over the network go
+     * through, or null.
+     */
+    public static synchronized ResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Sets the cache the resources fetched over the network go
+     * through, null to connect directly.
+     */
+    public static synchronized void setResourceCache(ResourceCache cache) {
+        resourceCache = cache;
+    }
+
     /**
      * Returns the shared instance of HandlersMap.  This method is
      * also responsible for initializing the handler map if this is
@@ -26,8 +26,10 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipException;
@@ -519,30 +521,26 @@ loop2:          while (i < len) {
         if (url == null)
             return null;
 
-        URLConnection urlC = url.openConnection();
-        if (urlC instanceof HttpURLConnection) {
-            if (userAgent != null)
-                urlC.setRequestProperty(HTTP_USER_AGENT_HEADER, userAgent);
-
-            if (mimeTypes != null) {
-                String acceptHeader = "";
-                while (mimeTypes.hasNext()) {
-                    acceptHeader += mimeTypes.next();
-                    if (mimeTypes.hasNext())
-                        acceptHeader += ",";
-                }
-                urlC.setRequestProperty(HTTP_ACCEPT_HEADER, acceptHeader);
+        Map requestProperties = getRequestProperties(userAgent, mimeTypes,
+                                                     encodingTypes);
+        ResourceCache cache = ParsedURL.getResourceCache();
+        if (cache != null) {
+            ResourceCache.Resource r = cache.open(url, requestProperties);
+            if (r != null) {
+                contentType       = r.getContentType();
+                contentEncoding   = r.getContentEncoding();
+                postConnectionURL = r.getURL();
+                return (stream = r.getInputStream());
             }
+        }
 
-            if (encodingTypes != null) {
-                String encodingHeader = "";
-                while (encodingTypes.hasNext()) {
-                    encodingHeader += encodingTypes.next();
-                    if (encodingTypes.hasNext())
-                        encodingHeader += ",";
-                }
-                urlC.setRequestProperty(HTTP_ACCEPT_ENCODING_HEADER,
-                                        encodingHeader);
+        URLConnection urlC = url.openConnection();
+        if (urlC instanceof HttpURLConnection) {
+            Iterator i = requestProperties.entrySet().iterator();
+            while (i.hasNext()) {
+                Map.Entry e = (Map.Entry)i.next();
+                urlC.setRequestProperty((String)e.getKey(),
+                                        (String)e.getValue());
             }
 
             contentType       = urlC.getContentType();
@@ -564,6 +562,42 @@ loop2:          while (i < len) {
 
     }
 
+    /**
+     * Returns the headers to send when the resource is fetched over
+     * HTTP, a map from header names to values.
+     * @param userAgent The user agent opening the stream (may be null).
+     * @param mimeTypes The accepted mime types (may be null).
+     * @param encodingTypes The accepted content encodings (may be null).
+     */
+    protected Map getRequestProperties(String userAgent,
+                                       Iterator mimeTypes,
+                                       Iterator encodingTypes) {
+        Map props = new LinkedHashMap();
+        if (userAgent != null)
+            props.put(HTTP_USER_AGENT_HEADER, userAgent);
+
+        if (mimeTypes != null) {
+            String acceptHeader = "";
+            while (mimeTypes.hasNext()) {
+                acceptHeader += mimeTypes.next();
+                if (mimeTypes.hasNext())
+                    acceptHeader += ",";
+            }
+            props.put(HTTP_ACCEPT_HEADER, acceptHeader);
+        }
+
+        if (encodingTypes != null) {
+            String encodingHeader = "";
+            while (encodingTypes.hasNext()) {
+                encodingHeader += encodingTypes.next();
+                if (encodingTypes.hasNext())
+                    encodingHeader += ",";
+            }
+            props.put(HTTP_ACCEPT_ENCODING_HEADER, encodingHeader);
+        }
+        return props;
+    }
+
     /**
      * Returns the URL up to and include the port number on
      * the host.  Does not include the path or fragment pieces.
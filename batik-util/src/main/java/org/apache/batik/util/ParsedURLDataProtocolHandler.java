@@ -172,7 +172,21 @@ public class ParsedURLDataProtocolHandler
         protected InputStream openStreamInternal
             (String userAgent, Iterator mimeTypes, Iterator encodingTypes)
             throws IOException {
-            stream = decode(path);
+            String s = (path == null) ? "" : path;
+            if (BASE64.equals(contentEncoding) && (s.indexOf('%') == -1)) {
+                // Decode the base64 text in one go, the codecs then
+                // read it straight from memory.  Text that isn't well
+                // formed goes through the stream as it always has.
+                int len = s.length();
+                byte[] data =
+                    new byte[Base64DecodeStream.getMaxDecodedLength(len)];
+                len = Base64DecodeStream.decode(s, 0, len, data);
+                if (len != -1) {
+                    stream = new ByteArrayInputStream(data, 0, len);
+                    return stream;
+                }
+            }
+            stream = decode(s);
             if (BASE64.equals(contentEncoding)) {
                 stream = new Base64DecodeStream(stream);
             }
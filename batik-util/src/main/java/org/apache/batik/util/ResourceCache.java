@@ -0,0 +1,104 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A cache for the resources {@link ParsedURL} fetches over the
+ * network.  When one is installed with {@link
+ * ParsedURL#setResourceCache}, {@link ParsedURLData} asks it for the
+ * content of the URLs it opens instead of connecting directly.
+ *
+ * @see DiskResourceCache
+ * @version $Id$
+ */
+public interface ResourceCache {
+
+    /**
+     * Opens <code>url</code>, from the cache if possible.
+     * @param url The URL to open.
+     * @param requestProperties The request headers to send if the
+     *        resource has to be fetched, a map from header names to
+     *        values.
+     * @return the resource, or null if this cache does not handle
+     *         URLs of that kind, in which case the caller connects
+     *         itself.
+     */
+    Resource open(URL url, Map requestProperties) throws IOException;
+
+    /**
+     * The content of a resource, along with the headers
+     * {@link ParsedURLData} keeps.
+     */
+    class Resource {
+
+        protected InputStream stream;
+        protected String contentType;
+        protected String contentEncoding;
+        protected URL url;
+
+        /**
+         * Creates a new Resource.
+         * @param stream The content of the resource.
+         * @param contentType The Content-Type header, may be null.
+         * @param contentEncoding The Content-Encoding header, may be null.
+         * @param url The URL the content was fetched from, after
+         *        redirections.
+         */
+        public Resource(InputStream stream, String contentType,
+                        String contentEncoding, URL url) {
+            this.stream          = stream;
+            this.contentType     = contentType;
+            this.contentEncoding = contentEncoding;
+            this.url             = url;
+        }
+
+        /**
+         * Returns the content of the resource.
+         */
+        public InputStream getInputStream() {
+            return stream;
+        }
+
+        /**
+         * Returns the Content-Type header of the resource.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Returns the Content-Encoding header of the resource.
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Returns the URL the content was fetched from.
+         */
+        public URL getURL() {
+            return url;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package org.apache.batik.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.Arrays;
 
 import org.junit.Test;
 import static org.junit.Assert.assertTrue;
@@ -137,6 +141,94 @@ public class Base64TestCases {
         performTest("B64.26", "ROUND", "large", null);
     }
 
+    @Test
+    public void testB64_27() throws Exception {
+        performDataURLTest("zeroByte.64", "zeroByte");
+    }
+
+    @Test
+    public void testB64_28() throws Exception {
+        performDataURLTest("oneByte.64", "oneByte");
+    }
+
+    @Test
+    public void testB64_29() throws Exception {
+        performDataURLTest("twoByte.64", "twoByte");
+    }
+
+    @Test
+    public void testB64_30() throws Exception {
+        performDataURLTest("tenByte.64", "tenByte");
+    }
+
+    @Test
+    public void testB64_31() throws Exception {
+        performDataURLTest("medium.64", "medium");
+    }
+
+    @Test
+    public void testB64_32() throws Exception {
+        performDataURLTest("medium.pc.64", "medium");
+    }
+
+    @Test
+    public void testB64_33() throws Exception {
+        // Text the bulk decoder rejects must give the same bytes as
+        // the stream.
+        String[] texts = { "aGVsbG8=", "aGVsbA==", "aGVs bG8=\n",
+                           "aGV!bG8=", "a=VsbG8=", "aG=sbG8=",
+                           "aGVsbG8=aGVs", "aGVsbG\u00e98=", "aGVsbG8" };
+        for (int i = 0; i < texts.length; i++) {
+            ParsedURL purl = new ParsedURL
+                ("data:application/octet-stream;base64," + texts[i]);
+            byte[] data = readAll(purl.openStreamRaw());
+            InputStream is = new Base64DecodeStream
+                (ParsedURLDataProtocolHandler.DataParsedURLData.decode
+                 (texts[i]));
+            assertTrue(Arrays.equals(readAll(is), data));
+        }
+    }
+
+    @Test
+    public void testB64_34() throws Exception {
+        // Nothing after the padding is read from the source.
+        InputStream src = new java.io.ByteArrayInputStream
+            ("aGVsbA==tail".getBytes("US-ASCII"));
+        InputStream is = new Base64DecodeStream(src);
+        byte[] buf = new byte[16];
+        int len = 0;
+        int n;
+        while ((n = is.read(buf, len, buf.length-len)) != -1)
+            len += n;
+        assertTrue("hell".equals(new String(buf, 0, len, "US-ASCII")));
+        assertTrue("tail".equals(new String(readAll(src), "US-ASCII")));
+    }
+
+    /**
+     * Decodes the base64 resource 'in' as a data: URL, which is
+     * decoded in bulk rather than through Base64DecodeStream.
+     */
+    private void performDataURLTest(String in, String ref) throws Exception {
+        String text = new String(readAll(getResource(in).openStream()),
+                                 "US-ASCII");
+        ParsedURL purl = new ParsedURL
+            ("data:application/octet-stream;base64," + text);
+        byte[] data = readAll(purl.openStreamRaw());
+        assertTrue(Arrays.equals(readAll(getResource(ref).openStream()),
+                                 data));
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
     private void performTest(String id, String action, String in, String ref) {
         performTestCont(id, action, in != null ? getResource(in) : null, ref != null ? getResource(ref) : null);
     }
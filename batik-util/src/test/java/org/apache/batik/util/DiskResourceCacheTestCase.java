@@ -0,0 +1,283 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the storage, revalidation and coalescing of the
+ * {@link DiskResourceCache} against a local HTTP server.
+ *
+ * @version $Id$
+ */
+public class DiskResourceCacheTestCase {
+
+    protected HttpServer server;
+    protected File directory;
+    protected int requests;
+    protected int notModified;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("batik-cache", "");
+        directory.delete();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (int i = 0; i < files.length; i++)
+                files[i].delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testFreshHit() throws Exception {
+        URL url = serve("/fresh", "max-age=3600", null, 0);
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        assertEquals("/fresh", read(cache, url));
+        assertEquals("/fresh", read(cache, url));
+        assertEquals(1, requests);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getStoreCount());
+        assertEquals("text/plain", cache.open(url, null).getContentType());
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        URL url = serve("/etag", "no-cache", "\"v1\"", 0);
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        assertEquals("/etag", read(cache, url));
+        assertEquals("/etag", read(cache, url));
+        assertEquals(2, requests);
+        assertEquals(1, notModified);
+        assertEquals(1, cache.getRevalidationCount());
+    }
+
+    @Test
+    public void testNoStore() throws Exception {
+        URL url = serve("/nostore", "no-store", "\"v1\"", 0);
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        assertEquals("/nostore", read(cache, url));
+        assertEquals("/nostore", read(cache, url));
+        assertEquals(2, requests);
+        assertEquals(0, cache.getStoreCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        URL url = serve("/persist", "max-age=3600", null, 0);
+        assertEquals("/persist", read(new DiskResourceCache(directory), url));
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        assertEquals("/persist", read(cache, url));
+        assertEquals(1, requests);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        URL a = serve("/a", "max-age=3600", null, 0);
+        URL b = serve("/b", "max-age=3600", null, 0);
+        DiskResourceCache cache = new DiskResourceCache(directory, 3);
+        read(cache, a);
+        read(cache, b);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getSize());
+        read(cache, b);
+        assertEquals(1, cache.getHitCount());
+        read(cache, a);
+        assertEquals(3, requests);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final URL url = serve("/slow", "max-age=3600", null, 500);
+        final DiskResourceCache cache = new DiskResourceCache(directory);
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int idx = i;
+            threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            results[idx] = read(cache, url);
+                        } catch (IOException ioe) {
+                        }
+                    }
+                };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        for (int i = 0; i < results.length; i++)
+            assertEquals("/slow", results[i]);
+        assertEquals(1, requests);
+        assertEquals(results.length - 1, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void testParsedURL() throws Exception {
+        URL url = serve("/purl", "max-age=3600", null, 0);
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        ParsedURL.setResourceCache(cache);
+        try {
+            for (int i = 0; i < 2; i++) {
+                ParsedURL purl = new ParsedURL(url.toString());
+                InputStream is = purl.openStream();
+                assertEquals("/purl", readAll(is));
+                assertEquals("text/plain", purl.getContentType());
+            }
+        } finally {
+            ParsedURL.setResourceCache(null);
+        }
+        assertEquals(1, requests);
+        assertEquals(1, cache.getHitCount());
+        assertNull(cache.open(new URL("file:/tmp/none"), null));
+    }
+
+    @Test
+    public void testCompressedThenRaw() throws Exception {
+        final String path = "/gzip";
+        server.createContext(path, new HttpHandler() {
+                public void handle(HttpExchange ex) throws IOException {
+                    synchronized (DiskResourceCacheTestCase.this) {
+                        requests++;
+                    }
+                    String ae = ex.getRequestHeaders().getFirst
+                        ("Accept-Encoding");
+                    Headers h = ex.getResponseHeaders();
+                    h.set("Content-Type", "text/plain");
+                    h.set("Cache-Control", "max-age=3600");
+                    byte[] body = path.getBytes("UTF-8");
+                    if ((ae != null) && (ae.indexOf("gzip") != -1)) {
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        OutputStream gz = new GZIPOutputStream(bos);
+                        gz.write(body);
+                        gz.close();
+                        body = bos.toByteArray();
+                        h.set("Content-Encoding", "gzip");
+                    }
+                    ex.sendResponseHeaders(200, body.length);
+                    OutputStream os = ex.getResponseBody();
+                    os.write(body);
+                    os.close();
+                }
+            });
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() +
+            path;
+        DiskResourceCache cache = new DiskResourceCache(directory);
+        ParsedURL.setResourceCache(cache);
+        try {
+            assertEquals(path, readAll(new ParsedURL(url).openStream()));
+            assertEquals(path, readAll(new ParsedURL(url).openStreamRaw()));
+            assertEquals(path, readAll(new ParsedURL(url).openStream()));
+            assertEquals(path, readAll(new ParsedURL(url).openStreamRaw()));
+        } finally {
+            ParsedURL.setResourceCache(null);
+        }
+        assertEquals(2, requests);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    /**
+     * Serves the path as its own content.
+     */
+    protected URL serve(final String path, final String cacheControl,
+                        final String etag, final long delay) {
+        server.createContext(path, new HttpHandler() {
+                public void handle(HttpExchange ex) throws IOException {
+                    synchronized (DiskResourceCacheTestCase.this) {
+                        requests++;
+                    }
+                    if (delay > 0) {
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException ie) {
+                        }
+                    }
+                    Headers h = ex.getResponseHeaders();
+                    h.set("Content-Type", "text/plain");
+                    h.set("Cache-Control", cacheControl);
+                    if (etag != null) {
+                        h.set("ETag", etag);
+                        String inm = ex.getRequestHeaders().getFirst
+                            ("If-None-Match");
+                        if (etag.equals(inm)) {
+                            synchronized (DiskResourceCacheTestCase.this) {
+                                notModified++;
+                            }
+                            ex.sendResponseHeaders(304, -1);
+                            ex.close();
+                            return;
+                        }
+                    }
+                    byte[] body = path.getBytes("UTF-8");
+                    ex.sendResponseHeaders(200, body.length);
+                    OutputStream os = ex.getResponseBody();
+                    os.write(body);
+                    os.close();
+                }
+            });
+        try {
+            return new URL("http://127.0.0.1:" +
+                           server.getAddress().getPort() + path);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    protected String read(ResourceCache cache, URL url) throws IOException {
+        return readAll(cache.open(url, new HashMap()).getInputStream());
+    }
+
+    protected String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        int n;
+        while ((n = is.read(buf)) != -1)
+            bos.write(buf, 0, n);
+        is.close();
+        return bos.toString("UTF-8");
+    }
+}